@@ -0,0 +1,58 @@
+/**
+ * Copyright 2016 Netflix, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package com.netflix.dynomitemanager.benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import com.netflix.dynomitemanager.defaultimpl.DynomiteManagerConfiguration;
+
+/**
+ * DynomiteManagerConfiguration getters, which every task and the REST resources call on every run. Each getter
+ * looks at the environment, then Archaius or the config source.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+public class ConfigurationBenchmark {
+
+    private DynomiteManagerConfiguration config;
+
+    @Setup
+    public void setup() {
+        config = LocalConfiguration.create();
+    }
+
+    @Benchmark
+    public String getDynomiteClusterName() {
+        return config.getDynomiteClusterName();
+    }
+
+    @Benchmark
+    public int getDynomitePeerPort() {
+        return config.getDynomitePeerPort();
+    }
+
+    @Benchmark
+    public String getRack() {
+        return config.getRack();
+    }
+
+    @Benchmark
+    public String getDataCenter() {
+        return config.getDataCenter();
+    }
+}
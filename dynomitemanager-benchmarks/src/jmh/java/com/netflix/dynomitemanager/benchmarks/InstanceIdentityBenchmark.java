@@ -0,0 +1,150 @@
+/**
+ * Copyright 2016 Netflix, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package com.netflix.dynomitemanager.benchmarks;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import com.netflix.dynomitemanager.defaultimpl.IConfiguration;
+import com.netflix.dynomitemanager.identity.AppsInstance;
+import com.netflix.dynomitemanager.identity.IAppsInstanceFactory;
+import com.netflix.dynomitemanager.identity.InstanceIdentity;
+import com.netflix.dynomitemanager.sidecore.utils.Sleeper;
+import com.netflix.dynomitemanager.sidecore.utils.TokenManager;
+
+/**
+ * InstanceIdentity.getSeeds(), which formats the seeds Dynomite's florida provider asks for, on clusters of 6, 60 and
+ * 600 nodes. The topology comes from an in-memory IAppsInstanceFactory so that only the formatting is measured.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+public class InstanceIdentityBenchmark {
+
+    @Param({ "6", "60", "600" })
+    public int clusterSize;
+
+    private InstanceIdentity identity;
+
+    @Setup
+    public void setup() throws Exception {
+        IConfiguration config = LocalConfiguration.create();
+        TokenManager tokenManager = new TokenManager();
+
+        final List<AppsInstance> instances = new ArrayList<AppsInstance>();
+        String[] racks = { "us-east-1c", "us-east-1d", "us-east-1e" };
+        int rackSize = clusterSize / racks.length;
+        for (int i = 0; i < clusterSize; i++) {
+            AppsInstance instance = new AppsInstance();
+            instance.setApp(config.getDynomiteClusterName());
+            instance.setId(i);
+            // the first one is this node
+            instance.setInstanceId(i == 0 ? config.getInstanceName() : "i-" + Integer.toHexString(0x1000000 + i));
+            instance.setHost("ec2-10-0-" + (i / 256) + "-" + (i % 256) + ".compute-1.amazonaws.com",
+                    "10.0." + (i / 256) + "." + (i % 256));
+            instance.setRack(racks[i % racks.length]);
+            instance.setZone(racks[i % racks.length]);
+            instance.setDatacenter(config.getDataCenter());
+            instance.setToken(tokenManager.createToken(i / racks.length, rackSize, racks[i % racks.length]));
+            instances.add(instance);
+        }
+
+        identity = new InstanceIdentity(new InMemoryAppsInstanceFactory(instances), null, config, new Sleeper() {
+            @Override
+            public void sleep(long waitTimeMs) {
+            }
+
+            @Override
+            public void sleepQuietly(long waitTimeMs) {
+            }
+        }, tokenManager, null);
+    }
+
+    @Benchmark
+    public List<String> getSeeds() throws Exception {
+        return identity.getSeeds();
+    }
+
+    private static class InMemoryAppsInstanceFactory implements IAppsInstanceFactory {
+
+        private final List<AppsInstance> instances;
+
+        private InMemoryAppsInstanceFactory(List<AppsInstance> instances) {
+            this.instances = instances;
+        }
+
+        @Override
+        public List<AppsInstance> getAllIds(String appName) {
+            return appName.endsWith("-dead") ? Collections.<AppsInstance> emptyList() : instances;
+        }
+
+        @Override
+        public List<AppsInstance> getLocalDCIds(String appName, String region) {
+            return instances;
+        }
+
+        @Override
+        public AppsInstance getInstance(String appName, String dc, int id) {
+            for (AppsInstance instance : instances) {
+                if (instance.getId() == id) {
+                    return instance;
+                }
+            }
+            return null;
+        }
+
+        @Override
+        public AppsInstance create(String app, int id, String instanceID, String hostname, String ip, String rac,
+                Map<String, Object> volumes, String token, String datacenter) {
+            throw new UnsupportedOperationException("the topology is fixed");
+        }
+
+        @Override
+        public void delete(AppsInstance inst) {
+            throw new UnsupportedOperationException("the topology is fixed");
+        }
+
+        @Override
+        public void update(AppsInstance inst) {
+            throw new UnsupportedOperationException("the topology is fixed");
+        }
+
+        @Override
+        public void heartbeat(AppsInstance inst) {
+        }
+
+        @Override
+        public void sort(List<AppsInstance> return_) {
+            Collections.sort(return_, new Comparator<AppsInstance>() {
+                @Override
+                public int compare(AppsInstance a, AppsInstance b) {
+                    return Integer.compare(a.getId(), b.getId());
+                }
+            });
+        }
+
+        @Override
+        public void attachVolumes(AppsInstance instance, String mountPath, String device) {
+        }
+    }
+}
@@ -0,0 +1,51 @@
+/**
+ * Copyright 2016 Netflix, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package com.netflix.dynomitemanager.benchmarks;
+
+import com.netflix.dynomitemanager.defaultimpl.DynomiteManagerConfiguration;
+import com.netflix.dynomitemanager.identity.InstanceEnvIdentity;
+import com.netflix.dynomitemanager.sidecore.MemoryConfigSource;
+import com.netflix.dynomitemanager.sidecore.config.LocalInstanceDataRetriever;
+
+/**
+ * The configuration of a locally deployed node, with nothing fetched from AWS.
+ */
+final class LocalConfiguration {
+
+    private LocalConfiguration() {
+    }
+
+    static DynomiteManagerConfiguration create() {
+        MemoryConfigSource configSource = new MemoryConfigSource();
+        configSource.set("dm.dyno.asg.rack", "false");
+        configSource.set("dm.dyno.rack", "us-east-1c");
+
+        return new DynomiteManagerConfiguration(null, configSource, new LocalInstanceDataRetriever(),
+                new InstanceEnvIdentity() {
+                    @Override
+                    public Boolean isClassic() {
+                        return true;
+                    }
+
+                    @Override
+                    public Boolean isDefaultVpc() {
+                        return false;
+                    }
+
+                    @Override
+                    public Boolean isNonDefaultVpc() {
+                        return false;
+                    }
+                }, null);
+    }
+}
@@ -0,0 +1,88 @@
+/**
+ * Copyright 2016 Netflix, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package com.netflix.dynomitemanager.benchmarks;
+
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import com.netflix.dynomitemanager.sidecore.storage.RedisInfoParser;
+
+/**
+ * RedisInfoParser on INFO replies as published by RedisInfoMetricsTask: the reply of a small node, one with many
+ * keyspace dbs, and one with the commandstats of many commands.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+public class RedisInfoParserBenchmark {
+
+    @Param({ "default", "keyspace", "commandstats" })
+    public String payload;
+
+    private byte[] info;
+    private RedisInfoParser parser;
+
+    @Setup
+    public void setup() throws Exception {
+        String base = readResource("/redis_info.txt");
+        StringBuilder sb = new StringBuilder(base);
+
+        if (payload.equals("keyspace")) {
+            for (int db = 1; db < 256; db++) {
+                sb.append("\r\ndb").append(db).append(":keys=").append(db * 1000).append(",expires=").append(db)
+                        .append(",avg_ttl=").append(db * 37);
+            }
+        } else if (payload.equals("commandstats")) {
+            sb.append("\r\n\r\n# Commandstats");
+            for (int cmd = 0; cmd < 200; cmd++) {
+                sb.append("\r\ncmdstat_command").append(cmd).append(":calls=").append(cmd * 12345)
+                        .append(",usec=").append(cmd * 67890).append(",usec_per_call=").append(cmd % 10)
+                        .append('.').append(cmd % 100);
+            }
+        }
+        sb.append("\r\n");
+
+        info = sb.toString().getBytes(StandardCharsets.UTF_8);
+        parser = new RedisInfoParser();
+        // intern all metrics, as after the first poll
+        parser.parse(info);
+    }
+
+    @Benchmark
+    public int parse() {
+        return parser.parse(info);
+    }
+
+    static String readResource(String name) throws Exception {
+        InputStream in = RedisInfoParserBenchmark.class.getResourceAsStream(name);
+        try {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            byte[] buffer = new byte[4096];
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                out.write(buffer, 0, read);
+            }
+            return new String(out.toByteArray(), StandardCharsets.UTF_8);
+        } finally {
+            in.close();
+        }
+    }
+}
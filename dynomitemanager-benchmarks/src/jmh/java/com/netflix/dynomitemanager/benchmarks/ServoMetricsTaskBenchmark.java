@@ -0,0 +1,81 @@
+/**
+ * Copyright 2016 Netflix, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package com.netflix.dynomitemanager.benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import com.netflix.config.ConfigurationManager;
+import com.netflix.dynomitemanager.InstanceState;
+import com.netflix.dynomitemanager.monitoring.ServoMetricsTask;
+
+/**
+ * ServoMetricsTask on Dynomite /info payloads of clusters with 10, 100 and 1000 peers.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+public class ServoMetricsTaskBenchmark {
+
+    private static final String[] PEER_STATS = { "server_eof", "server_err", "server_timedout",
+            "server_connections", "server_ejected_at", "requests", "request_bytes", "responses", "response_bytes",
+            "in_queue", "in_queue_bytes", "out_queue", "out_queue_bytes" };
+
+    @Param({ "10", "100", "1000" })
+    public int peers;
+
+    private String json;
+    private ServoMetricsTask task;
+
+    @Setup
+    public void setup() throws Exception {
+        // room for every peer metric, the default cap would drop most of
+        // them for 1000 peers
+        ConfigurationManager.getConfigInstance().setProperty("dynomitemanager.metrics.max", 100000);
+
+        StringBuilder sb = new StringBuilder();
+        sb.append("{\"service\":\"dynomite\", \"source\":\"dynomitemanager-i-16ca1846\", \"version\":\"0.5.9\", ")
+                .append("\"uptime\":40439, \"timestamp\":1399064677, \"datacenter\":\"us-east-1\", ")
+                .append("\"latency_max\":1200, \"latency_999th\":900, \"latency_99th\":400, \"latency_95th\":200, ")
+                .append("\"latency_mean\":80, \"payload_size_max\":4096, \"payload_size_mean\":512, ")
+                .append("\"alloc_msgs\":300, \"free_msgs\":250, \"alloc_mbufs\":40, \"free_mbufs\":38, ")
+                .append("\"dyn_o_mite\": {\"client_eof\":3, \"client_err\":0, \"client_connections\":42, ")
+                .append("\"server_ejects\":0, \"forward_error\":0, \"fragments\":0, \"stats_count\":0");
+        for (int peer = 0; peer < peers; peer++) {
+            sb.append(", \"10.").append(peer / 65536).append('.').append(peer / 256 % 256).append('.')
+                    .append(peer % 256).append("\": {");
+            for (int i = 0; i < PEER_STATS.length; i++) {
+                if (i > 0) {
+                    sb.append(", ");
+                }
+                sb.append('"').append(PEER_STATS[i]).append("\":").append(peer * 31 + i);
+            }
+            sb.append('}');
+        }
+        sb.append("}}");
+        json = sb.toString();
+
+        task = new ServoMetricsTask(LocalConfiguration.create(), new InstanceState());
+        // register all metrics, as after the first poll
+        task.processJsonResponse(json);
+    }
+
+    @Benchmark
+    public void processJsonResponse() throws Exception {
+        task.processJsonResponse(json);
+    }
+}
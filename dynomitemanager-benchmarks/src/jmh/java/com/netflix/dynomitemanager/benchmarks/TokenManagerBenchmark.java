@@ -0,0 +1,63 @@
+/**
+ * Copyright 2016 Netflix, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package com.netflix.dynomitemanager.benchmarks;
+
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import com.netflix.dynomitemanager.sidecore.utils.TokenManager;
+
+/**
+ * TokenManager as used when a node acquires its token at boot, for racks of 6, 60 and 600 nodes.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+public class TokenManagerBenchmark {
+
+    @Param({ "6", "60", "600" })
+    public int rackSize;
+
+    private final TokenManager tokenManager = new TokenManager();
+    private List<BigInteger> tokens;
+    private BigInteger search;
+    private int slot;
+
+    @Setup
+    public void setup() {
+        tokens = new ArrayList<BigInteger>();
+        for (int i = 0; i < rackSize; i++) {
+            tokens.add(new BigInteger(tokenManager.createToken(i, rackSize, "us-east-1c")));
+        }
+        search = tokens.get(rackSize / 2).add(BigInteger.valueOf(12345));
+    }
+
+    @Benchmark
+    public String createToken() {
+        slot = (slot + 1) % rackSize;
+        return tokenManager.createToken(slot, 3, rackSize, "us-east-1c");
+    }
+
+    @Benchmark
+    public BigInteger findClosestToken() {
+        return tokenManager.findClosestToken(search, tokens);
+    }
+}
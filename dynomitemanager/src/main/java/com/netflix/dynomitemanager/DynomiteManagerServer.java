@@ -20,10 +20,13 @@ import com.google.inject.Singleton;
 import com.netflix.dynomitemanager.defaultimpl.IConfiguration;
 import com.netflix.dynomitemanager.dynomite.DynomiteYamlTuneTask;
 import com.netflix.dynomitemanager.dynomite.IDynomiteProcess;
+import com.netflix.dynomitemanager.identity.HeartbeatTask;
 import com.netflix.dynomitemanager.identity.InstanceIdentity;
+import com.netflix.dynomitemanager.identity.TopologyRefreshTask;
 import com.netflix.dynomitemanager.monitoring.RedisInfoMetricsTask;
 import com.netflix.dynomitemanager.monitoring.ServoMetricsTask;
 import com.netflix.dynomitemanager.sidecore.aws.UpdateSecuritySettings;
+import com.netflix.dynomitemanager.sidecore.backup.IncrementalBackupTask;
 import com.netflix.dynomitemanager.sidecore.backup.SnapshotTask;
 import com.netflix.dynomitemanager.sidecore.backup.RestoreTask;
 import com.netflix.dynomitemanager.sidecore.scheduler.TaskScheduler;
@@ -161,12 +164,22 @@ public class DynomiteManagerServer {
 	// Backup
 	if (config.isBackupEnabled() && config.getBackupHour() >= 0) {
 	    scheduler.addTask(SnapshotTask.TaskName, SnapshotTask.class, SnapshotTask.getTimer(config));
+	    if (config.isBackupIncrementalEnabled() && config.isRedisAofEnabled()) {
+		scheduler.addTask(IncrementalBackupTask.TaskName, IncrementalBackupTask.class,
+			IncrementalBackupTask.getTimer(config));
+	    }
 	}
 
 	// Metrics
 	scheduler.addTask(ServoMetricsTask.TaskName, ServoMetricsTask.class, ServoMetricsTask.getTimer());
 	scheduler.addTask(RedisInfoMetricsTask.TaskName, RedisInfoMetricsTask.class, RedisInfoMetricsTask.getTimer());
 
+	// Keep the cached cluster topology fresh for seeds and cluster info.
+	scheduler.addTask(TopologyRefreshTask.TaskName, TopologyRefreshTask.class, TopologyRefreshTask.getTimer(config));
+
+	// Tell the other nodes this one is alive, so that its slot is not claimed.
+	scheduler.addTask(HeartbeatTask.TaskName, HeartbeatTask.class, HeartbeatTask.getTimer(config));
+
 	// Routine monitoring and restarting dynomite or storage processes as
 	// needed.
 	scheduler.addTask(ProcessMonitorTask.JOBNAME, ProcessMonitorTask.class, ProcessMonitorTask.getTimer());
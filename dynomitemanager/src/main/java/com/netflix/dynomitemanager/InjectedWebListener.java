@@ -48,8 +48,8 @@ import com.netflix.dynomitemanager.sidecore.aws.AwsRoleAssumptionCredential;
 import com.netflix.dynomitemanager.sidecore.aws.IAMCredential;
 import com.netflix.dynomitemanager.sidecore.backup.Backup;
 import com.netflix.dynomitemanager.sidecore.backup.Restore;
-import com.netflix.dynomitemanager.sidecore.backup.S3Backup;
-import com.netflix.dynomitemanager.sidecore.backup.S3Restore;
+import com.netflix.dynomitemanager.sidecore.backup.LocalBackup;
+import com.netflix.dynomitemanager.sidecore.backup.LocalRestore;
 import com.netflix.dynomitemanager.sidecore.config.InstanceDataRetriever;
 import com.netflix.dynomitemanager.sidecore.config.VpcInstanceDataRetriever;
 import com.netflix.dynomitemanager.sidecore.storage.IStorageProxy;
@@ -143,8 +143,8 @@ public class InjectedWebListener extends GuiceServletContextListener {
 	    bind(ICredential.class).to(IAMCredential.class);
 	    bind(ICredential.class).annotatedWith(Names.named("awsroleassumption")).to(AwsRoleAssumptionCredential.class);
 	    binder().bind(InstanceEnvIdentity.class).to(DefaultVpcInstanceEnvIdentity.class).asEagerSingleton();
-	    bind(Backup.class).to(S3Backup.class);
-	    bind(Restore.class).to(S3Restore.class);
+	    bind(Backup.class).to(LocalBackup.class);
+	    bind(Restore.class).to(LocalRestore.class);
 
 	}
     }
@@ -172,6 +172,10 @@ public class DynomiteManagerConfiguration implements IConfiguration {
     private static final String CONFIG_CASSANDRA_KEYSPACE_NAME = CASSANDRA_PROPS + ".keyspace.name";
     private static final String CONFIG_CASSANDRA_SEEDS = CASSANDRA_PROPS + ".seeds";
     private static final String CONFIG_CASSANDRA_THRIFT_PORT = CASSANDRA_PROPS + ".thrift.port";
+    private static final String CONFIG_TOPOLOGY_REFRESH_INTERVAL = CASSANDRA_PROPS + ".topology.refresh.interval";
+    private static final String CONFIG_HEARTBEAT_INTERVAL = CASSANDRA_PROPS + ".heartbeat.interval";
+    private static final String CONFIG_HEARTBEAT_DEAD_THRESHOLD = CASSANDRA_PROPS + ".heartbeat.dead.threshold";
+    private static final String CONFIG_TOKEN_INDEX_LOOKUP_ENABLED = CASSANDRA_PROPS + ".token.index.lookup.enabled";
 
     // Data store (aka backend)
     // ========================
@@ -234,6 +238,24 @@ public class DynomiteManagerConfiguration implements IConfiguration {
     private static final String CONFIG_BACKUP_SCHEDULE = DYNOMITEMANAGER_PRE + ".dyno.backup.schedule";
     private static final String CONFIG_RESTORE_ENABLED = DYNOMITEMANAGER_PRE + ".dyno.backup.restore.enabled";
     private static final String CONFIG_RESTORE_TIME = DYNOMITEMANAGER_PRE + ".dyno.backup.restore.date";
+    private static final String CONFIG_BACKUP_PART_SIZE = DYNOMITEMANAGER_PRE + ".dyno.backup.part.size";
+    private static final String CONFIG_BACKUP_UPLOAD_THREADS = DYNOMITEMANAGER_PRE + ".dyno.backup.upload.threads";
+    private static final String CONFIG_BACKUP_PART_RETRIES = DYNOMITEMANAGER_PRE + ".dyno.backup.part.retries";
+    private static final String CONFIG_RESTORE_DOWNLOAD_THREADS = DYNOMITEMANAGER_PRE
+	    + ".dyno.backup.restore.download.threads";
+    private static final String CONFIG_BACKUP_COMPRESSION = DYNOMITEMANAGER_PRE + ".dyno.backup.compression";
+    private static final String CONFIG_BACKUP_INCREMENTAL_ENABLED = DYNOMITEMANAGER_PRE
+	    + ".dyno.backup.incremental.enabled";
+    private static final String CONFIG_BACKUP_INCREMENTAL_INTERVAL = DYNOMITEMANAGER_PRE
+	    + ".dyno.backup.incremental.interval";
+    private static final String CONFIG_BACKUP_INCREMENTAL_MAX_INCREMENTS = DYNOMITEMANAGER_PRE
+	    + ".dyno.backup.incremental.max.increments";
+    private static final String CONFIG_BACKUP_INCREMENTAL_MAX_BYTES = DYNOMITEMANAGER_PRE
+	    + ".dyno.backup.incremental.max.bytes";
+    private static final String CONFIG_BACKUP_LOCAL_DIR = DYNOMITEMANAGER_PRE + ".dyno.backup.local.dir";
+    private static final String CONFIG_BACKUP_LOCAL_RETENTION = DYNOMITEMANAGER_PRE + ".dyno.backup.local.retention";
+    private static final String CONFIG_BACKUP_DISKLESS_ENABLED = DYNOMITEMANAGER_PRE + ".dyno.backup.diskless.enabled";
+    private static final String CONFIG_BACKUP_REPORT_ENABLED = DYNOMITEMANAGER_PRE + ".dyno.backup.report.enabled";
 
     // VPC
     private static final String CONFIG_INSTANCE_DATA_RETRIEVER = DYNOMITEMANAGER_PRE + ".instanceDataRetriever";
@@ -283,6 +305,24 @@ public class DynomiteManagerConfiguration implements IConfiguration {
     private static final String DEFAULT_RESTORE_TIME = "20101010";
     private static final String DEFAULT_BACKUP_SCHEDULE = "day";
     private static final int DEFAULT_BACKUP_HOUR = 12;
+    // parts are held in memory while uploaded, one per upload thread
+    private static final long DEFAULT_BACKUP_PART_SIZE = 64L * 1024 * 1024;
+    private static final int DEFAULT_BACKUP_UPLOAD_THREADS = 4;
+    private static final int DEFAULT_BACKUP_PART_RETRIES = 5;
+    private static final int DEFAULT_RESTORE_DOWNLOAD_THREADS = 8;
+    private static final String DEFAULT_BACKUP_COMPRESSION = "none";
+    private static final boolean DEFAULT_BACKUP_INCREMENTAL_ENABLED = false;
+    private static final int DEFAULT_BACKUP_INCREMENTAL_INTERVAL = 60;
+    // bounds the increments a restore replays and the manifest uploaded at
+    // every checkpoint: six hours at the default interval
+    private static final int DEFAULT_BACKUP_INCREMENTAL_MAX_INCREMENTS = 360;
+    private static final long DEFAULT_BACKUP_INCREMENTAL_MAX_BYTES = 1024L * 1024 * 1024;
+    // no local snapshots unless a directory is configured
+    private static final String DEFAULT_BACKUP_LOCAL_DIR = "";
+    private static final int DEFAULT_BACKUP_LOCAL_RETENTION = 2;
+    private static final boolean DEFAULT_BACKUP_DISKLESS_ENABLED = false;
+    // reading the dump once more is opt-in
+    private static final boolean DEFAULT_BACKUP_REPORT_ENABLED = false;
 
     // AWS Dual Account
     private static final boolean DEFAULT_DUAL_ACCOUNT = false;
@@ -308,6 +348,10 @@ public class DynomiteManagerConfiguration implements IConfiguration {
     private static final String DEFAULT_CASSANDRA_KEYSPACE_NAME = "dyno_bootstrap";
     private static final String DEFAULT_CASSANDRA_SEEDS = "127.0.0.1"; // comma separated list
     private static final int DEFAULT_CASSANDRA_THRIFT_PORT = 9160; // 7102;
+    private static final int DEFAULT_TOPOLOGY_REFRESH_INTERVAL = 30; // seconds
+    private static final int DEFAULT_HEARTBEAT_INTERVAL = 10; // seconds
+    private static final int DEFAULT_HEARTBEAT_DEAD_THRESHOLD = 60; // seconds
+    private static final boolean DEFAULT_TOKEN_INDEX_LOOKUP_ENABLED = false;
 
     // Defaults: Data store
     // ====================
@@ -766,6 +810,71 @@ public class DynomiteManagerConfiguration implements IConfiguration {
 	return configSource.get(CONFIG_RESTORE_TIME, DEFAULT_RESTORE_TIME);
     }
 
+    @Override
+    public long getBackupPartSize() {
+	return configSource.get(CONFIG_BACKUP_PART_SIZE, DEFAULT_BACKUP_PART_SIZE);
+    }
+
+    @Override
+    public int getBackupUploadThreads() {
+	return configSource.get(CONFIG_BACKUP_UPLOAD_THREADS, DEFAULT_BACKUP_UPLOAD_THREADS);
+    }
+
+    @Override
+    public int getBackupPartRetries() {
+	return configSource.get(CONFIG_BACKUP_PART_RETRIES, DEFAULT_BACKUP_PART_RETRIES);
+    }
+
+    @Override
+    public int getRestoreDownloadThreads() {
+	return configSource.get(CONFIG_RESTORE_DOWNLOAD_THREADS, DEFAULT_RESTORE_DOWNLOAD_THREADS);
+    }
+
+    @Override
+    public String getBackupCompression() {
+	return configSource.get(CONFIG_BACKUP_COMPRESSION, DEFAULT_BACKUP_COMPRESSION);
+    }
+
+    @Override
+    public boolean isBackupIncrementalEnabled() {
+	return configSource.get(CONFIG_BACKUP_INCREMENTAL_ENABLED, DEFAULT_BACKUP_INCREMENTAL_ENABLED);
+    }
+
+    @Override
+    public int getBackupIncrementalInterval() {
+	return configSource.get(CONFIG_BACKUP_INCREMENTAL_INTERVAL, DEFAULT_BACKUP_INCREMENTAL_INTERVAL);
+    }
+
+    @Override
+    public int getBackupIncrementalMaxIncrements() {
+	return configSource.get(CONFIG_BACKUP_INCREMENTAL_MAX_INCREMENTS, DEFAULT_BACKUP_INCREMENTAL_MAX_INCREMENTS);
+    }
+
+    @Override
+    public long getBackupIncrementalMaxBytes() {
+	return configSource.get(CONFIG_BACKUP_INCREMENTAL_MAX_BYTES, DEFAULT_BACKUP_INCREMENTAL_MAX_BYTES);
+    }
+
+    @Override
+    public String getBackupLocalDir() {
+	return configSource.get(CONFIG_BACKUP_LOCAL_DIR, DEFAULT_BACKUP_LOCAL_DIR);
+    }
+
+    @Override
+    public int getBackupLocalRetention() {
+	return configSource.get(CONFIG_BACKUP_LOCAL_RETENTION, DEFAULT_BACKUP_LOCAL_RETENTION);
+    }
+
+    @Override
+    public boolean isBackupDisklessEnabled() {
+	return configSource.get(CONFIG_BACKUP_DISKLESS_ENABLED, DEFAULT_BACKUP_DISKLESS_ENABLED);
+    }
+
+    @Override
+    public boolean isBackupReportEnabled() {
+	return configSource.get(CONFIG_BACKUP_REPORT_ENABLED, DEFAULT_BACKUP_REPORT_ENABLED);
+    }
+
     // VPC
     @Override
     public String getVpcId() {
@@ -819,6 +928,27 @@ public class DynomiteManagerConfiguration implements IConfiguration {
         return getIntProperty("DM_CASSANDRA_THRIFT_PORT", CONFIG_CASSANDRA_THRIFT_PORT, DEFAULT_CASSANDRA_THRIFT_PORT);
     }
 
+    @Override
+    public int getTopologyRefreshInterval() {
+	return configSource.get(CONFIG_TOPOLOGY_REFRESH_INTERVAL, DEFAULT_TOPOLOGY_REFRESH_INTERVAL);
+    }
+
+    @Override
+    public int getHeartbeatInterval() {
+	return configSource.get(CONFIG_HEARTBEAT_INTERVAL, DEFAULT_HEARTBEAT_INTERVAL);
+    }
+
+    @Override
+    public int getHeartbeatDeadThreshold() {
+	return configSource.get(CONFIG_HEARTBEAT_DEAD_THRESHOLD, DEFAULT_HEARTBEAT_DEAD_THRESHOLD);
+    }
+
+    @Override
+    public boolean isTokenIndexLookupEnabled() {
+        return getBooleanProperty("DM_TOKEN_INDEX_LOOKUP_ENABLED", CONFIG_TOKEN_INDEX_LOOKUP_ENABLED,
+                DEFAULT_TOKEN_INDEX_LOOKUP_ENABLED);
+    }
+
     // Data store (aka backend)
     // ========================
 
@@ -274,6 +274,73 @@ public interface IConfiguration {
 
     public String getRestoreDate();
 
+    /**
+     * @return the size in bytes of the parts a backup is uploaded in
+     */
+    public long getBackupPartSize();
+
+    /**
+     * @return how many parts of a backup are uploaded concurrently
+     */
+    public int getBackupUploadThreads();
+
+    /**
+     * @return how many times the upload of a part is attempted before the backup fails
+     */
+    public int getBackupPartRetries();
+
+    /**
+     * @return how many byte ranges of a backup are downloaded concurrently on restore
+     */
+    public int getRestoreDownloadThreads();
+
+    /**
+     * @return the codec backups are compressed with, "none", "lzf" or "snappy"
+     */
+    public String getBackupCompression();
+
+    /**
+     * @return whether the AOF is backed up incrementally, with a base at each snapshot and the bytes appended to the
+     *         AOF in between
+     */
+    public boolean isBackupIncrementalEnabled();
+
+    /**
+     * @return the number of seconds between incremental backups
+     */
+    public int getBackupIncrementalInterval();
+
+    /**
+     * @return the number of increments after which an incremental backup takes a new base, 0 for no limit
+     */
+    public int getBackupIncrementalMaxIncrements();
+
+    /**
+     * @return the number of bytes of increments after which an incremental backup takes a new base, 0 for no limit
+     */
+    public long getBackupIncrementalMaxBytes();
+
+    /**
+     * @return the directory snapshots are kept in on the node before they are offloaded to S3, empty to back up to S3
+     *         only
+     */
+    public String getBackupLocalDir();
+
+    /**
+     * @return the number of snapshots kept in the local backup directory
+     */
+    public int getBackupLocalRetention();
+
+    /**
+     * @return whether snapshots are streamed to S3 from Redis replication instead of dumped to disk and uploaded
+     */
+    public boolean isBackupDisklessEnabled();
+
+    /**
+     * @return whether the keys of every snapshot are analyzed and the report stored next to the snapshot in S3
+     */
+    public boolean isBackupReportEnabled();
+
     // Cassandra
     // =========
     // Cassandra is used to store the Dynomite cluster topology.
@@ -307,6 +374,37 @@ public interface IConfiguration {
      */
     public String getCassandraSeeds();
 
+    /**
+     * Get how often the cached cluster topology is read again from Cassandra. The topology is also read again right
+     * after this node changes its own entry.
+     *
+     * @return the number of seconds between reads of the cluster topology
+     */
+    public int getTopologyRefreshInterval();
+
+    /**
+     * Get how often this node writes its heartbeat into its token row. A slot whose heartbeat is older than three
+     * intervals is suspect.
+     *
+     * @return the number of seconds between heartbeats
+     */
+    public int getHeartbeatInterval();
+
+    /**
+     * Get how long a slot can go without a heartbeat before it is dead, and its token can be claimed by a new node.
+     *
+     * @return the age in seconds of the last heartbeat of a dead slot
+     */
+    public int getHeartbeatDeadThreshold();
+
+    /**
+     * Get whether token rows that are not found by their row key are looked up with the secondary index. This is only
+     * needed for pre-generated tokens inserted by hand under other row keys, as it queries the whole cluster.
+     *
+     * @return true to look up token rows with the index when their row key is missing
+     */
+    public boolean isTokenIndexLookupEnabled();
+
     // Data store (aka backend)
     // ========================
 
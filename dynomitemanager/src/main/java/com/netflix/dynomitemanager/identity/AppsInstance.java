@@ -19,6 +19,7 @@ public class AppsInstance implements Serializable {
 	private static final long serialVersionUID = 5606412386974488659L;
 	private String hostname;
 	private long updatetime;
+	private long heartbeat;
 	private boolean outOfService;
 
 	private String app;
@@ -125,6 +126,17 @@ public class AppsInstance implements Serializable {
 		this.updatetime = updatetime;
 	}
 
+	/**
+	 * @return when the node of this slot last wrote its heartbeat, in milliseconds, or 0 if there is none
+	 */
+	public long getHeartbeat() {
+		return heartbeat;
+	}
+
+	public void setHeartbeat(long heartbeat) {
+		this.heartbeat = heartbeat;
+	}
+
 	public boolean isOutOfService() {
 		return outOfService;
 	}
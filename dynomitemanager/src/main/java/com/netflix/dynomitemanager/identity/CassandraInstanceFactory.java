@@ -36,30 +36,39 @@ public class CassandraInstanceFactory implements IAppsInstanceFactory {
 
 	IConfiguration config;
 	InstanceDataDAOCassandra dao;
+	TopologyCache topologyCache;
 
 	@Inject
-	public CassandraInstanceFactory(IConfiguration config, InstanceDataDAOCassandra dao) {
+	public CassandraInstanceFactory(IConfiguration config, InstanceDataDAOCassandra dao,
+			TopologyCache topologyCache) {
 		this.config = config;
 		this.dao = dao;
+		this.topologyCache = topologyCache;
 	}
 
+	/**
+	 * @return the instances of the cached topology, sorted by id
+	 */
 	public List<AppsInstance> getAllIds(String appName) {
-		List<AppsInstance> return_ = new ArrayList<AppsInstance>();
-		for (AppsInstance instance : dao.getAllInstances(appName)) {
-			return_.add(instance);
-		}
+		return new ArrayList<AppsInstance>(topologyCache.get(appName).getInstances());
+	}
 
-		sort(return_);
-		return return_;
+	/**
+	 * @return the instances read from Cassandra now, sorted by id
+	 */
+	public List<AppsInstance> refreshIds(String appName) {
+		return new ArrayList<AppsInstance>(topologyCache.refresh(appName).getInstances());
 	}
 
+	/**
+	 * @return the instances of the cached topology in the given datacenter, sorted by id
+	 */
 	public List<AppsInstance> getLocalDCIds(String appName, String region) {
 		List<AppsInstance> return_ = new ArrayList<AppsInstance>();
-		for (AppsInstance instance : dao.getLocalDCInstances(appName, region)) {
-			return_.add(instance);
+		for (AppsInstance instance : topologyCache.get(appName).getInstances()) {
+			if (instance.getDatacenter().equals(region))
+				return_.add(instance);
 		}
-
-		sort(return_);
 		return return_;
 	}
 
@@ -76,6 +85,10 @@ public class CassandraInstanceFactory implements IAppsInstanceFactory {
 		Collections.sort(return_, comparator);
 	}
 
+	/**
+	 * Writes the row of the instance, then reads it back: the slot is only claimed if the row read back is the
+	 * instance's, otherwise it fails with a LockContentionException as cause, to be claimed again.
+	 */
 	public AppsInstance create(String app, int id, String instanceID, String hostname, String ip, String zone,
 			Map<String, Object> volumes, String payload, String rack) {
 		try {
@@ -100,10 +113,16 @@ public class CassandraInstanceFactory implements IAppsInstanceFactory {
 			//     dao.deleteInstanceEntry(oldData);
 			//}
 			dao.createInstanceEntry(ins);
+			AppsInstance written = dao.getInstance(app, rack, id);
+			if (written == null || !instanceID.equals(written.getInstanceId()))
+				throw new LockContentionException(String.format("Slot %d was not claimed, it belongs to %s", id,
+						written == null ? "no instance" : written.getInstanceId()), 2);
 			return ins;
 		} catch (Exception e) {
 			logger.error(e.getMessage());
 			throw new RuntimeException(e);
+		} finally {
+			topologyCache.invalidate(app);
 		}
 	}
 
@@ -112,6 +131,8 @@ public class CassandraInstanceFactory implements IAppsInstanceFactory {
 			dao.deleteInstanceEntry(inst);
 		} catch (Exception e) {
 			throw new RuntimeException(e);
+		} finally {
+			topologyCache.invalidate(inst.getApp());
 		}
 	}
 
@@ -120,6 +141,19 @@ public class CassandraInstanceFactory implements IAppsInstanceFactory {
 			dao.createInstanceEntry(inst);
 		} catch (Exception e) {
 			throw new RuntimeException(e);
+		} finally {
+			topologyCache.invalidate(inst.getApp());
+		}
+	}
+
+	/**
+	 * Does not invalidate the cached topology: heartbeats are read with the next refresh.
+	 */
+	public void heartbeat(AppsInstance inst) {
+		try {
+			dao.writeHeartbeat(inst, System.currentTimeMillis());
+		} catch (Exception e) {
+			throw new RuntimeException(e);
 		}
 	}
 
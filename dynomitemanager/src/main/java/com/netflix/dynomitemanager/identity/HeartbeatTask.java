@@ -0,0 +1,132 @@
+/**
+ * Copyright 2016 Netflix, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package com.netflix.dynomitemanager.identity;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+import com.netflix.dynomitemanager.defaultimpl.IConfiguration;
+import com.netflix.dynomitemanager.identity.TopologyCache.Topology;
+import com.netflix.dynomitemanager.monitoring.SampledGauge;
+import com.netflix.dynomitemanager.sidecore.scheduler.SimpleTimer;
+import com.netflix.dynomitemanager.sidecore.scheduler.Task;
+import com.netflix.dynomitemanager.sidecore.scheduler.TaskTimer;
+import com.netflix.servo.DefaultMonitorRegistry;
+
+/**
+ * Writes the heartbeat of this node into its token row, and publishes how many slots of the cluster are live, suspect
+ * or dead, and how old the oldest heartbeat is.
+ */
+@Singleton
+public class HeartbeatTask extends Task {
+	private static final Logger logger = LoggerFactory.getLogger(HeartbeatTask.class);
+
+	public static final String TaskName = "Heartbeat-Task";
+
+	private static final String METRIC_PREFIX = "dynomitemanager__heartbeat__";
+
+	private final InstanceIdentity ii;
+	private final IAppsInstanceFactory factory;
+	private final TopologyCache topologyCache;
+
+	private volatile long live;
+	private volatile long suspect;
+	private volatile long dead;
+	private volatile long maxAgeMs;
+
+	@Inject
+	public HeartbeatTask(IConfiguration config, InstanceIdentity ii, IAppsInstanceFactory factory,
+			TopologyCache topologyCache) {
+		super(config);
+		this.ii = ii;
+		this.factory = factory;
+		this.topologyCache = topologyCache;
+		registerMetrics();
+	}
+
+	@Override
+	public void execute() throws Exception {
+		AppsInstance me = ii.getInstance();
+		// the ages are taken when the topology was read, not now, so that a cached topology does not look late
+		Topology topology = topologyCache.get(config.getDynomiteClusterName());
+		boolean owner = true;
+		int l = 0, s = 0, d = 0;
+		long oldest = 0;
+		for (AppsInstance ins : topology.getInstances()) {
+			if (me != null && ins.getId() == me.getId() && ins.getRack().equals(me.getRack())
+					&& !ins.getInstanceId().equals(me.getInstanceId())) {
+				owner = false;
+				logger.error(String.format("Slot %d of rack %s was claimed by %s, not writing heartbeats",
+						me.getId(), me.getRack(), ins.getInstanceId()));
+			}
+			switch (ii.getSlotState(ins, null, topology.getTime())) {
+			case LIVE:
+				l++;
+				break;
+			case SUSPECT:
+				s++;
+				break;
+			case DEAD:
+				d++;
+				break;
+			}
+			if (ins.getHeartbeat() > 0)
+				oldest = Math.max(oldest, topology.getTime() - ins.getHeartbeat());
+		}
+		live = l;
+		suspect = s;
+		dead = d;
+		maxAgeMs = oldest;
+
+		if (me != null && !me.isOutOfService() && owner)
+			factory.heartbeat(me);
+	}
+
+	@Override
+	public String getName() {
+		return TaskName;
+	}
+
+	public static TaskTimer getTimer(IConfiguration config) {
+		return new SimpleTimer(TaskName, Math.max(1, config.getHeartbeatInterval()) * 1000L);
+	}
+
+	private void registerMetrics() {
+		DefaultMonitorRegistry.getInstance().register(new SampledGauge(METRIC_PREFIX + "live") {
+			@Override
+			protected long sample() {
+				return live;
+			}
+		});
+		DefaultMonitorRegistry.getInstance().register(new SampledGauge(METRIC_PREFIX + "suspect") {
+			@Override
+			protected long sample() {
+				return suspect;
+			}
+		});
+		DefaultMonitorRegistry.getInstance().register(new SampledGauge(METRIC_PREFIX + "dead") {
+			@Override
+			protected long sample() {
+				return dead;
+			}
+		});
+		DefaultMonitorRegistry.getInstance().register(new SampledGauge(METRIC_PREFIX + "max_age_ms") {
+			@Override
+			protected long sample() {
+				return maxAgeMs;
+			}
+		});
+	}
+}
@@ -29,6 +29,14 @@ public interface IAppsInstanceFactory {
 	 */
 	public List<AppsInstance> getAllIds(String appName);
 
+	/**
+	 * Return a list of all Dynomite server nodes read from the database now, rather than from a cache that may be
+	 * several refresh intervals old.
+	 * @param appName the cluster name
+	 * @return a list of all nodes in {@code appName}
+	 */
+	public List<AppsInstance> refreshIds(String appName);
+
 	/**
 	 * Return a list of Local Dynomite server nodes registered.
 	 * @param appName the cluster name
@@ -74,6 +82,12 @@ public interface IAppsInstanceFactory {
 	 */
 	public void update(AppsInstance inst);
 
+	/**
+	 * Write the heartbeat of the server node in registry, with the current time
+	 * @param inst the node that is alive
+	 */
+	public void heartbeat(AppsInstance inst);
+
 	/**
 	 * Sort the list by instance ID
 	 * @param return_ the list of nodes to sort
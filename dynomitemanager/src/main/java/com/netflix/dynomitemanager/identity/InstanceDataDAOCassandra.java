@@ -23,13 +23,14 @@ import com.netflix.astyanax.Keyspace;
 import com.netflix.astyanax.MutationBatch;
 import com.netflix.astyanax.connectionpool.Host;
 import com.netflix.astyanax.connectionpool.NodeDiscoveryType;
-import com.netflix.astyanax.connectionpool.OperationResult;
 import com.netflix.astyanax.connectionpool.exceptions.ConnectionException;
 import com.netflix.astyanax.connectionpool.impl.ConnectionPoolConfigurationImpl;
 import com.netflix.astyanax.connectionpool.impl.ConnectionPoolType;
 import com.netflix.astyanax.connectionpool.impl.CountingConnectionPoolMonitor;
 import com.netflix.astyanax.impl.AstyanaxConfigurationImpl;
 import com.netflix.astyanax.model.*;
+import com.netflix.astyanax.shallows.EmptyColumnList;
+import com.netflix.astyanax.query.PreparedCqlQuery;
 import com.netflix.astyanax.serializers.StringSerializer;
 import com.netflix.astyanax.thrift.ThriftFamilyFactory;
 import com.netflix.astyanax.util.TimeUUIDUtils;
@@ -55,6 +56,7 @@ public class InstanceDataDAOCassandra {
 	private String CN_LOCATION = "location";
 	private String CN_VOLUME_PREFIX = "ssVolumes";
 	private String CN_UPDATETIME = "updatetime";
+	private String CN_HEARTBEAT = "heartbeat";
 	private String CF_NAME_TOKENS = "tokens";
 	private String CF_NAME_LOCKS = "locks";
 
@@ -65,6 +67,11 @@ public class InstanceDataDAOCassandra {
 	private final String KS_NAME;
 	private final int thriftPortForAstyanax;
 	private final AstyanaxContext<Keyspace> ctx;
+	// the tokens column family, for CQL queries
+	private final ColumnFamily<String, String> CF_TOKENS_CQL;
+	private final String SELECT_BY_APP;
+	private final String SELECT_BY_APP_RACK_ID;
+	private final String SELECT_BY_APP_ID_LOCATION_RACK;
 
 	/*
 	 * Schema: create column family tokens with comparator=UTF8Type and
@@ -75,7 +82,8 @@ public class InstanceDataDAOCassandra {
 	 * {column_name: hostname, validation_class: UTF8Type},{column_name: Id,
 	 * validation_class: UTF8Type}, {column_name: elasticIP, validation_class:
 	 * UTF8Type}, {column_name: updatetime, validation_class: TimeUUIDType},
-	 * {column_name: location, validation_class: UTF8Type}];
+	 * {column_name: location, validation_class: UTF8Type}, {column_name:
+	 * heartbeat, validation_class: UTF8Type}];
 	 */
 	public ColumnFamily<String, String> CF_TOKENS = new ColumnFamily<String, String>(CF_NAME_TOKENS,
 			StringSerializer.get(), StringSerializer.get());
@@ -113,20 +121,38 @@ public class InstanceDataDAOCassandra {
 
 		ctx.start();
 		bootKeyspace = ctx.getClient();
+
+		CF_TOKENS_CQL = ColumnFamily.newColumnFamily(KS_NAME, StringSerializer.get(), StringSerializer.get());
+		// prepared once by Cassandra, with the values bound on each query
+		String select = "SELECT * FROM " + CF_NAME_TOKENS + " USING CONSISTENCY LOCAL_QUORUM WHERE " + CN_APPID
+				+ " = ?";
+		SELECT_BY_APP = select;
+		SELECT_BY_APP_RACK_ID = select + " and " + CN_DC + " = ? and " + CN_ID + " = ?";
+		SELECT_BY_APP_ID_LOCATION_RACK = select + " and " + CN_ID + " = ? and " + CN_LOCATION + " = ? and " + CN_DC
+				+ " = ?";
 	}
 
+	/**
+	 * Writes the row of the instance, under the lock of its slot taken by the instance. A slot that already has a row
+	 * is left as it is if the row is the instance's, and fails with a LockContentionException if it belongs to
+	 * another instance, which may have claimed it since it was read.
+	 */
 	public void createInstanceEntry(AppsInstance instance) throws Exception {
 		logger.info("*** Creating New Instance Entry ***");
 		String key = getRowKey(instance);
-		// If the key exists throw exception
-		if (getInstance(instance.getApp(), instance.getRack(), instance.getId()) != null) {
-			logger.info(String.format("Key already exists: %s", key));
-			return;
-		}
-
-		getLock(instance);
+		getLock(instance, instance.getInstanceId());
 
 		try {
+			// read under the lock, so that a row written by another claimant is seen
+			AppsInstance existing = getInstance(instance.getApp(), instance.getRack(), instance.getId());
+			if (existing != null) {
+				if (!instance.getInstanceId().equals(existing.getInstanceId()))
+					throw new LockContentionException(String.format("Slot %s already belongs to %s", key,
+							existing.getInstanceId()), 2);
+				logger.info(String.format("Key already exists: %s", key));
+				return;
+			}
+
 			MutationBatch m = bootKeyspace.prepareMutationBatch();
 			ColumnListMutation<String> clm = m.withRow(CF_TOKENS, key);
 			clm.putColumn(CN_ID, Integer.toString(instance.getId()), null);
@@ -139,6 +165,8 @@ public class InstanceDataDAOCassandra {
 			clm.putColumn(CN_TOKEN, instance.getToken(), null);
 			clm.putColumn(CN_LOCATION, instance.getDatacenter(), null);
 			clm.putColumn(CN_UPDATETIME, TimeUUIDUtils.getUniqueTimeUUIDinMicros(), null);
+			// alive from the start, so that no other node claims the slot before the first heartbeat
+			clm.putColumn(CN_HEARTBEAT, Long.toString(System.currentTimeMillis()), getHeartbeatTtl());
 			Map<String, Object> volumes = instance.getVolumes();
 			if (volumes != null) {
 				for (String path : volumes.keySet()) {
@@ -147,10 +175,8 @@ public class InstanceDataDAOCassandra {
 				}
 			}
 			m.execute();
-		} catch (Exception e) {
-			logger.info(e.getMessage());
 		} finally {
-			releaseLock(instance);
+			releaseLock(instance, instance.getInstanceId());
 		}
 	}
 
@@ -159,63 +185,110 @@ public class InstanceDataDAOCassandra {
 	 * no contenders. If there are bail out. Also delete the column when bailing
 	 * out. - Once there are no contenders, grab the lock if it is not already
 	 * taken.
+	 *
+	 * Everything is read and written at LOCAL_QUORUM, so that a read sees the
+	 * writes made before it without waiting: the contenders and the holder of
+	 * the lock are read at once, and the lock is checked right after it is
+	 * written.
+	 *
+	 * The lock is on the slot of the instance, and taken under the id of the
+	 * locker: instances claiming the slot of a dead one each write their own
+	 * column, so that they see each other.
 	 */
-	private void getLock(AppsInstance instance) throws Exception {
+	private void getLock(AppsInstance instance, String locker) throws Exception {
 
 		String choosingkey = getChoosingKey(instance);
-		MutationBatch m = bootKeyspace.prepareMutationBatch();
+		String lockKey = getLockingKey(instance);
+		MutationBatch m = prepareLockMutation();
 		ColumnListMutation<String> clm = m.withRow(CF_LOCKS, choosingkey);
 
 		// Expire in 6 sec
-		clm.putColumn(instance.getInstanceId(), instance.getInstanceId(), new Integer(6));
+		clm.putColumn(locker, locker, new Integer(6));
 		m.execute();
-		int count = bootKeyspace.prepareQuery(CF_LOCKS).getKey(choosingkey).getCount().execute().getResult();
+		Rows<String, String> rows = bootKeyspace.prepareQuery(CF_LOCKS)
+				.setConsistencyLevel(ConsistencyLevel.CL_LOCAL_QUORUM).getKeySlice(choosingkey, lockKey).execute()
+				.getResult();
+		int count = columnsOf(rows, choosingkey).size();
 		if (count > 1) {
 			// Need to delete my entry
-			m.withRow(CF_LOCKS, choosingkey).deleteColumn(instance.getInstanceId());
-			m.execute();
-			throw new Exception(String.format("More than 1 contender for lock %s %d", choosingkey, count));
+			releaseLock(instance, locker);
+			throw new LockContentionException(String.format("More than 1 contender for lock %s %d", choosingkey,
+					count), count);
 		}
 
-		String lockKey = getLockingKey(instance);
-		OperationResult<ColumnList<String>> result = bootKeyspace.prepareQuery(CF_LOCKS).getKey(lockKey)
-				.execute();
-		if (result.getResult().size() > 0 && !result.getResult().getColumnByIndex(0).getName()
-				.equals(instance.getInstanceId()))
-			throw new Exception(String.format("Lock already taken %s", lockKey));
+		ColumnList<String> lock = columnsOf(rows, lockKey);
+		if (lock.size() > 0 && !lock.getColumnByIndex(0).getName().equals(locker)) {
+			releaseLock(instance, locker);
+			throw new LockContentionException(String.format("Lock already taken %s", lockKey), 2);
+		}
 
+		m = prepareLockMutation();
 		clm = m.withRow(CF_LOCKS, lockKey);
-		clm.putColumn(instance.getInstanceId(), instance.getInstanceId(), new Integer(600));
+		clm.putColumn(locker, locker, new Integer(600));
 		m.execute();
-		Thread.sleep(100);
-		result = bootKeyspace.prepareQuery(CF_LOCKS).getKey(lockKey).execute();
-		if (result.getResult().size() == 1 && result.getResult().getColumnByIndex(0).getName()
-				.equals(instance.getInstanceId())) {
+		lock = bootKeyspace.prepareQuery(CF_LOCKS).setConsistencyLevel(ConsistencyLevel.CL_LOCAL_QUORUM)
+				.getKey(lockKey).execute().getResult();
+		if (lock.size() == 1 && lock.getColumnByIndex(0).getName().equals(locker)) {
 			logger.info("Got lock " + lockKey);
 			return;
-		} else
-			throw new Exception(String.format("Cannot insert lock %s", lockKey));
-
+		}
+		releaseLock(instance, locker);
+		throw new LockContentionException(String.format("Cannot insert lock %s", lockKey), Math.max(2, lock.size()));
 	}
 
-	private void releaseLock(AppsInstance instance) throws Exception {
+	private void releaseLock(AppsInstance instance, String locker) throws Exception {
 		String choosingkey = getChoosingKey(instance);
-		MutationBatch m = bootKeyspace.prepareMutationBatch();
-		ColumnListMutation<String> clm = m.withRow(CF_LOCKS, choosingkey);
+		MutationBatch m = prepareLockMutation();
 
-		m.withRow(CF_LOCKS, choosingkey).deleteColumn(instance.getInstanceId());
+		m.withRow(CF_LOCKS, choosingkey).deleteColumn(locker);
 		m.execute();
 	}
 
+	private MutationBatch prepareLockMutation() {
+		return bootKeyspace.prepareMutationBatch().setConsistencyLevel(ConsistencyLevel.CL_LOCAL_QUORUM);
+	}
+
+	private static ColumnList<String> columnsOf(Rows<String, String> rows, String key) {
+		Row<String, String> row = rows.getRow(key);
+		return row == null ? new EmptyColumnList<String>() : row.getColumns();
+	}
+
+	/**
+	 * Writes the time of the heartbeat into the row of the instance. The column expires long after the slot is
+	 * dead, so that slots of nodes that stopped long ago are told apart by the ASG alone.
+	 */
+	public void writeHeartbeat(AppsInstance instance, long time) throws Exception {
+		MutationBatch m = bootKeyspace.prepareMutationBatch();
+		m.withRow(CF_TOKENS, getRowKey(instance)).putColumn(CN_HEARTBEAT, Long.toString(time), getHeartbeatTtl());
+		m.execute();
+	}
+
+	private Integer getHeartbeatTtl() {
+		return 10 * config.getHeartbeatDeadThreshold();
+	}
+
+	/**
+	 * Deletes the row of the instance, under the lock of its slot taken by this node, if the slot still belongs to
+	 * the instance: another node may have claimed it since it was read, which fails with a LockContentionException.
+	 */
 	public void deleteInstanceEntry(AppsInstance instance) throws Exception {
 		// Acquire the lock first
-		getLock(instance);
+		String locker = config.getInstanceName();
+		getLock(instance, locker);
 
 		// Delete the row
 		String key = findKey(instance.getApp(), String.valueOf(instance.getId()), instance.getDatacenter(),
 				instance.getRack());
-		if (key == null)
+		ColumnList<String> columns = key == null ? null : getRow(key);
+		if (columns == null || !isInstance(columns)) {
+			releaseLock(instance, locker);
 			return;  //don't fail it
+		}
+		String owner = columns.getStringValue(CN_INSTANCEID, null);
+		if (!instance.getInstanceId().equals(owner)) {
+			releaseLock(instance, locker);
+			throw new LockContentionException(String.format("Slot %s now belongs to %s", key, owner), 2);
+		}
 
 		MutationBatch m = bootKeyspace.prepareMutationBatch();
 		m.withRow(CF_TOKENS, key).delete();
@@ -236,69 +309,61 @@ public class InstanceDataDAOCassandra {
 
 	}
 
+	/**
+	 * Reads the row of the instance by its key, an empty row being absent. Rows whose key is not app_rack_id, such as
+	 * pre-generated tokens inserted by hand, are only looked up with the index if isTokenIndexLookupEnabled().
+	 */
 	public AppsInstance getInstance(String app, String rack, int id) {
-		Set<AppsInstance> set = getAllInstances(app);
-		for (AppsInstance ins : set) {
-			if (ins.getId() == id && ins.getRack().equals(rack))
-				return ins;
-		}
-		return null;
-	}
-
-	public Set<AppsInstance> getLocalDCInstances(String app, String region) {
-		Set<AppsInstance> set = getAllInstances(app);
-		Set<AppsInstance> returnSet = new HashSet<AppsInstance>();
+		try {
+			ColumnList<String> columns = getRow(app + "_" + rack + "_" + id);
+			if (isInstance(columns))
+				return transform(columns);
+			if (!config.isTokenIndexLookupEnabled())
+				return null;
 
-		for (AppsInstance ins : set) {
-			if (ins.getDatacenter().equals(region))
-				returnSet.add(ins);
+			Rows<String, String> rows = select(SELECT_BY_APP_RACK_ID, app, rack, Integer.toString(id));
+			for (Row<String, String> row : rows) {
+				if (!row.getColumns().isEmpty())
+					return transform(row.getColumns());
+			}
+			return null;
+		} catch (Exception e) {
+			logger.warn("Caught an Unknown Exception during reading instance " + app + "_" + rack + "_" + id
+					+ " ... -> " + e.getMessage());
+			throw new RuntimeException(e);
 		}
-		return returnSet;
 	}
 
 	public Set<AppsInstance> getAllInstances(String app) {
-		Set<AppsInstance> set = new HashSet<AppsInstance>();
 		try {
-
-			final String selectClause = String
-					.format("SELECT * FROM %s USING CONSISTENCY LOCAL_QUORUM WHERE %s = '%s' ",
-							CF_NAME_TOKENS, CN_APPID, app);
-			logger.debug(selectClause);
-
-			final ColumnFamily<String, String> CF_TOKENS_NEW = ColumnFamily
-					.newColumnFamily(KS_NAME, StringSerializer.get(), StringSerializer.get());
-
-			OperationResult<CqlResult<String, String>> result = bootKeyspace.prepareQuery(CF_TOKENS_NEW)
-					.withCql(selectClause).execute();
-
-			for (Row<String, String> row : result.getResult().getRows())
-				set.add(transform(row.getColumns()));
+			return transform(select(SELECT_BY_APP, app));
 		} catch (Exception e) {
 			logger.warn("Caught an Unknown Exception during reading msgs ... -> " + e.getMessage());
 			throw new RuntimeException(e);
 		}
-		return set;
 	}
 
+	/**
+	 * Finds the row of the instance by its key, or with the index if isTokenIndexLookupEnabled().
+	 *
+	 * @param datacenter
+	 *            the rack of the instance, as stored in the datacenter column
+	 */
 	public String findKey(String app, String id, String location, String datacenter) {
 		try {
-			final String selectClause = String
-					.format("SELECT * FROM %s USING CONSISTENCY LOCAL_QUORUM WHERE %s = '%s' and %s = '%s' and %s = '%s' and %s = '%s' ",
-							"tokens", CN_APPID, app, CN_ID, id, CN_LOCATION, location,
-							CN_DC, datacenter);
-			logger.info(selectClause);
-
-			final ColumnFamily<String, String> CF_INSTANCES_NEW = ColumnFamily
-					.newColumnFamily(KS_NAME, StringSerializer.get(), StringSerializer.get());
-
-			OperationResult<CqlResult<String, String>> result = bootKeyspace.prepareQuery(CF_INSTANCES_NEW)
-					.withCql(selectClause).execute();
-
-			if (result == null || result.getResult().getRows().size() == 0)
+			String key = app + "_" + datacenter + "_" + id;
+			ColumnList<String> columns = getRow(key);
+			if (!columns.isEmpty() && location != null && location.equals(columns.getStringValue(CN_LOCATION, null)))
+				return key;
+			if (!config.isTokenIndexLookupEnabled())
 				return null;
 
-			Row<String, String> row = result.getResult().getRows().getRowByIndex(0);
-			return row.getKey();
+			Rows<String, String> rows = select(SELECT_BY_APP_ID_LOCATION_RACK, app, id, location, datacenter);
+			for (Row<String, String> row : rows) {
+				if (!row.getColumns().isEmpty())
+					return row.getKey();
+			}
+			return null;
 
 		} catch (Exception e) {
 			logger.warn("Caught an Unknown Exception during find a row matching cluster[" + app +
@@ -308,6 +373,29 @@ public class InstanceDataDAOCassandra {
 
 	}
 
+	private ColumnList<String> getRow(String key) throws ConnectionException {
+		return bootKeyspace.prepareQuery(CF_TOKENS).setConsistencyLevel(ConsistencyLevel.CL_LOCAL_QUORUM).getKey(key)
+				.execute().getResult();
+	}
+
+	private Rows<String, String> select(String cql, String... values) throws ConnectionException {
+		logger.debug(cql + " " + Arrays.toString(values));
+		PreparedCqlQuery<String, String> query = bootKeyspace.prepareQuery(CF_TOKENS_CQL).withCql(cql)
+				.asPreparedStatement();
+		for (String value : values)
+			query = query.withStringValue(value);
+		return query.execute().getResult().getRows();
+	}
+
+	private Set<AppsInstance> transform(Rows<String, String> rows) {
+		Set<AppsInstance> set = new HashSet<AppsInstance>();
+		for (Row<String, String> row : rows) {
+			if (isInstance(row.getColumns()))
+				set.add(transform(row.getColumns()));
+		}
+		return set;
+	}
+
 	private AppsInstance transform(ColumnList<String> columns) {
 		AppsInstance ins = new AppsInstance();
 		Map<String, String> cmap = new HashMap<String, String>();
@@ -327,9 +415,19 @@ public class InstanceDataDAOCassandra {
 		ins.setDatacenter(cmap.get(CN_LOCATION));
 		ins.setRack(cmap.get(CN_DC));
 		ins.setToken(cmap.get(CN_TOKEN));
+		if (cmap.get(CN_HEARTBEAT) != null)
+			ins.setHeartbeat(Long.parseLong(cmap.get(CN_HEARTBEAT)));
 		return ins;
 	}
 
+	/**
+	 * Deleted rows come back without columns, and rows of deleted slots may still have a heartbeat written after the
+	 * delete, until it expires.
+	 */
+	private boolean isInstance(ColumnList<String> columns) {
+		return columns.getStringValue(CN_ID, null) != null;
+	}
+
 	private String getChoosingKey(AppsInstance instance) {
 		return instance.getApp() + "_" + instance.getRack() + "_" + instance.getId() + "-choosing";
 	}
@@ -13,21 +13,18 @@
 package com.netflix.dynomitemanager.identity;
 
 import java.net.UnknownHostException;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
-import java.util.HashMap;
 import java.util.LinkedList;
 import java.util.List;
-import java.util.Random;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ThreadLocalRandom;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import com.google.common.base.Predicate;
-import com.google.common.base.Supplier;
-import com.google.common.collect.ListMultimap;
-import com.google.common.collect.Lists;
-import com.google.common.collect.Multimaps;
 import com.google.inject.Inject;
 import com.google.inject.Singleton;
 import com.netflix.dynomitemanager.sidecore.utils.ITokenManager;
@@ -39,6 +36,8 @@ import com.netflix.dynomitemanager.identity.IAppsInstanceFactory;
 import com.netflix.dynomitemanager.identity.IMembership;
 import com.netflix.dynomitemanager.identity.InstanceEnvIdentity;
 import com.netflix.dynomitemanager.identity.InstanceIdentity;
+import com.netflix.dynomitemanager.monitoring.SampledGauge;
+import com.netflix.servo.DefaultMonitorRegistry;
 
 /**
  * This class provides the central place to create and consume the identity of
@@ -51,12 +50,13 @@ public class InstanceIdentity {
     private static final Logger logger = LoggerFactory.getLogger(InstanceIdentity.class);
     private static final String DUMMY_INSTANCE_ID = "new_slot";
 
-    private final ListMultimap<String, AppsInstance> locMap = Multimaps
-	    .newListMultimap(new HashMap<String, Collection<AppsInstance>>(), new Supplier<List<AppsInstance>>() {
-		public List<AppsInstance> get() {
-		    return Lists.newArrayList();
-		}
-	    });
+    private static final String METRIC_PREFIX = "dynomitemanager__token__";
+
+    // backoff after a lock conflict, doubled on every conflict and scaled by the number of contenders
+    private static final long MIN_CONTENTION_BACKOFF_MS = 250;
+    private static final long MAX_CONTENTION_BACKOFF_MS = 15000;
+    private static final int MAX_LOCK_CONFLICTS = 30;
+
     private final IAppsInstanceFactory factory;
     private final IMembership membership;
     private final IConfiguration config;
@@ -77,6 +77,15 @@ public class InstanceIdentity {
     private boolean isTokenPregenerated = false;
     private String replacedIp = "";
 
+    // time spent acquiring the token, per phase, over all attempts
+    private volatile long topologyMs;
+    private volatile long membershipMs;
+    private volatile long claimMs;
+    private volatile long backoffMs;
+    private volatile long acquisitionMs;
+    private volatile int attempts;
+    private volatile int lockConflicts;
+
     @Inject
     public InstanceIdentity(IAppsInstanceFactory factory, IMembership membership, IConfiguration config,
 	    Sleeper sleeper, ITokenManager tokenManager, InstanceEnvIdentity insEnvIdentity) throws Exception {
@@ -86,6 +95,7 @@ public class InstanceIdentity {
 	this.sleeper = sleeper;
 	this.tokenManager = tokenManager;
 	this.insEnvIdentity = insEnvIdentity;
+	registerMetrics();
 	init();
     }
 
@@ -93,50 +103,108 @@ public class InstanceIdentity {
 	return myInstance;
     }
 
+    /**
+     * Finds the slot of this instance, or claims one: the slot of a dead instance of its rack, a pre-generated slot,
+     * or a new one. Each attempt reads the topology once, and the ASG once unless a slot's heartbeat tells it dead.
+     * Attempts that fail on a lock held by another instance are retried after a jittered backoff that grows with the
+     * contention; other failures are retried after a fixed wait of RetryableCallable.DEFAULT_WAIT_TIME.
+     */
     public void init() throws Exception {
-	// try to grab the token which was already assigned
-	myInstance = new RetryableCallable<AppsInstance>() {
-	    @Override
-	    public AppsInstance retriableCall() throws Exception {
-		// Check if this node is decommissioned
-		for (AppsInstance ins : factory.getAllIds(config.getDynomiteClusterName() + "-dead")) {
-		    logger.debug(String.format("[Dead] Iterating though the hosts: %s", ins.getInstanceId()));
-		    if (ins.getInstanceId().equals(config.getInstanceName())) {
-			ins.setOutOfService(true);
-			return ins;
-		    }
+	long start = System.currentTimeMillis();
+	int failures = 0;
+	int conflicts = 0;
+	while (true) {
+	    attempts++;
+	    try {
+		myInstance = acquireToken();
+		break;
+	    } catch (CancellationException e) {
+		throw e;
+	    } catch (Exception e) {
+		LockContentionException contention = getContention(e);
+		long backoff;
+		if (contention != null) {
+		    lockConflicts = ++conflicts;
+		    if (conflicts >= MAX_LOCK_CONFLICTS)
+			throw e;
+		    backoff = contentionBackoff(conflicts, contention.getContenders());
+		    logger.info(String.format("Lock conflict #%d with %d contenders, retrying in %d ms: %s", conflicts,
+			    contention.getContenders(), backoff, e.getMessage()));
+		} else {
+		    if (++failures >= RetryableCallable.DEFAULT_NUMBER_OF_RETRIES)
+			throw e;
+		    backoff = RetryableCallable.DEFAULT_WAIT_TIME;
+		    logger.error(String.format("Retry #%d for: %s", failures, e.getMessage()), e);
 		}
-		for (AppsInstance ins : factory.getAllIds(config.getDynomiteClusterName())) {
-		    logger.debug(String.format("[Alive] Iterating though the hosts: %s My id = [%s]",
-			    ins.getInstanceId(), ins.getId()));
-		    if (ins.getInstanceId().equals(config.getInstanceName()))
-			return ins;
-		}
-		return null;
+		sleeper.sleep(backoff);
+		backoffMs += backoff;
 	    }
-	}.call();
-	// Grab a dead token
-	if (null == myInstance)
-	    myInstance = new GetDeadToken().call();
-
-	// Grab a pre-generated token if there is such one
-	if (null == myInstance)
-	    myInstance = new GetPregeneratedToken().call();
-
-	// Grab a new token
-	if (null == myInstance) {
-	    GetNewToken newToken = new GetNewToken();
-	    newToken.set(100, 100);
-	    myInstance = newToken.call();
 	}
+	acquisitionMs = System.currentTimeMillis() - start;
+	logger.info(String.format(
+		"Acquired token in %d ms, %d attempts: topology %d ms, membership %d ms, claim %d ms, backoff %d ms",
+		acquisitionMs, attempts, topologyMs, membershipMs, claimMs, backoffMs));
 	logger.info("My token: " + myInstance.getToken());
 
     }
 
-    private void populateRacMap() {
-	locMap.clear();
-	for (AppsInstance ins : factory.getAllIds(config.getDynomiteClusterName())) {
-	    locMap.put(ins.getZone(), ins);
+    private AppsInstance acquireToken() throws Exception {
+	// one read of the topology for all the ways to get a slot
+	long start = System.currentTimeMillis();
+	List<AppsInstance> deadIds = factory.getAllIds(config.getDynomiteClusterName() + "-dead");
+	List<AppsInstance> allIds = factory.getAllIds(config.getDynomiteClusterName());
+	topologyMs += System.currentTimeMillis() - start;
+
+	// Check if this node is decommissioned
+	for (AppsInstance ins : deadIds) {
+	    logger.debug(String.format("[Dead] Iterating though the hosts: %s", ins.getInstanceId()));
+	    if (ins.getInstanceId().equals(config.getInstanceName())) {
+		ins.setOutOfService(true);
+		return ins;
+	    }
+	}
+	// try to grab the token which was already assigned
+	for (AppsInstance ins : allIds) {
+	    logger.debug(String.format("[Alive] Iterating though the hosts: %s My id = [%s]", ins.getInstanceId(),
+		    ins.getId()));
+	    if (ins.getInstanceId().equals(config.getInstanceName()))
+		return ins;
+	}
+
+	// the slot of a node that stopped writing heartbeats is claimed without asking the ASG
+	start = System.currentTimeMillis();
+	try {
+	    AppsInstance ins = getDeadToken(allIds, null);
+	    if (ins != null)
+		return ins;
+	} finally {
+	    claimMs += System.currentTimeMillis() - start;
+	}
+
+	// and one of the ASG
+	start = System.currentTimeMillis();
+	List<String> racMembership = membership.getRacMembership();
+	List<String> asgInstances = racMembership;
+	if (config.isDualAccount()) {
+	    asgInstances = getDualAccountRacMembership(new ArrayList<String>(racMembership));
+	} else {
+	    logger.info("Single Account cluster");
+	}
+	membershipMs += System.currentTimeMillis() - start;
+
+	start = System.currentTimeMillis();
+	try {
+	    // Grab a dead token
+	    AppsInstance ins = getDeadToken(allIds, asgInstances);
+	    // Grab a pre-generated token if there is such one
+	    if (ins == null)
+		ins = getPregeneratedToken(allIds, asgInstances);
+	    // Grab a new token
+	    if (ins == null)
+		ins = getNewToken(racMembership);
+	    return ins;
+	} finally {
+	    claimMs += System.currentTimeMillis() - start;
 	}
     }
 
@@ -164,123 +232,195 @@ public class InstanceIdentity {
 	return asgInstances;
     }
 
-    public class GetDeadToken extends RetryableCallable<AppsInstance> {
-	@Override
-	public AppsInstance retriableCall() throws Exception {
-	    final List<AppsInstance> allIds = factory.getAllIds(config.getDynomiteClusterName());
-	    List<String> asgInstances = membership.getRacMembership();
-	    if (config.isDualAccount()) {
-		asgInstances = getDualAccountRacMembership(asgInstances);
-	    } else {
-		logger.info("Single Account cluster");
-	    }
-
-	    // Sleep random interval - upto 15 sec
-	    sleeper.sleep(new Random().nextInt(5000) + 10000);
-	    for (AppsInstance dead : allIds) {
-		// test same dc and is it is alive.
-		if (!dead.getRack().equals(config.getRack()) || asgInstances.contains(dead.getInstanceId()))
-		    continue;
-		logger.info("Found dead instances: " + dead.getInstanceId());
-		// AppsInstance markAsDead = factory.create(dead.getApp() +
-		// "-dead", dead.getId(), dead.getInstanceId(),
-		// dead.getHostName(), dead.getHostIP(), dead.getZone(),
-		// dead.getVolumes(), dead.getToken(), dead.getRack());
-		// remove it as we marked it down...
-		// factory.delete(dead);
-		isReplace = true;
-		replacedIp = dead.getHostIP();
-		String payLoad = dead.getToken();
-		logger.info("Trying to grab slot {} with availability zone {}", dead.getId(), dead.getZone());
-		return factory.create(config.getDynomiteClusterName(), dead.getId(), config.getInstanceName(), config.getHostname(),
-			config.getHostIP(), config.getZone(), dead.getVolumes(), payLoad, config.getRack());
-	    }
+    /**
+     * Claims the slot of a dead instance of the rack. The cached topology may be several refresh intervals old, which
+     * makes live slots look dead: a slot that looks dead in it is only claimed if it is dead in the topology read
+     * again, by the age of its heartbeat when it was read.
+     *
+     * @param asgInstances
+     *            the instances of the ASG, or null to only claim slots whose heartbeat is too old
+     */
+    private AppsInstance getDeadToken(List<AppsInstance> allIds, List<String> asgInstances) {
+	if (findDead(allIds, asgInstances, System.currentTimeMillis()) == null)
 	    return null;
-	}
+	long start = System.currentTimeMillis();
+	List<AppsInstance> freshIds = factory.refreshIds(config.getDynomiteClusterName());
+	topologyMs += System.currentTimeMillis() - start;
 
-	public void forEachExecution() {
-	    populateRacMap();
+	AppsInstance dead = findDead(freshIds, asgInstances, start);
+	if (dead == null) {
+	    logger.info("No dead slot in the topology read again, the cached one was out of date");
+	    return null;
 	}
+	logger.info(String.format("Found dead instance %s, last heartbeat at %d", dead.getInstanceId(),
+		dead.getHeartbeat()));
+	// AppsInstance markAsDead = factory.create(dead.getApp() +
+	// "-dead", dead.getId(), dead.getInstanceId(),
+	// dead.getHostName(), dead.getHostIP(), dead.getZone(),
+	// dead.getVolumes(), dead.getToken(), dead.getRack());
+	// remove it, so that the slot is written again with this instance and its heartbeat; both fail if
+	// another instance claims the slot first
+	factory.delete(dead);
+	String payLoad = dead.getToken();
+	logger.info("Trying to grab slot {} with availability zone {}", dead.getId(), dead.getZone());
+	AppsInstance claimed = factory.create(config.getDynomiteClusterName(), dead.getId(), config.getInstanceName(),
+		config.getHostname(), config.getHostIP(), config.getZone(), dead.getVolumes(), payLoad,
+		config.getRack());
+	isReplace = true;
+	replacedIp = dead.getHostIP();
+	return claimed;
     }
 
-    public class GetPregeneratedToken extends RetryableCallable<AppsInstance> {
-	@Override
-	public AppsInstance retriableCall() throws Exception {
-	    logger.info("Looking for any pre-generated token");
-	    final List<AppsInstance> allIds = factory.getAllIds(config.getDynomiteClusterName());
-	    List<String> asgInstances = membership.getRacMembership();
-	    // Sleep random interval - upto 15 sec
-	    sleeper.sleep(new Random().nextInt(5000) + 10000);
-	    for (AppsInstance dead : allIds) {
-		// test same zone and is it is alive.
-		if (!dead.getRack().equals(config.getRack()) || asgInstances.contains(dead.getInstanceId())
-			|| !isInstanceDummy(dead))
-		    continue;
-		logger.info("Found pre-generated token: " + dead.getToken());
-		// AppsInstance markAsDead = factory.create(dead.getApp() +
-		// "-dead", dead.getId(), dead.getInstanceId(),
-		// dead.getHostName(), dead.getHostIP(), dead.getRack(),
-		// dead.getVolumes(),
-		// dead.getToken());
-		// remove it as we marked it down...
-		factory.delete(dead);
-		isTokenPregenerated = true;
-
-		String payLoad = dead.getToken();
-		logger.info("Trying to grab slot {} with availability zone {}", dead.getId(), dead.getRack());
-		return factory.create(config.getDynomiteClusterName(), dead.getId(), config.getInstanceName(), config.getHostname(),
-			config.getHostIP(), config.getZone(), dead.getVolumes(), payLoad, config.getRack());
-	    }
-	    return null;
+    /**
+     * @param readTime
+     *            when the instances were read, which the age of their heartbeats is taken at
+     * @return the first instance of the rack whose slot is dead
+     */
+    private AppsInstance findDead(List<AppsInstance> ids, List<String> asgInstances, long readTime) {
+	for (AppsInstance ins : ids) {
+	    if (ins.getRack().equals(config.getRack()) && !isInstanceDummy(ins)
+		    && getSlotState(ins, asgInstances, readTime) == SlotState.DEAD)
+		return ins;
 	}
+	return null;
+    }
 
-	public void forEachExecution() {
-	    populateRacMap();
+    private AppsInstance getPregeneratedToken(List<AppsInstance> allIds, List<String> asgInstances) {
+	logger.info("Looking for any pre-generated token");
+	for (AppsInstance dead : allIds) {
+	    // test same zone and is it is alive.
+	    if (!dead.getRack().equals(config.getRack()) || asgInstances.contains(dead.getInstanceId())
+		    || !isInstanceDummy(dead))
+		continue;
+	    logger.info("Found pre-generated token: " + dead.getToken());
+	    // remove it as we marked it down...
+	    factory.delete(dead);
+
+	    String payLoad = dead.getToken();
+	    logger.info("Trying to grab slot {} with availability zone {}", dead.getId(), dead.getRack());
+	    AppsInstance claimed = factory.create(config.getDynomiteClusterName(), dead.getId(),
+		    config.getInstanceName(), config.getHostname(), config.getHostIP(), config.getZone(),
+		    dead.getVolumes(), payLoad, config.getRack());
+	    isTokenPregenerated = true;
+	    return claimed;
 	}
+	return null;
     }
 
-    public class GetNewToken extends RetryableCallable<AppsInstance> {
+    private AppsInstance getNewToken(List<String> asgInstanceIds) {
+	int hash = tokenManager.regionOffset(config.getRack());
+	// use this hash so that the nodes are spred far away from the other
+	// regions.
+	String myInstanceId = config.getInstanceName();
 
-	public AppsInstance retriableCall() throws Exception {
-	    // Sleep random interval - upto 15 sec
-	    sleeper.sleep(new Random().nextInt(15000));
-	    int hash = tokenManager.regionOffset(config.getRack());
-	    // use this hash so that the nodes are spred far away from the other
-	    // regions.
-	    String myInstanceId = config.getInstanceName();
-	    List<String> asgInstanceIds = membership.getRacMembership();
+	logger.info("My Instance Id: " + myInstanceId);
 
-	    logger.info("My Instance Id: " + myInstanceId);
+	for (String instanceId : asgInstanceIds) {
+	    logger.info("InstanceId in ASG: " + instanceId);
+	}
 
-	    for (String instanceId : asgInstanceIds) {
-		logger.info("InstanceId in ASG: " + instanceId);
-	    }
+	int my_slot = asgInstanceIds.indexOf(myInstanceId);
+	logger.info("my_slot ::: " + my_slot);
 
-	    int my_slot = asgInstanceIds.indexOf(myInstanceId);
-	    logger.info("my_slot ::: " + my_slot);
-
-            int rackMembershipSize;
-            if (config.isDualAccount()){
-        	rackMembershipSize = membership.getRacMembershipSize() + membership.getCrossAccountRacMembershipSize();
-            }
-            else {
-        	rackMembershipSize = membership.getRacMembershipSize();
-            }
-
-	    logger.info(String.format(
-		    "Trying to createToken with slot %d with rac count %d with rac membership size %d with dc %s",
-		    my_slot, membership.getRacCount(), rackMembershipSize, config.getDataCenter()));
-	    // String payload = tokenManager.createToken(my_slot,
-	    // membership.getRacCount(), membership.getRacMembershipSize(),
-	    // config.getDataCenter());
-	    String payload = tokenManager.createToken(my_slot, rackMembershipSize, config.getRack());
-	    return factory.create(config.getDynomiteClusterName(), my_slot + hash, config.getInstanceName(), config.getHostname(),
-		    config.getHostIP(), config.getZone(), null, payload, config.getRack());
+	int rackMembershipSize;
+	if (config.isDualAccount()) {
+	    rackMembershipSize = membership.getRacMembershipSize() + membership.getCrossAccountRacMembershipSize();
+	} else {
+	    rackMembershipSize = membership.getRacMembershipSize();
 	}
 
-	public void forEachExecution() {
-	    populateRacMap();
+	logger.info(String.format("Trying to createToken with slot %d with rac membership size %d with dc %s",
+		my_slot, rackMembershipSize, config.getDataCenter()));
+	String payload = tokenManager.createToken(my_slot, rackMembershipSize, config.getRack());
+	return factory.create(config.getDynomiteClusterName(), my_slot + hash, config.getInstanceName(),
+		config.getHostname(), config.getHostIP(), config.getZone(), null, payload, config.getRack());
+    }
+
+    /**
+     * Classifies a slot by the age of its heartbeat, then by the membership of the ASG: a slot whose heartbeat is
+     * late is dead if its instance left the ASG. Slots without a heartbeat, of nodes that stopped long ago or that
+     * run an older Dynomite Manager, are told apart by the ASG alone.
+     *
+     * @param asgInstances
+     *            the instances of the ASG, or null to classify by heartbeat only
+     * @param now
+     *            when the slot was read
+     */
+    public SlotState getSlotState(AppsInstance ins, Collection<String> asgInstances, long now) {
+	boolean leftAsg = asgInstances != null && !asgInstances.contains(ins.getInstanceId());
+	if (ins.getHeartbeat() > 0) {
+	    long age = now - ins.getHeartbeat();
+	    if (age > config.getHeartbeatDeadThreshold() * 1000L)
+		return SlotState.DEAD;
+	    if (age <= 3 * config.getHeartbeatInterval() * 1000L)
+		return SlotState.LIVE;
+	}
+	return leftAsg ? SlotState.DEAD : SlotState.SUSPECT;
+    }
+
+    /**
+     * @return the lock conflict that caused the failure, if it was one
+     */
+    private static LockContentionException getContention(Throwable e) {
+	for (Throwable cause = e; cause != null; cause = cause.getCause()) {
+	    if (cause instanceof LockContentionException)
+		return (LockContentionException) cause;
 	}
+	return null;
+    }
+
+    /**
+     * @return a backoff between half and all of an exponential ceiling, so that contenders spread out
+     */
+    private static long contentionBackoff(int conflicts, int contenders) {
+	long ceiling = MIN_CONTENTION_BACKOFF_MS << Math.min(conflicts - 1, 10);
+	ceiling = Math.min(MAX_CONTENTION_BACKOFF_MS, ceiling * Math.max(1, contenders - 1));
+	return ceiling / 2 + ThreadLocalRandom.current().nextLong(ceiling / 2 + 1);
+    }
+
+    private void registerMetrics() {
+	DefaultMonitorRegistry.getInstance().register(new SampledGauge(METRIC_PREFIX + "acquisition_ms") {
+	    @Override
+	    protected long sample() {
+		return acquisitionMs;
+	    }
+	});
+	DefaultMonitorRegistry.getInstance().register(new SampledGauge(METRIC_PREFIX + "topology_ms") {
+	    @Override
+	    protected long sample() {
+		return topologyMs;
+	    }
+	});
+	DefaultMonitorRegistry.getInstance().register(new SampledGauge(METRIC_PREFIX + "membership_ms") {
+	    @Override
+	    protected long sample() {
+		return membershipMs;
+	    }
+	});
+	DefaultMonitorRegistry.getInstance().register(new SampledGauge(METRIC_PREFIX + "claim_ms") {
+	    @Override
+	    protected long sample() {
+		return claimMs;
+	    }
+	});
+	DefaultMonitorRegistry.getInstance().register(new SampledGauge(METRIC_PREFIX + "backoff_ms") {
+	    @Override
+	    protected long sample() {
+		return backoffMs;
+	    }
+	});
+	DefaultMonitorRegistry.getInstance().register(new SampledGauge(METRIC_PREFIX + "attempts") {
+	    @Override
+	    protected long sample() {
+		return attempts;
+	    }
+	});
+	DefaultMonitorRegistry.getInstance().register(new SampledGauge(METRIC_PREFIX + "lock_conflicts") {
+	    @Override
+	    protected long sample() {
+		return lockConflicts;
+	    }
+	});
     }
 
     /*
@@ -310,9 +450,16 @@ public class InstanceIdentity {
 
     public List<String> getSeeds() throws UnknownHostException {
 	// populateRacMap();
+	return getSeeds(factory.getAllIds(config.getDynomiteClusterName()));
+    }
+
+    /**
+     * @return the seeds of this node among the given instances
+     */
+    public List<String> getSeeds(List<AppsInstance> instances) {
 	List<String> seeds = new LinkedList<String>();
 
-	for (AppsInstance ins : factory.getAllIds(config.getDynomiteClusterName())) {
+	for (AppsInstance ins : instances) {
 	    if (!ins.getInstanceId().equals(myInstance.getInstanceId())) {
 		logger.debug("Adding node: " + ins.getInstanceId());
 		seeds.add(ins.getHostName() + ":" + config.getDynomitePeerPort() + ":" + ins.getRack() + ":"
@@ -324,9 +471,16 @@ public class InstanceIdentity {
     }
 
     public List<String> getClusterInfo() throws UnknownHostException {
+	return getClusterInfo(factory.getAllIds(config.getDynomiteClusterName()));
+    }
+
+    /**
+     * @return the description of each of the given instances, as a JSON object
+     */
+    public List<String> getClusterInfo(List<AppsInstance> instances) {
 	List<String> nodes = new LinkedList<String>();
 
-	for (AppsInstance ins : factory.getAllIds(config.getDynomiteClusterName())) {
+	for (AppsInstance ins : instances) {
 	    logger.debug("Adding node: " + ins.getInstanceId());
 	    nodes.add("{" + "\"token\":" + "\"" + ins.getToken() + "\"," + "\"hostname\":" + "\"" + ins.getHostName()
 		    + "\"," + "\"rack\":" + "\"" + ins.getRack() + "\"," + "\"ip\":" + "\"" + ins.getHostIP() + "\","
@@ -338,9 +492,12 @@ public class InstanceIdentity {
     }
 
     public boolean isSeed() {
-	populateRacMap();
-	String ip = locMap.get(myInstance.getZone()).get(0).getHostName();
-	return myInstance.getHostName().equals(ip);
+	// the seed of a zone is its instance with the lowest id
+	for (AppsInstance ins : factory.getAllIds(config.getDynomiteClusterName())) {
+	    if (ins.getZone().equals(myInstance.getZone()))
+		return myInstance.getHostName().equals(ins.getHostName());
+	}
+	return false;
     }
 
     public boolean isReplace() {
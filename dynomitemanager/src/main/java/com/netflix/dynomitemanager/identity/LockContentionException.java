@@ -0,0 +1,36 @@
+/**
+ * Copyright 2016 Netflix, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package com.netflix.dynomitemanager.identity;
+
+/**
+ * Thrown when the lock on a slot is wanted or held by another instance. Unlike other failures, it is worth backing
+ * off before trying again, for longer the more instances contend.
+ */
+public class LockContentionException extends Exception {
+
+	private static final long serialVersionUID = 3408614592283817409L;
+
+	private final int contenders;
+
+	public LockContentionException(String message, int contenders) {
+		super(message);
+		this.contenders = contenders;
+	}
+
+	/**
+	 * @return how many instances were seen contending for the lock, this one included
+	 */
+	public int getContenders() {
+		return contenders;
+	}
+}
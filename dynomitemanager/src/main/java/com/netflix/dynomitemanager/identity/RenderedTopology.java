@@ -0,0 +1,61 @@
+/**
+ * Copyright 2016 Netflix, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package com.netflix.dynomitemanager.identity;
+
+import java.nio.charset.StandardCharsets;
+
+import com.netflix.dynomitemanager.sidecore.utils.SystemUtils;
+
+/**
+ * The seeds or the description of a cluster as served to clients, with a tag that is the same for the same content,
+ * across restarts of Dynomite Manager.
+ */
+public class RenderedTopology {
+
+	private final long version;
+	private final String body;
+	private final int entries;
+	private final String tag;
+
+	/**
+	 * @param version
+	 *            the version of the topology it was rendered from
+	 * @param entries
+	 *            the number of seeds or nodes in the body
+	 */
+	public RenderedTopology(long version, String body, int entries) {
+		this.version = version;
+		this.body = body;
+		this.entries = entries;
+		this.tag = SystemUtils.toHex(SystemUtils.md5(body.getBytes(StandardCharsets.UTF_8)));
+	}
+
+	public long getVersion() {
+		return version;
+	}
+
+	public String getBody() {
+		return body;
+	}
+
+	public boolean isEmpty() {
+		return entries == 0;
+	}
+
+	/**
+	 * @return the hash of the body
+	 */
+	public String getTag() {
+		return tag;
+	}
+}
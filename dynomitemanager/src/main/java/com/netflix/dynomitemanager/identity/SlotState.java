@@ -0,0 +1,29 @@
+/**
+ * Copyright 2016 Netflix, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package com.netflix.dynomitemanager.identity;
+
+/**
+ * The state of a slot of the cluster, told by the heartbeat its node writes into the token store and, secondarily, by
+ * the membership of the ASG.
+ */
+public enum SlotState {
+
+	/** The node of the slot has written a recent heartbeat. */
+	LIVE,
+
+	/** The node of the slot may be hung or gone, but it is too early to tell. Its token is not claimed. */
+	SUSPECT,
+
+	/** The node of the slot is gone or hung. Its token can be claimed by a new node. */
+	DEAD
+}
@@ -0,0 +1,377 @@
+/**
+ * Copyright 2016 Netflix, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package com.netflix.dynomitemanager.identity;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+import com.netflix.dynomitemanager.defaultimpl.IConfiguration;
+import com.netflix.dynomitemanager.monitoring.SampledGauge;
+import com.netflix.dynomitemanager.sidecore.scheduler.NamedThreadPoolExecutor;
+import com.netflix.servo.DefaultMonitorRegistry;
+import com.netflix.servo.monitor.Counter;
+import com.netflix.servo.monitor.Monitors;
+
+/**
+ * Keeps the latest topology of each cluster read from Cassandra, so that seeds, cluster info and security groups
+ * are served from memory instead of a quorum read each.
+ *
+ * Topologies are read again by TopologyRefreshTask, and right after this node changes an entry. Readers never wait
+ * for a read, except for a cluster that was never read: a topology several intervals old, because the refreshes fail
+ * or do not run, or that could not be read again after a change, is served flagged stale while a single background
+ * refresher reads it, retrying until it can. Every topology carries a version, which only changes when the topology
+ * does.
+ */
+@Singleton
+public class TopologyCache {
+
+	private static final Logger logger = LoggerFactory.getLogger(TopologyCache.class);
+
+	private static final String METRIC_PREFIX = "dynomitemanager__topology__";
+
+	// how many refresh intervals a topology is served before it is flagged stale and read in the background
+	private static final int MAX_AGE_INTERVALS = 3;
+	// first delay between the background reads of a stale topology, doubled up to its max age
+	private static final long RETRY_DELAY_MS = 1000;
+
+	private static final Comparator<AppsInstance> BY_ID = new Comparator<AppsInstance>() {
+		@Override
+		public int compare(AppsInstance o1, AppsInstance o2) {
+			return Integer.compare(o1.getId(), o2.getId());
+		}
+	};
+
+	/**
+	 * The instances of a cluster at a point in time, sorted by id.
+	 */
+	public static class Topology {
+		private final long version;
+		private final long time;
+		private final List<AppsInstance> instances;
+		private final String fingerprint;
+		private final boolean stale;
+
+		private Topology(long version, long time, List<AppsInstance> instances, String fingerprint, boolean stale) {
+			this.version = version;
+			this.time = time;
+			this.instances = instances;
+			this.fingerprint = fingerprint;
+			this.stale = stale;
+		}
+
+		private Topology stale() {
+			return stale ? this : new Topology(version, time, instances, fingerprint, true);
+		}
+
+		/**
+		 * @return a version that is greater than the one of any earlier, different topology
+		 */
+		public long getVersion() {
+			return version;
+		}
+
+		/**
+		 * @return when the topology was read from Cassandra
+		 */
+		public long getTime() {
+			return time;
+		}
+
+		/**
+		 * @return the instances, which must not be changed
+		 */
+		public List<AppsInstance> getInstances() {
+			return instances;
+		}
+
+		/**
+		 * @return whether it is served past its max age, or after a failed read, while it is read again
+		 */
+		public boolean isStale() {
+			return stale;
+		}
+	}
+
+	private final IConfiguration config;
+	private final InstanceDataDAOCassandra dao;
+
+	private final ConcurrentMap<String, Topology> topologies = new ConcurrentHashMap<String, Topology>();
+	private final AtomicLong versions = new AtomicLong();
+	// reads are published in the order they were made
+	private final Object refreshLock = new Object();
+	// stale topologies are read by a single thread, once at a time for each cluster
+	private final ExecutorService refresher = new NamedThreadPoolExecutor(1, "TopologyRefresh");
+	private final Set<String> refreshing = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+	// notified when a topology changes
+	private final Object changes = new Object();
+
+	private final Counter hits = Monitors.newCounter(METRIC_PREFIX + "hits");
+	private final Counter misses = Monitors.newCounter(METRIC_PREFIX + "misses");
+	private final Counter refreshes = Monitors.newCounter(METRIC_PREFIX + "refreshes");
+	private final Counter failures = Monitors.newCounter(METRIC_PREFIX + "refresh_failures");
+	private final AtomicLong hitCount = new AtomicLong();
+	private final AtomicLong missCount = new AtomicLong();
+	private volatile long lastRefreshMs;
+
+	@Inject
+	public TopologyCache(IConfiguration config, InstanceDataDAOCassandra dao) {
+		this.config = config;
+		this.dao = dao;
+
+		DefaultMonitorRegistry.getInstance().register(hits);
+		DefaultMonitorRegistry.getInstance().register(misses);
+		DefaultMonitorRegistry.getInstance().register(refreshes);
+		DefaultMonitorRegistry.getInstance().register(failures);
+		DefaultMonitorRegistry.getInstance().register(new SampledGauge(METRIC_PREFIX + "refresh_ms") {
+			@Override
+			protected long sample() {
+				return lastRefreshMs;
+			}
+		});
+		DefaultMonitorRegistry.getInstance().register(new SampledGauge(METRIC_PREFIX + "staleness_ms") {
+			@Override
+			protected long sample() {
+				return getStaleness();
+			}
+		});
+		DefaultMonitorRegistry.getInstance().register(new SampledGauge(METRIC_PREFIX + "hit_ratio") {
+			@Override
+			protected long sample() {
+				return getHitRatio();
+			}
+		});
+		DefaultMonitorRegistry.getInstance().register(new SampledGauge(METRIC_PREFIX + "version") {
+			@Override
+			protected long sample() {
+				return versions.get();
+			}
+		});
+	}
+
+	/**
+	 * @return the topology of the cluster, flagged stale if it is being read again, read now only if it never was
+	 */
+	public Topology get(String app) {
+		Topology topology = topologies.get(app);
+		if (topology != null) {
+			hits.increment();
+			hitCount.incrementAndGet();
+			if (!isExpired(topology)) {
+				return topology;
+			}
+			refreshInBackground(app);
+			return topology.stale();
+		}
+
+		misses.increment();
+		missCount.incrementAndGet();
+		synchronized (refreshLock) {
+			// another reader may have just read it
+			Topology current = topologies.get(app);
+			return current != null ? current : refresh(app);
+		}
+	}
+
+	/**
+	 * Reads the topology of the cluster now.
+	 *
+	 * @return the topology read
+	 */
+	public Topology refresh(String app) {
+		synchronized (refreshLock) {
+			long start = System.currentTimeMillis();
+			List<AppsInstance> instances;
+			try {
+				instances = new ArrayList<AppsInstance>(load(app));
+			} catch (RuntimeException e) {
+				failures.increment();
+				throw e;
+			}
+			long end = System.currentTimeMillis();
+			lastRefreshMs = end - start;
+			refreshes.increment();
+
+			Collections.sort(instances, BY_ID);
+			String fingerprint = fingerprint(instances);
+			Topology previous = topologies.get(app);
+			long version = previous != null && previous.fingerprint.equals(fingerprint) ? previous.getVersion()
+					: versions.incrementAndGet();
+			if (previous != null && previous.getVersion() != version) {
+				logger.info(String.format("Topology of %s changed to version %d, %d instances", app, version,
+						instances.size()));
+			}
+
+			Topology topology = new Topology(version, end, Collections.unmodifiableList(instances), fingerprint,
+					false);
+			topologies.put(app, topology);
+			if (previous == null || previous.getVersion() != version) {
+				synchronized (changes) {
+					changes.notifyAll();
+				}
+			}
+			return topology;
+		}
+	}
+
+	/**
+	 * Waits until the topology of the cluster is no longer of the given version, or the timeout.
+	 *
+	 * @return the topology of the cluster, of the given version if it did not change in time
+	 */
+	public Topology awaitChange(String app, long version, long timeoutMs) throws InterruptedException {
+		long deadline = System.currentTimeMillis() + timeoutMs;
+		Topology topology = get(app);
+		synchronized (changes) {
+			while (true) {
+				// read under the lock, so that no change is missed before waiting
+				Topology current = topologies.get(app);
+				if (current != null) {
+					topology = current;
+				}
+				long wait = deadline - System.currentTimeMillis();
+				if (topology.getVersion() != version || wait <= 0) {
+					return topology;
+				}
+				changes.wait(wait);
+			}
+		}
+	}
+
+	/**
+	 * Reads again the topology of every cluster read so far. A cluster that cannot be read keeps its topology.
+	 */
+	public void refreshAll() {
+		for (String app : topologies.keySet()) {
+			try {
+				refresh(app);
+			} catch (RuntimeException e) {
+				logger.warn("Unable to refresh the topology of " + app + ": " + e.getMessage());
+			}
+		}
+	}
+
+	/**
+	 * Reads the topology of the cluster again after an entry of it was changed. If it cannot be read, the topology is
+	 * served stale until the background refresher reads the change.
+	 */
+	public void invalidate(String app) {
+		try {
+			refresh(app);
+		} catch (RuntimeException e) {
+			logger.warn("Unable to refresh the topology of " + app + ", reading it in the background: "
+					+ e.getMessage());
+			Topology current = topologies.get(app);
+			if (current != null) {
+				topologies.replace(app, current, current.stale());
+				refreshInBackground(app);
+			}
+		}
+	}
+
+	/**
+	 * @return how old the oldest topology is, in ms
+	 */
+	public long getStaleness() {
+		long oldest = 0;
+		long now = System.currentTimeMillis();
+		for (Topology topology : topologies.values()) {
+			oldest = Math.max(oldest, now - topology.getTime());
+		}
+		return oldest;
+	}
+
+	/**
+	 * @return the percentage of the reads served without reading Cassandra
+	 */
+	public long getHitRatio() {
+		long h = hitCount.get();
+		long total = h + missCount.get();
+		return total == 0 ? 0 : h * 100 / total;
+	}
+
+	/**
+	 * @return the instances of the cluster in Cassandra
+	 */
+	protected Collection<AppsInstance> load(String app) {
+		return dao.getAllInstances(app);
+	}
+
+	/**
+	 * @return how long a topology is served before it is read again in the background
+	 */
+	protected long maxAgeMs() {
+		return MAX_AGE_INTERVALS * 1000L * Math.max(1, config.getTopologyRefreshInterval());
+	}
+
+	private boolean isExpired(Topology topology) {
+		return topology.isStale() || System.currentTimeMillis() - topology.getTime() > maxAgeMs();
+	}
+
+	/**
+	 * Reads the topology of the cluster on the refresher thread until it is read, unless it already is being read.
+	 */
+	private void refreshInBackground(final String app) {
+		if (!refreshing.add(app)) {
+			return;
+		}
+		refresher.submit(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					long delay = RETRY_DELAY_MS;
+					// TopologyRefreshTask may read it first
+					while (isExpired(topologies.get(app))) {
+						try {
+							refresh(app);
+							return;
+						} catch (RuntimeException e) {
+							logger.warn(String.format("Unable to read the topology of %s, serving version %d of %d ms "
+									+ "ago, retrying in %d ms: %s", app, topologies.get(app).getVersion(),
+									System.currentTimeMillis() - topologies.get(app).getTime(), delay, e.getMessage()));
+						}
+						Thread.sleep(delay);
+						delay = Math.min(2 * delay, Math.max(RETRY_DELAY_MS, maxAgeMs()));
+					}
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				} finally {
+					refreshing.remove(app);
+				}
+			}
+		});
+	}
+
+	private static String fingerprint(List<AppsInstance> instances) {
+		StringBuilder sb = new StringBuilder();
+		for (AppsInstance ins : instances) {
+			sb.append(ins.getId()).append('|').append(ins.getInstanceId()).append('|').append(ins.getHostName())
+					.append('|').append(ins.getHostIP()).append('|').append(ins.getRack()).append('|')
+					.append(ins.getZone()).append('|').append(ins.getDatacenter()).append('|')
+					.append(ins.getToken()).append('\n');
+		}
+		return sb.toString();
+	}
+}
@@ -0,0 +1,51 @@
+/**
+ * Copyright 2016 Netflix, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package com.netflix.dynomitemanager.identity;
+
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+import com.netflix.dynomitemanager.defaultimpl.IConfiguration;
+import com.netflix.dynomitemanager.sidecore.scheduler.SimpleTimer;
+import com.netflix.dynomitemanager.sidecore.scheduler.Task;
+import com.netflix.dynomitemanager.sidecore.scheduler.TaskTimer;
+
+/**
+ * Reads the cached cluster topologies again from Cassandra.
+ */
+@Singleton
+public class TopologyRefreshTask extends Task {
+
+	public static final String TaskName = "Topology-Refresh-Task";
+
+	private final TopologyCache topologyCache;
+
+	@Inject
+	public TopologyRefreshTask(IConfiguration config, TopologyCache topologyCache) {
+		super(config);
+		this.topologyCache = topologyCache;
+	}
+
+	@Override
+	public void execute() throws Exception {
+		topologyCache.refreshAll();
+	}
+
+	@Override
+	public String getName() {
+		return TaskName;
+	}
+
+	public static TaskTimer getTimer(IConfiguration config) {
+		return new SimpleTimer(TaskName, Math.max(1, config.getTopologyRefreshInterval()) * 1000L);
+	}
+}
@@ -0,0 +1,146 @@
+/**
+ * Copyright 2016 Netflix, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package com.netflix.dynomitemanager.identity;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.commons.lang.StringUtils;
+
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+import com.netflix.config.DynamicIntProperty;
+import com.netflix.config.DynamicPropertyFactory;
+import com.netflix.dynomitemanager.defaultimpl.IConfiguration;
+import com.netflix.dynomitemanager.identity.TopologyCache.Topology;
+import com.netflix.servo.DefaultMonitorRegistry;
+import com.netflix.servo.monitor.Counter;
+import com.netflix.servo.monitor.Monitors;
+
+/**
+ * Renders the seeds and the description of the cluster once per topology version, instead of once per request.
+ */
+@Singleton
+public class TopologyRenderer {
+
+	private static final String SEEDS = "seeds";
+	private static final String DESCRIBE = "describe";
+	// bounds how many filtered descriptions are kept
+	private static final int MAX_RENDERED = 64;
+	// bounds how many requests wait for the topology to change, each holding a request thread
+	private static final DynamicIntProperty MAX_WAITERS = DynamicPropertyFactory.getInstance()
+			.getIntProperty("dynomitemanager.topology.max.waiters", 64);
+
+	private final IConfiguration config;
+	private final InstanceIdentity ii;
+	private final TopologyCache topologyCache;
+
+	private final ConcurrentMap<String, RenderedTopology> rendered = new ConcurrentHashMap<String, RenderedTopology>();
+	private final AtomicInteger waiters = new AtomicInteger();
+	private final Counter rejectedWaits = Monitors.newCounter("dynomitemanager__topology__rejected_waits");
+
+	@Inject
+	public TopologyRenderer(IConfiguration config, InstanceIdentity ii, TopologyCache topologyCache) {
+		this.config = config;
+		this.ii = ii;
+		this.topologyCache = topologyCache;
+
+		DefaultMonitorRegistry.getInstance().register(rejectedWaits);
+	}
+
+	/**
+	 * @return the current topology of the cluster
+	 */
+	public Topology getTopology() {
+		return topologyCache.get(config.getDynomiteClusterName());
+	}
+
+	/**
+	 * @return the topology of the cluster once it is no longer of the given version, or after the timeout
+	 */
+	public Topology awaitChange(long version, long timeoutMs) throws InterruptedException {
+		return topologyCache.awaitChange(config.getDynomiteClusterName(), version, timeoutMs);
+	}
+
+	/**
+	 * Takes one of the slots of the requests waiting for the topology to change, to be given back with
+	 * {@link #stopWaiting()}.
+	 *
+	 * @return false if they are all taken
+	 */
+	public boolean tryStartWaiting() {
+		// the limit is read on each call, so that lowering it turns new waiters away while the others finish
+		if (waiters.incrementAndGet() <= MAX_WAITERS.get()) {
+			return true;
+		}
+		waiters.decrementAndGet();
+		rejectedWaits.increment();
+		return false;
+	}
+
+	public void stopWaiting() {
+		waiters.decrementAndGet();
+	}
+
+	/**
+	 * @return the seeds of this node, separated by '|'
+	 */
+	public RenderedTopology getSeeds(Topology topology) {
+		RenderedTopology seeds = getRendered(SEEDS, topology);
+		if (seeds == null) {
+			List<String> list = ii.getSeeds(topology.getInstances());
+			seeds = putRendered(SEEDS, new RenderedTopology(topology.getVersion(), StringUtils.join(list, '|'),
+					list.size()));
+		}
+		return seeds;
+	}
+
+	/**
+	 * @param dc
+	 *            only the nodes of this datacenter, or of all if null
+	 * @param rack
+	 *            only the nodes of this rack, or of all if null
+	 * @return the nodes of the cluster, as a JSON array
+	 */
+	public RenderedTopology getClusterDescription(Topology topology, String dc, String rack) {
+		String key = DESCRIBE + "|" + dc + "|" + rack;
+		RenderedTopology description = getRendered(key, topology);
+		if (description == null) {
+			List<AppsInstance> instances = new ArrayList<AppsInstance>();
+			for (AppsInstance ins : topology.getInstances()) {
+				if ((dc == null || dc.equals(ins.getDatacenter())) && (rack == null || rack.equals(ins.getRack())))
+					instances.add(ins);
+			}
+			List<String> nodes = ii.getClusterInfo(instances);
+			description = putRendered(key, new RenderedTopology(topology.getVersion(),
+					"[" + StringUtils.join(nodes, ',') + "]", nodes.size()));
+		}
+		return description;
+	}
+
+	private RenderedTopology getRendered(String key, Topology topology) {
+		RenderedTopology r = rendered.get(key);
+		return r != null && r.getVersion() == topology.getVersion() ? r : null;
+	}
+
+	private RenderedTopology putRendered(String key, RenderedTopology r) {
+		if (rendered.size() >= MAX_RENDERED && !rendered.containsKey(key)) {
+			rendered.clear();
+		}
+		rendered.put(key, r);
+		return r;
+	}
+}
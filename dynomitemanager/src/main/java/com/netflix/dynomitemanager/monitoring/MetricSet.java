@@ -0,0 +1,211 @@
+/**
+ * Copyright 2016 Netflix, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package com.netflix.dynomitemanager.monitoring;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.netflix.config.DynamicIntProperty;
+import com.netflix.config.DynamicLongProperty;
+import com.netflix.servo.DefaultMonitorRegistry;
+import com.netflix.servo.monitor.Counter;
+import com.netflix.servo.monitor.LongGauge;
+import com.netflix.servo.monitor.MonitorConfig;
+import com.netflix.servo.monitor.Monitors;
+import com.netflix.servo.monitor.NumericMonitor;
+
+/**
+ * The Servo counters and gauges published from a remote source, e.g. Dynomite's stats or Redis INFO, registered with
+ * the {@link DefaultMonitorRegistry} as they first show up.
+ *
+ * Metrics that have not been updated for the idle period are unregistered by {@link #evictIdle()}, so that metrics of
+ * peers that went away do not pile up in the registry. At most a maximum number of metrics are registered; updates
+ * to new metrics over that number are dropped and counted. The live count, evictions and overflow are published as
+ * dynomitemanager__metrics__&lt;name&gt;__live, __evictions and __overflow.
+ */
+public class MetricSet {
+
+    private static final Logger logger = LoggerFactory.getLogger(MetricSet.class);
+
+    private final String name;
+    private final DynamicIntProperty maxMetrics;
+    private final DynamicLongProperty idleMillis;
+
+    private final ConcurrentHashMap<String, TrackedMetric> metrics = new ConcurrentHashMap<String, TrackedMetric>();
+
+    private final Counter evictions;
+    private final Counter overflow;
+
+    /**
+     * @param name
+     *            identifies the set in its own metrics, e.g. "dynomite"
+     * @param maxMetrics
+     *            how many metrics may be registered at most
+     * @param idleMillis
+     *            how long a metric may go without update before it is unregistered
+     */
+    public MetricSet(String name, DynamicIntProperty maxMetrics, DynamicLongProperty idleMillis) {
+        this.name = name;
+        this.maxMetrics = maxMetrics;
+        this.idleMillis = idleMillis;
+
+        String prefix = "dynomitemanager__metrics__" + name + "__";
+        evictions = Monitors.newCounter(prefix + "evictions");
+        overflow = Monitors.newCounter(prefix + "overflow");
+        DefaultMonitorRegistry.getInstance().register(evictions);
+        DefaultMonitorRegistry.getInstance().register(overflow);
+        DefaultMonitorRegistry.getInstance().register(new SampledGauge(prefix + "live") {
+            @Override
+            protected long sample() {
+                return metrics.size();
+            }
+        });
+    }
+
+    /**
+     * Set a gauge, registering it if it is new.
+     */
+    public void updateGauge(String metricName, long value) {
+        TrackedMetric metric = get(metricName, false);
+        if (metric != null) {
+            ((LongGauge) metric.monitor).set(value);
+        }
+    }
+
+    /**
+     * Bring a counter to a cumulative value reported by the source, registering it if it is new.
+     */
+    public void updateCounter(String metricName, long value) {
+        TrackedMetric metric = get(metricName, true);
+        if (metric != null) {
+            Counter counter = (Counter) metric.monitor;
+            counter.increment(value - counter.getValue().longValue());
+        }
+    }
+
+    /**
+     * Count metrics the source dropped before they got here.
+     */
+    public void recordOverflow(long dropped) {
+        overflow.increment(dropped);
+    }
+
+    /**
+     * Unregister the metrics not updated for the idle period.
+     *
+     * @return how many metrics were unregistered
+     */
+    public int evictIdle() {
+        return evictIdle(System.currentTimeMillis());
+    }
+
+    public int evictIdle(long now) {
+        long idleSince = now - idleMillis.get();
+        int evicted = 0;
+        for (Map.Entry<String, TrackedMetric> entry : metrics.entrySet()) {
+            TrackedMetric metric = entry.getValue();
+            if (metric.lastUpdate < idleSince && metrics.remove(entry.getKey(), metric)) {
+                DefaultMonitorRegistry.getInstance().unregister(metric.monitor);
+                evicted++;
+            }
+        }
+
+        if (evicted > 0) {
+            evictions.increment(evicted);
+            logger.info("Unregistered " + evicted + " idle " + name + " metrics, " + metrics.size() + " left");
+        }
+        return evicted;
+    }
+
+    /**
+     * @return the current value of a registered metric, or null if there is no such metric
+     */
+    public Long getValue(String metricName) {
+        TrackedMetric metric = metrics.get(metricName);
+        return metric != null ? metric.monitor.getValue().longValue() : null;
+    }
+
+    /**
+     * @return the number of registered metrics
+     */
+    public int size() {
+        return metrics.size();
+    }
+
+    /**
+     * @return a copy of the registered metrics by name
+     */
+    public Map<String, NumericMonitor<?>> getMonitors() {
+        Map<String, NumericMonitor<?>> monitors = new HashMap<String, NumericMonitor<?>>();
+        for (Map.Entry<String, TrackedMetric> entry : metrics.entrySet()) {
+            monitors.put(entry.getKey(), entry.getValue().monitor);
+        }
+        return monitors;
+    }
+
+    private TrackedMetric get(String metricName, boolean counter) {
+        long now = System.currentTimeMillis();
+
+        TrackedMetric metric = metrics.get(metricName);
+        if (metric != null && metric.counter == counter) {
+            metric.lastUpdate = now;
+            return metric;
+        }
+
+        if (metric != null) {
+            // the metric changed kind, e.g. it was added to a gauge whitelist
+            if (metrics.remove(metricName, metric)) {
+                DefaultMonitorRegistry.getInstance().unregister(metric.monitor);
+            }
+        } else if (metrics.size() >= maxMetrics.get()) {
+            overflow.increment();
+            if (logger.isDebugEnabled()) {
+                logger.debug("Dropped " + name + " metric " + metricName + " over the limit of " + maxMetrics.get());
+            }
+            return null;
+        }
+
+        NumericMonitor<?> monitor;
+        if (counter) {
+            monitor = Monitors.newCounter(metricName);
+        } else {
+            monitor = new LongGauge(MonitorConfig.builder(metricName).build());
+        }
+        TrackedMetric created = new TrackedMetric(monitor, counter, now);
+
+        metric = metrics.putIfAbsent(metricName, created);
+        if (metric == null) {
+            DefaultMonitorRegistry.getInstance().register(monitor);
+            return created;
+        }
+        // someone beat us to it, take theirs instead
+        metric.lastUpdate = now;
+        return metric.counter == counter ? metric : null;
+    }
+
+    private static class TrackedMetric {
+        private final NumericMonitor<?> monitor;
+        private final boolean counter;
+        private volatile long lastUpdate;
+
+        private TrackedMetric(NumericMonitor<?> monitor, boolean counter, long lastUpdate) {
+            this.monitor = monitor;
+            this.counter = counter;
+            this.lastUpdate = lastUpdate;
+        }
+    }
+}
@@ -12,94 +12,124 @@
  */
 package com.netflix.dynomitemanager.monitoring;
 
-import java.io.ByteArrayInputStream;
-import java.io.InputStreamReader;
-import java.util.HashSet;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
-import java.util.Set;
-import java.util.concurrent.ConcurrentHashMap;
+import java.util.regex.Pattern;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import redis.clients.jedis.Jedis;
-
 import com.google.inject.Inject;
 import com.google.inject.Singleton;
+import com.netflix.config.DynamicIntProperty;
+import com.netflix.config.DynamicLongProperty;
+import com.netflix.config.DynamicPropertyFactory;
+import com.netflix.config.DynamicStringProperty;
 import com.netflix.dynomitemanager.defaultimpl.IConfiguration;
 import com.netflix.dynomitemanager.sidecore.scheduler.SimpleTimer;
 import com.netflix.dynomitemanager.sidecore.scheduler.Task;
 import com.netflix.dynomitemanager.sidecore.scheduler.TaskTimer;
-import com.netflix.dynomitemanager.sidecore.storage.IStorageProxy;
+import com.netflix.dynomitemanager.sidecore.storage.InfoSampler;
 import com.netflix.dynomitemanager.sidecore.storage.RedisInfoParser;
-import com.netflix.servo.DefaultMonitorRegistry;
-import com.netflix.servo.monitor.Counter;
-import com.netflix.servo.monitor.LongGauge;
-import com.netflix.servo.monitor.MonitorConfig;
-import com.netflix.servo.monitor.Monitors;
-import com.netflix.servo.monitor.NumericMonitor;
 
 @Singleton
 public class RedisInfoMetricsTask extends Task {
 
     private static final Logger Logger = LoggerFactory.getLogger(RedisInfoMetricsTask.class);
 
-    private static final Set<String> COUNTER_LIST = new HashSet<String>();
+    // how old the shared INFO snapshot may be when metrics are published
+    private static final DynamicIntProperty maxAgeMs = DynamicPropertyFactory.getInstance()
+            .getIntProperty("florida.storage.info.metrics.max.age.ms", 5000);
 
-    static {
-        COUNTER_LIST.add("Redis_Stats_instantaneous_ops_per_sec");
-    }
+    // the INFO section to fetch; "all" is needed for commandstats
+    private static final DynamicStringProperty section = DynamicPropertyFactory.getInstance()
+            .getStringProperty("florida.storage.info.metrics.section", InfoSampler.ALL);
+
+    // which INFO fields are published, see RedisInfoParser
+    private static final DynamicStringProperty whiteList = DynamicPropertyFactory.getInstance()
+            .getStringProperty("florida.storage.info.metrics.whitelist", RedisInfoParser.DEFAULT_WHITE_LIST);
+
+    // metrics published as counters rather than gauges, comma separated globs
+    private static final DynamicStringProperty counters = DynamicPropertyFactory.getInstance().getStringProperty(
+            "florida.storage.info.metrics.counters",
+            "Redis_Stats_instantaneous_ops_per_sec,Redis_Stats_sync_*,Redis_Commandstats_*_calls,Redis_Commandstats_*_usec");
+
+    // upper bound on the number of published metrics, keyspace and
+    // commandstats grow with the number of dbs and commands in use
+    private static final DynamicIntProperty maxMetrics = DynamicPropertyFactory.getInstance()
+            .getIntProperty("florida.storage.info.metrics.max", RedisInfoParser.DEFAULT_MAX_METRICS);
+
+    // how long a metric, e.g. of a command not called anymore after CONFIG
+    // RESETSTAT, may go without update before it is unregistered
+    private static final DynamicLongProperty idleMs = DynamicPropertyFactory.getInstance()
+            .getLongProperty("florida.storage.info.metrics.idle.ms", 10 * 60 * 1000);
 
     // The Task name for identification
     public static final String TaskName = "Redis-Info-Task";
 
-    private final ConcurrentHashMap<String, LongGauge> redisInfoGaugeMetrics = new ConcurrentHashMap<String, LongGauge>();
-    private final ConcurrentHashMap<String, NumericMonitor<Number>> redisInfoCounterMap = new ConcurrentHashMap<String, NumericMonitor<Number>>();
+    private final MetricSet metrics = new MetricSet("redis", maxMetrics, idleMs);
+
+    private final InfoSampler infoSampler;
+    private final RedisInfoParser infoParser = new RedisInfoParser(whiteList.get(), maxMetrics.get());
+    private long reportedOverflow;
 
-    private JedisFactory jedisFactory;
-    private IStorageProxy storageProxy;
+    private String counterSpec;
+    private final List<Pattern> counterPatterns = new ArrayList<Pattern>();
+    // whether each metric is a counter, matched against the patterns once
+    private final Map<String, Boolean> counterKinds = new HashMap<String, Boolean>();
 
     /**
      * Default constructor
      * 
      * @param config
-     * @param storageProxy
-     * @param jedisFactory
+     * @param infoSampler
      */
     @Inject
-    public RedisInfoMetricsTask(IConfiguration config, IStorageProxy storageProxy, JedisFactory jedisFactory) {
+    public RedisInfoMetricsTask(IConfiguration config, InfoSampler infoSampler) {
         super(config);
-        this.jedisFactory = jedisFactory;
-        this.storageProxy = storageProxy;
+        this.infoSampler = infoSampler;
     }
 
     @Override
     public void execute() throws Exception {
-        Jedis jedis = jedisFactory.newInstance(storageProxy.getIpAddress(),storageProxy.getPort());
-
         try {
-            jedis.connect();
-            String s = jedis.info();
-
-            InputStreamReader reader = new InputStreamReader(new ByteArrayInputStream(s.getBytes()));
-            RedisInfoParser infoParser = new RedisInfoParser();
-            Map<String, Long> metrics = infoParser.parse(reader);
-
-            processMetrics(metrics);
+            byte[] info = infoSampler.get(section.get(), maxAgeMs.get()).getRaw();
+
+            synchronized (infoParser) {
+                infoParser.setWhiteList(whiteList.get());
+                infoParser.setMaxMetrics(maxMetrics.get());
+                updateCounterPatterns(counters.get());
+
+                infoParser.parse(info);
+                processMetrics();
+                metrics.evictIdle();
+
+                long dropped = infoParser.getOverflowCount();
+                if (dropped > reportedOverflow) {
+                    Logger.warn("Dropped " + (dropped - reportedOverflow) + " Redis INFO metrics over the limit of "
+                            + maxMetrics.get());
+                    metrics.recordOverflow(dropped - reportedOverflow);
+                    reportedOverflow = dropped;
+                }
+            }
 
         } catch (Exception e) {
             Logger.error("Could not get jedis info metrics", e);
-        } finally {
-            jedis.disconnect();
         }
     }
 
-    private void processMetrics(Map<String, Long> metrics) {
-        for (String key : metrics.keySet()) {
+    private void processMetrics() {
+        for (int id = 0; id < infoParser.getMetricCount(); id++) {
+            if (!infoParser.isPresent(id)) {
+                continue;
+            }
 
-            Long value = metrics.get(key);
+            String key = infoParser.getName(id);
+            long value = infoParser.getValue(id);
 
-            if (COUNTER_LIST.contains(key)) {
+            if (isCounter(key)) {
                 processCounterMetric(key, value);
             } else {
                 processGaugeMetric(key, value);
@@ -107,57 +137,51 @@ public class RedisInfoMetricsTask extends Task {
         }
     }
 
-    private void processGaugeMetric(String key, Long value) {
-        if (Logger.isDebugEnabled()) {
-            Logger.debug("Process gauge: " + key + " " + value);
-        }
-
-        LongGauge oldGauge = redisInfoGaugeMetrics.get(key);
-        if (oldGauge != null) {
-            oldGauge.set(value);
+    private void updateCounterPatterns(String spec) {
+        if (spec.equals(counterSpec)) {
             return;
         }
-
-        // create a new long gauge
-        LongGauge newGauge = new LongGauge(MonitorConfig.builder(key).build());
-
-        oldGauge = redisInfoGaugeMetrics.putIfAbsent(key, newGauge);
-        if (oldGauge == null) {
-            newGauge.set(value);
-            DefaultMonitorRegistry.getInstance().register(newGauge);
-        } else {
-            // someone else beat us to it. just use the oldGauge
-            oldGauge.set(value);
+        counterPatterns.clear();
+        counterKinds.clear();
+        for (String glob : spec.split(",")) {
+            if (!glob.trim().isEmpty()) {
+                counterPatterns.add(RedisInfoParser.glob(glob.trim()));
+            }
         }
+        counterSpec = spec;
     }
 
-    private void processCounterMetric(String counterName, Long val) {
-
-        if (Logger.isDebugEnabled()) {
-            Logger.debug("Process counter: " + counterName + " " + val);
+    private boolean isCounter(String key) {
+        Boolean counter = counterKinds.get(key);
+        if (counter == null) {
+            counter = Boolean.FALSE;
+            for (Pattern pattern : counterPatterns) {
+                if (pattern.matcher(key).matches()) {
+                    counter = Boolean.TRUE;
+                    break;
+                }
+            }
+            // the parser bounds the number of metrics, but keep the map bounded should that change
+            if (counterKinds.size() >= 2 * maxMetrics.get()) {
+                counterKinds.clear();
+            }
+            counterKinds.put(key, counter);
         }
+        return counter;
+    }
 
-        NumericMonitor<Number> counter = redisInfoCounterMap.get(counterName);
-        if (counter != null) {
-            long increment = val - counter.getValue().longValue();
-            ((Counter) counter).increment(increment);
-            return;
+    private void processGaugeMetric(String key, long value) {
+        if (Logger.isDebugEnabled()) {
+            Logger.debug("Process gauge: " + key + " " + value);
         }
+        metrics.updateGauge(key, value);
+    }
 
-        counter = Monitors.newCounter(counterName);
-        NumericMonitor<Number> oldCounter = redisInfoCounterMap.putIfAbsent(counterName, counter);
-
-        if (oldCounter == null) {
-            // this is the 1st time
-            DefaultMonitorRegistry.getInstance().register(counter);
-        } else {
-            // someone beat us to it, take their obj instead
-            counter = oldCounter;
+    private void processCounterMetric(String counterName, long val) {
+        if (Logger.isDebugEnabled()) {
+            Logger.debug("Process counter: " + counterName + " " + val);
         }
-
-        long increment = val - counter.getValue().longValue();
-        ((Counter) counter).increment(increment);
-
+        metrics.updateCounter(counterName, val);
     }
 
     @Override
@@ -0,0 +1,44 @@
+/**
+ * Copyright 2016 Netflix, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package com.netflix.dynomitemanager.monitoring;
+
+import com.netflix.servo.monitor.Gauge;
+import com.netflix.servo.monitor.MonitorConfig;
+
+/**
+ * Gauge whose value is sampled from the owning component every time Servo polls it.
+ */
+public abstract class SampledGauge implements Gauge<Number> {
+
+    private final MonitorConfig mConfig;
+
+    public SampledGauge(String name) {
+        mConfig = MonitorConfig.builder(name).build();
+    }
+
+    protected abstract long sample();
+
+    @Override
+    public Number getValue() {
+        return sample();
+    }
+
+    public Number getValue(int pollerIndex) {
+        return getValue();
+    }
+
+    @Override
+    public MonitorConfig getConfig() {
+        return mConfig;
+    }
+}
@@ -20,19 +20,28 @@ import com.netflix.dynomitemanager.defaultimpl.IConfiguration;
 import com.netflix.dynomitemanager.sidecore.scheduler.SimpleTimer;
 import com.netflix.dynomitemanager.sidecore.scheduler.Task;
 import com.netflix.dynomitemanager.sidecore.scheduler.TaskTimer;
-import com.netflix.servo.DefaultMonitorRegistry;
 import com.netflix.servo.monitor.*;
 import org.apache.commons.httpclient.HttpClient;
+import org.apache.commons.httpclient.SimpleHttpConnectionManager;
 import org.apache.commons.httpclient.methods.GetMethod;
-import org.json.simple.JSONObject;
+import org.json.simple.parser.ContentHandler;
 import org.json.simple.parser.JSONParser;
+import org.json.simple.parser.ParseException;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.io.StringReader;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.HashMap;
 import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
 import java.util.Set;
-import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.atomic.AtomicReference;
 
 /**
@@ -58,8 +67,15 @@ import java.util.concurrent.atomic.AtomicReference;
  *
  * 4. Note that this class maintains a map of servo counters and gauges, so that
  * they don't have to be recreated all the time. Hence this class maintains
- * state and needs to be a singleton.
+ * state and needs to be a singleton. Metrics that are not in the responses
+ * anymore are unregistered after 'dynomitemanager.metrics.idle.ms', and at
+ * most 'dynomitemanager.metrics.max' metrics are tracked, see {@link MetricSet}.
  *
+ * 5. The connection to Dynomite is kept open between polls, and the response
+ * is parsed as a stream of json events into a tree of the paths seen so far.
+ * Each path caches its flattened name, so a poll only builds names for paths
+ * it has not seen before. This keeps a poll cheap enough to run every few
+ * seconds, see 'dynomitemanager.metrics.interval.ms'.
  *
  */
 @Singleton
@@ -70,6 +86,21 @@ public class ServoMetricsTask extends Task {
     // The Task name for identification
     public static final String TaskName = "Servo-Metrics-Task";
 
+    // Fast Property for configuring how often Dynomite's stats are polled,
+    // read when the task is scheduled
+    private static final DynamicIntProperty MetricsInterval = DynamicPropertyFactory.getInstance()
+            .getIntProperty("dynomitemanager.metrics.interval.ms", 15 * 1000);
+
+    private static final String[] FIELDS = { "latency_max", "latency_999th", "latency_99th", "latency_95th",
+            "latency_mean", "payload_size_max", "payload_size_999th", "payload_size_99th", "payload_size_95th",
+            "payload_size_mean", "alloc_msgs", "free_msgs", "average_cross_region_rtt", "99_cross_region_rtt",
+            "average_cross_zone_latency", "99_cross_zone_latency", "average_server_latency", "99_server_latency",
+            "average_cross_region_queue_wait", "99_cross_region_queue_wait", "average_cross_zone_queue_wait",
+            "99_cross_zone_queue_wait", "average_server_queue_wait", "99_server_queue_wait", "client_out_queue_99",
+            "server_in_queue_99", "server_out_queue_99", "dnode_client_out_queue_99", "peer_in_queue_99",
+            "peer_out_queue_99", "remote_peer_in_queue_99", "remote_peer_out_queue_99", "alloc_mbufs",
+            "free_mbufs" };
+
     // Fast Property for configuring the remote resource to talk to
     private final DynamicStringProperty ServerMetricsUrl = DynamicPropertyFactory.getInstance()
             .getStringProperty("dynomitemanager.metrics.url", "http://localhost:22222/info");
@@ -83,11 +114,28 @@ public class ServoMetricsTask extends Task {
     // if the fast property is changed externally
     private final AtomicReference<Set<String>> gaugeFilter = new AtomicReference<Set<String>>(new HashSet<String>());
 
-    // The map of servo metrics
-    private final ConcurrentHashMap<String, NumericMonitor<Number>> metricMap = new ConcurrentHashMap<String, NumericMonitor<Number>>();
+    // Fast Properties bounding the servo metrics: how many at most, and how
+    // long a metric, e.g. of a peer that was replaced, may go without update
+    // before it is unregistered
+    private static final DynamicIntProperty MaxMetrics = DynamicPropertyFactory.getInstance()
+            .getIntProperty("dynomitemanager.metrics.max", 5000);
+    private static final DynamicLongProperty MetricsIdleMs = DynamicPropertyFactory.getInstance()
+            .getLongProperty("dynomitemanager.metrics.idle.ms", 10 * 60 * 1000);
+
+    // The servo metrics
+    private final MetricSet metrics = new MetricSet("dynomite", MaxMetrics, MetricsIdleMs);
 
     private final InstanceState state;
 
+    // kept between polls so that the connection to Dynomite is reused
+    private final HttpClient client;
+
+    // the paths seen in the json responses so far
+    private final PathNode root = new PathNode(null, null);
+    private final JSONParser parser = new JSONParser();
+    private final ResponseHandler handler = new ResponseHandler();
+    private int generation;
+
     /**
      * Default constructor
      * 
@@ -99,6 +147,11 @@ public class ServoMetricsTask extends Task {
         super(config);
         this.state = state;
 
+        client = new HttpClient(new SimpleHttpConnectionManager());
+        client.getHttpConnectionManager().getParams().setConnectionTimeout(2000);
+        client.getHttpConnectionManager().getParams().setSoTimeout(5000);
+        client.getHttpConnectionManager().getParams().setStaleCheckingEnabled(true);
+
         initGaugeWhitelist();
 
         GaugeWhitelist.addCallback(new Runnable() {
@@ -111,13 +164,13 @@ public class ServoMetricsTask extends Task {
     }
 
     /**
-     * Returns a timer that enables this task to run once every 60 seconds
+     * Returns a timer that enables this task to run once every
+     * 'dynomitemanager.metrics.interval.ms', 15 seconds by default
      * 
      * @return TaskTimer
      */
     public static TaskTimer getTimer() {
-        // run once every 30 seconds
-        return new SimpleTimer(TaskName, 15 * 1000);
+        return new SimpleTimer(TaskName, MetricsInterval.get());
     }
 
     /**
@@ -131,10 +184,17 @@ public class ServoMetricsTask extends Task {
     }
 
     /**
-     * @return metricMap
+     * @return a copy of the servo metrics by name
+     */
+    public Map<String, NumericMonitor<?>> getMetricsMap() {
+        return metrics.getMonitors();
+    }
+
+    /**
+     * @return the current value of a servo metric, e.g. "dynomite__latency_99th", or null if it is not tracked
      */
-    public ConcurrentHashMap<String, NumericMonitor<Number>> getMetricsMap() {
-        return metricMap;
+    public Long getMetric(String name) {
+        return metrics.getValue(name);
     }
 
     /**
@@ -150,7 +210,6 @@ public class ServoMetricsTask extends Task {
     @Override
     public void execute() throws Exception {
 
-        HttpClient client = null;
         GetMethod get = null;
 
         // update health state. I think we can merge the health check and info
@@ -160,8 +219,6 @@ public class ServoMetricsTask extends Task {
         processGaugeMetric("dynomite__health", state.isHealthy() ? 1L : 0L);
 
         try {
-            client = new HttpClient();
-            client.getHttpConnectionManager().getParams().setConnectionTimeout(2000);
             get = new GetMethod(ServerMetricsUrl.get());
 
             int statusCode = client.executeMethod(get);
@@ -170,31 +227,28 @@ public class ServoMetricsTask extends Task {
                 return;
             }
 
-            String response = get.getResponseBodyAsString();
+            InputStream body = get.getResponseBodyAsStream();
+            if (body == null) {
+                Logger.error("Cannot parse empty response from " + ServerMetricsUrl.get());
+                return;
+            }
             if (Logger.isDebugEnabled()) {
-                Logger.debug("Received response from " + ServerMetricsUrl.get() + "\n" + response);
+                Logger.debug("Received response from " + ServerMetricsUrl.get() + ", "
+                        + get.getResponseContentLength() + " bytes");
             }
 
-            if (!response.isEmpty()) {
-                processJsonResponse(response);
-            } else {
-                Logger.error("Cannot parse empty response from " + ServerMetricsUrl.get());
-            }
+            processJsonResponse(new InputStreamReader(body, get.getResponseCharSet()));
+            metrics.evictIdle();
 
         } catch (Exception e) {
             Logger.error("Failed to get metrics from Dynomite's REST endpoint: " + ServerMetricsUrl.get(), e);
-            e.printStackTrace();
         } catch (Throwable t) {
             Logger.error("FAILED to get metrics from Dynomite's REST endpoint: " + ServerMetricsUrl.get(), t);
-            t.printStackTrace();
         } finally {
             if (get != null) {
+                // hands the connection back for the next poll
                 get.releaseConnection();
             }
-            if (client != null) {
-                client.getHttpConnectionManager().closeIdleConnections(10);
-            }
-
         }
     }
 
@@ -217,47 +271,49 @@ public class ServoMetricsTask extends Task {
      * @throws Exception
      */
     public void processJsonResponse(String json) throws Exception {
+        processJsonResponse(new StringReader(json));
+    }
 
-        JSONParser parser = new JSONParser();
-        JSONObject obj = (JSONObject) parser.parse(json);
+    /**
+     * Parse the Json Payload from a stream and convert it to metrics. See
+     * {@link #processJsonResponse(String)}.
+     *
+     * @param json
+     * @throws Exception
+     */
+    public synchronized void processJsonResponse(Reader json) throws Exception {
 
-        String service = (String) obj.get("service");
+        generation++;
+        handler.reset(System.currentTimeMillis());
+        try {
+            parser.parse(json, handler);
+        } finally {
+            json.close();
+        }
+
+        PathNode serviceNode = root.child("service");
+        String service = serviceNode.generation == generation ? serviceNode.text : null;
 
-        if (service.isEmpty()) {
-            Logger.error("Missing required key 'service' in json response: " + json);
+        if (service == null || service.isEmpty()) {
+            Logger.error("Missing required key 'service' in json response");
             return;
         }
 
         // uptime
-        Long uptime = (Long) obj.get("uptime");
-        if (uptime == null) {
-            Logger.error("Missing required key 'uptime' in json response: " + json);
-            uptime = 0L;
+        PathNode uptime = root.child("uptime");
+        if (uptime.generation != generation) {
+            Logger.error("Missing required key 'uptime' in json response");
         }
-        processCounterMetric(service + "__uptime", uptime);
-
-        String[] fields = { "latency_max", "latency_999th", "latency_99th", "latency_95th", "latency_mean",
-                "payload_size_max", "payload_size_999th", "payload_size_99th", "payload_size_95th", "payload_size_mean",
-                "alloc_msgs", "free_msgs", "average_cross_region_rtt", "payload_size_mean", "alloc_msgs", "free_msgs",
-                "average_cross_region_rtt", "99_cross_region_rtt", "average_cross_zone_latency",
-                "99_cross_zone_latency", "average_server_latency", "99_server_latency",
-                "average_cross_region_queue_wait", "99_cross_region_queue_wait", "average_cross_zone_queue_wait",
-                "99_cross_zone_queue_wait", "average_server_queue_wait", "99_server_queue_wait", "client_out_queue_99",
-                "server_in_queue_99", "server_out_queue_99", "dnode_client_out_queue_99", "peer_in_queue_99",
-                "peer_out_queue_99", "remote_peer_in_queue_99", "remote_peer_out_queue_99", "alloc_mbufs",
-                "free_mbufs" };
-        for (int i = 0; i < fields.length; i++) {
-            Long val = (Long) obj.get(fields[i]);
-            if (val == null) {
-                // Logger.error("Missing required key " + fields[i] + " in json
-                // response: " + json);
-                val = 0L;
-            }
-            processGaugeMetric(service + "__" + fields[i], val);
+        processCounterMetric(uptime.name(service), uptime.generation == generation ? uptime.value : 0L);
+
+        for (int i = 0; i < FIELDS.length; i++) {
+            PathNode field = root.child(FIELDS[i]);
+            processGaugeMetric(field.name(service), field.generation == generation ? field.value : 0L);
         }
-        JSONObject stats = (JSONObject) obj.get("dyn_o_mite");
-        if (stats == null) {
-            Logger.error("Missing key 'dyn_o_mite' in json response: " + json);
+
+        PathNode stats = root.child("dyn_o_mite");
+        if (stats.generation != generation || stats.children == null) {
+            Logger.error("Missing key 'dyn_o_mite' in json response");
             return;
         }
         parseObjectMetrics(service, stats);
@@ -267,21 +323,31 @@ public class ServoMetricsTask extends Task {
      * Helper to recursively flatten out a metric from a nested collection
      * 
      * @param namePrefix
-     * @param obj
+     * @param node
      */
-    private void parseObjectMetrics(String namePrefix, JSONObject obj) {
+    private void parseObjectMetrics(String namePrefix, PathNode node) {
 
-        for (Object key : obj.keySet()) {
+        long idleSince = handler.now - MetricsIdleMs.get();
+        for (int i = 0; i < node.childList.size(); i++) {
 
-            Object val = obj.get(key);
+            PathNode child = node.childList.get(i);
+            if (child.generation != generation) {
+                if (child.lastSeen < idleSince) {
+                    // e.g. a peer that was replaced, its metrics are evicted
+                    // as well
+                    node.remove(i--);
+                }
+                continue;
+            }
 
-            if (val instanceof JSONObject) {
-                parseObjectMetrics(namePrefix + "__" + key, (JSONObject) val);
-            } else {
-                if (gaugeFilter.get().contains((String) key)) {
-                    processGaugeMetric(namePrefix + "__" + (String) key, (Long) val);
+            String name = child.name(namePrefix);
+            if (child.children != null) {
+                parseObjectMetrics(name, child);
+            } else if (child.text == null) {
+                if (gaugeFilter.get().contains(child.key)) {
+                    processGaugeMetric(name, child.value);
                 } else {
-                    processCounterMetric(namePrefix + "__" + (String) key, (Long) val);
+                    processCounterMetric(name, child.value);
                 }
             }
         }
@@ -295,33 +361,12 @@ public class ServoMetricsTask extends Task {
      * @param counterName
      * @param val
      */
-    private void processCounterMetric(String counterName, Long val) {
+    private void processCounterMetric(String counterName, long val) {
 
         if (Logger.isDebugEnabled()) {
             Logger.debug("Process counter: " + counterName + " " + val);
         }
-
-        NumericMonitor<Number> counter = metricMap.get(counterName);
-        if (counter != null) {
-            long increment = val - counter.getValue().longValue();
-            ((Counter) counter).increment(increment);
-            return;
-        }
-
-        counter = Monitors.newCounter(counterName);
-        NumericMonitor<Number> oldCounter = metricMap.putIfAbsent(counterName, counter);
-
-        if (oldCounter == null) {
-            // this is the 1st time
-            DefaultMonitorRegistry.getInstance().register(counter);
-        } else {
-            // someone beat us to it, take their obj instead
-            counter = oldCounter;
-        }
-
-        long increment = val - counter.getValue().longValue();
-        ((Counter) counter).increment(increment);
-
+        metrics.updateCounter(counterName, val);
     }
 
     /**
@@ -331,27 +376,12 @@ public class ServoMetricsTask extends Task {
      * @param gaugeName
      * @param val
      */
-    private void processGaugeMetric(String gaugeName, Long val) {
+    private void processGaugeMetric(String gaugeName, long val) {
 
         if (Logger.isDebugEnabled()) {
             Logger.debug("Process guage: " + gaugeName + " " + val);
         }
-
-        NumericMonitor<Number> gauge = metricMap.get(gaugeName);
-        if (gauge != null) {
-            ((SimpleGauge) gauge).setValue(val);
-            return;
-        }
-
-        gauge = new SimpleGauge(gaugeName, val);
-        NumericMonitor<Number> oldGauge = metricMap.putIfAbsent(gaugeName, gauge);
-
-        if (oldGauge == null) {
-            ((SimpleGauge) gauge).setValue(val);
-            DefaultMonitorRegistry.getInstance().register(gauge);
-        } else {
-            ((SimpleGauge) oldGauge).setValue(val);
-        }
+        metrics.updateGauge(gaugeName, val);
     }
 
     /**
@@ -381,38 +411,153 @@ public class ServoMetricsTask extends Task {
     }
 
     /**
-     * Simple impl of the {@link Gauge} Note that it maintains a threadsafe
-     * reference to the actual value being monitored
-     *
-     * @author poberai
-     *
+     * A path in the json responses, e.g. dyn_o_mite -&gt; 127.0.0.1 -&gt;
+     * requests. Keeps the value of the last response and its flattened name.
      */
-    private class SimpleGauge implements Gauge<Number> {
+    private static class PathNode {
+
+        private final PathNode parent;
+        private final String key;
+
+        // null for a leaf, children are kept in a list too so that they can be
+        // walked without an iterator
+        private Map<String, PathNode> children;
+        private final List<PathNode> childList = new ArrayList<PathNode>(0);
+
+        // the last response this path was seen in, when, and its value there
+        private int generation;
+        private long lastSeen;
+        private long value;
+        private String text;
+
+        private String name;
+        private String namePrefix;
+
+        private PathNode(PathNode parent, String key) {
+            this.parent = parent;
+            this.key = key;
+        }
+
+        private PathNode child(String childKey) {
+            if (children == null) {
+                children = new HashMap<String, PathNode>();
+            }
+            PathNode child = children.get(childKey);
+            if (child == null) {
+                child = new PathNode(this, childKey);
+                children.put(childKey, child);
+                childList.add(child);
+            }
+            return child;
+        }
+
+        private void remove(int index) {
+            PathNode child = childList.get(index);
+            PathNode last = childList.remove(childList.size() - 1);
+            if (last != child) {
+                childList.set(index, last);
+            }
+            children.remove(child.key);
+        }
+
+        /**
+         * @return prefix__key, built only when the prefix changes
+         */
+        private String name(String prefix) {
+            if (name == null || !prefix.equals(namePrefix)) {
+                name = prefix + "__" + key;
+                namePrefix = prefix;
+            }
+            return name;
+        }
+    }
+
+    /**
+     * Records the values of a json response into the path tree as the parser
+     * goes through it.
+     */
+    private class ResponseHandler implements ContentHandler {
+
+        private PathNode current;
+        // values inside arrays are not metrics
+        private int arrayDepth;
+        private long now;
 
-        private final MonitorConfig mConfig;
-        private final AtomicReference<Number> value = new AtomicReference<Number>(null);
+        private void reset(long now) {
+            current = root;
+            arrayDepth = 0;
+            this.now = now;
+        }
+
+        @Override
+        public void startJSON() throws ParseException, IOException {
+        }
+
+        @Override
+        public void endJSON() throws ParseException, IOException {
+        }
 
-        private SimpleGauge(String name, Number number) {
-            mConfig = MonitorConfig.builder(name).build();
-            value.set(number);
+        @Override
+        public boolean startObject() throws ParseException, IOException {
+            if (arrayDepth == 0 && current.children == null) {
+                current.children = new HashMap<String, PathNode>();
+            }
+            return true;
         }
 
         @Override
-        public Number getValue() {
-            return value.get();
+        public boolean endObject() throws ParseException, IOException {
+            return true;
         }
 
-        public Number getValue(int pollerIndex) {
-            return getValue();
+        @Override
+        public boolean startObjectEntry(String key) throws ParseException, IOException {
+            if (arrayDepth == 0) {
+                current = current.child(key);
+                current.generation = generation;
+                current.lastSeen = now;
+                current.text = null;
+            }
+            return true;
         }
 
         @Override
-        public MonitorConfig getConfig() {
-            return mConfig;
+        public boolean endObjectEntry() throws ParseException, IOException {
+            if (arrayDepth == 0) {
+                current = current.parent;
+            }
+            return true;
         }
 
-        public void setValue(Number n) {
-            value.set(n);
+        @Override
+        public boolean startArray() throws ParseException, IOException {
+            if (arrayDepth == 0) {
+                current.text = "";
+            }
+            arrayDepth++;
+            return true;
+        }
+
+        @Override
+        public boolean endArray() throws ParseException, IOException {
+            arrayDepth--;
+            return true;
+        }
+
+        @Override
+        public boolean primitive(Object value) throws ParseException, IOException {
+            if (arrayDepth > 0 || current == root) {
+                return true;
+            }
+            if (value instanceof Number) {
+                current.value = ((Number) value).longValue();
+            } else if (value instanceof String) {
+                current.text = (String) value;
+            } else {
+                // booleans and nulls are not metrics
+                current.text = String.valueOf(value);
+            }
+            return true;
         }
     }
 }
@@ -13,23 +13,26 @@
 package com.netflix.dynomitemanager.resources;
 
 import java.io.IOException;
-import java.util.List;
 import java.util.concurrent.ExecutionException;
 
 import javax.ws.rs.DefaultValue;
 import javax.ws.rs.GET;
+import javax.ws.rs.HeaderParam;
 import javax.ws.rs.Path;
 import javax.ws.rs.PathParam;
 import javax.ws.rs.Produces;
 import javax.ws.rs.QueryParam;
+import javax.ws.rs.core.EntityTag;
 import javax.ws.rs.core.MediaType;
 import javax.ws.rs.core.Response;
+import javax.ws.rs.core.Response.ResponseBuilder;
 
 import org.apache.cassandra.exceptions.ConfigurationException;
 import org.apache.commons.lang.StringUtils;
 import org.codehaus.jettison.json.JSONObject;
 import org.codehaus.jettison.json.JSONArray;
 import org.codehaus.jettison.json.JSONException;
+import org.joda.time.format.DateTimeFormat;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -37,12 +40,18 @@ import com.google.inject.Inject;
 import com.netflix.dynomitemanager.InstanceState;
 import com.netflix.dynomitemanager.dynomite.IDynomiteProcess;
 import com.netflix.dynomitemanager.identity.InstanceIdentity;
+import com.netflix.dynomitemanager.identity.RenderedTopology;
+import com.netflix.dynomitemanager.identity.TopologyCache.Topology;
+import com.netflix.dynomitemanager.identity.TopologyRenderer;
+import com.netflix.dynomitemanager.sidecore.backup.ClusterRestore;
+import com.netflix.dynomitemanager.sidecore.backup.RdbAnalyzer;
 import com.netflix.dynomitemanager.sidecore.backup.RestoreTask;
 import com.netflix.dynomitemanager.sidecore.backup.SnapshotTask;
 import com.netflix.dynomitemanager.resources.DynomiteAdmin;
 import com.netflix.dynomitemanager.sidecore.storage.IStorageProxy;
 import com.netflix.dynomitemanager.sidecore.storage.StorageProcessManager;
 import com.netflix.dynomitemanager.sidecore.storage.Bootstrap;
+import com.netflix.dynomitemanager.sidecore.storage.WarmupProgress;
 
 /**
  *  DM's REST end-point 
@@ -53,6 +62,8 @@ public class DynomiteAdmin {
 
     private static final String REST_HEADER_TOKEN = "token";
     private static final String REST_SUCCESS = "[\"ok\"]";
+    // the longest a request waits for the topology to change
+    private static final long MAX_WAIT_FOR_CHANGE_MS = 60000;
     private static final Logger logger = LoggerFactory.getLogger(DynomiteAdmin.class);
     private IDynomiteProcess dynoProcess;
     private InstanceIdentity ii;
@@ -61,12 +72,16 @@ public class DynomiteAdmin {
     private RestoreTask restoreBackup;
     private IStorageProxy storage;
     private StorageProcessManager storageProcessMgr;
-
+    private WarmupProgress warmupProgress;
+    private RdbAnalyzer rdbAnalyzer;
+    private ClusterRestore clusterRestore;
+    private TopologyRenderer topologyRenderer;
 
     @Inject
     public DynomiteAdmin(IDynomiteProcess dynoProcess, InstanceIdentity ii, InstanceState instanceState,
 	    SnapshotTask snapshotBackup, RestoreTask restoreBackup, IStorageProxy storage,
-	    StorageProcessManager storageProcessMgr) {
+	    StorageProcessManager storageProcessMgr, WarmupProgress warmupProgress, RdbAnalyzer rdbAnalyzer,
+	    ClusterRestore clusterRestore, TopologyRenderer topologyRenderer) {
 	this.dynoProcess = dynoProcess;
 	this.ii = ii;
 	this.instanceState = instanceState;
@@ -74,6 +89,10 @@ public class DynomiteAdmin {
 	this.restoreBackup = restoreBackup;
 	this.storage = storage;
 	this.storageProcessMgr = storageProcessMgr;
+	this.warmupProgress = warmupProgress;
+	this.rdbAnalyzer = rdbAnalyzer;
+	this.clusterRestore = clusterRestore;
+	this.topologyRenderer = topologyRenderer;
     }
 
     @GET
@@ -158,34 +177,37 @@ public class DynomiteAdmin {
 	return Response.ok(REST_SUCCESS, MediaType.APPLICATION_JSON).build();
     }
 
+    /**
+     * The seeds of this node, tagged with their hash. A request whose If-None-Match has the tag of the current seeds
+     * gets a 304, after waiting up to waitForChangeMs for them to change, or right away for an If-None-Match of *.
+     * When too many requests are waiting already, it gets a 503 with a Retry-After instead.
+     */
     @GET
     @Path("/{get_seeds : (?i)get_seeds}")
-    public Response getSeeds() {
-	try {
-	    final List<String> seeds = ii.getSeeds();
-	    if (!seeds.isEmpty())
-		return Response.ok(StringUtils.join(seeds, '|')).build();
-	    logger.error("Cannot find the Seeds");
-	} catch (Exception e) {
-	    logger.error("Error while executing get_seeds", e);
-	    return Response.serverError().build();
-	}
-	return Response.status(500).build();
+    public Response getSeeds(@HeaderParam("If-None-Match") String ifNoneMatch,
+	    @DefaultValue("0") @QueryParam("waitForChangeMs") long waitForChangeMs) {
+	return topologyResponse("get_seeds", ifNoneMatch, waitForChangeMs, new Rendering() {
+	    @Override
+	    RenderedTopology render(Topology topology) {
+		return topologyRenderer.getSeeds(topology);
+	    }
+	});
     }
 
+    /**
+     * The nodes of the cluster, or of the given datacenter and rack, tagged and long-polled like the seeds.
+     */
     @GET
     @Path("/{cluster_describe : (?i)cluster_describe}")
-    public Response getClusterDescribe() {
-	try {
-	    final List<String> nodes = ii.getClusterInfo();
-	    if (!nodes.isEmpty())
-		return Response.ok("[" + StringUtils.join(nodes, ',') + "]").build();
-	    logger.error("Cannot find the nodes");
-	} catch (Exception e) {
-	    logger.error("Error while executing cluster_describe", e);
-	    return Response.serverError().build();
-	}
-	return Response.status(500).build();
+    public Response getClusterDescribe(@HeaderParam("If-None-Match") String ifNoneMatch,
+	    @DefaultValue("0") @QueryParam("waitForChangeMs") long waitForChangeMs,
+	    @QueryParam("dc") final String dc, @QueryParam("rack") final String rack) {
+	return topologyResponse("cluster_describe", ifNoneMatch, waitForChangeMs, new Rendering() {
+	    @Override
+	    RenderedTopology render(Topology topology) {
+		return topologyRenderer.getClusterDescription(topology, dc, rack);
+	    }
+	});
     }
 
     @GET
@@ -214,12 +236,68 @@ public class DynomiteAdmin {
 	}
     }
 
+    /**
+     * Restores every node of the cluster to the given date, rack_concurrency nodes of a rack at a time, each node
+     * downloading at most bytes_per_sec.
+     */
+    @GET
+    @Path("/{cluster_restore : (?i)cluster_restore}")
+    public Response clusterRestore(@QueryParam("date") String date,
+	    @DefaultValue("1") @QueryParam("rack_concurrency") int rackConcurrency,
+	    @DefaultValue("0") @QueryParam("bytes_per_sec") long bytesPerSec) {
+	if (!isRestoreDate(date)) {
+	    return Response.status(400).entity("Date must be yyyyMMdd, yyyyMMddHHmm or yyyyMMddHHmmss").build();
+	}
+	try {
+	    logger.info("REST call: cluster restore to " + date);
+	    if (!this.clusterRestore.start(date, rackConcurrency, bytesPerSec)) {
+		return Response.status(409).entity(this.clusterRestore.getStatus()).build();
+	    }
+	    return Response.ok(this.clusterRestore.getStatus(), MediaType.APPLICATION_JSON).build();
+	} catch (Exception e) {
+	    logger.error("Error while starting the cluster restore from REST call", e);
+	    return Response.serverError().build();
+	}
+    }
+
+    @GET
+    @Path("/{cluster_restore_status : (?i)cluster_restore_status}")
+    public Response clusterRestoreStatus() {
+	return Response.ok(this.clusterRestore.getStatus(), MediaType.APPLICATION_JSON).build();
+    }
+
+    /**
+     * Restores this node to the given date in the background, as asked by the node coordinating a cluster restore.
+     */
+    @GET
+    @Path("/{restore_node : (?i)restore_node}")
+    public Response restoreNode(@QueryParam("date") String date,
+	    @DefaultValue("0") @QueryParam("bytes_per_sec") long bytesPerSec) {
+	if (!isRestoreDate(date)) {
+	    return Response.status(400).entity("Date must be yyyyMMdd, yyyyMMddHHmm or yyyyMMddHHmmss").build();
+	}
+	logger.info("REST call: restore node to " + date);
+	if (!this.clusterRestore.startNode(date, bytesPerSec)) {
+	    return Response.status(409).entity(this.clusterRestore.getNodeProgress()).build();
+	}
+	return Response.ok(this.clusterRestore.getNodeProgress(), MediaType.APPLICATION_JSON).build();
+    }
+
+    @GET
+    @Path("/{restore_progress : (?i)restore_progress}")
+    public Response restoreProgress() {
+	return Response.ok(this.clusterRestore.getNodeProgress(), MediaType.APPLICATION_JSON).build();
+    }
+
     @GET
     @Path("/{takesnapshot : (?i)takesnapshot}")
     public Response takeSnapshot() {
 	try {
 	    logger.info("REST call: Persisting Data to Disk");
-	    this.storage.takeSnapshot();
+	    if (!this.storage.takeSnapshot()) {
+		logger.error("Data persistence from REST call was not successful");
+		return Response.serverError().build();
+	    }
 	    return Response.ok(REST_SUCCESS, MediaType.APPLICATION_JSON).build();
 	} catch (Exception e) {
 	    logger.error("Error executing data persistence from REST call", e);
@@ -227,6 +305,42 @@ public class DynomiteAdmin {
 	}
     }
 
+    /**
+     * Starts reporting on the keys of the local dump, or with a date (yyyyMMdd) of the snapshot of that day in S3, in
+     * the background: the report is served by rdb_report_status once made.
+     */
+    @GET
+    @Path("/{rdb_report : (?i)rdb_report}")
+    public Response rdbReport(@QueryParam("date") String date) {
+	boolean started;
+	if (StringUtils.isEmpty(date)) {
+	    logger.info("REST call: report on the local dump");
+	    started = this.rdbAnalyzer.startLocalReport();
+	} else {
+	    logger.info("REST call: report on the snapshot of " + date);
+	    long time;
+	    try {
+		time = DateTimeFormat.forPattern("yyyyMMdd").parseDateTime(date).withTimeAtStartOfDay().getMillis();
+	    } catch (IllegalArgumentException e) {
+		return Response.status(400).entity("Date must be yyyyMMdd").build();
+	    }
+	    started = this.rdbAnalyzer.startBackupReport(time);
+	}
+	if (!started) {
+	    return Response.status(409).entity(this.rdbAnalyzer.getReportStatus()).build();
+	}
+	return Response.status(202).entity(this.rdbAnalyzer.getReportStatus()).type(MediaType.APPLICATION_JSON).build();
+    }
+
+    /**
+     * The state of the report being made or last made, with the last report made.
+     */
+    @GET
+    @Path("/{rdb_report_status : (?i)rdb_report_status}")
+    public Response rdbReportStatus() {
+	return Response.ok(this.rdbAnalyzer.getReportStatus(), MediaType.APPLICATION_JSON).build();
+    }
+
     @GET
     @Path("/{status : (?i)status}")
     public Response floridaStatus() {
@@ -261,6 +375,13 @@ public class DynomiteAdmin {
 		    }
 		}
 		warmupJson.put("time", this.instanceState.getBootstrapTime());
+		warmupJson.put("phase", this.warmupProgress.getPhase().name().toLowerCase());
+		warmupJson.put("peer", this.warmupProgress.getPeer());
+		warmupJson.put("offsetDiff", this.warmupProgress.getOffsetDiff());
+		warmupJson.put("catchUpRate", (long) this.warmupProgress.getCatchUpRate());
+		warmupJson.put("masterWriteRate", (long) this.warmupProgress.getMasterWriteRate());
+		long eta = this.warmupProgress.getEtaMillis();
+		warmupJson.put("eta", eta < 0 ? -1 : eta / 1000);
 	    } else {
 		warmupJson.put("status", "not started");
 	    }
@@ -319,4 +440,91 @@ public class DynomiteAdmin {
 	    return Response.serverError().build();
 	}
     }
+
+    private static abstract class Rendering {
+	abstract RenderedTopology render(Topology topology);
+    }
+
+    private Response topologyResponse(String name, String ifNoneMatch, long waitForChangeMs, Rendering rendering) {
+	boolean waiting = false;
+	try {
+	    long deadline = System.currentTimeMillis() + Math.min(Math.max(0, waitForChangeMs), MAX_WAIT_FOR_CHANGE_MS);
+	    Topology topology = topologyRenderer.getTopology();
+	    RenderedTopology rendered = rendering.render(topology);
+	    // park the request until what the client has is out of date; * matches every topology, so it is not parked
+	    if (matches(ifNoneMatch, rendered.getTag()) && !isWildcard(ifNoneMatch)
+		    && System.currentTimeMillis() < deadline) {
+		waiting = topologyRenderer.tryStartWaiting();
+		// too many requests parked already: the client is to poll again later rather than right away
+		if (!waiting)
+		    return Response.status(503).header("Retry-After", 1).build();
+		while (matches(ifNoneMatch, rendered.getTag()) && System.currentTimeMillis() < deadline) {
+		    topology = topologyRenderer.awaitChange(topology.getVersion(),
+			    deadline - System.currentTimeMillis());
+		    rendered = rendering.render(topology);
+		}
+	    }
+
+	    EntityTag tag = new EntityTag(rendered.getTag());
+	    if (matches(ifNoneMatch, rendered.getTag()))
+		return withAge(Response.notModified(tag), topology).build();
+	    if (!rendered.isEmpty())
+		return withAge(Response.ok(rendered.getBody()).tag(tag), topology).build();
+	    logger.error("Cannot find the nodes for " + name);
+	} catch (InterruptedException e) {
+	    Thread.currentThread().interrupt();
+	    return Response.serverError().build();
+	} catch (Exception e) {
+	    logger.error("Error while executing " + name, e);
+	    return Response.serverError().build();
+	} finally {
+	    if (waiting)
+		topologyRenderer.stopWaiting();
+	}
+	return Response.status(500).build();
+    }
+
+    /**
+     * Tells how old the topology is, and flags it when it is served stale while it is read again.
+     */
+    private static ResponseBuilder withAge(ResponseBuilder response, Topology topology) {
+	response.header("Age", Math.max(0, System.currentTimeMillis() - topology.getTime()) / 1000);
+	if (topology.isStale())
+	    response.header("Warning", "110 - \"Response is Stale\"");
+	return response;
+    }
+
+    /**
+     * @return whether an If-None-Match header lists *
+     */
+    private static boolean isWildcard(String ifNoneMatch) {
+	if (ifNoneMatch == null)
+	    return false;
+	for (String value : ifNoneMatch.split(",")) {
+	    if (value.trim().equals("*"))
+		return true;
+	}
+	return false;
+    }
+
+    /**
+     * @return whether an If-None-Match header lists the tag
+     */
+    private static boolean matches(String ifNoneMatch, String tag) {
+	if (ifNoneMatch == null)
+	    return false;
+	for (String value : ifNoneMatch.split(",")) {
+	    value = value.trim();
+	    if (value.startsWith("W/"))
+		value = value.substring(2);
+	    if (value.equals("*") || value.equals("\"" + tag + "\""))
+		return true;
+	}
+	return false;
+    }
+
+    private static boolean isRestoreDate(String date) {
+	return date != null && StringUtils.isNumeric(date)
+		&& (date.length() == 8 || date.length() == 12 || date.length() == 14);
+    }
 }
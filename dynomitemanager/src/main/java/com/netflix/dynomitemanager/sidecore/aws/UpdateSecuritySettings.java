@@ -56,7 +56,7 @@ public class UpdateSecuritySettings extends Task {
 
 		// iterate to add...
 		List<String> add = Lists.newArrayList();
-		for (AppsInstance instance : factory.getAllIds(config.getDynomiteClusterName())) {
+		for (AppsInstance instance : instances) {
 			String range = instance.getHostIP() + "/32";
 			if (!acls.contains(range))
 				add.add(range);
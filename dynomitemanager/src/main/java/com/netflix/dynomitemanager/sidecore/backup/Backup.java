@@ -13,9 +13,35 @@
 package com.netflix.dynomitemanager.sidecore.backup;
 
 import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
 
 import org.joda.time.DateTime;
 
 public interface Backup {
 	boolean upload(File file, DateTime todayStart);
+
+	/**
+	 * Uploads the snapshot of the day read from a stream, length bytes or up to its end when length is -1. The stream
+	 * is read as fast as it can be uploaded, the network limit of the {@link BackupThrottle} does not apply: it holds
+	 * Redis replication open, see {@link DisklessBackup}.
+	 */
+	boolean upload(InputStream in, long length, DateTime todayStart);
+
+	/**
+	 * Uploads length bytes of the file starting at offset, under the given name relative to the backups of this node.
+	 */
+	boolean upload(File file, long offset, long length, String name);
+
+	/**
+	 * Replaces the manifest of the incremental backups of this node.
+	 */
+	boolean uploadManifest(BackupManifest manifest);
+
+	/**
+	 * @return the manifest of the incremental backups of this node, or null if it has none
+	 * @throws IOException
+	 *             if the manifest could not be read, which is not the same as there being none
+	 */
+	BackupManifest getManifest() throws IOException;
 }
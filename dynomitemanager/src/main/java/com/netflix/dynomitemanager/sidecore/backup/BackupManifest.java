@@ -0,0 +1,268 @@
+/**
+ * Copyright 2016 Netflix, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package com.netflix.dynomitemanager.sidecore.backup;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.json.simple.JSONArray;
+import org.json.simple.JSONObject;
+import org.json.simple.parser.JSONParser;
+import org.json.simple.parser.ParseException;
+
+/**
+ * The incremental backups of a node: full bases of the AOF, oldest first, each followed by the AOF bytes appended to
+ * it since, in order. A base belongs to one AOF generation, i.e. the file between two rewrites, and its increments
+ * continue it byte for byte, so the base followed by its increments up to a time is the AOF as of that time.
+ */
+public class BackupManifest {
+
+	/**
+	 * The name of the manifest relative to the backups of a node.
+	 */
+	public static final String NAME = "incremental/manifest.json";
+
+	private final List<Base> bases = new ArrayList<Base>();
+
+	/**
+	 * @return the bases, oldest first
+	 */
+	public List<Base> getBases() {
+		return Collections.unmodifiableList(bases);
+	}
+
+	/**
+	 * @return the newest base, or null if there is none
+	 */
+	public Base getLatestBase() {
+		return bases.isEmpty() ? null : bases.get(bases.size() - 1);
+	}
+
+	/**
+	 * @return the newest base taken at or before the given time, or null if there is none
+	 */
+	public Base getBase(long time) {
+		for (int i = bases.size() - 1; i >= 0; i--) {
+			if (bases.get(i).getTime() <= time) {
+				return bases.get(i);
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Adds a base after the others, forgetting the oldest ones over maxBases. The backups of forgotten bases are left
+	 * to the retention of the bucket.
+	 */
+	public void addBase(Base base, int maxBases) {
+		bases.add(base);
+		while (bases.size() > Math.max(1, maxBases)) {
+			bases.remove(0);
+		}
+	}
+
+	@SuppressWarnings("unchecked")
+	public String toJson() {
+		JSONArray jsonBases = new JSONArray();
+		for (Base base : bases) {
+			JSONObject jsonBase = base.toJson();
+			jsonBase.put("generation", base.getGeneration());
+			jsonBase.put("head", base.getHead());
+			JSONArray increments = new JSONArray();
+			for (Segment increment : base.increments) {
+				increments.add(increment.toJson());
+			}
+			jsonBase.put("increments", increments);
+			jsonBases.add(jsonBase);
+		}
+
+		JSONObject json = new JSONObject();
+		json.put("version", 1);
+		json.put("bases", jsonBases);
+		return json.toJSONString();
+	}
+
+	public static BackupManifest parse(String json) throws IOException {
+		try {
+			JSONObject root = (JSONObject) new JSONParser().parse(json);
+			BackupManifest manifest = new BackupManifest();
+			for (Object jsonBase : (JSONArray) root.get("bases")) {
+				JSONObject fields = (JSONObject) jsonBase;
+				Base base = new Base(time(fields), (String) fields.get("name"), size(fields),
+						(String) fields.get("md5"), (String) fields.get("generation"), (String) fields.get("head"));
+				for (Object increment : (JSONArray) fields.get("increments")) {
+					JSONObject incrementFields = (JSONObject) increment;
+					base.addIncrement(new Segment(time(incrementFields), (String) incrementFields.get("name"),
+							((Number) incrementFields.get("offset")).longValue(), size(incrementFields),
+							(String) incrementFields.get("md5")));
+				}
+				manifest.bases.add(base);
+			}
+			return manifest;
+		} catch (ParseException e) {
+			throw new IOException("Invalid backup manifest", e);
+		} catch (RuntimeException e) {
+			// missing fields and fields of the wrong type
+			throw new IOException("Invalid backup manifest", e);
+		}
+	}
+
+	private static long time(JSONObject fields) {
+		return ((Number) fields.get("time")).longValue();
+	}
+
+	private static long size(JSONObject fields) {
+		return ((Number) fields.get("size")).longValue();
+	}
+
+	/**
+	 * A backup of bytes of the AOF.
+	 */
+	public static class Segment {
+		private final long time;
+		private final String name;
+		private final long offset;
+		private final long size;
+		private final String md5;
+
+		/**
+		 * @param time
+		 *            when the AOF had the bytes, in milliseconds since the epoch
+		 * @param name
+		 *            the name of the backup relative to the backups of the node
+		 * @param offset
+		 *            where the bytes start in the AOF
+		 * @param size
+		 *            the number of bytes
+		 * @param md5
+		 *            the MD5 of the bytes, in hex
+		 */
+		public Segment(long time, String name, long offset, long size, String md5) {
+			this.time = time;
+			this.name = name;
+			this.offset = offset;
+			this.size = size;
+			this.md5 = md5;
+		}
+
+		public long getTime() {
+			return time;
+		}
+
+		public String getName() {
+			return name;
+		}
+
+		public long getOffset() {
+			return offset;
+		}
+
+		public long getSize() {
+			return size;
+		}
+
+		public String getMd5() {
+			return md5;
+		}
+
+		@SuppressWarnings("unchecked")
+		JSONObject toJson() {
+			JSONObject json = new JSONObject();
+			json.put("time", time);
+			json.put("name", name);
+			json.put("offset", offset);
+			json.put("size", size);
+			json.put("md5", md5);
+			return json;
+		}
+	}
+
+	/**
+	 * A full backup of the AOF and the increments that followed it.
+	 */
+	public static class Base extends Segment {
+		private final String generation;
+		private final String head;
+		private final List<Segment> increments = new ArrayList<Segment>();
+
+		/**
+		 * @param generation
+		 *            identifies the AOF file the base was taken from, the increments must come from the same
+		 * @param head
+		 *            the MD5 of the first bytes of the base, in hex, which tells a rewritten AOF from the file the base
+		 *            was taken from when both have the same identity
+		 */
+		public Base(long time, String name, long size, String md5, String generation, String head) {
+			super(time, name, 0, size, md5);
+			this.generation = generation;
+			this.head = head;
+		}
+
+		public String getGeneration() {
+			return generation;
+		}
+
+		/**
+		 * @return the MD5 of the first bytes of the base, or null for a base recorded without it
+		 */
+		public String getHead() {
+			return head;
+		}
+
+		/**
+		 * @return the increments, oldest first
+		 */
+		public List<Segment> getIncrements() {
+			return Collections.unmodifiableList(increments);
+		}
+
+		/**
+		 * @return the increments up to the given time, oldest first
+		 */
+		public List<Segment> getIncrements(long time) {
+			List<Segment> until = new ArrayList<Segment>();
+			for (Segment increment : increments) {
+				if (increment.getTime() > time) {
+					break;
+				}
+				until.add(increment);
+			}
+			return until;
+		}
+
+		/**
+		 * @return the offset in the AOF the next increment starts at
+		 */
+		public long getEnd() {
+			if (increments.isEmpty()) {
+				return getSize();
+			}
+			Segment last = increments.get(increments.size() - 1);
+			return last.getOffset() + last.getSize();
+		}
+
+		/**
+		 * @throws IllegalArgumentException
+		 *             if the increment does not start where the previous one ended
+		 */
+		public void addIncrement(Segment increment) {
+			if (increment.getOffset() != getEnd()) {
+				throw new IllegalArgumentException("Increment at " + increment.getOffset() + " does not follow "
+						+ getEnd());
+			}
+			increments.add(increment);
+		}
+	}
+}
@@ -0,0 +1,266 @@
+/**
+ * Copyright 2016 Netflix, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package com.netflix.dynomitemanager.sidecore.backup;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.util.concurrent.RateLimiter;
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+import com.netflix.config.DynamicIntProperty;
+import com.netflix.config.DynamicLongProperty;
+import com.netflix.config.DynamicPropertyFactory;
+import com.netflix.dynomitemanager.monitoring.SampledGauge;
+import com.netflix.dynomitemanager.monitoring.ServoMetricsTask;
+import com.netflix.servo.DefaultMonitorRegistry;
+import com.netflix.servo.monitor.Counter;
+import com.netflix.servo.monitor.Monitors;
+
+/**
+ * Token buckets limiting the bytes a backup reads from disk and sends to S3, so that a backup does not compete with
+ * Dynomite's own traffic. The limits are fast properties in bytes per second, 0 meaning unlimited:
+ * 'dynomitemanager.backup.throttle.disk.bytes_per_sec' and 'dynomitemanager.backup.throttle.network.bytes_per_sec'.
+ *
+ * When 'dynomitemanager.backup.throttle.latency_99th.us' or 'dynomitemanager.backup.throttle.cross_region_queue_wait.us'
+ * is set, the limits also adapt to Dynomite as scraped by {@link ServoMetricsTask}: they are halved whenever the 99th
+ * percentile latency or cross region queue wait is over its threshold, down to
+ * 'dynomitemanager.backup.throttle.min.pct' of the configured limits, and grow back by a tenth while both are under.
+ *
+ * The effective limits, the adaptive percentage and the time spent waiting are published as
+ * dynomitemanager__backup__throttle__* metrics.
+ */
+@Singleton
+public class BackupThrottle {
+
+	private static final Logger logger = LoggerFactory.getLogger(BackupThrottle.class);
+
+	private static final String METRIC_PREFIX = "dynomitemanager__backup__throttle__";
+
+	// bytes are acquired at most this many at a time, so that a large read
+	// or write waits its turn instead of running ahead of the limit
+	static final int CHUNK_SIZE = 1024 * 1024;
+
+	private static final long ADAPT_INTERVAL_MS = 5000;
+
+	private static final DynamicLongProperty DiskBytesPerSec = DynamicPropertyFactory.getInstance()
+			.getLongProperty("dynomitemanager.backup.throttle.disk.bytes_per_sec", 0);
+	private static final DynamicLongProperty NetworkBytesPerSec = DynamicPropertyFactory.getInstance()
+			.getLongProperty("dynomitemanager.backup.throttle.network.bytes_per_sec", 0);
+	private static final DynamicLongProperty LatencyThreshold = DynamicPropertyFactory.getInstance()
+			.getLongProperty("dynomitemanager.backup.throttle.latency_99th.us", 0);
+	private static final DynamicLongProperty QueueWaitThreshold = DynamicPropertyFactory.getInstance()
+			.getLongProperty("dynomitemanager.backup.throttle.cross_region_queue_wait.us", 0);
+	private static final DynamicIntProperty MinPercent = DynamicPropertyFactory.getInstance()
+			.getIntProperty("dynomitemanager.backup.throttle.min.pct", 10);
+
+	private final ServoMetricsTask dynomiteMetrics;
+
+	private final RateLimiter disk = RateLimiter.create(Double.MAX_VALUE);
+	private final RateLimiter network = RateLimiter.create(Double.MAX_VALUE);
+	private volatile long diskLimit;
+	private volatile long networkLimit;
+	private volatile int percent = 100;
+	private volatile long lastAdapt;
+
+	private final Counter diskWaitMs = Monitors.newCounter(METRIC_PREFIX + "disk_wait_ms");
+	private final Counter networkWaitMs = Monitors.newCounter(METRIC_PREFIX + "network_wait_ms");
+	private final Counter backoffs = Monitors.newCounter(METRIC_PREFIX + "backoffs");
+
+	@Inject
+	public BackupThrottle(ServoMetricsTask dynomiteMetrics) {
+		this.dynomiteMetrics = dynomiteMetrics;
+		applyLimits();
+
+		Runnable callback = new Runnable() {
+			@Override
+			public void run() {
+				applyLimits();
+			}
+		};
+		DiskBytesPerSec.addCallback(callback);
+		NetworkBytesPerSec.addCallback(callback);
+
+		DefaultMonitorRegistry.getInstance().register(diskWaitMs);
+		DefaultMonitorRegistry.getInstance().register(networkWaitMs);
+		DefaultMonitorRegistry.getInstance().register(backoffs);
+		DefaultMonitorRegistry.getInstance().register(new SampledGauge(METRIC_PREFIX + "disk_bytes_per_sec") {
+			@Override
+			protected long sample() {
+				return diskLimit;
+			}
+		});
+		DefaultMonitorRegistry.getInstance().register(new SampledGauge(METRIC_PREFIX + "network_bytes_per_sec") {
+			@Override
+			protected long sample() {
+				return networkLimit;
+			}
+		});
+		DefaultMonitorRegistry.getInstance().register(new SampledGauge(METRIC_PREFIX + "adaptive_pct") {
+			@Override
+			protected long sample() {
+				return percent;
+			}
+		});
+	}
+
+	/**
+	 * Waits until the given number of bytes may be read from disk.
+	 */
+	public void acquireDisk(int bytes) {
+		acquire(disk, diskLimit, diskWaitMs, bytes);
+	}
+
+	/**
+	 * Waits until the given number of bytes may be sent to S3.
+	 */
+	public void acquireNetwork(int bytes) {
+		acquire(network, networkLimit, networkWaitMs, bytes);
+	}
+
+	/**
+	 * @return the stream, reading no faster than the network limit
+	 */
+	public InputStream throttleNetwork(InputStream in) {
+		return throttle(in, false);
+	}
+
+	/**
+	 * @return the stream, reading no faster than the disk limit
+	 */
+	public InputStream throttleDisk(InputStream in) {
+		return throttle(in, true);
+	}
+
+	private InputStream throttle(InputStream in, final boolean fromDisk) {
+		return new FilterInputStream(in) {
+			@Override
+			public int read() throws IOException {
+				int b = super.read();
+				if (b >= 0) {
+					acquireBytes(1);
+				}
+				return b;
+			}
+
+			@Override
+			public int read(byte[] b, int off, int len) throws IOException {
+				int read = super.read(b, off, Math.min(len, CHUNK_SIZE));
+				if (read > 0) {
+					acquireBytes(read);
+				}
+				return read;
+			}
+
+			private void acquireBytes(int bytes) {
+				if (fromDisk) {
+					acquireDisk(bytes);
+				} else {
+					acquireNetwork(bytes);
+				}
+			}
+		};
+	}
+
+	/**
+	 * @return the disk limit in effect, in bytes per second, 0 when unlimited
+	 */
+	public long getDiskLimit() {
+		return diskLimit;
+	}
+
+	/**
+	 * @return the network limit in effect, in bytes per second, 0 when unlimited
+	 */
+	public long getNetworkLimit() {
+		return networkLimit;
+	}
+
+	/**
+	 * Backs the limits off when Dynomite's latency or cross region queue wait is over its threshold, and lets them
+	 * grow back otherwise. Done at most every few seconds while bytes are acquired.
+	 *
+	 * @return the percentage of the configured limits in effect
+	 */
+	public synchronized int adapt() {
+		lastAdapt = System.currentTimeMillis();
+		if (LatencyThreshold.get() <= 0 && QueueWaitThreshold.get() <= 0) {
+			if (percent != 100) {
+				percent = 100;
+				applyLimits();
+			}
+			return percent;
+		}
+
+		int next;
+		if (over("dynomite__latency_99th", LatencyThreshold.get())
+				|| over("dynomite__99_cross_region_queue_wait", QueueWaitThreshold.get())) {
+			next = Math.max(Math.min(100, Math.max(1, MinPercent.get())), percent / 2);
+			if (next < percent) {
+				backoffs.increment();
+				logger.info("Dynomite is slow, backing the backup off to " + next + "% of its limits");
+			}
+		} else {
+			next = Math.min(100, percent + 10);
+		}
+
+		if (next != percent) {
+			percent = next;
+			applyLimits();
+		}
+		return percent;
+	}
+
+	private boolean over(String metric, long threshold) {
+		if (threshold <= 0) {
+			return false;
+		}
+		Long value = dynomiteMetrics.getMetric(metric);
+		return value != null && value > threshold;
+	}
+
+	private void acquire(RateLimiter limiter, long limit, Counter waitMs, int bytes) {
+		if (System.currentTimeMillis() - lastAdapt > ADAPT_INTERVAL_MS) {
+			adapt();
+		}
+		if (limit <= 0) {
+			return;
+		}
+
+		for (int left = bytes; left > 0; left -= CHUNK_SIZE) {
+			double waited = limiter.acquire(Math.min(left, CHUNK_SIZE));
+			if (waited > 0) {
+				waitMs.increment((long) (waited * 1000));
+			}
+		}
+	}
+
+	private synchronized void applyLimits() {
+		diskLimit = scale(DiskBytesPerSec.get());
+		networkLimit = scale(NetworkBytesPerSec.get());
+		if (diskLimit > 0) {
+			disk.setRate(diskLimit);
+		}
+		if (networkLimit > 0) {
+			network.setRate(networkLimit);
+		}
+	}
+
+	private long scale(long limit) {
+		return limit <= 0 ? 0 : Math.max(1, limit * percent / 100);
+	}
+}
@@ -0,0 +1,498 @@
+/**
+ * Copyright 2016 Netflix, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package com.netflix.dynomitemanager.sidecore.backup;
+
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+import java.net.URLEncoder;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.commons.httpclient.HttpClient;
+import org.apache.commons.httpclient.MultiThreadedHttpConnectionManager;
+import org.apache.commons.httpclient.methods.GetMethod;
+import org.json.simple.JSONArray;
+import org.json.simple.JSONObject;
+import org.json.simple.parser.JSONParser;
+import org.json.simple.parser.ParseException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+import com.netflix.config.DynamicIntProperty;
+import com.netflix.config.DynamicLongProperty;
+import com.netflix.config.DynamicPropertyFactory;
+import com.netflix.config.DynamicStringProperty;
+import com.netflix.dynomitemanager.InstanceState;
+import com.netflix.dynomitemanager.defaultimpl.IConfiguration;
+import com.netflix.dynomitemanager.identity.AppsInstance;
+import com.netflix.dynomitemanager.identity.IAppsInstanceFactory;
+import com.netflix.dynomitemanager.monitoring.SampledGauge;
+import com.netflix.dynomitemanager.sidecore.scheduler.NamedThreadPoolExecutor;
+import com.netflix.servo.DefaultMonitorRegistry;
+import com.netflix.servo.monitor.Counter;
+import com.netflix.servo.monitor.Monitors;
+
+/**
+ * Restores a whole cluster to a date from any one of its nodes.
+ *
+ * The coordinating node asks the Dynomite Manager of every node of the cluster to restore itself, at most a given
+ * number of nodes per rack at a time, and follows each restore until it ends. Racks are restored side by side, and
+ * Dynomite is started on the nodes of a rack once all of them have restored, so that a rack only serves once it
+ * holds the whole data set. Nodes that fail to restore are left stopped, for the operator to look at.
+ *
+ * A node restores itself in the background, with its S3 downloads limited to the bandwidth the coordinator asks for,
+ * and reports its progress to the coordinator.
+ *
+ * The Dynomite Manager of a node is reached at 'dynomitemanager.restore.cluster.admin.url', its hostname
+ * substituted for %s.
+ */
+@Singleton
+public class ClusterRestore {
+
+	private static final Logger logger = LoggerFactory.getLogger(ClusterRestore.class);
+
+	private static final String METRIC_PREFIX = "dynomitemanager__restore__cluster__";
+
+	private static final DynamicStringProperty AdminUrl = DynamicPropertyFactory.getInstance()
+			.getStringProperty("dynomitemanager.restore.cluster.admin.url", "http://%s:8080/REST/v1/admin");
+	private static final DynamicLongProperty PollIntervalMs = DynamicPropertyFactory.getInstance()
+			.getLongProperty("dynomitemanager.restore.cluster.poll.ms", 5000);
+	private static final DynamicLongProperty NodeTimeoutMs = DynamicPropertyFactory.getInstance()
+			.getLongProperty("dynomitemanager.restore.cluster.node.timeout.ms", 6L * 60 * 60 * 1000);
+	// polls that may fail in a row before a node is given up on
+	private static final DynamicIntProperty PollFailures = DynamicPropertyFactory.getInstance()
+			.getIntProperty("dynomitemanager.restore.cluster.poll.failures", 12);
+
+	private static final int HTTP_TIMEOUT_MS = 10000;
+
+	/**
+	 * Where the restore of a node is at, as seen by the coordinator.
+	 */
+	public enum NodeState {
+		PENDING, RESTORING, RESTORED, FAILED, STARTED, START_FAILED
+	}
+
+	// states of the restore of this node
+	static final String IDLE = "idle";
+	static final String RESTORING = "restoring";
+	static final String RESTORED = "restored";
+	static final String FAILED = "failed";
+
+	private final IConfiguration config;
+	private final IAppsInstanceFactory factory;
+	private final InstanceState state;
+	private final RestoreTask restoreTask;
+	private final S3Restore s3Restore;
+	private final HttpClient client = new HttpClient(new MultiThreadedHttpConnectionManager());
+
+	// coordinator
+	private volatile Plan plan;
+
+	// this node
+	private final ExecutorService nodeExecutor = new NamedThreadPoolExecutor(1, "NodeRestore");
+	private volatile String nodeDate;
+	private volatile String nodeState = IDLE;
+	private volatile long nodeStarted;
+	private volatile long nodeFinished;
+	private volatile long nodeDownloadedAtStart;
+
+	private final Counter nodesRestored = Monitors.newCounter(METRIC_PREFIX + "nodes_restored");
+	private final Counter nodesFailed = Monitors.newCounter(METRIC_PREFIX + "nodes_failed");
+
+	@Inject
+	public ClusterRestore(IConfiguration config, IAppsInstanceFactory factory, InstanceState state,
+			RestoreTask restoreTask, S3Restore s3Restore) {
+		this.config = config;
+		this.factory = factory;
+		this.state = state;
+		this.restoreTask = restoreTask;
+		this.s3Restore = s3Restore;
+
+		client.getHttpConnectionManager().getParams().setConnectionTimeout(HTTP_TIMEOUT_MS);
+		client.getHttpConnectionManager().getParams().setSoTimeout(HTTP_TIMEOUT_MS);
+		client.getHttpConnectionManager().getParams().setDefaultMaxConnectionsPerHost(4);
+		client.getHttpConnectionManager().getParams().setMaxTotalConnections(256);
+
+		DefaultMonitorRegistry.getInstance().register(nodesRestored);
+		DefaultMonitorRegistry.getInstance().register(nodesFailed);
+		DefaultMonitorRegistry.getInstance().register(new SampledGauge(METRIC_PREFIX + "nodes_restoring") {
+			@Override
+			protected long sample() {
+				Plan current = plan;
+				return current == null ? 0 : current.count(NodeState.RESTORING);
+			}
+		});
+	}
+
+	/**
+	 * Starts restoring every node of the cluster to the given date.
+	 *
+	 * @param rackConcurrency
+	 *            how many nodes of a rack restore at a time
+	 * @param bytesPerSec
+	 *            the download limit of each node, 0 for the limit the node is configured with
+	 * @return false if a cluster restore is already running
+	 */
+	public synchronized boolean start(String date, int rackConcurrency, long bytesPerSec) {
+		if (plan != null && plan.finished == 0) {
+			return false;
+		}
+		int concurrency = Math.max(1, rackConcurrency);
+		Plan next = new Plan(date, concurrency, bytesPerSec);
+		for (AppsInstance instance : factory.getAllIds(config.getDynomiteClusterName())) {
+			next.add(instance);
+		}
+		plan = next;
+		logger.info(String.format("Restoring %d nodes in %d racks to %s, %d nodes per rack at a time",
+				next.count(NodeState.PENDING), next.racks.size(), date, concurrency));
+		if (next.racks.isEmpty()) {
+			next.finished = System.currentTimeMillis();
+			return true;
+		}
+
+		ExecutorService executor = new NamedThreadPoolExecutor(next.racks.size() * concurrency, "ClusterRestore");
+		for (Map.Entry<String, List<Node>> rack : next.racks.entrySet()) {
+			RackRestore rackRestore = new RackRestore(next, rack.getKey(), rack.getValue());
+			for (int i = 0; i < Math.min(concurrency, rack.getValue().size()); i++) {
+				executor.submit(rackRestore);
+			}
+		}
+		// the threads end with the last rack
+		executor.shutdown();
+		return true;
+	}
+
+	/**
+	 * @return the state of the cluster restore as JSON, with the state of every node
+	 */
+	@SuppressWarnings("unchecked")
+	public String getStatus() {
+		JSONObject json = new JSONObject();
+		Plan current = plan;
+		if (current == null) {
+			json.put("state", IDLE);
+			return json.toJSONString();
+		}
+
+		json.put("state", current.finished == 0 ? "running" : "finished");
+		json.put("date", current.date);
+		json.put("rack_concurrency", current.concurrency);
+		json.put("bytes_per_sec", current.bytesPerSec);
+		json.put("started", current.started);
+		json.put("finished", current.finished);
+
+		JSONObject counts = new JSONObject();
+		for (NodeState nodeState : NodeState.values()) {
+			counts.put(nodeState.name().toLowerCase(), current.count(nodeState));
+		}
+		json.put("nodes", counts);
+
+		JSONObject racks = new JSONObject();
+		for (Map.Entry<String, List<Node>> rack : current.racks.entrySet()) {
+			JSONArray nodes = new JSONArray();
+			for (Node node : rack.getValue()) {
+				JSONObject nodeJson = new JSONObject();
+				nodeJson.put("host", node.instance.getHostName());
+				nodeJson.put("token", node.instance.getToken());
+				nodeJson.put("state", node.state.name().toLowerCase());
+				nodeJson.put("downloaded_bytes", node.downloadedBytes);
+				nodeJson.put("started", node.started);
+				nodeJson.put("finished", node.finished);
+				if (node.error != null) {
+					nodeJson.put("error", node.error);
+				}
+				nodes.add(nodeJson);
+			}
+			racks.put(rack.getKey(), nodes);
+		}
+		json.put("racks", racks);
+		return json.toJSONString();
+	}
+
+	/**
+	 * Starts restoring this node to the given date in the background, leaving Dynomite stopped for the coordinator
+	 * to start.
+	 *
+	 * @param bytesPerSec
+	 *            the download limit of the restore, 0 for the configured one
+	 * @return false if this node is already restoring
+	 */
+	public synchronized boolean startNode(final String date, final long bytesPerSec) {
+		if (RESTORING.equals(nodeState) || state.isRestoring()) {
+			return false;
+		}
+		nodeDate = date;
+		nodeState = RESTORING;
+		nodeStarted = System.currentTimeMillis();
+		nodeFinished = 0;
+		nodeDownloadedAtStart = s3Restore.getDownloadedBytes();
+
+		nodeExecutor.submit(new Runnable() {
+			@Override
+			public void run() {
+				boolean restored = false;
+				try {
+					s3Restore.setDownloadLimit(bytesPerSec > 0 ? bytesPerSec : -1);
+					restored = restoreTask.restore(date, false);
+				} catch (Exception e) {
+					logger.error("Unable to restore to " + date, e);
+				} finally {
+					s3Restore.setDownloadLimit(-1);
+					nodeFinished = System.currentTimeMillis();
+					nodeState = restored ? RESTORED : FAILED;
+				}
+			}
+		});
+		return true;
+	}
+
+	/**
+	 * @return the progress of the restore of this node as JSON
+	 */
+	@SuppressWarnings("unchecked")
+	public String getNodeProgress() {
+		JSONObject json = new JSONObject();
+		json.put("state", nodeState);
+		json.put("date", nodeDate);
+		json.put("started", nodeStarted);
+		json.put("finished", nodeFinished);
+		json.put("downloaded_bytes", nodeStarted == 0 ? 0 : s3Restore.getDownloadedBytes() - nodeDownloadedAtStart);
+		json.put("download_limit", s3Restore.getDownloadLimit());
+		return json.toJSONString();
+	}
+
+	/**
+	 * Calls the admin REST API of the Dynomite Manager of the given host.
+	 *
+	 * @return the response
+	 * @throws IOException
+	 *             if the host cannot be reached or does not answer with a 200
+	 */
+	protected String call(String host, String path) throws IOException {
+		String url = String.format(AdminUrl.get(), host) + path;
+		GetMethod get = new GetMethod(url);
+		try {
+			int status = client.executeMethod(get);
+			String response = get.getResponseBodyAsString();
+			if (status != 200) {
+				throw new IOException("Got " + status + " from " + url);
+			}
+			return response;
+		} finally {
+			get.releaseConnection();
+		}
+	}
+
+	protected long pollIntervalMs() {
+		return PollIntervalMs.get();
+	}
+
+	/**
+	 * Restores a node through its Dynomite Manager and waits for the end of the restore.
+	 */
+	private void restoreNode(Plan current, Node node) {
+		String host = node.instance.getHostName();
+		node.started = System.currentTimeMillis();
+		node.state = NodeState.RESTORING;
+		logger.info("Restoring " + host + " in " + node.instance.getRack());
+		try {
+			call(host, "/restore_node?date=" + encode(current.date) + "&bytes_per_sec=" + current.bytesPerSec);
+
+			long deadline = node.started + NodeTimeoutMs.get();
+			int failures = 0;
+			while (true) {
+				Thread.sleep(pollIntervalMs());
+				JSONObject progress;
+				try {
+					progress = (JSONObject) new JSONParser().parse(call(host, "/restore_progress"));
+					failures = 0;
+				} catch (IOException | ParseException | ClassCastException e) {
+					if (++failures >= PollFailures.get()) {
+						throw new IOException("Lost track of the restore: " + e.getMessage(), e);
+					}
+					continue;
+				}
+
+				Object downloaded = progress.get("downloaded_bytes");
+				if (downloaded instanceof Number) {
+					node.downloadedBytes = ((Number) downloaded).longValue();
+				}
+				Object nodeState = progress.get("state");
+				if (RESTORED.equals(nodeState)) {
+					node.state = NodeState.RESTORED;
+					nodesRestored.increment();
+					break;
+				} else if (FAILED.equals(nodeState)) {
+					throw new IOException("The node failed to restore, see its log");
+				} else if (!RESTORING.equals(nodeState)) {
+					throw new IOException("The node is not restoring: " + nodeState);
+				} else if (System.currentTimeMillis() > deadline) {
+					throw new IOException("The restore did not end in " + NodeTimeoutMs.get() + " ms");
+				}
+			}
+		} catch (IOException e) {
+			fail(node, e.getMessage());
+		} catch (InterruptedException e) {
+			fail(node, "interrupted");
+			Thread.currentThread().interrupt();
+		}
+		node.finished = System.currentTimeMillis();
+		logger.info("Restore of " + host + ": " + node.state.name().toLowerCase()
+				+ (node.error == null ? "" : ", " + node.error));
+	}
+
+	private void fail(Node node, String error) {
+		node.error = error;
+		node.state = NodeState.FAILED;
+		nodesFailed.increment();
+	}
+
+	/**
+	 * Starts Dynomite on the restored nodes of a rack.
+	 */
+	private void startRack(String rack, List<Node> nodes) {
+		int restored = 0;
+		for (Node node : nodes) {
+			if (node.state == NodeState.RESTORED) {
+				restored++;
+			}
+		}
+		logger.info(String.format("Rack %s restored %d of %d nodes, starting Dynomite", rack, restored,
+				nodes.size()));
+
+		for (Node node : nodes) {
+			if (node.state != NodeState.RESTORED) {
+				continue;
+			}
+			try {
+				call(node.instance.getHostName(), "/start");
+				node.state = NodeState.STARTED;
+			} catch (IOException e) {
+				node.error = "Unable to start Dynomite: " + e.getMessage();
+				node.state = NodeState.START_FAILED;
+				logger.error("Unable to start Dynomite on " + node.instance.getHostName(), e);
+			}
+		}
+	}
+
+	private static String encode(String s) {
+		try {
+			return URLEncoder.encode(s, "UTF-8");
+		} catch (UnsupportedEncodingException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	/**
+	 * Restores the nodes of a rack, one node per thread running it, and starts the rack once all are done.
+	 */
+	private class RackRestore implements Runnable {
+		private final Plan restorePlan;
+		private final String rack;
+		private final List<Node> nodes;
+		private final Queue<Node> pending;
+		private final AtomicInteger remaining;
+
+		private RackRestore(Plan restorePlan, String rack, List<Node> nodes) {
+			this.restorePlan = restorePlan;
+			this.rack = rack;
+			this.nodes = nodes;
+			this.pending = new ConcurrentLinkedQueue<Node>(nodes);
+			this.remaining = new AtomicInteger(nodes.size());
+		}
+
+		@Override
+		public void run() {
+			Node node;
+			while ((node = pending.poll()) != null) {
+				try {
+					restoreNode(restorePlan, node);
+				} catch (RuntimeException e) {
+					fail(node, e.toString());
+					logger.error("Unable to restore " + node.instance.getHostName(), e);
+				}
+				if (remaining.decrementAndGet() == 0) {
+					startRack(rack, nodes);
+					restorePlan.rackDone();
+				}
+			}
+		}
+	}
+
+	private static class Node {
+		private final AppsInstance instance;
+		private volatile NodeState state = NodeState.PENDING;
+		private volatile long downloadedBytes;
+		private volatile long started;
+		private volatile long finished;
+		private volatile String error;
+
+		private Node(AppsInstance instance) {
+			this.instance = instance;
+		}
+	}
+
+	private static class Plan {
+		private final String date;
+		private final int concurrency;
+		private final long bytesPerSec;
+		private final long started = System.currentTimeMillis();
+		private volatile long finished;
+		private final Map<String, List<Node>> racks = new TreeMap<String, List<Node>>();
+		private final AtomicInteger racksRemaining = new AtomicInteger();
+
+		private Plan(String date, int concurrency, long bytesPerSec) {
+			this.date = date;
+			this.concurrency = concurrency;
+			this.bytesPerSec = bytesPerSec;
+		}
+
+		private void add(AppsInstance instance) {
+			List<Node> nodes = racks.get(instance.getRack());
+			if (nodes == null) {
+				nodes = new ArrayList<Node>();
+				racks.put(instance.getRack(), nodes);
+				racksRemaining.incrementAndGet();
+			}
+			nodes.add(new Node(instance));
+		}
+
+		private void rackDone() {
+			if (racksRemaining.decrementAndGet() == 0) {
+				finished = System.currentTimeMillis();
+				logger.info(String.format("Cluster restore to %s done: %d nodes started, %d failed", date,
+						count(NodeState.STARTED), count(NodeState.FAILED) + count(NodeState.START_FAILED)));
+			}
+		}
+
+		private int count(NodeState nodeState) {
+			int count = 0;
+			for (List<Node> nodes : racks.values()) {
+				for (Node node : nodes) {
+					if (node.state == nodeState) {
+						count++;
+					}
+				}
+			}
+			return count;
+		}
+	}
+}
@@ -0,0 +1,314 @@
+/**
+ * Copyright 2016 Netflix, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package com.netflix.dynomitemanager.sidecore.backup;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Arrays;
+
+import org.xerial.snappy.Snappy;
+
+import com.ning.compress.lzf.LZFDecoder;
+import com.ning.compress.lzf.LZFEncoder;
+
+/**
+ * The codecs a backup can be compressed with.
+ *
+ * A compressed backup is a sequence of frames, each holding one block of the file: a flag byte telling whether the
+ * block is compressed, the length of the block, the length of the stored bytes, then the stored bytes. Blocks that
+ * do not shrink are stored as they are. Frames are independent of each other, so a backup can be compressed and
+ * uploaded a part at a time, and decompressed while later parts are still being downloaded.
+ */
+public enum Compression {
+
+	NONE {
+		@Override
+		byte[] compress(byte[] block, int length) {
+			return Arrays.copyOf(block, length);
+		}
+
+		@Override
+		void decompress(byte[] stored, int length, byte[] block, int blockLength) throws IOException {
+			if (length != blockLength) {
+				throw new IOException("Stored " + length + " bytes for a block of " + blockLength);
+			}
+			System.arraycopy(stored, 0, block, 0, length);
+		}
+	},
+
+	LZF {
+		@Override
+		byte[] compress(byte[] block, int length) {
+			return LZFEncoder.encode(length == block.length ? block : Arrays.copyOf(block, length));
+		}
+
+		@Override
+		void decompress(byte[] stored, int length, byte[] block, int blockLength) throws IOException {
+			byte[] decoded = LZFDecoder.decode(length == stored.length ? stored : Arrays.copyOf(stored, length));
+			if (decoded.length != blockLength) {
+				throw new IOException("Decompressed " + decoded.length + " bytes for a block of " + blockLength);
+			}
+			System.arraycopy(decoded, 0, block, 0, blockLength);
+		}
+	},
+
+	SNAPPY {
+		@Override
+		byte[] compress(byte[] block, int length) throws IOException {
+			byte[] compressed = new byte[Snappy.maxCompressedLength(length)];
+			int compressedLength = Snappy.compress(block, 0, length, compressed, 0);
+			return Arrays.copyOf(compressed, compressedLength);
+		}
+
+		@Override
+		void decompress(byte[] stored, int length, byte[] block, int blockLength) throws IOException {
+			int decoded = Snappy.uncompress(stored, 0, length, block, 0);
+			if (decoded != blockLength) {
+				throw new IOException("Decompressed " + decoded + " bytes for a block of " + blockLength);
+			}
+		}
+	};
+
+	/**
+	 * The size of the blocks a file is compressed in, and the most a frame holds: a frame claiming more is corrupt.
+	 */
+	public static final int BLOCK_SIZE = 256 * 1024;
+
+	private static final int HEADER_SIZE = 9;
+	private static final byte STORED = 0;
+	private static final byte COMPRESSED = 1;
+
+	abstract byte[] compress(byte[] block, int length) throws IOException;
+
+	abstract void decompress(byte[] stored, int length, byte[] block, int blockLength) throws IOException;
+
+	/**
+	 * @return the codec of the given name ignoring case, {@link #NONE} for a null or empty name
+	 * @throws IllegalArgumentException
+	 *             if there is no such codec
+	 */
+	public static Compression forName(String name) {
+		if (name == null || name.trim().isEmpty()) {
+			return NONE;
+		}
+		return valueOf(name.trim().toUpperCase());
+	}
+
+	/**
+	 * @return the most bytes a file of the given size takes once framed
+	 */
+	public static long maxFramedLength(long length) {
+		return length + (length / BLOCK_SIZE + 1) * HEADER_SIZE;
+	}
+
+	/**
+	 * @return the frame holding the first length bytes of block
+	 */
+	public byte[] frame(byte[] block, int length) throws IOException {
+		byte[] compressed = this == NONE ? null : compress(block, length);
+		boolean shrunk = compressed != null && compressed.length < length;
+		int storedLength = shrunk ? compressed.length : length;
+
+		byte[] frame = new byte[HEADER_SIZE + storedLength];
+		frame[0] = shrunk ? COMPRESSED : STORED;
+		putInt(frame, 1, length);
+		putInt(frame, 5, storedLength);
+		System.arraycopy(shrunk ? compressed : block, 0, frame, HEADER_SIZE, storedLength);
+		return frame;
+	}
+
+	/**
+	 * @return a decoder writing the blocks of frames compressed with this codec to out
+	 */
+	public FrameDecoder newDecoder(OutputStream out) {
+		return new FrameDecoder(this, out);
+	}
+
+	/**
+	 * @return a stream of the blocks of the frames read from in, compressed with this codec
+	 */
+	public InputStream newInputStream(InputStream in) {
+		return new DecodingInputStream(this, in);
+	}
+
+	private static void putInt(byte[] buf, int offset, int value) {
+		buf[offset] = (byte) (value >>> 24);
+		buf[offset + 1] = (byte) (value >>> 16);
+		buf[offset + 2] = (byte) (value >>> 8);
+		buf[offset + 3] = (byte) value;
+	}
+
+	private static int getInt(byte[] buf, int offset) {
+		return ((buf[offset] & 0xff) << 24) | ((buf[offset + 1] & 0xff) << 16) | ((buf[offset + 2] & 0xff) << 8)
+				| (buf[offset + 3] & 0xff);
+	}
+
+	/**
+	 * Turns frames back into blocks. Frames may be split anywhere across the chunks passed to
+	 * {@link #decode(byte[], int, int)}.
+	 */
+	public static class FrameDecoder {
+		private final Compression compression;
+		private final OutputStream out;
+
+		private final byte[] header = new byte[HEADER_SIZE];
+		private int headerFill;
+		private byte[] stored;
+		private int storedFill;
+		private int blockLength;
+		private final byte[] block = new byte[BLOCK_SIZE];
+
+		private long decodedBytes;
+
+		private FrameDecoder(Compression compression, OutputStream out) {
+			this.compression = compression;
+			this.out = out;
+		}
+
+		public void decode(byte[] data, int offset, int length) throws IOException {
+			int end = offset + length;
+			while (offset < end) {
+				if (headerFill < HEADER_SIZE) {
+					int n = Math.min(HEADER_SIZE - headerFill, end - offset);
+					System.arraycopy(data, offset, header, headerFill, n);
+					headerFill += n;
+					offset += n;
+					if (headerFill == HEADER_SIZE) {
+						startFrame();
+					}
+					continue;
+				}
+
+				int n = Math.min(stored.length - storedFill, end - offset);
+				System.arraycopy(data, offset, stored, storedFill, n);
+				storedFill += n;
+				offset += n;
+				if (storedFill == stored.length) {
+					endFrame();
+				}
+			}
+		}
+
+		/**
+		 * @return the number of bytes decoded
+		 * @throws IOException
+		 *             if the frames ended in the middle of a frame
+		 */
+		public long finish() throws IOException {
+			if (headerFill > 0) {
+				throw new IOException("Truncated frame after " + decodedBytes + " bytes");
+			}
+			out.flush();
+			return decodedBytes;
+		}
+
+		private void startFrame() throws IOException {
+			blockLength = getInt(header, 1);
+			int storedLength = getInt(header, 5);
+			if (blockLength < 0 || storedLength < 0 || (header[0] != STORED && header[0] != COMPRESSED)) {
+				throw new IOException("Corrupt frame header after " + decodedBytes + " bytes");
+			}
+			// checked before anything is allocated from the header, a block
+			// is never stored larger than it is
+			if (blockLength > BLOCK_SIZE || storedLength > blockLength) {
+				throw new IOException(String.format("Corrupt frame header after %d bytes: block of %d bytes stored "
+						+ "in %d, at most %d", decodedBytes, blockLength, storedLength, BLOCK_SIZE));
+			}
+			if (stored == null || stored.length != storedLength) {
+				stored = new byte[storedLength];
+			}
+			storedFill = 0;
+			if (storedLength == 0) {
+				endFrame();
+			}
+		}
+
+		private void endFrame() throws IOException {
+			if (header[0] == STORED) {
+				if (stored.length != blockLength) {
+					throw new IOException("Stored " + stored.length + " bytes for a block of " + blockLength);
+				}
+				out.write(stored, 0, blockLength);
+			} else {
+				compression.decompress(stored, stored.length, block, blockLength);
+				out.write(block, 0, blockLength);
+			}
+			decodedBytes += blockLength;
+			headerFill = 0;
+		}
+	}
+
+	/**
+	 * Decodes the frames read from a stream as they are read, a chunk at a time.
+	 */
+	private static class DecodingInputStream extends InputStream {
+		private static final int CHUNK_SIZE = 64 * 1024;
+
+		private final InputStream in;
+		private final Blocks blocks = new Blocks();
+		private final FrameDecoder decoder;
+		private final byte[] chunk = new byte[CHUNK_SIZE];
+		private int position;
+		private boolean finished;
+
+		private DecodingInputStream(Compression compression, InputStream in) {
+			this.in = in;
+			this.decoder = compression.newDecoder(blocks);
+		}
+
+		@Override
+		public int read() throws IOException {
+			byte[] b = new byte[1];
+			int read = read(b, 0, 1);
+			return read < 0 ? -1 : b[0] & 0xff;
+		}
+
+		@Override
+		public int read(byte[] b, int off, int len) throws IOException {
+			if (len == 0) {
+				return 0;
+			}
+			while (position == blocks.size()) {
+				if (finished) {
+					return -1;
+				}
+				blocks.reset();
+				position = 0;
+				int read = in.read(chunk, 0, chunk.length);
+				if (read < 0) {
+					decoder.finish();
+					finished = true;
+				} else {
+					decoder.decode(chunk, 0, read);
+				}
+			}
+			int n = Math.min(len, blocks.size() - position);
+			System.arraycopy(blocks.array(), position, b, off, n);
+			position += n;
+			return n;
+		}
+
+		@Override
+		public void close() throws IOException {
+			in.close();
+		}
+	}
+
+	private static class Blocks extends ByteArrayOutputStream {
+		private byte[] array() {
+			return buf;
+		}
+	}
+}
@@ -0,0 +1,240 @@
+/**
+ * Copyright 2016 Netflix, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package com.netflix.dynomitemanager.sidecore.backup;
+
+import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.joda.time.DateTime;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import redis.clients.jedis.Jedis;
+
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+import com.netflix.config.DynamicIntProperty;
+import com.netflix.config.DynamicPropertyFactory;
+import com.netflix.dynomitemanager.defaultimpl.IConfiguration;
+import com.netflix.dynomitemanager.monitoring.SampledGauge;
+import com.netflix.dynomitemanager.sidecore.storage.IStorageProxy;
+import com.netflix.dynomitemanager.sidecore.storage.InfoSampler;
+import com.netflix.dynomitemanager.sidecore.storage.StorageConnectionManager;
+import com.netflix.dynomitemanager.sidecore.storage.StorageConnectionManager.JedisCommand;
+import com.netflix.servo.DefaultMonitorRegistry;
+import com.netflix.servo.monitor.Counter;
+import com.netflix.servo.monitor.Monitors;
+
+/**
+ * Backs Redis up without a BGSAVE to the data disk: the manager connects to Redis as a replica and streams the RDB
+ * of the full resynchronization into the S3 upload. Redis is set to repl-diskless-sync so that it writes the RDB
+ * to the replica connection instead of dumping it to disk first, and the settings it had are restored once the
+ * transfer has started.
+ *
+ * The stream is uploaded as fast as the upload threads allow, the network limit of the {@link BackupThrottle} does
+ * not apply to it: while it is read, Redis keeps the replication connection and the copy-on-write memory of the fork
+ * dumping the RDB, and drops a replica reading slower than its client-output-buffer-limit allows. The upload may
+ * use the network in a burst instead; nodes where that is not acceptable back up from disk, which is throttled.
+ *
+ * With the AOF enabled, the RDB is restored as the AOF, which Redis loads as an AOF with an RDB preamble from version
+ * 4.0 on; older versions, and nodes backing the AOF up incrementally, are backed up from disk.
+ */
+@Singleton
+public class DisklessBackup {
+
+	private static final Logger logger = LoggerFactory.getLogger(DisklessBackup.class);
+
+	private static final String METRIC_PREFIX = "dynomitemanager__backup__diskless__";
+
+	// also how long Redis may take to start sending the RDB
+	private static final DynamicIntProperty SyncTimeoutMs = DynamicPropertyFactory.getInstance()
+			.getIntProperty("dynomitemanager.backup.diskless.timeout.ms", 60000);
+
+	private final IConfiguration config;
+	private final IStorageProxy storageProxy;
+	private final StorageConnectionManager connectionManager;
+	private final InfoSampler infoSampler;
+	private final Backup backup;
+
+	private final Counter backups = Monitors.newCounter(METRIC_PREFIX + "backups");
+	private final Counter failures = Monitors.newCounter(METRIC_PREFIX + "failures");
+	private final Counter streamedBytes = Monitors.newCounter(METRIC_PREFIX + "streamed_bytes");
+	private volatile long lastDuration;
+
+	@Inject
+	public DisklessBackup(IConfiguration config, IStorageProxy storageProxy, StorageConnectionManager connectionManager,
+			InfoSampler infoSampler, Backup backup) {
+		this.config = config;
+		this.storageProxy = storageProxy;
+		this.connectionManager = connectionManager;
+		this.infoSampler = infoSampler;
+		this.backup = backup;
+
+		DefaultMonitorRegistry.getInstance().register(backups);
+		DefaultMonitorRegistry.getInstance().register(failures);
+		DefaultMonitorRegistry.getInstance().register(streamedBytes);
+		DefaultMonitorRegistry.getInstance().register(new SampledGauge(METRIC_PREFIX + "duration_ms") {
+			@Override
+			protected long sample() {
+				return lastDuration;
+			}
+		});
+	}
+
+	/**
+	 * @return whether snapshots are to be streamed from Redis, which needs Redis 4.0 or later with the AOF
+	 */
+	public boolean isEnabled() {
+		if (!config.isBackupDisklessEnabled() || !"redis".equals(config.getDatastoreEngine())) {
+			return false;
+		}
+		if (!config.isRedisAofEnabled()) {
+			return true;
+		}
+		if (config.isBackupIncrementalEnabled()) {
+			return false;
+		}
+
+		String version;
+		try {
+			version = infoSampler.get("server", 60000).get("redis_version");
+		} catch (RuntimeException e) {
+			logger.warn("Unable to get the Redis version, backing up from disk: " + e.getMessage());
+			return false;
+		}
+		if (version == null || majorVersion(version) < 4) {
+			logger.warn("Redis " + version + " does not load an RDB as its AOF, backing up from disk");
+			return false;
+		}
+		return true;
+	}
+
+	/**
+	 * Streams the RDB of a full resynchronization to S3 as the snapshot of the day.
+	 */
+	public boolean backup(DateTime todayStart) {
+		Map<String, String> previous = enableDisklessSync();
+
+		long start = System.currentTimeMillis();
+		RedisReplicationStream stream = null;
+		try {
+			stream = RedisReplicationStream.open(storageProxy.getIpAddress(), storageProxy.getPort(),
+					SyncTimeoutMs.get());
+			// Redis only reads them when a sync starts
+			restoreSyncSettings(previous);
+			logger.info("Streaming the RDB from Redis replication, "
+					+ (stream.getLength() < 0 ? "ended by a mark" : stream.getLength() + " bytes"));
+
+			boolean uploaded = backup.upload(stream, stream.getLength(), todayStart);
+			streamedBytes.increment(stream.getReceived());
+			if (!uploaded) {
+				failures.increment();
+				return false;
+			}
+			backups.increment();
+			lastDuration = System.currentTimeMillis() - start;
+			logger.info(String.format("Streamed %d bytes of RDB to S3 in %d ms", stream.getReceived(),
+					lastDuration));
+			return true;
+
+		} catch (IOException e) {
+			failures.increment();
+			logger.error("Unable to stream the RDB from Redis", e);
+			return false;
+		} finally {
+			restoreSyncSettings(previous);
+			if (stream != null) {
+				try {
+					stream.close();
+				} catch (IOException e) {
+					logger.warn("Unable to disconnect from Redis replication", e);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Has Redis write the RDB to replicas as it dumps it, rather than to disk first, and start right away rather than
+	 * wait for more replicas.
+	 *
+	 * @return the settings changed, with the values they had
+	 */
+	private Map<String, String> enableDisklessSync() {
+		final Map<String, String> previous = new LinkedHashMap<String, String>();
+		try {
+			connectionManager.execute(new JedisCommand<Void>() {
+				@Override
+				public Void execute(Jedis jedis) {
+					configSet(jedis, "repl-diskless-sync", "yes", previous);
+					configSet(jedis, "repl-diskless-sync-delay", "0", previous);
+					return null;
+				}
+			});
+		} catch (RuntimeException e) {
+			logger.warn("Unable to set repl-diskless-sync, Redis may dump the RDB to disk: " + e.getMessage());
+		}
+		return previous;
+	}
+
+	/**
+	 * Sets the setting unless it already has the value, recording the value it had the first time it is changed.
+	 */
+	private static void configSet(Jedis jedis, String name, String value, Map<String, String> previous) {
+		List<String> current = jedis.configGet(name);
+		String old = current.size() < 2 ? null : current.get(1);
+		if (value.equals(old)) {
+			return;
+		}
+		logger.info("Setting Redis " + name + " to " + value + ", from " + old);
+		jedis.configSet(name, value);
+		// a retried command finds the value it set
+		if (old != null && !previous.containsKey(name)) {
+			previous.put(name, old);
+		}
+	}
+
+	/**
+	 * Sets back the settings changed for the backup, emptying previous once they are.
+	 */
+	private void restoreSyncSettings(final Map<String, String> previous) {
+		if (previous.isEmpty()) {
+			return;
+		}
+		try {
+			connectionManager.execute(new JedisCommand<Void>() {
+				@Override
+				public Void execute(Jedis jedis) {
+					for (Map.Entry<String, String> setting : previous.entrySet()) {
+						logger.info("Restoring Redis " + setting.getKey() + " to " + setting.getValue());
+						jedis.configSet(setting.getKey(), setting.getValue());
+					}
+					return null;
+				}
+			});
+			previous.clear();
+		} catch (RuntimeException e) {
+			logger.error("Unable to restore the Redis settings " + previous + ": " + e.getMessage());
+		}
+	}
+
+	private static int majorVersion(String version) {
+		try {
+			int dot = version.indexOf('.');
+			return Integer.parseInt(dot < 0 ? version : version.substring(0, dot));
+		} catch (NumberFormatException e) {
+			return 0;
+		}
+	}
+}
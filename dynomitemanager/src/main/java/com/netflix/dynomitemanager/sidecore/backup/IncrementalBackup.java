@@ -0,0 +1,254 @@
+/**
+ * Copyright 2016 Netflix, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package com.netflix.dynomitemanager.sidecore.backup;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.attribute.BasicFileAttributes;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.joda.time.DateTime;
+
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+import com.netflix.dynomitemanager.defaultimpl.IConfiguration;
+import com.netflix.dynomitemanager.monitoring.SampledGauge;
+import com.netflix.dynomitemanager.sidecore.utils.SystemUtils;
+import com.netflix.servo.DefaultMonitorRegistry;
+import com.netflix.servo.monitor.Counter;
+import com.netflix.servo.monitor.Monitors;
+
+/**
+ * Backs up the AOF incrementally: a full base, then only the bytes appended to the AOF since the last checkpoint. The
+ * checkpoint is the end of the newest base and its increments in the {@link BackupManifest}, which is uploaded after
+ * every backup so that a restore can rebuild the AOF as of any checkpoint.
+ *
+ * A new base is taken when asked to, and whenever the AOF is no longer the one the newest base was taken from: Redis
+ * rewrites the AOF into a new file that replaces the old one, so the file identity is the AOF generation. As the new
+ * file may get the identity of the old one, the MD5 of the first bytes of the base is also recorded, and a file that
+ * shrank or no longer starts with those bytes is taken as a rewrite too.
+ *
+ * A new base is also taken once the newest one has getBackupIncrementalMaxIncrements() increments or
+ * getBackupIncrementalMaxBytes() bytes of them, which bounds both the increments a restore replays and the size of the
+ * manifest uploaded at every checkpoint.
+ */
+@Singleton
+public class IncrementalBackup {
+
+	private static final Logger logger = LoggerFactory.getLogger(IncrementalBackup.class);
+
+	private static final String METRIC_PREFIX = "dynomitemanager__backup__incremental__";
+
+	// bases kept in the manifest, older backups are left to the bucket
+	// retention
+	private static final int MAX_BASES = 60;
+
+	// bytes at the start of a base its head MD5 covers
+	private static final int HEAD_SIZE = 64 * 1024;
+
+	private final IConfiguration config;
+	private final Backup backup;
+	private final SnapshotStaging staging;
+
+	private BackupManifest manifest;
+	private volatile long lastCheckpointTime;
+
+	private final Counter bases = Monitors.newCounter(METRIC_PREFIX + "bases");
+	private final Counter increments = Monitors.newCounter(METRIC_PREFIX + "increments");
+	private final Counter uploadedBytes = Monitors.newCounter(METRIC_PREFIX + "uploaded_bytes");
+	private final Counter failures = Monitors.newCounter(METRIC_PREFIX + "failures");
+
+	@Inject
+	public IncrementalBackup(IConfiguration config, Backup backup, SnapshotStaging staging) {
+		this.config = config;
+		this.backup = backup;
+		this.staging = staging;
+
+		DefaultMonitorRegistry.getInstance().register(bases);
+		DefaultMonitorRegistry.getInstance().register(increments);
+		DefaultMonitorRegistry.getInstance().register(uploadedBytes);
+		DefaultMonitorRegistry.getInstance().register(failures);
+		DefaultMonitorRegistry.getInstance().register(new SampledGauge(METRIC_PREFIX + "checkpoint_age_ms") {
+			@Override
+			protected long sample() {
+				return lastCheckpointTime > 0 ? System.currentTimeMillis() - lastCheckpointTime : 0;
+			}
+		});
+	}
+
+	/**
+	 * Uploads what the AOF got since the last checkpoint, or a new base when needed.
+	 *
+	 * @param newBase
+	 *            whether to take a new base even if the AOF could be continued, e.g. right after a rewrite
+	 * @return whether the backup is up to date with the AOF as it was when called
+	 */
+	public synchronized boolean backup(boolean newBase) {
+		if (!config.isRedisAofEnabled()) {
+			logger.warn("Incremental backup needs the AOF, which is disabled");
+			return false;
+		}
+
+		File aof = new File(config.getRedisDataDir() + "/appendonly.aof");
+		try {
+			if (manifest == null) {
+				// continue the backups of a previous run when the AOF is
+				// still the same
+				manifest = backup.getManifest();
+				if (manifest == null) {
+					manifest = new BackupManifest();
+				}
+			}
+
+			String generation = generation(aof);
+			long time = System.currentTimeMillis();
+			long length = aof.length();
+			BackupManifest.Base base = manifest.getLatestBase();
+
+			boolean uploaded;
+			if (newBase || base == null || !continues(aof, base, generation, length)) {
+				uploaded = uploadBase(aof);
+			} else if (length == base.getEnd()) {
+				logger.debug("Nothing appended to the AOF since the last checkpoint");
+				lastCheckpointTime = time;
+				return true;
+			} else if (isFull(base, length)) {
+				logger.info(String.format("Base of %s has %d increments of %d bytes, taking a new one",
+						new DateTime(base.getTime()), base.getIncrements().size(), base.getEnd() - base.getSize()));
+				uploaded = uploadBase(aof);
+			} else {
+				uploaded = uploadIncrement(aof, base, generation, time, length);
+			}
+
+			if (!uploaded) {
+				failures.increment();
+			}
+			return uploaded;
+
+		} catch (IOException e) {
+			logger.error("Incremental backup failed", e);
+			failures.increment();
+			return false;
+		}
+	}
+
+	private boolean uploadBase(File aof) throws IOException {
+		// the base is read from a link to the AOF, which a rewrite does not
+		// replace
+		File staged = staging.stage(aof);
+		try {
+			String generation = generation(staged);
+			long time = System.currentTimeMillis();
+			long length = staged.length();
+			String name = "incremental/" + time + "/base";
+			logger.info(String.format("Uploading a new base of %d bytes, AOF generation %s", length, generation));
+
+			String md5 = SystemUtils.md5(staged, 0, length);
+			String head = head(staged, length);
+			if (!backup.upload(staged, 0, length, name) || !sameGeneration(staged, generation)) {
+				return false;
+			}
+			bases.increment();
+			uploadedBytes.increment(length);
+
+			manifest.addBase(new BackupManifest.Base(time, name, length, md5, generation, head), MAX_BASES);
+			return checkpoint(time);
+		} finally {
+			staging.release(staged);
+		}
+	}
+
+	private boolean uploadIncrement(File aof, BackupManifest.Base base, String generation, long time, long length)
+			throws IOException {
+		long offset = base.getEnd();
+		String name = "incremental/" + base.getTime() + "/" + offset;
+		if (logger.isDebugEnabled()) {
+			logger.debug(String.format("Uploading %d bytes appended to the AOF at %d", length - offset, offset));
+		}
+
+		String md5 = SystemUtils.md5(aof, offset, length - offset);
+		if (!backup.upload(aof, offset, length - offset, name) || !sameGeneration(aof, generation)) {
+			return false;
+		}
+		increments.increment();
+		uploadedBytes.increment(length - offset);
+
+		base.addIncrement(new BackupManifest.Segment(time, name, offset, length - offset, md5));
+		return checkpoint(time);
+	}
+
+	/**
+	 * Uploads the manifest. Segments stay in the manifest when this fails, and are published with the next one.
+	 */
+	private boolean checkpoint(long time) {
+		if (!backup.uploadManifest(manifest)) {
+			return false;
+		}
+		lastCheckpointTime = time;
+		return true;
+	}
+
+	/**
+	 * @return whether the AOF of the given identity and length is still the file the base was taken from
+	 */
+	private static boolean continues(File aof, BackupManifest.Base base, String generation, long length)
+			throws IOException {
+		if (!base.getGeneration().equals(generation) || length < base.getEnd()) {
+			return false;
+		}
+		// bases from manifests written without a head are checked on their
+		// identity only
+		if (base.getHead() != null && !base.getHead().equals(head(aof, base.getSize()))) {
+			logger.info("AOF rewritten in place, taking a new base");
+			return false;
+		}
+		return true;
+	}
+
+	/**
+	 * @return whether the base has as many increments as a base may have, or would have once the AOF up to length is
+	 *         backed up
+	 */
+	private boolean isFull(BackupManifest.Base base, long length) {
+		int maxIncrements = config.getBackupIncrementalMaxIncrements();
+		long maxBytes = config.getBackupIncrementalMaxBytes();
+		return (maxIncrements > 0 && base.getIncrements().size() >= maxIncrements)
+				|| (maxBytes > 0 && length - base.getSize() > maxBytes);
+	}
+
+	/**
+	 * @return the MD5 of the first bytes of an AOF of which a base of the given size was taken
+	 */
+	private static String head(File aof, long baseSize) {
+		return SystemUtils.md5(aof, 0, Math.min(HEAD_SIZE, baseSize));
+	}
+
+	/**
+	 * A rewrite during the upload may have replaced the AOF the bytes were read from, in which case they are not
+	 * recorded and the next backup takes a new base.
+	 */
+	private boolean sameGeneration(File aof, String generation) throws IOException {
+		if (!generation(aof).equals(generation)) {
+			logger.warn("AOF rewritten during the backup, discarding it");
+			return false;
+		}
+		return true;
+	}
+
+	private static String generation(File aof) throws IOException {
+		Object fileKey = Files.readAttributes(aof.toPath(), BasicFileAttributes.class).fileKey();
+		return fileKey != null ? fileKey.toString() : "";
+	}
+}
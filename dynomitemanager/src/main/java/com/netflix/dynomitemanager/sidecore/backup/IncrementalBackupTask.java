@@ -0,0 +1,65 @@
+/**
+ * Copyright 2016 Netflix, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package com.netflix.dynomitemanager.sidecore.backup;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+import com.netflix.dynomitemanager.InstanceState;
+import com.netflix.dynomitemanager.defaultimpl.IConfiguration;
+import com.netflix.dynomitemanager.sidecore.scheduler.SimpleTimer;
+import com.netflix.dynomitemanager.sidecore.scheduler.Task;
+import com.netflix.dynomitemanager.sidecore.scheduler.TaskTimer;
+
+/**
+ * Task uploading the AOF bytes appended since the last incremental backup, see {@link IncrementalBackup}.
+ */
+@Singleton
+public class IncrementalBackupTask extends Task {
+
+	public static final String TaskName = "IncrementalBackupTask";
+	private static final Logger logger = LoggerFactory.getLogger(IncrementalBackupTask.class);
+	private final InstanceState state;
+	private final IncrementalBackup incrementalBackup;
+
+	@Inject
+	public IncrementalBackupTask(IConfiguration config, InstanceState state, IncrementalBackup incrementalBackup) {
+		super(config);
+		this.state = state;
+		this.incrementalBackup = incrementalBackup;
+	}
+
+	public void execute() throws Exception {
+		if (state.isRestoring() || state.isBootstrapping() || !state.isStorageAlive()) {
+			logger.info("Skipping incremental backup: storage is not serving");
+			return;
+		}
+		incrementalBackup.backup(false);
+	}
+
+	@Override
+	public String getName() {
+		return TaskName;
+	}
+
+	/**
+	 * Returns a timer that runs this task every getBackupIncrementalInterval() seconds.
+	 * @return TaskTimer
+	 */
+	public static TaskTimer getTimer(IConfiguration config) {
+		return new SimpleTimer(TaskName, config.getBackupIncrementalInterval() * 1000L);
+	}
+
+}
@@ -0,0 +1,180 @@
+/**
+ * Copyright 2016 Netflix, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package com.netflix.dynomitemanager.sidecore.backup;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+
+import org.joda.time.DateTime;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+import com.netflix.dynomitemanager.monitoring.SampledGauge;
+import com.netflix.dynomitemanager.sidecore.scheduler.NamedThreadPoolExecutor;
+import com.netflix.servo.DefaultMonitorRegistry;
+import com.netflix.servo.monitor.Counter;
+import com.netflix.servo.monitor.Monitors;
+
+/**
+ * Backs snapshots up to the {@link LocalSnapshotStore} and offloads them to S3 in the background, so that a snapshot
+ * is backed up as soon as it is stored on the node. Snapshots are offloaded one at a time, oldest first; one that fails
+ * to offload is kept and retried after the next snapshot. Without a local backup directory, or when the snapshot
+ * cannot be stored locally, it is uploaded to S3 directly.
+ *
+ * Incremental backups and snapshots streamed from Redis are uploaded to S3 directly.
+ */
+@Singleton
+public class LocalBackup implements Backup {
+
+	private static final Logger logger = LoggerFactory.getLogger(LocalBackup.class);
+
+	private static final String METRIC_PREFIX = "dynomitemanager__backup__local__";
+
+	private final LocalSnapshotStore store;
+	private final S3Backup s3Backup;
+	private final ExecutorService offloader = new NamedThreadPoolExecutor(1, "LocalSnapshotOffload");
+	// directory names of the snapshots waiting to be offloaded
+	private final Set<String> pending = Collections.synchronizedSet(new HashSet<String>());
+	private volatile long oldestPending;
+
+	private final Counter stored = Monitors.newCounter(METRIC_PREFIX + "stored");
+	private final Counter storeFailures = Monitors.newCounter(METRIC_PREFIX + "store_failures");
+	private final Counter offloaded = Monitors.newCounter(METRIC_PREFIX + "offloaded");
+	private final Counter offloadFailures = Monitors.newCounter(METRIC_PREFIX + "offload_failures");
+
+	@Inject
+	public LocalBackup(LocalSnapshotStore store, S3Backup s3Backup) {
+		this.store = store;
+		this.s3Backup = s3Backup;
+
+		DefaultMonitorRegistry.getInstance().register(stored);
+		DefaultMonitorRegistry.getInstance().register(storeFailures);
+		DefaultMonitorRegistry.getInstance().register(offloaded);
+		DefaultMonitorRegistry.getInstance().register(offloadFailures);
+		DefaultMonitorRegistry.getInstance().register(new SampledGauge(METRIC_PREFIX + "offload_pending") {
+			@Override
+			protected long sample() {
+				return pending.size();
+			}
+		});
+		DefaultMonitorRegistry.getInstance().register(new SampledGauge(METRIC_PREFIX + "offload_lag_ms") {
+			@Override
+			protected long sample() {
+				long oldest = oldestPending;
+				return oldest > 0 ? System.currentTimeMillis() - oldest : 0;
+			}
+		});
+	}
+
+	@Override
+	public boolean upload(File file, DateTime todayStart) {
+		if (!store.isEnabled()) {
+			return s3Backup.upload(file, todayStart);
+		}
+
+		try {
+			store.store(file, todayStart.getMillis());
+			stored.increment();
+		} catch (IOException e) {
+			storeFailures.increment();
+			logger.error("Unable to store the snapshot locally, uploading it to S3", e);
+			return s3Backup.upload(file, todayStart);
+		}
+		offload();
+		return true;
+	}
+
+	@Override
+	public boolean upload(InputStream in, long length, DateTime todayStart) {
+		// a streamed snapshot is not written to disk, locally either
+		return s3Backup.upload(in, length, todayStart);
+	}
+
+	@Override
+	public boolean upload(File file, long offset, long length, String name) {
+		return s3Backup.upload(file, offset, length, name);
+	}
+
+	@Override
+	public boolean uploadManifest(BackupManifest manifest) {
+		return s3Backup.uploadManifest(manifest);
+	}
+
+	@Override
+	public BackupManifest getManifest() throws IOException {
+		return s3Backup.getManifest();
+	}
+
+	/**
+	 * Queues the snapshots not yet in S3 for offload, then removes those the retention no longer needs.
+	 */
+	private void offload() {
+		List<LocalSnapshotStore.Snapshot> snapshots = store.list();
+		long oldest = 0;
+		for (final LocalSnapshotStore.Snapshot snapshot : snapshots) {
+			// a newer snapshot of the same day replaces it in S3
+			if (snapshot.isOffloaded() || LocalSnapshotStore.isSuperseded(snapshot, snapshots)) {
+				continue;
+			}
+			if (oldest == 0) {
+				oldest = snapshot.getCreated();
+			}
+			if (!pending.add(snapshot.getDir().getName())) {
+				continue;
+			}
+
+			offloader.submit(new Runnable() {
+				@Override
+				public void run() {
+					offload(snapshot);
+				}
+			});
+		}
+		oldestPending = oldest;
+		store.prune(pending);
+	}
+
+	private void offload(LocalSnapshotStore.Snapshot snapshot) {
+		boolean done = false;
+		try {
+			logger.info("Offloading local snapshot " + snapshot.getDir() + " to S3");
+			if (s3Backup.upload(snapshot.getFile(), new DateTime(snapshot.getTime()))) {
+				store.markOffloaded(snapshot);
+				offloaded.increment();
+				done = true;
+			} else {
+				offloadFailures.increment();
+				logger.error("Unable to offload local snapshot " + snapshot.getDir() + ", retrying after the next "
+						+ "snapshot");
+			}
+		} catch (IOException | RuntimeException e) {
+			offloadFailures.increment();
+			logger.error("Unable to offload local snapshot " + snapshot.getDir(), e);
+		} finally {
+			pending.remove(snapshot.getDir().getName());
+			// the lag is that of the oldest snapshot not in S3, failed ones included
+			if (done && pending.isEmpty()) {
+				oldestPending = 0;
+			}
+			store.prune(pending);
+		}
+	}
+}
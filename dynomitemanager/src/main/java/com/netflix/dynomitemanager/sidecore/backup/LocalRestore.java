@@ -0,0 +1,159 @@
+/**
+ * Copyright 2016 Netflix, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package com.netflix.dynomitemanager.sidecore.backup;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.List;
+
+import org.joda.time.format.DateTimeFormat;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+import com.netflix.dynomitemanager.defaultimpl.IConfiguration;
+import com.netflix.dynomitemanager.monitoring.SampledGauge;
+import com.netflix.servo.DefaultMonitorRegistry;
+import com.netflix.servo.monitor.Counter;
+import com.netflix.servo.monitor.Monitors;
+
+/**
+ * Restores the snapshot of the restore date from the {@link LocalSnapshotStore} when one is there with the size and
+ * MD5 it was stored with, and from S3 otherwise. The newest valid snapshot of the day is restored.
+ *
+ * An RDB is hard linked into the data directory when on the same file system, which takes no time whatever its size;
+ * an AOF is copied, as Redis appends to it in place. Restore dates given to the minute or second, and nodes with
+ * incremental backups, are restored from S3, which has the increments.
+ */
+@Singleton
+public class LocalRestore implements Restore {
+
+	private static final Logger logger = LoggerFactory.getLogger(LocalRestore.class);
+
+	private static final String METRIC_PREFIX = "dynomitemanager__restore__local__";
+
+	private final IConfiguration config;
+	private final LocalSnapshotStore store;
+	private final S3Restore s3Restore;
+
+	private final Counter restores = Monitors.newCounter(METRIC_PREFIX + "restores");
+	private final Counter invalidSnapshots = Monitors.newCounter(METRIC_PREFIX + "invalid_snapshots");
+	private final Counter s3Fallbacks = Monitors.newCounter(METRIC_PREFIX + "s3_fallbacks");
+	private volatile long lastRestoreDuration;
+
+	@Inject
+	public LocalRestore(IConfiguration config, LocalSnapshotStore store, S3Restore s3Restore) {
+		this.config = config;
+		this.store = store;
+		this.s3Restore = s3Restore;
+
+		DefaultMonitorRegistry.getInstance().register(restores);
+		DefaultMonitorRegistry.getInstance().register(invalidSnapshots);
+		DefaultMonitorRegistry.getInstance().register(s3Fallbacks);
+		DefaultMonitorRegistry.getInstance().register(new SampledGauge(METRIC_PREFIX + "duration_ms") {
+			@Override
+			protected long sample() {
+				return lastRestoreDuration;
+			}
+		});
+	}
+
+	@Override
+	public boolean restoreData(String dateString) {
+		if (store.isEnabled() && !(config.isBackupIncrementalEnabled() && config.isRedisAofEnabled())) {
+			File target;
+			if (config.isRedisAofEnabled()) {
+				target = new File(config.getRedisDataDir() + "/appendonly.aof");
+			} else {
+				target = new File(config.getRedisDataDir() + "/nfredis.rdb");
+			}
+
+			LocalSnapshotStore.Snapshot snapshot = find(dateString, target.getName());
+			if (snapshot != null) {
+				try {
+					restore(snapshot, target);
+					return true;
+				} catch (IOException e) {
+					logger.error("Unable to restore local snapshot " + snapshot.getDir(), e);
+				}
+			}
+			logger.info("No valid local snapshot for " + dateString + ", restoring from S3");
+			s3Fallbacks.increment();
+		}
+		return s3Restore.restoreData(dateString);
+	}
+
+	/**
+	 * @return the newest valid snapshot of the restore date, or null if there is none
+	 */
+	private LocalSnapshotStore.Snapshot find(String dateString, String fileName) {
+		if (dateString == null || dateString.length() != 8) {
+			return null;
+		}
+		long time;
+		try {
+			time = DateTimeFormat.forPattern("yyyyMMdd").parseDateTime(dateString).withTimeAtStartOfDay().getMillis();
+		} catch (IllegalArgumentException e) {
+			return null;
+		}
+
+		List<LocalSnapshotStore.Snapshot> snapshots = store.list();
+		for (int i = snapshots.size() - 1; i >= 0; i--) {
+			LocalSnapshotStore.Snapshot snapshot = snapshots.get(i);
+			if (snapshot.getTime() != time || !snapshot.getFile().getName().equals(fileName)) {
+				continue;
+			}
+			if (store.verify(snapshot)) {
+				return snapshot;
+			}
+			invalidSnapshots.increment();
+		}
+		return null;
+	}
+
+	private void restore(LocalSnapshotStore.Snapshot snapshot, File target) throws IOException {
+		logger.info("Restoring local snapshot " + snapshot.getDir() + " to " + target);
+		long start = System.currentTimeMillis();
+		File temp = new File(target.getPath() + ".restore");
+		Files.deleteIfExists(temp.toPath());
+
+		boolean linked = false;
+		if (!config.isRedisAofEnabled()) {
+			try {
+				Files.createLink(temp.toPath(), snapshot.getFile().toPath());
+				linked = true;
+			} catch (IOException | UnsupportedOperationException e) {
+				logger.info("Unable to link " + snapshot.getFile() + ", copying it: " + e.getMessage());
+			}
+		}
+		try {
+			if (!linked) {
+				Files.copy(snapshot.getFile().toPath(), temp.toPath(), StandardCopyOption.REPLACE_EXISTING);
+			}
+			if (temp.length() != snapshot.getSize()) {
+				throw new IOException("Restored " + temp.length() + " bytes, expected " + snapshot.getSize());
+			}
+			S3Restore.move(temp, target);
+		} finally {
+			Files.deleteIfExists(temp.toPath());
+		}
+
+		restores.increment();
+		lastRestoreDuration = System.currentTimeMillis() - start;
+		logger.info(String.format("Restored %d bytes from %s in %d ms", snapshot.getSize(), snapshot.getDir(),
+				lastRestoreDuration));
+	}
+}
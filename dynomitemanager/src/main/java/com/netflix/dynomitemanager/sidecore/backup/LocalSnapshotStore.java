@@ -0,0 +1,396 @@
+/**
+ * Copyright 2016 Netflix, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package com.netflix.dynomitemanager.sidecore.backup;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.commons.io.FileUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+import com.netflix.dynomitemanager.defaultimpl.IConfiguration;
+import com.netflix.dynomitemanager.sidecore.utils.SystemUtils;
+
+/**
+ * Snapshots kept on the node, in the configured local backup directory, so that restoring on the same node, or on one
+ * the volume is attached to, does not download them from S3. Each snapshot is a directory named after the day it
+ * belongs to and the time it was taken, holding the dump and its size and MD5 in a properties file written last: a
+ * directory without it is a snapshot interrupted while being stored.
+ *
+ * A dump is copied and summed in a directory of its own, without holding the lock list, prune and restores take, and
+ * only moved into place under it.
+ *
+ * The newest snapshots are kept up to the configured retention. Older ones are removed once offloaded to S3, or once a
+ * newer snapshot of the same day replaces them in S3.
+ */
+@Singleton
+public class LocalSnapshotStore {
+
+	private static final Logger logger = LoggerFactory.getLogger(LocalSnapshotStore.class);
+
+	static final String PROPERTIES = "snapshot.properties";
+
+	// directories dumps are copied into before they are moved into place
+	private static final String STORING_PREFIX = "storing-";
+
+	private static final int BUFFER_SIZE = 1024 * 1024;
+
+	private final IConfiguration config;
+	private final AtomicLong sequence = new AtomicLong();
+	// the directories of the stores in progress, guarded by this
+	private final Set<File> storing = new HashSet<File>();
+
+	@Inject
+	public LocalSnapshotStore(IConfiguration config) {
+		this.config = config;
+	}
+
+	/**
+	 * @return whether a local backup directory is configured
+	 */
+	public boolean isEnabled() {
+		String dir = config.getBackupLocalDir();
+		return dir != null && !dir.trim().isEmpty();
+	}
+
+	/**
+	 * Stores a dump as the snapshot of the given day. An RDB is hard linked when the directory is on the same file
+	 * system, as Redis never writes an RDB in place; an AOF is appended to in place and is always copied, up to its
+	 * length when called.
+	 *
+	 * @param time
+	 *            the start of the day the snapshot belongs to
+	 */
+	public Snapshot store(File file, long time) throws IOException {
+		long start = System.currentTimeMillis();
+		File temp = new File(root(), STORING_PREFIX + start + "-" + sequence.incrementAndGet());
+		synchronized (this) {
+			storing.add(temp);
+		}
+		try {
+			File staged = new File(temp, file.getName());
+			Files.createDirectories(temp.toPath());
+
+			String md5 = null;
+			if (!config.isRedisAofEnabled()) {
+				try {
+					Files.createLink(staged.toPath(), file.toPath());
+					md5 = SystemUtils.md5(staged);
+				} catch (IOException | UnsupportedOperationException e) {
+					logger.info("Unable to link " + file + " into " + temp + ", copying it: " + e.getMessage());
+				}
+			}
+			if (md5 == null) {
+				md5 = copy(file, staged, file.length());
+			}
+			long size = staged.length();
+
+			synchronized (this) {
+				long created = start;
+				while (new File(root(), time + "-" + created).exists()) {
+					created++;
+				}
+				File dir = new File(root(), time + "-" + created);
+				Files.move(temp.toPath(), dir.toPath(), StandardCopyOption.ATOMIC_MOVE);
+
+				Snapshot snapshot = new Snapshot(dir, time, created, new File(dir, file.getName()), size, md5, false);
+				writeProperties(snapshot);
+				logger.info(String.format("Stored a snapshot of %d bytes in %s in %d ms", size, dir,
+						System.currentTimeMillis() - start));
+				return snapshot;
+			}
+		} finally {
+			synchronized (this) {
+				storing.remove(temp);
+			}
+			// left only when the store failed
+			if (temp.exists()) {
+				FileUtils.deleteQuietly(temp);
+			}
+		}
+	}
+
+	/**
+	 * @return the complete snapshots, oldest first
+	 */
+	public synchronized List<Snapshot> list() {
+		List<Snapshot> snapshots = new ArrayList<Snapshot>();
+		File[] dirs = root().listFiles();
+		if (dirs == null) {
+			return snapshots;
+		}
+
+		for (File dir : dirs) {
+			Snapshot snapshot = readProperties(dir);
+			if (snapshot != null) {
+				snapshots.add(snapshot);
+			}
+		}
+		Collections.sort(snapshots, new Comparator<Snapshot>() {
+			@Override
+			public int compare(Snapshot a, Snapshot b) {
+				return Long.compare(a.getCreated(), b.getCreated());
+			}
+		});
+		return snapshots;
+	}
+
+	/**
+	 * @return whether the snapshot still has the size and MD5 it was stored with
+	 */
+	public boolean verify(Snapshot snapshot) {
+		File file = snapshot.getFile();
+		if (!file.isFile() || file.length() != snapshot.getSize()) {
+			logger.error(String.format("Local snapshot %s has %d bytes, expected %d", file, file.length(),
+					snapshot.getSize()));
+			return false;
+		}
+		String md5 = SystemUtils.md5(file);
+		if (!md5.equalsIgnoreCase(snapshot.getMd5())) {
+			logger.error(String.format("Checksum mismatch for local snapshot %s: stored %s, read %s", file,
+					snapshot.getMd5(), md5));
+			return false;
+		}
+		return true;
+	}
+
+	/**
+	 * Records that the snapshot is in S3, which lets the retention remove it.
+	 */
+	public synchronized Snapshot markOffloaded(Snapshot snapshot) throws IOException {
+		Snapshot offloaded = new Snapshot(snapshot.getDir(), snapshot.getTime(), snapshot.getCreated(),
+				snapshot.getFile(), snapshot.getSize(), snapshot.getMd5(), true);
+		writeProperties(offloaded);
+		return offloaded;
+	}
+
+	/**
+	 * Removes the snapshots beyond the retention that are not needed to offload, and those interrupted while being
+	 * stored.
+	 *
+	 * @param busy
+	 *            directory names of the snapshots in use, which are kept
+	 */
+	public synchronized void prune(Collection<String> busy) {
+		List<Snapshot> snapshots = list();
+		int retention = Math.max(1, config.getBackupLocalRetention());
+		List<File> keep = new ArrayList<File>();
+		for (int i = 0; i < snapshots.size(); i++) {
+			Snapshot snapshot = snapshots.get(i);
+			if (i >= snapshots.size() - retention || busy.contains(snapshot.getDir().getName())
+					|| (!snapshot.isOffloaded() && !isSuperseded(snapshot, snapshots))) {
+				keep.add(snapshot.getDir());
+			}
+		}
+
+		File[] dirs = root().listFiles();
+		if (dirs == null) {
+			return;
+		}
+		for (File dir : dirs) {
+			// only what looks like a snapshot, or a store a restart
+			// interrupted, the directory may hold other files
+			if ((dir.getName().matches("\\d+-\\d+") && !keep.contains(dir))
+					|| (dir.getName().startsWith(STORING_PREFIX) && !storing.contains(dir))) {
+				logger.info("Removing local snapshot " + dir);
+				try {
+					FileUtils.forceDelete(dir);
+				} catch (IOException e) {
+					logger.warn("Unable to remove local snapshot " + dir, e);
+				}
+			}
+		}
+	}
+
+	/**
+	 * @return whether a newer snapshot of the same day replaces this one in S3
+	 */
+	public static boolean isSuperseded(Snapshot snapshot, List<Snapshot> snapshots) {
+		for (Snapshot other : snapshots) {
+			if (other.getTime() == snapshot.getTime() && other.getCreated() > snapshot.getCreated()) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	private File root() {
+		return new File(config.getBackupLocalDir().trim());
+	}
+
+	/**
+	 * Copies length bytes of the file, digesting them on the way.
+	 *
+	 * @return the MD5 of the copy
+	 */
+	private static String copy(File from, File to, long length) throws IOException {
+		MessageDigest digest;
+		try {
+			digest = MessageDigest.getInstance("MD5");
+		} catch (NoSuchAlgorithmException e) {
+			throw new IOException(e);
+		}
+
+		FileChannel in = new FileInputStream(from).getChannel();
+		FileChannel out = new FileOutputStream(to).getChannel();
+		try {
+			ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+			long position = 0;
+			while (position < length) {
+				buffer.clear();
+				buffer.limit((int) Math.min(BUFFER_SIZE, length - position));
+				int read = in.read(buffer, position);
+				if (read < 0) {
+					throw new IOException(from + " ended after " + position + " of " + length + " bytes");
+				}
+				buffer.flip();
+				digest.update(buffer.array(), 0, buffer.limit());
+				while (buffer.hasRemaining()) {
+					out.write(buffer);
+				}
+				position += read;
+			}
+			out.force(true);
+		} finally {
+			in.close();
+			out.close();
+		}
+		return SystemUtils.toHex(digest.digest());
+	}
+
+	private static void writeProperties(Snapshot snapshot) throws IOException {
+		Properties properties = new Properties();
+		properties.setProperty("file", snapshot.getFile().getName());
+		properties.setProperty("size", Long.toString(snapshot.getSize()));
+		properties.setProperty("md5", snapshot.getMd5());
+		properties.setProperty("offloaded", Boolean.toString(snapshot.isOffloaded()));
+
+		// replaced in one rename so that a crash leaves either version
+		File temp = new File(snapshot.getDir(), PROPERTIES + ".tmp");
+		OutputStream out = new FileOutputStream(temp);
+		try {
+			properties.store(out, null);
+		} finally {
+			out.close();
+		}
+		if (!temp.renameTo(new File(snapshot.getDir(), PROPERTIES))) {
+			throw new IOException("Unable to write the properties of " + snapshot.getDir());
+		}
+	}
+
+	private static Snapshot readProperties(File dir) {
+		File file = new File(dir, PROPERTIES);
+		if (!file.isFile()) {
+			return null;
+		}
+
+		try {
+			String[] name = dir.getName().split("-");
+			long time = Long.parseLong(name[0]);
+			long created = Long.parseLong(name[1]);
+
+			Properties properties = new Properties();
+			InputStream in = new FileInputStream(file);
+			try {
+				properties.load(in);
+			} finally {
+				in.close();
+			}
+			return new Snapshot(dir, time, created, new File(dir, properties.getProperty("file")),
+					Long.parseLong(properties.getProperty("size")), properties.getProperty("md5"),
+					Boolean.parseBoolean(properties.getProperty("offloaded")));
+		} catch (IOException | RuntimeException e) {
+			logger.warn("Ignoring invalid local snapshot " + dir + ": " + e.getMessage());
+			return null;
+		}
+	}
+
+	/**
+	 * A snapshot in the local backup directory.
+	 */
+	public static class Snapshot {
+		private final File dir;
+		private final long time;
+		private final long created;
+		private final File file;
+		private final long size;
+		private final String md5;
+		private final boolean offloaded;
+
+		Snapshot(File dir, long time, long created, File file, long size, String md5, boolean offloaded) {
+			this.dir = dir;
+			this.time = time;
+			this.created = created;
+			this.file = file;
+			this.size = size;
+			this.md5 = md5;
+			this.offloaded = offloaded;
+		}
+
+		public File getDir() {
+			return dir;
+		}
+
+		/**
+		 * @return the start of the day the snapshot belongs to, which names it in S3
+		 */
+		public long getTime() {
+			return time;
+		}
+
+		/**
+		 * @return when the snapshot was stored
+		 */
+		public long getCreated() {
+			return created;
+		}
+
+		public File getFile() {
+			return file;
+		}
+
+		public long getSize() {
+			return size;
+		}
+
+		public String getMd5() {
+			return md5;
+		}
+
+		public boolean isOffloaded() {
+			return offloaded;
+		}
+	}
+}
@@ -0,0 +1,302 @@
+/**
+ * Copyright 2016 Netflix, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package com.netflix.dynomitemanager.sidecore.backup;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+
+import org.json.simple.JSONObject;
+import org.json.simple.parser.JSONParser;
+import org.json.simple.parser.ParseException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+import com.netflix.config.DynamicIntProperty;
+import com.netflix.config.DynamicPropertyFactory;
+import com.netflix.config.DynamicStringProperty;
+import com.netflix.dynomitemanager.defaultimpl.IConfiguration;
+import com.netflix.dynomitemanager.monitoring.SampledGauge;
+import com.netflix.dynomitemanager.sidecore.scheduler.NamedThreadPoolExecutor;
+import com.netflix.servo.DefaultMonitorRegistry;
+import com.netflix.servo.monitor.Counter;
+import com.netflix.servo.monitor.Monitors;
+
+/**
+ * Reports on the keys of the RDB of the node, of a snapshot in S3, or of a snapshot as it is backed up, without
+ * loading anything into Redis: the RDB is read once from start to end, from disk no faster than the backup disk
+ * limit.
+ *
+ * An AOF is analyzed when it starts with an RDB preamble, which then covers the keys up to the last rewrite only.
+ *
+ * Reports asked for through the admin API take as long as reading the whole RDB, so they are made one at a time in
+ * the background, and the last one made is kept to be served with the status of the current one.
+ */
+@Singleton
+public class RdbAnalyzer {
+
+	private static final Logger logger = LoggerFactory.getLogger(RdbAnalyzer.class);
+
+	private static final String METRIC_PREFIX = "dynomitemanager__backup__report__";
+
+	private static final String IDLE = "idle";
+	private static final String ANALYZING = "analyzing";
+	private static final String DONE = "done";
+	private static final String FAILED = "failed";
+
+	private static final DynamicIntProperty TopKeys = DynamicPropertyFactory.getInstance()
+			.getIntProperty("dynomitemanager.backup.report.top.keys", 20);
+	private static final DynamicIntProperty MaxPrefixes = DynamicPropertyFactory.getInstance()
+			.getIntProperty("dynomitemanager.backup.report.max.prefixes", 1000);
+	private static final DynamicStringProperty PrefixDelimiter = DynamicPropertyFactory.getInstance()
+			.getStringProperty("dynomitemanager.backup.report.prefix.delimiter", ":");
+
+	private final IConfiguration config;
+	private final S3Backup s3Backup;
+	private final BackupThrottle throttle;
+
+	private final Counter reports = Monitors.newCounter(METRIC_PREFIX + "reports");
+	private final Counter failures = Monitors.newCounter(METRIC_PREFIX + "failures");
+	private volatile long lastDuration;
+	private volatile long lastKeys;
+
+	// reports asked for through the admin API
+	private final ExecutorService reportExecutor = new NamedThreadPoolExecutor(1, "RdbReport");
+	private volatile String reportTarget;
+	private volatile String reportState = IDLE;
+	private volatile long reportStarted;
+	private volatile long reportFinished;
+	private volatile String reportError;
+	// guarded by this
+	private String lastReport;
+	private String lastReportTarget;
+
+	@Inject
+	public RdbAnalyzer(IConfiguration config, S3Backup s3Backup, BackupThrottle throttle) {
+		this.config = config;
+		this.s3Backup = s3Backup;
+		this.throttle = throttle;
+
+		DefaultMonitorRegistry.getInstance().register(reports);
+		DefaultMonitorRegistry.getInstance().register(failures);
+		DefaultMonitorRegistry.getInstance().register(new SampledGauge(METRIC_PREFIX + "duration_ms") {
+			@Override
+			protected long sample() {
+				return lastDuration;
+			}
+		});
+		DefaultMonitorRegistry.getInstance().register(new SampledGauge(METRIC_PREFIX + "keys") {
+			@Override
+			protected long sample() {
+				return lastKeys;
+			}
+		});
+	}
+
+	/**
+	 * @return the report on the dump in the data directory
+	 */
+	public RdbReport analyzeLocal() throws IOException {
+		File file = new File(config.getRedisDataDir() + (config.isRedisAofEnabled() ? "/appendonly.aof"
+				: "/nfredis.rdb"));
+		return analyze(file);
+	}
+
+	/**
+	 * @return the report on the given RDB, or AOF with an RDB preamble
+	 */
+	public RdbReport analyze(File file) throws IOException {
+		InputStream in = throttle.throttleDisk(new FileInputStream(file));
+		try {
+			return analyze(in);
+		} finally {
+			in.close();
+		}
+	}
+
+	/**
+	 * @return the report on the snapshot of the given day in S3, read from S3 without a download to disk
+	 */
+	public RdbReport analyzeBackup(long time) throws IOException {
+		InputStream in = s3Backup.openSnapshot(time);
+		try {
+			return analyze(in);
+		} finally {
+			in.close();
+		}
+	}
+
+	/**
+	 * @return the report stored on the snapshot of the given day, made and stored now if the snapshot has none
+	 */
+	public String getBackupReport(long time) throws IOException {
+		String json = s3Backup.getReport(time);
+		if (json == null) {
+			json = analyzeBackup(time).toJson();
+			s3Backup.uploadReport(time, json);
+		}
+		return json;
+	}
+
+	/**
+	 * @return the report on the RDB read from the stream
+	 */
+	public RdbReport analyze(InputStream in) throws IOException {
+		long start = System.currentTimeMillis();
+		RdbReport report = new RdbReport(TopKeys.get(), MaxPrefixes.get(), PrefixDelimiter.get(), start);
+		try {
+			long read = new RdbParser(in).parse(report);
+			report.finish(read, System.currentTimeMillis() - start);
+		} catch (IOException | RuntimeException e) {
+			failures.increment();
+			throw e;
+		}
+		reports.increment();
+		lastDuration = System.currentTimeMillis() - start;
+		lastKeys = report.getKeys();
+		logger.info(String.format("Analyzed %d keys, %d bytes in %d ms", report.getKeys(), report.getBytes(),
+				lastDuration));
+		return report;
+	}
+
+	/**
+	 * Starts reporting on the dump in the data directory in the background.
+	 *
+	 * @return false if a report is already being made
+	 */
+	public boolean startLocalReport() {
+		return startReport("local", new Callable<String>() {
+			@Override
+			public String call() throws IOException {
+				return analyzeLocal().toJson();
+			}
+		});
+	}
+
+	/**
+	 * Starts reporting on the snapshot of the given day in the background, see {@link #getBackupReport(long)}.
+	 *
+	 * @return false if a report is already being made
+	 */
+	public boolean startBackupReport(final long time) {
+		return startReport("snapshot " + time, new Callable<String>() {
+			@Override
+			public String call() throws IOException {
+				return getBackupReport(time);
+			}
+		});
+	}
+
+	private synchronized boolean startReport(final String target, final Callable<String> report) {
+		if (ANALYZING.equals(reportState)) {
+			return false;
+		}
+		reportTarget = target;
+		reportState = ANALYZING;
+		reportStarted = System.currentTimeMillis();
+		reportFinished = 0;
+		reportError = null;
+
+		reportExecutor.submit(new Runnable() {
+			@Override
+			public void run() {
+				String state = FAILED;
+				try {
+					String json = report.call();
+					synchronized (RdbAnalyzer.this) {
+						lastReport = json;
+						lastReportTarget = target;
+					}
+					state = DONE;
+				} catch (FileNotFoundException e) {
+					logger.error("No dump to report on: " + e.getMessage());
+					reportError = "No dump to report on";
+				} catch (Exception e) {
+					logger.error("Unable to report on " + target, e);
+					reportError = e.toString();
+				} finally {
+					reportFinished = System.currentTimeMillis();
+					reportState = state;
+				}
+			}
+		});
+		return true;
+	}
+
+	/**
+	 * @return the state of the report being made or last made, with the last report made, as JSON
+	 */
+	@SuppressWarnings("unchecked")
+	public synchronized String getReportStatus() {
+		JSONObject json = new JSONObject();
+		json.put("state", reportState);
+		json.put("target", reportTarget);
+		json.put("started", reportStarted);
+		json.put("finished", reportFinished);
+		json.put("error", reportError);
+		json.put("report_target", lastReportTarget);
+		Object report = null;
+		if (lastReport != null) {
+			try {
+				report = new JSONParser().parse(lastReport);
+			} catch (ParseException e) {
+				report = lastReport;
+			}
+		}
+		json.put("report", report);
+		return json.toJSONString();
+	}
+
+	/**
+	 * Stores the report on a dump that was just backed up next to its snapshot, if reports are enabled. Failures are
+	 * logged, and do not fail the backup.
+	 */
+	public void reportBackup(File dump, long time) {
+		if (!config.isBackupReportEnabled()) {
+			return;
+		}
+		try {
+			if (!startsLikeRdb(dump)) {
+				logger.info("Not reporting on " + dump + ", which has no RDB preamble");
+				return;
+			}
+			RdbReport report = analyze(dump);
+			if (s3Backup.uploadReport(time, report.toJson())) {
+				logger.info("Stored the report on snapshot " + time);
+			}
+		} catch (IOException | RuntimeException e) {
+			logger.error("Unable to report on snapshot " + time, e);
+		}
+	}
+
+	private static boolean startsLikeRdb(File file) throws IOException {
+		InputStream in = new FileInputStream(file);
+		try {
+			byte[] head = new byte[5];
+			int read = 0;
+			int n;
+			while (read < head.length && (n = in.read(head, read, head.length - read)) >= 0) {
+				read += n;
+			}
+			return RdbParser.isRdb(head, read);
+		} finally {
+			in.close();
+		}
+	}
+}
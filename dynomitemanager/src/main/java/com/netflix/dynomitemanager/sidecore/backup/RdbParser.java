@@ -0,0 +1,603 @@
+/**
+ * Copyright 2016 Netflix, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package com.netflix.dynomitemanager.sidecore.backup;
+
+import java.io.BufferedInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Reads the keys of an RDB as it streams by, in constant memory whatever the size of the RDB: values are skipped
+ * rather than decoded, only their size is kept, and keys are cut to {@link #MAX_KEY_LENGTH} bytes.
+ *
+ * The size of a value is the number of bytes of its strings once decompressed, plus its numbers stored in binary, as
+ * written in the RDB. Ziplists, listpacks and intsets are strings to the RDB, so small collections are counted at the
+ * size of their compact encoding.
+ */
+public class RdbParser {
+
+	/**
+	 * The longest prefix of a key passed to the listener.
+	 */
+	public static final int MAX_KEY_LENGTH = 1024;
+
+	private static final String MAGIC = "REDIS";
+	private static final int MAX_VERSION = 12;
+	private static final int BUFFER_SIZE = 64 * 1024;
+
+	// opcodes
+	private static final int OPCODE_SLOT_INFO = 0xF4;
+	private static final int OPCODE_FUNCTION2 = 0xF5;
+	private static final int OPCODE_FUNCTION_PRE_GA = 0xF6;
+	private static final int OPCODE_MODULE_AUX = 0xF7;
+	private static final int OPCODE_IDLE = 0xF8;
+	private static final int OPCODE_FREQ = 0xF9;
+	private static final int OPCODE_AUX = 0xFA;
+	private static final int OPCODE_RESIZEDB = 0xFB;
+	private static final int OPCODE_EXPIRETIME_MS = 0xFC;
+	private static final int OPCODE_EXPIRETIME = 0xFD;
+	private static final int OPCODE_SELECTDB = 0xFE;
+	private static final int OPCODE_EOF = 0xFF;
+
+	// value types
+	public static final int TYPE_STRING = 0;
+	public static final int TYPE_LIST = 1;
+	public static final int TYPE_SET = 2;
+	public static final int TYPE_ZSET = 3;
+	public static final int TYPE_HASH = 4;
+	public static final int TYPE_ZSET_2 = 5;
+	public static final int TYPE_MODULE_PRE_GA = 6;
+	public static final int TYPE_MODULE_2 = 7;
+	public static final int TYPE_HASH_ZIPMAP = 9;
+	public static final int TYPE_LIST_ZIPLIST = 10;
+	public static final int TYPE_SET_INTSET = 11;
+	public static final int TYPE_ZSET_ZIPLIST = 12;
+	public static final int TYPE_HASH_ZIPLIST = 13;
+	public static final int TYPE_LIST_QUICKLIST = 14;
+	public static final int TYPE_STREAM_LISTPACKS = 15;
+	public static final int TYPE_HASH_LISTPACK = 16;
+	public static final int TYPE_ZSET_LISTPACK = 17;
+	public static final int TYPE_LIST_QUICKLIST_2 = 18;
+	public static final int TYPE_STREAM_LISTPACKS_2 = 19;
+	public static final int TYPE_SET_LISTPACK = 20;
+	public static final int TYPE_STREAM_LISTPACKS_3 = 21;
+
+	// string encodings
+	private static final int ENC_INT8 = 0;
+	private static final int ENC_INT16 = 1;
+	private static final int ENC_INT32 = 2;
+	private static final int ENC_LZF = 3;
+
+	// module value opcodes
+	private static final int MODULE_OPCODE_EOF = 0;
+	private static final int MODULE_OPCODE_SINT = 1;
+	private static final int MODULE_OPCODE_UINT = 2;
+	private static final int MODULE_OPCODE_FLOAT = 3;
+	private static final int MODULE_OPCODE_DOUBLE = 4;
+	private static final int MODULE_OPCODE_STRING = 5;
+
+	/**
+	 * Told about the RDB as it is read.
+	 */
+	public interface Listener {
+		/**
+		 * An auxiliary field of the RDB, such as redis-ver or ctime.
+		 */
+		void onAux(String name, String value);
+
+		/**
+		 * A key of the RDB.
+		 *
+		 * @param key
+		 *            the key, cut to {@link RdbParser#MAX_KEY_LENGTH} bytes
+		 * @param keyLength
+		 *            the length of the whole key
+		 * @param valueSize
+		 *            the size of the value as written in the RDB, strings counted decompressed
+		 * @param expireAt
+		 *            when the key expires in milliseconds since the epoch, or -1 if it does not
+		 */
+		void onKey(int db, int type, byte[] key, long keyLength, long valueSize, long expireAt);
+	}
+
+	private final InputStream in;
+	private long position;
+	private int version;
+	private boolean encoded;
+
+	public RdbParser(InputStream in) {
+		this.in = in instanceof BufferedInputStream ? in : new BufferedInputStream(in, BUFFER_SIZE);
+	}
+
+	/**
+	 * @return the name of an RDB value type, e.g. "hash" for any encoding of a hash
+	 */
+	public static String typeName(int type) {
+		switch (type) {
+		case TYPE_STRING:
+			return "string";
+		case TYPE_LIST:
+		case TYPE_LIST_ZIPLIST:
+		case TYPE_LIST_QUICKLIST:
+		case TYPE_LIST_QUICKLIST_2:
+			return "list";
+		case TYPE_SET:
+		case TYPE_SET_INTSET:
+		case TYPE_SET_LISTPACK:
+			return "set";
+		case TYPE_ZSET:
+		case TYPE_ZSET_2:
+		case TYPE_ZSET_ZIPLIST:
+		case TYPE_ZSET_LISTPACK:
+			return "zset";
+		case TYPE_HASH:
+		case TYPE_HASH_ZIPMAP:
+		case TYPE_HASH_ZIPLIST:
+		case TYPE_HASH_LISTPACK:
+			return "hash";
+		case TYPE_STREAM_LISTPACKS:
+		case TYPE_STREAM_LISTPACKS_2:
+		case TYPE_STREAM_LISTPACKS_3:
+			return "stream";
+		case TYPE_MODULE_PRE_GA:
+		case TYPE_MODULE_2:
+			return "module";
+		default:
+			return "unknown";
+		}
+	}
+
+	/**
+	 * @return whether the bytes start like an RDB, which an AOF does when written with an RDB preamble
+	 */
+	public static boolean isRdb(byte[] head, int length) {
+		return length >= MAGIC.length()
+				&& MAGIC.equals(new String(head, 0, MAGIC.length(), StandardCharsets.US_ASCII));
+	}
+
+	/**
+	 * Reads the RDB up to its EOF opcode, leaving whatever follows it, such as the rest of an AOF, unread.
+	 *
+	 * @return the number of bytes read
+	 * @throws IOException
+	 *             if the stream is not an RDB, is corrupt or ends before the RDB does
+	 */
+	public long parse(Listener listener) throws IOException {
+		readHeader();
+
+		int db = 0;
+		long expireAt = -1;
+		while (true) {
+			int type = readUnsigned();
+			switch (type) {
+			case OPCODE_EOF:
+				// version 5 on ends with a CRC64, which is not checked
+				if (version >= 5) {
+					skip(8);
+				}
+				return position;
+			case OPCODE_SELECTDB:
+				db = (int) readLength();
+				break;
+			case OPCODE_RESIZEDB:
+				readLength();
+				readLength();
+				break;
+			case OPCODE_EXPIRETIME_MS:
+				expireAt = readLittleEndian(8);
+				break;
+			case OPCODE_EXPIRETIME:
+				expireAt = readLittleEndian(4) * 1000;
+				break;
+			case OPCODE_AUX:
+				String name = readText();
+				listener.onAux(name, readText());
+				break;
+			case OPCODE_MODULE_AUX:
+				readLength(); // module id
+				readLength(); // when opcode
+				readLength(); // when
+				skipModuleValue();
+				break;
+			case OPCODE_IDLE:
+				readLength();
+				break;
+			case OPCODE_FREQ:
+				readUnsigned();
+				break;
+			case OPCODE_SLOT_INFO:
+				readLength(); // slot
+				readLength(); // keys
+				readLength(); // keys with an expiry
+				break;
+			case OPCODE_FUNCTION2:
+				skipString();
+				break;
+			case OPCODE_FUNCTION_PRE_GA:
+				throw new IOException("Unsupported pre-release function in RDB at " + (position - 1));
+			default:
+				long keyStart = position;
+				long[] keyLength = new long[1];
+				byte[] key = readString(MAX_KEY_LENGTH, keyLength);
+				long valueSize = skipValue(type, keyStart);
+				listener.onKey(db, type, key, keyLength[0], valueSize, expireAt);
+				expireAt = -1;
+			}
+		}
+	}
+
+	private void readHeader() throws IOException {
+		byte[] header = new byte[9];
+		readFully(header, header.length);
+		if (!isRdb(header, header.length)) {
+			throw new IOException("Not an RDB");
+		}
+		try {
+			version = Integer.parseInt(new String(header, MAGIC.length(), 4, StandardCharsets.US_ASCII));
+		} catch (NumberFormatException e) {
+			throw new IOException("Invalid RDB version");
+		}
+		if (version < 1 || version > MAX_VERSION) {
+			throw new IOException("Unsupported RDB version " + version);
+		}
+	}
+
+	/**
+	 * @return the size of the value
+	 */
+	private long skipValue(int type, long keyStart) throws IOException {
+		long size = 0;
+		long count;
+		switch (type) {
+		case TYPE_STRING:
+		case TYPE_HASH_ZIPMAP:
+		case TYPE_LIST_ZIPLIST:
+		case TYPE_SET_INTSET:
+		case TYPE_ZSET_ZIPLIST:
+		case TYPE_HASH_ZIPLIST:
+		case TYPE_HASH_LISTPACK:
+		case TYPE_ZSET_LISTPACK:
+		case TYPE_SET_LISTPACK:
+			return skipString();
+		case TYPE_LIST:
+		case TYPE_SET:
+		case TYPE_LIST_QUICKLIST:
+			count = readLength();
+			for (long i = 0; i < count; i++) {
+				size += skipString();
+			}
+			return size;
+		case TYPE_LIST_QUICKLIST_2:
+			count = readLength();
+			for (long i = 0; i < count; i++) {
+				readLength(); // plain or packed
+				size += skipString();
+			}
+			return size;
+		case TYPE_ZSET:
+			count = readLength();
+			for (long i = 0; i < count; i++) {
+				size += skipString();
+				// the score as text, behind its length in one byte
+				int scoreLength = readUnsigned();
+				if (scoreLength < 253) {
+					skip(scoreLength);
+					size += scoreLength;
+				}
+			}
+			return size;
+		case TYPE_ZSET_2:
+			count = readLength();
+			for (long i = 0; i < count; i++) {
+				size += skipString();
+				skip(8);
+				size += 8;
+			}
+			return size;
+		case TYPE_HASH:
+			count = readLength();
+			for (long i = 0; i < count; i++) {
+				size += skipString();
+				size += skipString();
+			}
+			return size;
+		case TYPE_STREAM_LISTPACKS:
+		case TYPE_STREAM_LISTPACKS_2:
+		case TYPE_STREAM_LISTPACKS_3:
+			return skipStream(type);
+		case TYPE_MODULE_2:
+			readLength(); // module id
+			return skipModuleValue();
+		default:
+			throw new IOException("Unsupported RDB value type " + type + " at " + (keyStart - 1));
+		}
+	}
+
+	private long skipStream(int type) throws IOException {
+		long size = 0;
+		long listpacks = readLength();
+		for (long i = 0; i < listpacks; i++) {
+			size += skipString(); // master id
+			size += skipString(); // entries
+		}
+		readLength(); // entry count
+		readLength(); // last id
+		readLength();
+		if (type >= TYPE_STREAM_LISTPACKS_2) {
+			readLength(); // first id
+			readLength();
+			readLength(); // largest deleted id
+			readLength();
+			readLength(); // entries ever added
+		}
+
+		long groups = readLength();
+		for (long i = 0; i < groups; i++) {
+			size += skipString(); // name
+			readLength(); // last delivered id
+			readLength();
+			if (type >= TYPE_STREAM_LISTPACKS_2) {
+				readLength(); // entries read
+			}
+			// pending entries: id, delivery time, delivery count
+			long pending = readLength();
+			for (long j = 0; j < pending; j++) {
+				skip(16 + 8);
+				readLength();
+			}
+			size += pending * (16 + 8);
+
+			long consumers = readLength();
+			for (long j = 0; j < consumers; j++) {
+				size += skipString(); // name
+				skip(8); // seen time
+				if (type >= TYPE_STREAM_LISTPACKS_3) {
+					skip(8); // active time
+				}
+				long owned = readLength();
+				skip(owned * 16);
+				size += owned * 16;
+			}
+		}
+		return size;
+	}
+
+	private long skipModuleValue() throws IOException {
+		long size = 0;
+		while (true) {
+			int opcode = (int) readLength();
+			switch (opcode) {
+			case MODULE_OPCODE_EOF:
+				return size;
+			case MODULE_OPCODE_SINT:
+			case MODULE_OPCODE_UINT:
+				readLength();
+				size += 8;
+				break;
+			case MODULE_OPCODE_FLOAT:
+				skip(4);
+				size += 4;
+				break;
+			case MODULE_OPCODE_DOUBLE:
+				skip(8);
+				size += 8;
+				break;
+			case MODULE_OPCODE_STRING:
+				size += skipString();
+				break;
+			default:
+				throw new IOException("Unknown module opcode " + opcode + " at " + position);
+			}
+		}
+	}
+
+	/**
+	 * @return a length, or the encoding of a string when {@link #encoded} is set
+	 */
+	private long readLength() throws IOException {
+		int first = readUnsigned();
+		encoded = false;
+		switch (first >> 6) {
+		case 0:
+			return first & 0x3f;
+		case 1:
+			return ((first & 0x3f) << 8) | readUnsigned();
+		case 2:
+			if (first == 0x80) {
+				return readBigEndian(4);
+			} else if (first == 0x81) {
+				return readBigEndian(8);
+			}
+			throw new IOException("Invalid length at " + (position - 1));
+		default:
+			encoded = true;
+			return first & 0x3f;
+		}
+	}
+
+	/**
+	 * @return the length of the string once decompressed
+	 */
+	private long skipString() throws IOException {
+		long length = readLength();
+		if (!encoded) {
+			skip(length);
+			return length;
+		}
+		switch ((int) length) {
+		case ENC_INT8:
+			skip(1);
+			return 1;
+		case ENC_INT16:
+			skip(2);
+			return 2;
+		case ENC_INT32:
+			skip(4);
+			return 4;
+		case ENC_LZF:
+			long compressedLength = readLength();
+			long decompressedLength = readLength();
+			skip(compressedLength);
+			return decompressedLength;
+		default:
+			throw new IOException("Invalid string encoding " + length + " at " + position);
+		}
+	}
+
+	/**
+	 * @return the first max bytes of a string, integers as text
+	 */
+	private byte[] readString(int max, long[] fullLength) throws IOException {
+		long length = readLength();
+		if (!encoded) {
+			byte[] s = new byte[(int) Math.min(max, length)];
+			readFully(s, s.length);
+			skip(length - s.length);
+			fullLength[0] = length;
+			return s;
+		}
+
+		byte[] s;
+		switch ((int) length) {
+		case ENC_INT8:
+			s = Long.toString((byte) readUnsigned()).getBytes(StandardCharsets.US_ASCII);
+			break;
+		case ENC_INT16:
+			s = Long.toString((short) readLittleEndian(2)).getBytes(StandardCharsets.US_ASCII);
+			break;
+		case ENC_INT32:
+			s = Long.toString((int) readLittleEndian(4)).getBytes(StandardCharsets.US_ASCII);
+			break;
+		case ENC_LZF:
+			long compressedLength = readLength();
+			long decompressedLength = readLength();
+			fullLength[0] = decompressedLength;
+			if (compressedLength > max * 4L || decompressedLength > Integer.MAX_VALUE) {
+				// only long strings are compressed, too long to decompress for their prefix
+				skip(compressedLength);
+				return new byte[0];
+			}
+			byte[] compressed = new byte[(int) compressedLength];
+			readFully(compressed, compressed.length);
+			s = lzfDecompress(compressed, (int) Math.min(max, decompressedLength));
+			return s;
+		default:
+			throw new IOException("Invalid string encoding " + length + " at " + position);
+		}
+		fullLength[0] = s.length;
+		return s;
+	}
+
+	private String readText() throws IOException {
+		return new String(readString(Integer.MAX_VALUE / 4, new long[1]), StandardCharsets.UTF_8);
+	}
+
+	/**
+	 * Decompresses the LZF Redis writes strings with, which has none of the framing of the LZF of backups.
+	 *
+	 * @return the first max bytes of the decompressed string
+	 */
+	static byte[] lzfDecompress(byte[] in, int max) throws IOException {
+		byte[] out = new byte[max];
+		int ip = 0;
+		int op = 0;
+		while (ip < in.length && op < max) {
+			int ctrl = in[ip++] & 0xff;
+			if (ctrl < 32) {
+				// a run of literals
+				int length = ctrl + 1;
+				if (ip + length > in.length) {
+					throw new IOException("Corrupt LZF string");
+				}
+				int n = Math.min(length, max - op);
+				System.arraycopy(in, ip, out, op, n);
+				ip += length;
+				op += n;
+			} else {
+				// a back reference
+				int length = ctrl >> 5;
+				if (length == 7) {
+					length += in[ip++] & 0xff;
+				}
+				length += 2;
+				int ref = op - ((ctrl & 0x1f) << 8) - 1 - (in[ip++] & 0xff);
+				if (ref < 0) {
+					throw new IOException("Corrupt LZF string");
+				}
+				for (int i = 0; i < length && op < max; i++) {
+					out[op++] = out[ref++];
+				}
+			}
+		}
+		return op == max ? out : Arrays.copyOf(out, op);
+	}
+
+	private int readUnsigned() throws IOException {
+		int b = in.read();
+		if (b < 0) {
+			throw new EOFException("RDB ended after " + position + " bytes");
+		}
+		position++;
+		return b;
+	}
+
+	private long readBigEndian(int bytes) throws IOException {
+		long value = 0;
+		for (int i = 0; i < bytes; i++) {
+			value = (value << 8) | readUnsigned();
+		}
+		return value;
+	}
+
+	private long readLittleEndian(int bytes) throws IOException {
+		long value = 0;
+		for (int i = 0; i < bytes; i++) {
+			value |= (long) readUnsigned() << (8 * i);
+		}
+		return value;
+	}
+
+	private void readFully(byte[] b, int length) throws IOException {
+		int off = 0;
+		while (off < length) {
+			int read = in.read(b, off, length - off);
+			if (read < 0) {
+				throw new EOFException("RDB ended after " + (position + off) + " bytes");
+			}
+			off += read;
+		}
+		position += length;
+	}
+
+	private void skip(long n) throws IOException {
+		if (n < 0) {
+			throw new IOException("Invalid length at " + position);
+		}
+		long remaining = n;
+		while (remaining > 0) {
+			long skipped = in.skip(remaining);
+			if (skipped <= 0) {
+				// skip may return 0 before the end, read tells them apart
+				if (in.read() < 0) {
+					throw new EOFException("RDB ended after " + (position + n - remaining) + " bytes");
+				}
+				skipped = 1;
+			}
+			remaining -= skipped;
+		}
+		position += n;
+	}
+}
@@ -0,0 +1,315 @@
+/**
+ * Copyright 2016 Netflix, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package com.netflix.dynomitemanager.sidecore.backup;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.TreeMap;
+
+import org.json.simple.JSONArray;
+import org.json.simple.JSONObject;
+
+/**
+ * What an RDB holds: keys and bytes per type, the largest keys, when keys expire, and an estimate of the memory taken
+ * by the keys of each prefix.
+ *
+ * The memory estimate adds an overhead per key for the dictionary entry, object and string headers to the size of
+ * the key and its value in the RDB. It is meant to tell which prefixes take the most memory, not to add up to the
+ * used_memory of Redis.
+ */
+public class RdbReport implements RdbParser.Listener {
+
+	// dictionary entry, object header and key/value string headers
+	static final long KEY_OVERHEAD = 64;
+	// entry in the expires dictionary
+	static final long EXPIRE_OVERHEAD = 32;
+
+	static final String OTHER_PREFIXES = "(other)";
+	static final String NO_PREFIX = "(none)";
+
+	private static final long MINUTE = 60L * 1000;
+	private static final long HOUR = 60 * MINUTE;
+	private static final long DAY = 24 * HOUR;
+	private static final long WEEK = 7 * DAY;
+
+	private static final String[] EXPIRY_BUCKETS = { "none", "expired", "1m", "1h", "1d", "1w", "later" };
+
+	private static final int MAX_REPORTED_KEY_LENGTH = 256;
+
+	private final int topKeys;
+	private final int maxPrefixes;
+	private final String delimiter;
+	private final long now;
+
+	private final Map<String, long[]> types = new TreeMap<String, long[]>();
+	private final PriorityQueue<BigKey> largest;
+	private final long[] expiries = new long[EXPIRY_BUCKETS.length];
+	private final Map<String, long[]> prefixes = new LinkedHashMap<String, long[]>();
+	private final Map<String, String> aux = new TreeMap<String, String>();
+	private long keys;
+	private long bytes;
+	private long rdbBytes;
+	private long duration;
+
+	/**
+	 * @param topKeys
+	 *            how many of the largest keys to report
+	 * @param maxPrefixes
+	 *            how many prefixes to report, later ones being counted together
+	 * @param delimiter
+	 *            what ends the prefix of a key
+	 * @param now
+	 *            the time expiries are reported relative to when the RDB does not say when it was written
+	 */
+	public RdbReport(int topKeys, int maxPrefixes, String delimiter, long now) {
+		this.topKeys = topKeys;
+		this.maxPrefixes = maxPrefixes;
+		this.delimiter = delimiter;
+		this.now = now;
+		this.largest = new PriorityQueue<BigKey>(Math.max(1, topKeys), BY_SIZE);
+	}
+
+	@Override
+	public void onAux(String name, String value) {
+		aux.put(name, value);
+	}
+
+	@Override
+	public void onKey(int db, int type, byte[] key, long keyLength, long valueSize, long expireAt) {
+		keys++;
+		bytes += keyLength + valueSize;
+
+		String typeName = RdbParser.typeName(type);
+		long[] typeStats = types.get(typeName);
+		if (typeStats == null) {
+			typeStats = new long[2];
+			types.put(typeName, typeStats);
+		}
+		typeStats[0]++;
+		typeStats[1] += keyLength + valueSize;
+
+		if (topKeys > 0 && (largest.size() < topKeys || largest.peek().size < valueSize)) {
+			if (largest.size() == topKeys) {
+				largest.poll();
+			}
+			largest.add(new BigKey(db, typeName, keyText(key, keyLength), valueSize));
+		}
+
+		expiries[expiryBucket(expireAt)]++;
+
+		long memory = keyLength + valueSize + KEY_OVERHEAD + (expireAt < 0 ? 0 : EXPIRE_OVERHEAD);
+		String prefix = prefix(key);
+		long[] prefixStats = prefixes.get(prefix);
+		if (prefixStats == null) {
+			if (prefixes.size() >= maxPrefixes) {
+				prefix = OTHER_PREFIXES;
+				prefixStats = prefixes.get(prefix);
+			}
+			if (prefixStats == null) {
+				prefixStats = new long[2];
+				prefixes.put(prefix, prefixStats);
+			}
+		}
+		prefixStats[0]++;
+		prefixStats[1] += memory;
+	}
+
+	/**
+	 * Records how much of the stream the RDB took and how long it took to read.
+	 */
+	void finish(long rdbBytes, long duration) {
+		this.rdbBytes = rdbBytes;
+		this.duration = duration;
+	}
+
+	public long getKeys() {
+		return keys;
+	}
+
+	public long getBytes() {
+		return bytes;
+	}
+
+	/**
+	 * @return keys and bytes of the given type name, see {@link RdbParser#typeName(int)}
+	 */
+	public long[] getType(String typeName) {
+		long[] stats = types.get(typeName);
+		return stats == null ? new long[2] : stats.clone();
+	}
+
+	/**
+	 * @return keys of each expiry bucket: none, expired, within a minute, hour, day, week, and later
+	 */
+	public long[] getExpiries() {
+		return expiries.clone();
+	}
+
+	/**
+	 * @return keys and estimated memory of the given prefix
+	 */
+	public long[] getPrefix(String prefix) {
+		long[] stats = prefixes.get(prefix);
+		return stats == null ? new long[2] : stats.clone();
+	}
+
+	/**
+	 * @return the names of the largest keys, largest first
+	 */
+	public List<String> getLargestKeys() {
+		List<String> names = new ArrayList<String>();
+		for (BigKey key : sortedLargest()) {
+			names.add(key.key);
+		}
+		return names;
+	}
+
+	@SuppressWarnings("unchecked")
+	public String toJson() {
+		JSONObject json = new JSONObject();
+		json.put("keys", keys);
+		json.put("bytes", bytes);
+		json.put("rdb_bytes", rdbBytes);
+		json.put("duration_ms", duration);
+		if (!aux.isEmpty()) {
+			JSONObject auxJson = new JSONObject();
+			auxJson.putAll(aux);
+			json.put("aux", auxJson);
+		}
+
+		JSONObject typesJson = new JSONObject();
+		for (Map.Entry<String, long[]> type : types.entrySet()) {
+			typesJson.put(type.getKey(), stats("keys", type.getValue()[0], "bytes", type.getValue()[1]));
+		}
+		json.put("types", typesJson);
+
+		JSONArray largestJson = new JSONArray();
+		for (BigKey key : sortedLargest()) {
+			JSONObject keyJson = new JSONObject();
+			keyJson.put("key", key.key);
+			keyJson.put("db", key.db);
+			keyJson.put("type", key.type);
+			keyJson.put("bytes", key.size);
+			largestJson.add(keyJson);
+		}
+		json.put("largest_keys", largestJson);
+
+		JSONObject expiriesJson = new JSONObject();
+		for (int i = 0; i < EXPIRY_BUCKETS.length; i++) {
+			expiriesJson.put(EXPIRY_BUCKETS[i], expiries[i]);
+		}
+		json.put("expiries", expiriesJson);
+
+		List<Map.Entry<String, long[]>> byMemory = new ArrayList<Map.Entry<String, long[]>>(prefixes.entrySet());
+		Collections.sort(byMemory, new Comparator<Map.Entry<String, long[]>>() {
+			@Override
+			public int compare(Map.Entry<String, long[]> a, Map.Entry<String, long[]> b) {
+				return Long.compare(b.getValue()[1], a.getValue()[1]);
+			}
+		});
+		JSONArray prefixesJson = new JSONArray();
+		for (Map.Entry<String, long[]> prefix : byMemory) {
+			JSONObject prefixJson = stats("keys", prefix.getValue()[0], "memory_bytes", prefix.getValue()[1]);
+			prefixJson.put("prefix", prefix.getKey());
+			prefixesJson.add(prefixJson);
+		}
+		json.put("prefixes", prefixesJson);
+		return json.toJSONString();
+	}
+
+	@SuppressWarnings("unchecked")
+	private static JSONObject stats(String countName, long count, String sizeName, long size) {
+		JSONObject json = new JSONObject();
+		json.put(countName, count);
+		json.put(sizeName, size);
+		return json;
+	}
+
+	private int expiryBucket(long expireAt) {
+		if (expireAt < 0) {
+			return 0;
+		}
+		long ttl = expireAt - referenceTime();
+		if (ttl <= 0) {
+			return 1;
+		} else if (ttl < MINUTE) {
+			return 2;
+		} else if (ttl < HOUR) {
+			return 3;
+		} else if (ttl < DAY) {
+			return 4;
+		} else if (ttl < WEEK) {
+			return 5;
+		}
+		return 6;
+	}
+
+	/**
+	 * @return when the RDB was written, or now if it does not say
+	 */
+	private long referenceTime() {
+		String ctime = aux.get("ctime");
+		if (ctime != null) {
+			try {
+				return Long.parseLong(ctime) * 1000;
+			} catch (NumberFormatException e) {
+				// fall through
+			}
+		}
+		return now;
+	}
+
+	private String prefix(byte[] key) {
+		String text = new String(key, StandardCharsets.UTF_8);
+		int end = delimiter.isEmpty() ? -1 : text.indexOf(delimiter);
+		return end < 0 ? NO_PREFIX : text.substring(0, end);
+	}
+
+	private static String keyText(byte[] key, long keyLength) {
+		String text = new String(key, 0, Math.min(key.length, MAX_REPORTED_KEY_LENGTH), StandardCharsets.UTF_8);
+		return keyLength > MAX_REPORTED_KEY_LENGTH ? text + "..." : text;
+	}
+
+	private List<BigKey> sortedLargest() {
+		List<BigKey> sorted = new ArrayList<BigKey>(largest);
+		Collections.sort(sorted, Collections.reverseOrder(BY_SIZE));
+		return sorted;
+	}
+
+	private static final Comparator<BigKey> BY_SIZE = new Comparator<BigKey>() {
+		@Override
+		public int compare(BigKey a, BigKey b) {
+			return Long.compare(a.size, b.size);
+		}
+	};
+
+	private static class BigKey {
+		private final int db;
+		private final String type;
+		private final String key;
+		private final long size;
+
+		private BigKey(int db, String type, String key, long size) {
+			this.db = db;
+			this.type = type;
+			this.key = key;
+			this.size = size;
+		}
+	}
+}
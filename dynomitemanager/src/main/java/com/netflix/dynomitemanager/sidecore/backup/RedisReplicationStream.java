@@ -0,0 +1,247 @@
+/**
+ * Copyright 2016 Netflix, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package com.netflix.dynomitemanager.sidecore.backup;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * The RDB Redis sends a replica on a full resynchronization, read by connecting to Redis as a replica. The stream ends
+ * with the RDB and is closed once read, before Redis would start sending the replica its writes.
+ *
+ * Redis sends the RDB with its length up front when it dumps it to disk first, or ended by a random 40 byte mark when
+ * it streams it to the replica as it dumps it, with repl-diskless-sync. The replica announces it can read the latter
+ * with 'REPLCONF capa eof'.
+ */
+public class RedisReplicationStream extends InputStream {
+
+	private static final Logger logger = LoggerFactory.getLogger(RedisReplicationStream.class);
+
+	static final int MARK_LENGTH = 40;
+	private static final String EOF_PREFIX = "EOF:";
+	private static final int BUFFER_SIZE = 64 * 1024;
+
+	private final Socket socket;
+	private final InputStream in;
+	private final long length;
+	private final byte[] mark;
+
+	// with an end mark, bytes read from Redis are held until known not to be
+	// part of the mark
+	private final byte[] held;
+	private int heldLength;
+	private long remaining;
+	private long received;
+	private boolean ended;
+
+	/**
+	 * Reads the RDB from a connection to Redis on which a SYNC or PSYNC was sent.
+	 */
+	public RedisReplicationStream(Socket socket, InputStream in) throws IOException {
+		this.socket = socket;
+		this.in = in;
+
+		String header = readLine(in);
+		while (header.isEmpty() || header.startsWith("+")) {
+			// newlines keep the connection alive while Redis prepares the
+			// RDB, and PSYNC is answered with +FULLRESYNC first
+			header = readLine(in);
+		}
+		if (!header.startsWith("$")) {
+			throw new IOException("Redis did not send an RDB: " + header);
+		}
+
+		String bulk = header.substring(1);
+		if (bulk.startsWith(EOF_PREFIX)) {
+			this.mark = bulk.substring(EOF_PREFIX.length()).getBytes(StandardCharsets.US_ASCII);
+			if (mark.length != MARK_LENGTH) {
+				throw new IOException("Invalid RDB end mark: " + header);
+			}
+			this.length = -1;
+			this.held = new byte[BUFFER_SIZE + MARK_LENGTH];
+		} else {
+			try {
+				this.length = Long.parseLong(bulk);
+			} catch (NumberFormatException e) {
+				throw new IOException("Invalid RDB length: " + header);
+			}
+			this.mark = null;
+			this.held = null;
+			this.remaining = length;
+		}
+	}
+
+	/**
+	 * Connects to Redis as a replica and asks for a full resynchronization.
+	 *
+	 * @param timeoutMs
+	 *            how long to wait for Redis, also while it dumps the RDB before sending it
+	 */
+	public static RedisReplicationStream open(String host, int port, int timeoutMs) throws IOException {
+		Socket socket = new Socket();
+		try {
+			socket.connect(new InetSocketAddress(host, port), timeoutMs);
+			socket.setSoTimeout(timeoutMs);
+			socket.setReceiveBufferSize(BUFFER_SIZE * 4);
+			InputStream in = new BufferedInputStream(socket.getInputStream(), BUFFER_SIZE);
+			OutputStream out = socket.getOutputStream();
+
+			String reply = command(out, in, "REPLCONF", "capa", "eof");
+			if (!reply.startsWith("+")) {
+				// older versions only send the RDB with its length
+				logger.warn("Redis does not stream the RDB to replicas: " + reply);
+			}
+
+			// PSYNC with no replication id asks for a full resynchronization,
+			// SYNC is for versions without PSYNC
+			write(out, "PSYNC", "?", "-1");
+			if (in.markSupported()) {
+				in.mark(1);
+				int first = in.read();
+				in.reset();
+				if (first == '-') {
+					logger.info("Redis does not know PSYNC, using SYNC: " + readLine(in));
+					write(out, "SYNC");
+				}
+			}
+			return new RedisReplicationStream(socket, in);
+		} catch (IOException | RuntimeException e) {
+			socket.close();
+			throw e;
+		}
+	}
+
+	/**
+	 * @return the length of the RDB, or -1 if only known once read
+	 */
+	public long getLength() {
+		return length;
+	}
+
+	/**
+	 * @return the number of bytes of the RDB read so far
+	 */
+	public long getReceived() {
+		return received;
+	}
+
+	@Override
+	public int read() throws IOException {
+		byte[] b = new byte[1];
+		int read = read(b, 0, 1);
+		return read < 0 ? -1 : b[0] & 0xff;
+	}
+
+	@Override
+	public int read(byte[] b, int off, int len) throws IOException {
+		if (len == 0) {
+			return 0;
+		}
+		return mark == null ? readLength(b, off, len) : readToMark(b, off, len);
+	}
+
+	private int readLength(byte[] b, int off, int len) throws IOException {
+		if (remaining == 0) {
+			return -1;
+		}
+		int read = in.read(b, off, (int) Math.min(len, remaining));
+		if (read < 0) {
+			throw new IOException("Redis closed the connection after " + received + " of " + length + " bytes");
+		}
+		remaining -= read;
+		received += read;
+		return read;
+	}
+
+	private int readToMark(byte[] b, int off, int len) throws IOException {
+		while (!ended && heldLength <= MARK_LENGTH) {
+			int read = in.read(held, heldLength, held.length - heldLength);
+			if (read < 0) {
+				throw new IOException("Redis closed the connection after " + received + " bytes");
+			}
+			heldLength += read;
+			// Redis sends nothing after the mark until the replica
+			// acknowledges the RDB, so the mark ends what was read
+			if (heldLength >= MARK_LENGTH && Arrays.equals(mark,
+					Arrays.copyOfRange(held, heldLength - MARK_LENGTH, heldLength))) {
+				heldLength -= MARK_LENGTH;
+				ended = true;
+			}
+		}
+
+		int available = ended ? heldLength : heldLength - MARK_LENGTH;
+		if (available == 0) {
+			return -1;
+		}
+		int n = Math.min(len, available);
+		System.arraycopy(held, 0, b, off, n);
+		System.arraycopy(held, n, held, 0, heldLength - n);
+		heldLength -= n;
+		received += n;
+		return n;
+	}
+
+	/**
+	 * Disconnects from Redis, which then forgets the replica.
+	 */
+	@Override
+	public void close() throws IOException {
+		if (socket != null) {
+			socket.close();
+		} else {
+			in.close();
+		}
+	}
+
+	private static String command(OutputStream out, InputStream in, String... args) throws IOException {
+		write(out, args);
+		String reply = readLine(in);
+		while (reply.isEmpty()) {
+			reply = readLine(in);
+		}
+		return reply;
+	}
+
+	private static void write(OutputStream out, String... args) throws IOException {
+		StringBuilder command = new StringBuilder();
+		command.append('*').append(args.length).append("\r\n");
+		for (String arg : args) {
+			command.append('$').append(arg.length()).append("\r\n").append(arg).append("\r\n");
+		}
+		out.write(command.toString().getBytes(StandardCharsets.US_ASCII));
+		out.flush();
+	}
+
+	private static String readLine(InputStream in) throws IOException {
+		ByteArrayOutputStream line = new ByteArrayOutputStream();
+		int b;
+		while ((b = in.read()) != '\n') {
+			if (b < 0) {
+				throw new IOException("Redis closed the connection");
+			}
+			line.write(b);
+		}
+		String s = new String(line.toByteArray(), StandardCharsets.US_ASCII);
+		return s.endsWith("\r") ? s.substring(0, s.length() - 1) : s;
+	}
+}
@@ -12,6 +12,8 @@
  */
 package com.netflix.dynomitemanager.sidecore.backup;
 
+import java.io.IOException;
+
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.joda.time.DateTime;
@@ -61,6 +63,16 @@ public class RestoreTask extends Task {
     }
 
     public void execute() throws Exception {
+	restore(config.getRestoreDate(), true);
+    }
+
+    /**
+     * Restores the data of the given date, leaving Dynomite stopped afterwards unless startDynomite is set, e.g. for
+     * the {@link ClusterRestore} to start it once the whole rack is restored.
+     *
+     * @return whether the data was restored
+     */
+    public boolean restore(String dateString, boolean startDynomite) throws IOException {
 	this.state.setRestoring(true);
 	this.state.setFirstRestore(false);
 	/**
@@ -70,32 +82,42 @@ public class RestoreTask extends Task {
 	 */
 	this.state.setRestoreStatus(false);
 
-	// stop dynomite process
-	this.dynProcess.stop();
+	boolean restored = false;
+	try {
+	    // stop dynomite process
+	    this.dynProcess.stop();
 
-	// stop storage process
-	this.storageProcessMgr.stop();
+	    // stop storage process
+	    this.storageProcessMgr.stop();
 
-	// restore from Object Storage
-	if (restore.restoreData(config.getRestoreDate())) {
-	    /* start storage process and load data */
-	    logger.info("Restored successful: Starting storage process with loading data.");
-	    this.storageProcessMgr.start();
-	    if (!this.storageProxy.loadingData()) {
-		logger.error("Restore not successful: Restore failed because of Redis.");
-	    }
-	    logger.info("Restore Completed, sleeping 5 seconds before starting Dynomite!");
+	    // restore from Object Storage
+	    if (restore.restoreData(dateString)) {
+		/* start storage process and load data */
+		logger.info("Restored successful: Starting storage process with loading data.");
+		this.storageProcessMgr.start();
+		if (!this.storageProxy.loadingData()) {
+		    logger.error("Restore not successful: Restore failed because of Redis.");
+		}
+		if (startDynomite) {
+		    logger.info("Restore Completed, sleeping 5 seconds before starting Dynomite!");
 
-	    sleeper.sleepQuietly(5000);
-	    this.dynProcess.start();
-	    logger.info("Dynomite started");
-	    this.state.setRestoreStatus(true);
-	} else {
-	    // start storage process without loading data
-	    logger.error("Restore not successful: Starting storage process without loading data.");
+		    sleeper.sleepQuietly(5000);
+		    this.dynProcess.start();
+		    logger.info("Dynomite started");
+		} else {
+		    logger.info("Restore Completed, Dynomite left stopped");
+		}
+		this.state.setRestoreStatus(true);
+		restored = true;
+	    } else {
+		// start storage process without loading data
+		logger.error("Restore not successful: Starting storage process without loading data.");
+	    }
+	} finally {
+	    this.state.setRestoring(false);
+	    this.state.setRestoreTime(DateTime.now());
 	}
-	this.state.setRestoring(false);
-	this.state.setRestoreTime(DateTime.now());
+	return restored;
     }
 
     @Override
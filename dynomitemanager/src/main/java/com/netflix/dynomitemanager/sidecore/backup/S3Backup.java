@@ -12,45 +12,104 @@
  */
 package com.netflix.dynomitemanager.sidecore.backup;
 
+import java.io.ByteArrayInputStream;
 import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.apache.commons.io.IOUtils;
 import org.joda.time.DateTime;
 
 import com.amazonaws.services.s3.AmazonS3;
 import com.amazonaws.services.s3.AmazonS3Client;
-import com.amazonaws.services.s3.S3ResponseMetadata;
-import com.amazonaws.services.s3.model.PutObjectRequest;
-import com.amazonaws.services.s3.model.CreateBucketRequest;
-import com.amazonaws.services.s3.model.GetBucketLocationRequest;
 import com.amazonaws.services.s3.model.PartETag;
 import com.amazonaws.services.s3.model.InitiateMultipartUploadRequest;
 import com.amazonaws.services.s3.model.UploadPartRequest;
+import com.amazonaws.services.s3.model.UploadPartResult;
 import com.amazonaws.services.s3.model.CompleteMultipartUploadRequest;
 import com.amazonaws.services.s3.model.AbortMultipartUploadRequest;
 import com.amazonaws.services.s3.model.InitiateMultipartUploadResult;
+import com.amazonaws.services.s3.model.ObjectMetadata;
+import com.amazonaws.services.s3.model.S3Object;
 import com.amazonaws.AmazonClientException;
 import com.amazonaws.AmazonServiceException;
 
-import com.google.common.collect.Lists;
 import com.google.inject.Inject;
-import com.google.inject.Provider;
 import com.google.inject.Singleton;
-import com.google.inject.name.Named;
 import com.netflix.dynomitemanager.sidecore.ICredential;
 import com.netflix.dynomitemanager.defaultimpl.IConfiguration;
 import com.netflix.dynomitemanager.identity.InstanceIdentity;
+import com.netflix.dynomitemanager.monitoring.SampledGauge;
+import com.netflix.dynomitemanager.sidecore.scheduler.NamedThreadPoolExecutor;
+import com.netflix.dynomitemanager.sidecore.utils.SystemUtils;
+import com.netflix.servo.DefaultMonitorRegistry;
+import com.netflix.servo.monitor.Counter;
+import com.netflix.servo.monitor.Monitors;
 
+/**
+ * Uploads the AOF/RDB to S3 as a multipart upload. Parts are read, MD5 summed and uploaded concurrently, each part is
+ * held in memory while it is uploaded so at most getBackupUploadThreads() parts of getBackupPartSize() bytes are in
+ * memory at once. A failed part is retried on its own with exponential backoff; the upload is aborted only when a part
+ * runs out of retries.
+ *
+ * S3 checks each part against the MD5 sent with it. The MD5s are also stored in a {@link #CHECKSUMS_SUFFIX} object
+ * next to the upload, written before the upload is completed, so a restore can check each range it reads whatever
+ * the encryption of the bucket.
+ *
+ * When getBackupCompression() names a codec, the file is compressed in {@link Compression} frames while the parts
+ * compressed before are uploaded, with one more part in memory for the one being filled. The codec is recorded in the
+ * object metadata for the restore.
+ *
+ * A snapshot can also be uploaded from a stream, such as the RDB Redis sends a replica, which is read into parts the
+ * same way; a stream whose length is not known up front is cut into parts of getBackupPartSize() bytes.
+ *
+ * Reads from disk and sends to S3 are limited by the {@link BackupThrottle}, except for the sends of a stream, which
+ * are only limited by the upload threads: see {@link Backup#upload(InputStream, long, DateTime)}.
+ */
 @Singleton
 public class S3Backup implements Backup {
 
 	private static final Logger logger = LoggerFactory.getLogger(S3Backup.class);
-	private final long initPartSize =
-			500 * 1024 * 1024; // we set the part size equal to 500MB. We do not want this too large
-	// and run out of heap space
+
+	private static final String METRIC_PREFIX = "dynomitemanager__backup__";
+
+	// S3 multipart limits, parts other than the last one must be at least
+	// 5MB, and an upload has at most 10000 parts
+	private static final long MIN_PART_SIZE = 5L * 1024 * 1024;
+	private static final long MAX_PART_SIZE = 1024L * 1024 * 1024;
+	private static final int MAX_PARTS = 10000;
+
+	// user metadata recording the part size, the ranges a restore verifies
+	// against the part checksums
+	static final String PART_SIZE_METADATA = "dm-part-size";
+	static final String COMPRESSION_METADATA = "dm-compression";
+	static final String RAW_SIZE_METADATA = "dm-raw-size";
+
+	// ranges a snapshot is read in, see openSnapshot
+	private static final long READ_RANGE_SIZE = 8L * 1024 * 1024;
+	static final String REPORT_SUFFIX = ".report.json";
+	// the MD5 of each part, one hex digest a line in part order, stored next
+	// to the object since its ETag is not an MD5 with SSE-KMS or SSE-C
+	static final String CHECKSUMS_SUFFIX = ".md5";
+
+	private static final long PART_RETRY_BACKOFF_MS = 1000;
+	private static final long PART_RETRY_BACKOFF_MAX_MS = 30000;
 
 	@Inject private IConfiguration config;
 
@@ -58,6 +117,53 @@ public class S3Backup implements Backup {
 
 	@Inject private InstanceIdentity iid;
 
+	@Inject private BackupThrottle throttle;
+
+	private final Counter uploadedBytes = Monitors.newCounter(METRIC_PREFIX + "uploaded_bytes");
+	private final Counter partRetries = Monitors.newCounter(METRIC_PREFIX + "part_retries");
+	private final Counter failedUploads = Monitors.newCounter(METRIC_PREFIX + "failed_uploads");
+	private volatile long lastPartThroughput;
+	private volatile long lastUploadThroughput;
+	private volatile long lastUploadDuration;
+	private volatile long lastCompressionRatio;
+	private volatile long lastCompressThroughput;
+
+	public S3Backup() {
+		DefaultMonitorRegistry.getInstance().register(uploadedBytes);
+		DefaultMonitorRegistry.getInstance().register(partRetries);
+		DefaultMonitorRegistry.getInstance().register(failedUploads);
+		DefaultMonitorRegistry.getInstance().register(new SampledGauge(METRIC_PREFIX + "part_bytes_per_sec") {
+			@Override
+			protected long sample() {
+				return lastPartThroughput;
+			}
+		});
+		DefaultMonitorRegistry.getInstance().register(new SampledGauge(METRIC_PREFIX + "upload_bytes_per_sec") {
+			@Override
+			protected long sample() {
+				return lastUploadThroughput;
+			}
+		});
+		DefaultMonitorRegistry.getInstance().register(new SampledGauge(METRIC_PREFIX + "upload_duration_ms") {
+			@Override
+			protected long sample() {
+				return lastUploadDuration;
+			}
+		});
+		DefaultMonitorRegistry.getInstance().register(new SampledGauge(METRIC_PREFIX + "compression_ratio_pct") {
+			@Override
+			protected long sample() {
+				return lastCompressionRatio;
+			}
+		});
+		DefaultMonitorRegistry.getInstance().register(new SampledGauge(METRIC_PREFIX + "compress_bytes_per_sec") {
+			@Override
+			protected long sample() {
+				return lastCompressThroughput;
+			}
+		});
+	}
+
 	/**
 	 * Uses the Amazon S3 API to upload the AOF/RDB to S3
 	 * Filename: Backup location + DC + Rack + App + Token
@@ -67,17 +173,174 @@ public class S3Backup implements Backup {
 		logger.info("Snapshot backup: sending " + file.length() + " bytes to S3");
 
         	// Key name is comprised of the backupDir + DC + Rack + token + Date
-		String keyName = config.getBackupLocation() + "/" +
+		return uploadObject(file, 0, null, file.length(), nodePrefix() + "/" + todayStart.getMillis());
+	}
+
+	@Override
+	public boolean upload(InputStream in, long length, DateTime todayStart) {
+		logger.info("Snapshot backup: streaming " + (length < 0 ? "an RDB" : length + " bytes") + " to S3");
+		return uploadObject(null, 0, in, length, nodePrefix() + "/" + todayStart.getMillis());
+	}
+
+	@Override
+	public boolean upload(File file, long offset, long length, String name) {
+		logger.info("Incremental backup: sending " + length + " bytes at " + offset + " to S3");
+		return uploadObject(file, offset, null, length, nodePrefix() + "/" + name);
+	}
+
+	@Override
+	public boolean uploadManifest(BackupManifest manifest) {
+		String keyName = nodePrefix() + "/" + BackupManifest.NAME;
+		byte[] content = manifest.toJson().getBytes(StandardCharsets.UTF_8);
+		ObjectMetadata metadata = new ObjectMetadata();
+		metadata.setContentLength(content.length);
+		metadata.setContentType("application/json");
+		metadata.setContentMD5(SystemUtils.toBase64(SystemUtils.md5(content)));
+
+		AmazonS3 s3Client = s3Client();
+		try {
+			s3Client.putObject(config.getBucketName(), keyName, new ByteArrayInputStream(content), metadata);
+			return true;
+		} catch (AmazonClientException e) {
+			logger.error("Unable to upload backup manifest " + keyName, e);
+			return false;
+		}
+	}
+
+	@Override
+	public BackupManifest getManifest() throws IOException {
+		try {
+			return readManifest(s3Client(), config.getBucketName(), nodePrefix());
+		} catch (AmazonClientException e) {
+			throw new IOException("Unable to read backup manifest", e);
+		}
+	}
+
+	/**
+	 * @return the manifest under the given node prefix, or null if there is none
+	 */
+	static BackupManifest readManifest(AmazonS3 s3Client, String bucket, String nodePrefix) throws IOException {
+		S3Object object;
+		try {
+			object = s3Client.getObject(bucket, nodePrefix + "/" + BackupManifest.NAME);
+		} catch (AmazonServiceException e) {
+			if (e.getStatusCode() == 404) {
+				return null;
+			}
+			throw e;
+		}
+
+		InputStream in = object.getObjectContent();
+		try {
+			return BackupManifest.parse(IOUtils.toString(in, StandardCharsets.UTF_8));
+		} finally {
+			in.close();
+		}
+	}
+
+	/**
+	 * Opens the snapshot of the given day for reading from start to end, decompressed. Nothing is written to disk.
+	 *
+	 * @throws FileNotFoundException
+	 *             if there is no snapshot for that day
+	 */
+	public InputStream openSnapshot(long time) throws IOException {
+		String keyName = nodePrefix() + "/" + time;
+		AmazonS3 s3Client = s3Client();
+		ObjectMetadata metadata;
+		try {
+			metadata = s3Client.getObjectMetadata(config.getBucketName(), keyName);
+		} catch (AmazonServiceException e) {
+			if (e.getStatusCode() == 404) {
+				throw new FileNotFoundException("No snapshot " + keyName);
+			}
+			throw new IOException("Unable to read snapshot " + keyName, e);
+		} catch (AmazonClientException e) {
+			throw new IOException("Unable to read snapshot " + keyName, e);
+		}
+
+		Compression compression;
+		try {
+			compression = Compression.forName(metadata.getUserMetaDataOf(COMPRESSION_METADATA));
+		} catch (IllegalArgumentException e) {
+			throw new IOException("Unknown compression of snapshot " + keyName, e);
+		}
+		InputStream in = new S3RangeInputStream(s3Client, config.getBucketName(), keyName,
+				metadata.getContentLength(), READ_RANGE_SIZE, config.getBackupPartRetries());
+		return compression == Compression.NONE ? in : compression.newInputStream(in);
+	}
+
+	/**
+	 * Stores the report on the snapshot of the given day next to it.
+	 */
+	public boolean uploadReport(long time, String json) {
+		String keyName = nodePrefix() + "/" + time + REPORT_SUFFIX;
+		byte[] content = json.getBytes(StandardCharsets.UTF_8);
+		ObjectMetadata metadata = new ObjectMetadata();
+		metadata.setContentLength(content.length);
+		metadata.setContentType("application/json");
+		metadata.setContentMD5(SystemUtils.toBase64(SystemUtils.md5(content)));
+
+		AmazonS3 s3Client = s3Client();
+		try {
+			s3Client.putObject(config.getBucketName(), keyName, new ByteArrayInputStream(content), metadata);
+			return true;
+		} catch (AmazonClientException e) {
+			logger.error("Unable to upload snapshot report " + keyName, e);
+			return false;
+		}
+	}
+
+	/**
+	 * @return the report stored on the snapshot of the given day, or null if there is none
+	 */
+	public String getReport(long time) throws IOException {
+		String keyName = nodePrefix() + "/" + time + REPORT_SUFFIX;
+		AmazonS3 s3Client = s3Client();
+		S3Object object;
+		try {
+			object = s3Client.getObject(config.getBucketName(), keyName);
+		} catch (AmazonServiceException e) {
+			if (e.getStatusCode() == 404) {
+				return null;
+			}
+			throw new IOException("Unable to read snapshot report " + keyName, e);
+		} catch (AmazonClientException e) {
+			throw new IOException("Unable to read snapshot report " + keyName, e);
+		}
+
+		InputStream in = object.getObjectContent();
+		try {
+			return IOUtils.toString(in, StandardCharsets.UTF_8);
+		} finally {
+			in.close();
+		}
+	}
+
+	/**
+	 * @return the key all the backups of this node are under: backup location + DC + rack + token
+	 */
+	private String nodePrefix() {
+		return config.getBackupLocation() + "/" +
 				iid.getInstance().getDatacenter() + "/" +
 				iid.getInstance().getRack() + "/" +
-				iid.getInstance().getToken() + "/" +
-				todayStart.getMillis();
+				iid.getInstance().getToken();
+	}
 
+	protected AmazonS3 s3Client() {
+		return new AmazonS3Client(cred.getAwsCredentialProvider());
+	}
+
+	/**
+	 * Uploads length bytes of the file from offset, or of the stream when there is no file. The length of a stream may
+	 * be -1 when only known once it is read.
+	 */
+	private boolean uploadObject(File file, long offset, InputStream stream, long length, String keyName) {
 		// Get bucket location.
 		logger.info("Key in Bucket: " + keyName);
 		logger.info("S3 Bucket Name:" + config.getBucketName());
 
-		AmazonS3Client s3Client = new AmazonS3Client(cred.getAwsCredentialProvider());
+		AmazonS3 s3Client = s3Client();
 
 		try {
 			// Checking if the S3 bucket exists, and if does not, then we create it
@@ -86,52 +349,12 @@ public class S3Backup implements Backup {
 				return false;
 			} else {
 				logger.info("Uploading data to S3\n");
-				// Create a list of UploadPartResponse objects. You get one of these for
-				// each part upload.
-				List<PartETag> partETags = new ArrayList<PartETag>();
-
-				InitiateMultipartUploadRequest initRequest = new InitiateMultipartUploadRequest(
-						config.getBucketName(), keyName);
-
-				InitiateMultipartUploadResult initResponse = s3Client
-						.initiateMultipartUpload(initRequest);
-
-				long contentLength = file.length();
-				long filePosition = 0;
-				long partSize = this.initPartSize;
-
-				try {
-					for (int i = 1; filePosition < contentLength; i++) {
-						// Last part can be less than initPartSize (500MB). Adjust part size.
-						partSize = Math.min(partSize, (contentLength - filePosition));
-
-						// Create request to upload a part.
-						UploadPartRequest uploadRequest = new UploadPartRequest()
-								.withBucketName(config.getBucketName()).withKey(keyName)
-								.withUploadId(initResponse.getUploadId())
-								.withPartNumber(i).withFileOffset(filePosition)
-								.withFile(file).withPartSize(partSize);
-
-						// Upload part and add response to our list.
-						partETags.add(s3Client.uploadPart(uploadRequest).getPartETag());
-
-						filePosition += partSize;
-					}
-
-					CompleteMultipartUploadRequest compRequest = new CompleteMultipartUploadRequest(
-							config.getBucketName(), keyName, initResponse.getUploadId(),
-							partETags);
-
-					s3Client.completeMultipartUpload(compRequest);
-
-				} catch (Exception e) {
-					logger.error("Abosting multipart upload due to error");
-					s3Client.abortMultipartUpload(
-							new AbortMultipartUploadRequest(config.getBucketName(), keyName,
-									initResponse.getUploadId()));
+				boolean uploaded = multipartUpload(s3Client, config.getBucketName(), keyName, file, offset,
+						stream, length);
+				if (!uploaded) {
+					failedUploads.increment();
 				}
-
-				return true;
+				return uploaded;
 			}
 		} catch (AmazonServiceException ase) {
 
@@ -142,6 +365,7 @@ public class S3Backup implements Backup {
 			logger.error("AWS Error Code:   " + ase.getErrorCode());
 			logger.error("Error Type:       " + ase.getErrorType());
 			logger.error("Request ID:       " + ase.getRequestId());
+			failedUploads.increment();
 			return false;
 
 		} catch (AmazonClientException ace) {
@@ -150,7 +374,354 @@ public class S3Backup implements Backup {
 					"an internal error while trying to " +
 					"communicate with S3, ");
 			logger.error("Error Message: " + ace.getMessage());
+			failedUploads.increment();
 			return false;
 		}
 	}
+
+	private boolean multipartUpload(AmazonS3 s3Client, String bucket, String keyName, File file, long fileOffset,
+			InputStream stream, long contentLength) {
+		Compression compression = compression();
+		// a stream of unknown length is cut into parts of the configured size
+		long partSize = partSize(contentLength < 0 ? 0 : compression == Compression.NONE ? contentLength
+				: Compression.maxFramedLength(contentLength));
+		int partCount = contentLength < 0 ? MAX_PARTS : (int) Math.max(1, (contentLength + partSize - 1) / partSize);
+		int threads = Math.max(1, Math.min(config.getBackupUploadThreads(), partCount));
+
+		ObjectMetadata metadata = new ObjectMetadata();
+		metadata.addUserMetadata(PART_SIZE_METADATA, Long.toString(partSize));
+		if (compression != Compression.NONE) {
+			metadata.addUserMetadata(COMPRESSION_METADATA, compression.name().toLowerCase());
+			if (contentLength >= 0) {
+				metadata.addUserMetadata(RAW_SIZE_METADATA, Long.toString(contentLength));
+			}
+		}
+		InitiateMultipartUploadResult initResponse = s3Client
+				.initiateMultipartUpload(new InitiateMultipartUploadRequest(bucket, keyName, metadata));
+		String uploadId = initResponse.getUploadId();
+		logger.info(String.format("Uploading parts of %d bytes with %d threads, compression %s", partSize,
+				threads, compression));
+
+		long start = System.currentTimeMillis();
+		Map<Integer, String> checksums = new ConcurrentHashMap<Integer, String>();
+		ExecutorService executor = new NamedThreadPoolExecutor(threads, "S3BackupUpload");
+		boolean completed = false;
+		long uploadedLength = contentLength;
+		try {
+			List<Future<PartETag>> parts;
+			if (stream == null && compression == Compression.NONE) {
+				parts = new ArrayList<Future<PartETag>>(partCount);
+				for (int i = 0; i < partCount; i++) {
+					long offset = i * partSize;
+					parts.add(executor.submit(new PartUpload(s3Client, bucket, keyName, uploadId, i + 1,
+							file, fileOffset + offset, Math.min(partSize, contentLength - offset), checksums)));
+				}
+			} else {
+				parts = new ArrayList<Future<PartETag>>();
+				InputStream in = stream;
+				if (stream == null) {
+					in = new FileInputStream(file);
+				}
+				try {
+					if (stream == null) {
+						IOUtils.skipFully(in, fileOffset);
+					}
+					uploadedLength = streamParts(executor, threads, parts, checksums, compression, s3Client,
+							bucket, keyName, uploadId, in, stream == null, contentLength, partSize);
+				} finally {
+					if (stream == null) {
+						in.close();
+					}
+				}
+			}
+
+			// parts are completed in order of part number, as S3 requires
+			List<PartETag> partETags = new ArrayList<PartETag>(parts.size());
+			for (Future<PartETag> part : parts) {
+				partETags.add(part.get());
+			}
+
+			// the checksums go first, a completed upload always has them
+			putChecksums(s3Client, bucket, keyName, checksums, partETags.size());
+			s3Client.completeMultipartUpload(new CompleteMultipartUploadRequest(bucket, keyName, uploadId,
+					partETags));
+			completed = true;
+
+		} catch (ExecutionException e) {
+			logger.error("Aborting multipart upload due to error", e.getCause());
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			logger.error("Aborting multipart upload, interrupted");
+		} catch (AmazonClientException e) {
+			logger.error("Aborting multipart upload due to error", e);
+		} catch (IOException e) {
+			logger.error("Aborting multipart upload, unable to read " + (file != null ? file : "the stream"), e);
+		} finally {
+			executor.shutdownNow();
+			if (!completed) {
+				try {
+					s3Client.abortMultipartUpload(new AbortMultipartUploadRequest(bucket, keyName, uploadId));
+				} catch (AmazonClientException e) {
+					logger.error("Unable to abort multipart upload " + uploadId, e);
+				}
+			}
+		}
+
+		if (completed) {
+			long duration = Math.max(1, System.currentTimeMillis() - start);
+			lastUploadDuration = duration;
+			lastUploadThroughput = uploadedLength * 1000 / duration;
+			logger.info(String.format("Uploaded %d bytes in %d ms, %d KB/s", uploadedLength, duration,
+					lastUploadThroughput / 1024));
+		}
+		return completed;
+	}
+
+	/**
+	 * Reads length bytes of the stream, or all of it when length is -1, compressed into frames unless the compression
+	 * is NONE, and cuts them into parts of partSize bytes, submitting each part for upload as soon as it is full. Waits
+	 * for an upload to finish before filling another part when uploadThreads parts are in flight.
+	 *
+	 * @param fromDisk
+	 *            whether the stream reads a file, which the limits of the {@link BackupThrottle} apply to, rather than
+	 *            a stream sent as fast as it can be
+	 * @return the size uploaded
+	 */
+	private long streamParts(ExecutorService executor, int uploadThreads, List<Future<PartETag>> parts,
+			Map<Integer, String> checksums, Compression compression, AmazonS3 s3Client, String bucket,
+			String keyName, String uploadId, InputStream in, boolean fromDisk, long length, long partSize)
+			throws IOException, InterruptedException, ExecutionException {
+		Semaphore inFlight = new Semaphore(uploadThreads);
+		byte[] block = new byte[Compression.BLOCK_SIZE];
+		byte[] part = new byte[(int) partSize];
+		int partFill = 0;
+		long rawLength = 0;
+		long compressedLength = 0;
+		long codecNanos = 0;
+		int checked = 0;
+
+		int read;
+		while ((length < 0 || rawLength < length) && (read = IOUtils.read(in, block, 0,
+				(int) (length < 0 ? block.length : Math.min(block.length, length - rawLength)))) > 0) {
+			if (fromDisk) {
+				throttle.acquireDisk(read);
+			}
+			byte[] frame = block;
+			int frameLength = read;
+			if (compression != Compression.NONE) {
+				long codecStart = System.nanoTime();
+				frame = compression.frame(block, read);
+				frameLength = frame.length;
+				codecNanos += System.nanoTime() - codecStart;
+			}
+			rawLength += read;
+			compressedLength += frameLength;
+
+			int frameOffset = 0;
+			while (frameOffset < frameLength) {
+				int n = Math.min(frameLength - frameOffset, part.length - partFill);
+				System.arraycopy(frame, frameOffset, part, partFill, n);
+				partFill += n;
+				frameOffset += n;
+				if (partFill == part.length) {
+					checkPartCount(parts, partSize);
+					inFlight.acquire();
+					parts.add(executor.submit(new PartUpload(s3Client, bucket, keyName, uploadId,
+							parts.size() + 1, part, inFlight, fromDisk, checksums)));
+					part = new byte[(int) partSize];
+					partFill = 0;
+				}
+			}
+
+			// stop reading as soon as a part has failed for good
+			while (checked < parts.size() && parts.get(checked).isDone()) {
+				parts.get(checked++).get();
+			}
+		}
+
+		if (length >= 0 && rawLength < length) {
+			throw new IOException("Read " + rawLength + " of " + length + " bytes");
+		}
+		if (partFill > 0 || parts.isEmpty()) {
+			checkPartCount(parts, partSize);
+			inFlight.acquire();
+			parts.add(executor.submit(new PartUpload(s3Client, bucket, keyName, uploadId, parts.size() + 1,
+					Arrays.copyOf(part, partFill), inFlight, fromDisk, checksums)));
+		}
+
+		if (compression != Compression.NONE) {
+			lastCompressionRatio = compressedLength > 0 ? rawLength * 100 / compressedLength : 0;
+			lastCompressThroughput = rawLength * 1000000000L / Math.max(1, codecNanos);
+			logger.info(String.format("Compressed %d bytes to %d with %s, %d KB/s", rawLength, compressedLength,
+					compression, lastCompressThroughput / 1024));
+		}
+		return compressedLength;
+	}
+
+	/**
+	 * Stores the MD5 of each of the partCount parts of the upload next to it.
+	 */
+	private static void putChecksums(AmazonS3 s3Client, String bucket, String keyName,
+			Map<Integer, String> checksums, int partCount) {
+		StringBuilder sb = new StringBuilder();
+		for (int i = 1; i <= partCount; i++) {
+			sb.append(checksums.get(i)).append('\n');
+		}
+		byte[] content = sb.toString().getBytes(StandardCharsets.UTF_8);
+		ObjectMetadata metadata = new ObjectMetadata();
+		metadata.setContentLength(content.length);
+		metadata.setContentType("text/plain");
+		metadata.setContentMD5(SystemUtils.toBase64(SystemUtils.md5(content)));
+		s3Client.putObject(bucket, keyName + CHECKSUMS_SUFFIX, new ByteArrayInputStream(content), metadata);
+	}
+
+	/**
+	 * A stream of unknown length may not fit in the parts S3 allows.
+	 */
+	private static void checkPartCount(List<Future<PartETag>> parts, long partSize) throws IOException {
+		if (parts.size() >= MAX_PARTS) {
+			throw new IOException("More than " + MAX_PARTS + " parts of " + partSize + " bytes to upload");
+		}
+	}
+
+	private Compression compression() {
+		try {
+			return Compression.forName(config.getBackupCompression());
+		} catch (IllegalArgumentException e) {
+			logger.warn("Unknown backup compression " + config.getBackupCompression() + ", uploading uncompressed");
+			return Compression.NONE;
+		}
+	}
+
+	/**
+	 * The configured part size, made larger if the file would not fit in the maximum number of parts.
+	 */
+	private long partSize(long contentLength) {
+		long partSize = Math.max(MIN_PART_SIZE, Math.min(MAX_PART_SIZE, config.getBackupPartSize()));
+		long minForFile = (contentLength + MAX_PARTS - 1) / MAX_PARTS;
+		return Math.max(partSize, minForFile);
+	}
+
+	/**
+	 * Reads a part of the file, records its MD5, then uploads it with the MD5 until it succeeds or runs out of retries.
+	 */
+	private class PartUpload implements Callable<PartETag> {
+		private final AmazonS3 s3Client;
+		private final String bucket;
+		private final String keyName;
+		private final String uploadId;
+		private final int partNumber;
+		private final File file;
+		private final long offset;
+		private final long size;
+		private final byte[] data;
+		private final Semaphore inFlight;
+		private final boolean throttled;
+		private final Map<Integer, String> checksums;
+
+		/**
+		 * Uploads a range of the file.
+		 */
+		private PartUpload(AmazonS3 s3Client, String bucket, String keyName, String uploadId, int partNumber,
+				File file, long offset, long size, Map<Integer, String> checksums) {
+			this(s3Client, bucket, keyName, uploadId, partNumber, file, offset, size, null, null, true, checksums);
+		}
+
+		/**
+		 * Uploads a part already in memory, releasing a permit of inFlight when done.
+		 *
+		 * @param throttled
+		 *            whether the network limit of the {@link BackupThrottle} applies
+		 */
+		private PartUpload(AmazonS3 s3Client, String bucket, String keyName, String uploadId, int partNumber,
+				byte[] data, Semaphore inFlight, boolean throttled, Map<Integer, String> checksums) {
+			this(s3Client, bucket, keyName, uploadId, partNumber, null, 0, data.length, data, inFlight, throttled,
+					checksums);
+		}
+
+		private PartUpload(AmazonS3 s3Client, String bucket, String keyName, String uploadId, int partNumber,
+				File file, long offset, long size, byte[] data, Semaphore inFlight, boolean throttled,
+				Map<Integer, String> checksums) {
+			this.s3Client = s3Client;
+			this.bucket = bucket;
+			this.keyName = keyName;
+			this.uploadId = uploadId;
+			this.partNumber = partNumber;
+			this.file = file;
+			this.offset = offset;
+			this.size = size;
+			this.data = data;
+			this.inFlight = inFlight;
+			this.throttled = throttled;
+			this.checksums = checksums;
+		}
+
+		@Override
+		public PartETag call() throws Exception {
+			try {
+				return upload();
+			} finally {
+				if (inFlight != null) {
+					inFlight.release();
+				}
+			}
+		}
+
+		private PartETag upload() throws Exception {
+			byte[] part = data != null ? data : read();
+			byte[] md5 = SystemUtils.md5(part);
+			checksums.put(partNumber, SystemUtils.toHex(md5));
+
+			int attempts = Math.max(1, config.getBackupPartRetries());
+			long backoff = PART_RETRY_BACKOFF_MS;
+			for (int attempt = 1;; attempt++) {
+				try {
+					long start = System.currentTimeMillis();
+					InputStream in = new ByteArrayInputStream(part);
+					UploadPartResult result = s3Client.uploadPart(new UploadPartRequest()
+							.withBucketName(bucket).withKey(keyName).withUploadId(uploadId)
+							.withPartNumber(partNumber).withPartSize(part.length)
+							.withInputStream(throttled ? throttle.throttleNetwork(in) : in)
+							.withMD5Digest(SystemUtils.toBase64(md5)));
+					// S3 rejects a part not matching the digest sent, its
+					// ETag is not the MD5 with SSE-KMS or SSE-C
+
+					long duration = Math.max(1, System.currentTimeMillis() - start);
+					lastPartThroughput = part.length * 1000L / duration;
+					uploadedBytes.increment(part.length);
+					if (logger.isDebugEnabled()) {
+						logger.debug(String.format("Uploaded part %d, %d bytes in %d ms", partNumber,
+								part.length, duration));
+					}
+					return result.getPartETag();
+
+				} catch (Exception e) {
+					if (attempt >= attempts || Thread.currentThread().isInterrupted()) {
+						throw e;
+					}
+					partRetries.increment();
+					logger.warn(String.format("Upload of part %d failed, attempt %d of %d, retrying in %d ms: %s",
+							partNumber, attempt, attempts, backoff, e.getMessage()));
+					Thread.sleep(backoff);
+					backoff = Math.min(backoff * 2, PART_RETRY_BACKOFF_MAX_MS);
+				}
+			}
+		}
+
+		private byte[] read() throws IOException {
+			byte[] part = new byte[(int) size];
+			RandomAccessFile in = new RandomAccessFile(file, "r");
+			try {
+				in.seek(offset);
+				for (int read = 0; read < part.length; read += BackupThrottle.CHUNK_SIZE) {
+					int n = Math.min(part.length - read, BackupThrottle.CHUNK_SIZE);
+					throttle.acquireDisk(n);
+					in.readFully(part, read, n);
+				}
+			} finally {
+				in.close();
+			}
+			return part;
+		}
+	}
 }
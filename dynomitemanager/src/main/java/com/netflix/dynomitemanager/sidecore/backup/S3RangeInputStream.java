@@ -0,0 +1,136 @@
+/**
+ * Copyright 2016 Netflix, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package com.netflix.dynomitemanager.sidecore.backup;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.amazonaws.AmazonClientException;
+import com.amazonaws.services.s3.AmazonS3;
+import com.amazonaws.services.s3.model.GetObjectRequest;
+import com.amazonaws.services.s3.model.S3ObjectInputStream;
+
+/**
+ * Reads an S3 object from start to end a range at a time, so that a dropped connection costs the rest of one range
+ * rather than the whole object. A range that fails is requested again from where it stopped.
+ */
+public class S3RangeInputStream extends InputStream {
+
+	private static final Logger logger = LoggerFactory.getLogger(S3RangeInputStream.class);
+
+	private static final long RETRY_BACKOFF_MS = 1000;
+	private static final long RETRY_BACKOFF_MAX_MS = 30000;
+
+	private final AmazonS3 s3Client;
+	private final String bucket;
+	private final String keyName;
+	private final long length;
+	private final long rangeSize;
+	private final int attempts;
+
+	private S3ObjectInputStream range;
+	private long rangeEnd;
+	private long position;
+
+	/**
+	 * @param length
+	 *            the length of the object
+	 * @param attempts
+	 *            how many times a range is requested before giving up
+	 */
+	public S3RangeInputStream(AmazonS3 s3Client, String bucket, String keyName, long length, long rangeSize,
+			int attempts) {
+		this.s3Client = s3Client;
+		this.bucket = bucket;
+		this.keyName = keyName;
+		this.length = length;
+		this.rangeSize = Math.max(1, rangeSize);
+		this.attempts = Math.max(1, attempts);
+	}
+
+	@Override
+	public int read() throws IOException {
+		byte[] b = new byte[1];
+		int read = read(b, 0, 1);
+		return read < 0 ? -1 : b[0] & 0xff;
+	}
+
+	@Override
+	public int read(byte[] b, int off, int len) throws IOException {
+		if (len == 0) {
+			return 0;
+		}
+		if (position >= length) {
+			return -1;
+		}
+
+		long backoff = RETRY_BACKOFF_MS;
+		for (int attempt = 1;; attempt++) {
+			try {
+				if (range == null) {
+					rangeEnd = Math.min(length, (position / rangeSize + 1) * rangeSize);
+					range = s3Client.getObject(new GetObjectRequest(bucket, keyName)
+							.withRange(position, rangeEnd - 1)).getObjectContent();
+				}
+				int read = range.read(b, off, (int) Math.min(len, rangeEnd - position));
+				if (read < 0) {
+					throw new IOException(String.format("Range of %s ended at %d of %d", keyName, position,
+							rangeEnd));
+				}
+				position += read;
+				if (position == rangeEnd) {
+					range.close();
+					range = null;
+				}
+				return read;
+
+			} catch (IOException | AmazonClientException e) {
+				abortRange();
+				if (attempt >= attempts) {
+					throw e instanceof IOException ? (IOException) e
+							: new IOException("Unable to read " + keyName, e);
+				}
+				logger.warn(String.format("Read of %s failed at %d, attempt %d of %d, retrying in %d ms: %s",
+						keyName, position, attempt, attempts, backoff, e.getMessage()));
+				try {
+					Thread.sleep(backoff);
+				} catch (InterruptedException ie) {
+					Thread.currentThread().interrupt();
+					throw new IOException("Interrupted reading " + keyName, ie);
+				}
+				backoff = Math.min(backoff * 2, RETRY_BACKOFF_MAX_MS);
+			}
+		}
+	}
+
+	@Override
+	public void close() throws IOException {
+		abortRange();
+	}
+
+	private void abortRange() {
+		if (range != null) {
+			// do not drain the rest of the range
+			range.abort();
+			try {
+				range.close();
+			} catch (IOException e) {
+				logger.debug("Unable to close range of " + keyName, e);
+			}
+			range = null;
+		}
+	}
+}
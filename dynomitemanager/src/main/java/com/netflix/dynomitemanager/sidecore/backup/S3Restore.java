@@ -13,38 +13,158 @@
 package com.netflix.dynomitemanager.sidecore.backup;
 
 import java.io.File;
+import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.apache.commons.io.IOUtils;
 import org.joda.time.DateTime;
 import org.joda.time.format.DateTimeFormat;
-import org.joda.time.format.DateTimeFormatter;
 
+import com.google.common.util.concurrent.RateLimiter;
 import com.google.inject.Inject;
 import com.google.inject.Singleton;
+import com.netflix.config.DynamicLongProperty;
+import com.netflix.config.DynamicPropertyFactory;
 import com.netflix.dynomitemanager.sidecore.ICredential;
 import com.netflix.dynomitemanager.defaultimpl.IConfiguration;
 import com.netflix.dynomitemanager.identity.InstanceIdentity;
+import com.netflix.dynomitemanager.monitoring.SampledGauge;
+import com.netflix.dynomitemanager.sidecore.scheduler.NamedThreadPoolExecutor;
+import com.netflix.dynomitemanager.sidecore.utils.SystemUtils;
+import com.netflix.servo.DefaultMonitorRegistry;
+import com.netflix.servo.monitor.Counter;
+import com.netflix.servo.monitor.Monitors;
 import com.amazonaws.AmazonClientException;
 import com.amazonaws.AmazonServiceException;
+import com.amazonaws.services.s3.AmazonS3;
 import com.amazonaws.services.s3.AmazonS3Client;
 import com.amazonaws.services.s3.model.GetObjectRequest;
+import com.amazonaws.services.s3.model.ObjectMetadata;
 import com.amazonaws.services.s3.model.S3Object;
+import com.amazonaws.services.s3.model.S3ObjectInputStream;
 
+/**
+ * Downloads the AOF/RDB from S3 with concurrent ranged GETs. The ranges are written in place into a file preallocated
+ * next to the data file, each range is retried on its own with exponential backoff, and the file only replaces the
+ * data file once its size and checksum match the backup, so that Redis never starts on a partial download.
+ *
+ * Ranges follow the part size the backup was uploaded with, which makes the MD5 of every range the MD5 of a part, so
+ * each range is checked against the part checksums {@link S3Backup} stores next to the backup without reading the file
+ * again. The ETag is not used, it is not an MD5 with SSE-KMS or SSE-C.
+ *
+ * A compressed backup is downloaded into memory a few ranges ahead of its decompression, which writes the file in
+ * order while the following ranges are downloaded.
+ *
+ * With the AOF, when the node has incremental backups, the restore date can be given to the minute or second
+ * (yyyyMMddHHmm or yyyyMMddHHmmss) and the AOF is rebuilt from the newest base at or before that point and the
+ * increments that followed it up to that point. A date given as yyyyMMdd restores the end of that day. Without
+ * incremental backups, the daily or weekly snapshot of the restore date is restored.
+ *
+ * Downloads are limited to 'dynomitemanager.restore.throttle.bytes_per_sec', 0 meaning unlimited, unless a limit is
+ * set for the restore with {@link #setDownloadLimit(long)}.
+ */
 @Singleton
 public class S3Restore implements Restore {
 
 	private static final Logger logger = LoggerFactory.getLogger(S3Restore.class);
 
+	private static final String METRIC_PREFIX = "dynomitemanager__restore__";
+
+	// range size for backups that do not record their part size
+	private static final long DEFAULT_RANGE_SIZE = 64L * 1024 * 1024;
+	private static final int BUFFER_SIZE = 1024 * 1024;
+
+	private static final long RANGE_RETRY_BACKOFF_MS = 1000;
+	private static final long RANGE_RETRY_BACKOFF_MAX_MS = 30000;
+
+	private static final DynamicLongProperty DownloadBytesPerSec = DynamicPropertyFactory.getInstance()
+			.getLongProperty("dynomitemanager.restore.throttle.bytes_per_sec", 0);
+	// bounds the compressed bytes held in memory ahead of the decoder
+	private static final DynamicLongProperty DecompressBufferBytes = DynamicPropertyFactory.getInstance()
+			.getLongProperty("dynomitemanager.restore.decompress.buffer.bytes", 256L * 1024 * 1024);
+
 	@Inject private IConfiguration config;
 
 	@Inject private ICredential cred;
 
 	@Inject private InstanceIdentity iid;
 
+	private final Counter downloadedBytes = Monitors.newCounter(METRIC_PREFIX + "downloaded_bytes");
+	private final Counter rangeRetries = Monitors.newCounter(METRIC_PREFIX + "range_retries");
+	private final Counter failedRestores = Monitors.newCounter(METRIC_PREFIX + "failed_restores");
+	private volatile long lastDownloadThroughput;
+	private volatile long lastDownloadDuration;
+	private volatile long lastDecompressThroughput;
+
+	private final RateLimiter downloadLimiter = RateLimiter.create(Double.MAX_VALUE);
+	// -1 when the fast property applies
+	private volatile long downloadLimit = -1;
+
+	public S3Restore() {
+		DefaultMonitorRegistry.getInstance().register(downloadedBytes);
+		DefaultMonitorRegistry.getInstance().register(rangeRetries);
+		DefaultMonitorRegistry.getInstance().register(failedRestores);
+		DefaultMonitorRegistry.getInstance().register(new SampledGauge(METRIC_PREFIX + "download_bytes_per_sec") {
+			@Override
+			protected long sample() {
+				return lastDownloadThroughput;
+			}
+		});
+		DefaultMonitorRegistry.getInstance().register(new SampledGauge(METRIC_PREFIX + "download_duration_ms") {
+			@Override
+			protected long sample() {
+				return lastDownloadDuration;
+			}
+		});
+		DefaultMonitorRegistry.getInstance().register(new SampledGauge(METRIC_PREFIX + "decompress_bytes_per_sec") {
+			@Override
+			protected long sample() {
+				return lastDecompressThroughput;
+			}
+		});
+	}
+
+	/**
+	 * Limits the downloads of the following restores, overriding the fast property.
+	 *
+	 * @param bytesPerSec
+	 *            the limit, 0 for none, or -1 to go back to the fast property
+	 */
+	public void setDownloadLimit(long bytesPerSec) {
+		downloadLimit = bytesPerSec;
+	}
+
+	/**
+	 * @return the download limit in effect, in bytes per second, 0 when unlimited
+	 */
+	public long getDownloadLimit() {
+		return downloadLimit >= 0 ? downloadLimit : DownloadBytesPerSec.get();
+	}
+
+	/**
+	 * @return the bytes downloaded by all the restores so far
+	 */
+	public long getDownloadedBytes() {
+		return downloadedBytes.getValue().longValue();
+	}
+
 	/**
 	 * Uses the Amazon S3 API to restore from S3
 	 */
@@ -53,15 +173,15 @@ public class S3Restore implements Restore {
 		long time = restoreTime(dateString);
 		if (time > -1) {
 			logger.info("Restoring data from S3.");
-			AmazonS3Client s3Client = new AmazonS3Client(cred.getAwsCredentialProvider());
+			AmazonS3 s3Client = s3Client();
 
 			try {
 			   /* construct the key for the backup data */
-				String keyName = config.getBackupLocation() + "/" +
+				String nodePrefix = config.getBackupLocation() + "/" +
 						iid.getInstance().getDatacenter() + "/" +
 						iid.getInstance().getRack() + "/" +
-						iid.getInstance().getToken() + "/" +
-						time;
+						iid.getInstance().getToken();
+				String keyName = nodePrefix + "/" + time;
 
 				logger.info("S3 Bucket Name: " + config.getBucketName());
 				logger.info("Key in Bucket: " + keyName);
@@ -70,12 +190,6 @@ public class S3Restore implements Restore {
 				if (!(s3Client.doesBucketExist(config.getBucketName()))) {
 					logger.error("Bucket with name: " + config.getBucketName() + " does not exist");
 				} else {
-					S3Object s3object = s3Client
-							.getObject(new GetObjectRequest(config.getBucketName(),
-									keyName));
-
-					logger.info("Content-Type: " + s3object.getObjectMetadata().getContentType());
-
 					String filepath = null;
 
 					if (config.isRedisAofEnabled()) {
@@ -84,10 +198,20 @@ public class S3Restore implements Restore {
 						filepath = config.getRedisDataDir() + "/nfredis.rdb";
 					}
 
-					IOUtils.copy(s3object.getObjectContent(),
-							new FileOutputStream(new File(filepath)));
+					BackupManifest manifest = config.isRedisAofEnabled()
+							? S3Backup.readManifest(s3Client, config.getBucketName(), nodePrefix) : null;
+					long restorePoint = restorePoint(dateString);
+					BackupManifest.Base base = manifest != null ? manifest.getBase(restorePoint) : null;
+
+					if (base != null) {
+						if (restoreIncremental(s3Client, config.getBucketName(), nodePrefix, base, restorePoint,
+								new File(filepath))) {
+							return true;
+						}
+					} else if (download(s3Client, config.getBucketName(), keyName, new File(filepath))) {
+						return true;
+					}
 				}
-				return true;
 			} catch (AmazonServiceException ase) {
 
 				logger.error("AmazonServiceException;"
@@ -107,27 +231,489 @@ public class S3Restore implements Restore {
 			} catch (IOException io) {
 				logger.error("File storing error: " + io.getMessage());
 			}
+			failedRestores.increment();
 		} else {
 			logger.error("Date in FP: " + dateString);
 		}
 		return false;
 	}
 
+	protected AmazonS3 s3Client() {
+		return new AmazonS3Client(cred.getAwsCredentialProvider());
+	}
+
+	private boolean download(AmazonS3 s3Client, String bucket, String keyName, File target) throws IOException {
+		ObjectMetadata metadata = s3Client.getObjectMetadata(bucket, keyName);
+		long contentLength = metadata.getContentLength();
+		long rangeSize = rangeSize(metadata);
+		int rangeCount = (int) Math.max(1, (contentLength + rangeSize - 1) / rangeSize);
+		int threads = Math.max(1, Math.min(config.getRestoreDownloadThreads(), rangeCount));
+		Compression compression;
+		long rawLength;
+		try {
+			compression = Compression.forName(metadata.getUserMetadata().get(S3Backup.COMPRESSION_METADATA));
+			// a snapshot streamed to S3 may not record its size, which is
+			// then only known once decompressed
+			String rawSize = metadata.getUserMetadata().get(S3Backup.RAW_SIZE_METADATA);
+			rawLength = compression == Compression.NONE ? contentLength
+					: rawSize != null ? Long.parseLong(rawSize) : -1;
+		} catch (IllegalArgumentException e) {
+			// also thrown for an invalid size
+			throw new IOException("Unsupported backup metadata " + metadata.getUserMetadata(), e);
+		}
+		logger.info(String.format("Downloading %d bytes in %d ranges of %d bytes with %d threads, compression %s",
+				contentLength, rangeCount, rangeSize, threads, compression));
+
+		File temp = new File(target.getPath() + ".restore");
+		long start = System.currentTimeMillis();
+		boolean restored = false;
+		RandomAccessFile file = new RandomAccessFile(temp, "rw");
+		ExecutorService executor = new NamedThreadPoolExecutor(threads, "S3RestoreDownload");
+		try {
+			// allocate the whole file up front so ranges can be written in
+			// any order and a full disk shows up before any download
+			file.setLength(Math.max(0, rawLength));
+			FileChannel channel = file.getChannel();
+
+			List<byte[]> digests = new ArrayList<byte[]>(rangeCount);
+			if (compression == Compression.NONE) {
+				List<Future<Range>> ranges = new ArrayList<Future<Range>>(rangeCount);
+				for (int i = 0; i < rangeCount; i++) {
+					long offset = i * rangeSize;
+					ranges.add(executor.submit(new RangeDownload(s3Client, bucket, keyName, channel, i + 1,
+							offset, Math.min(rangeSize, contentLength - offset))));
+				}
+				for (Future<Range> range : ranges) {
+					digests.add(range.get().digest);
+				}
+			} else {
+				decompressRanges(executor, threads, digests, compression, s3Client, bucket, keyName, channel,
+						contentLength, rangeSize);
+			}
+			channel.force(true);
+			file.close();
+
+			if (rawLength >= 0 && temp.length() != rawLength) {
+				logger.error("Restored " + temp.length() + " bytes, expected " + rawLength);
+			} else if (verify(s3Client, bucket, keyName, digests)) {
+				move(temp, target);
+				restored = true;
+			}
+
+		} catch (ExecutionException e) {
+			logger.error("Restore failed", e.getCause());
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			logger.error("Restore interrupted");
+		} finally {
+			executor.shutdownNow();
+			file.close();
+			if (!restored && temp.exists() && !temp.delete()) {
+				logger.warn("Unable to delete partial download " + temp);
+			}
+		}
+
+		if (restored) {
+			long duration = Math.max(1, System.currentTimeMillis() - start);
+			lastDownloadDuration = duration;
+			lastDownloadThroughput = contentLength * 1000 / duration;
+			logger.info(String.format("Restored %d bytes to %s in %d ms, %d KB/s", target.length(), target,
+					duration, lastDownloadThroughput / 1024));
+		}
+		return restored;
+	}
+
+	/**
+	 * Downloads a compressed backup into memory in chunks of at most DEFAULT_RANGE_SIZE, each within a part, while
+	 * they fit the decompression buffer, and decompresses them in order into the file. The MD5 of each part is
+	 * computed from its chunks as they are decompressed.
+	 */
+	private void decompressRanges(ExecutorService executor, int threads, List<byte[]> digests,
+			Compression compression, AmazonS3 s3Client, String bucket, String keyName, FileChannel channel,
+			long contentLength, long rangeSize) throws IOException, InterruptedException, ExecutionException {
+		long bufferBytes = DecompressBufferBytes.get();
+		// at least two chunks per thread, so that downloads go on while a chunk is decompressed
+		long chunkSize = Math.max(BUFFER_SIZE, Math.min(Math.min(rangeSize, DEFAULT_RANGE_SIZE),
+				bufferBytes / (threads * 2)));
+		long chunksPerRange = (rangeSize + chunkSize - 1) / chunkSize;
+
+		List<Future<Range>> chunks = new ArrayList<Future<Range>>();
+		Compression.FrameDecoder decoder = compression.newDecoder(Channels.newOutputStream(channel));
+		MessageDigest digest = newMd5();
+		long submitted = 0;
+		long buffered = 0;
+		long codecNanos = 0;
+
+		for (int i = 0; submitted < contentLength || i < chunks.size(); i++) {
+			// the chunk to decompress next is always downloaded, whatever its size
+			while (submitted < contentLength && (submitted < chunkEnd(i, rangeSize, chunkSize, chunksPerRange)
+					|| buffered + chunkSize <= bufferBytes)) {
+				int index = chunks.size();
+				long offset = chunkStart(index, rangeSize, chunkSize, chunksPerRange);
+				long size = Math.min(chunkEnd(index, rangeSize, chunkSize, chunksPerRange), contentLength) - offset;
+				chunks.add(executor.submit(new RangeDownload(s3Client, bucket, keyName, null, index + 1, offset,
+						size)));
+				submitted = offset + size;
+				buffered += size;
+			}
+
+			Range chunk = chunks.get(i).get();
+			// let the chunk be collected once decompressed
+			chunks.set(i, null);
+			buffered -= chunk.data.length;
+			digest.update(chunk.data);
+			if ((i + 1) % chunksPerRange == 0 || (i + 1 == chunks.size() && submitted == contentLength)) {
+				digests.add(digest.digest());
+			}
+
+			long codecStart = System.nanoTime();
+			decoder.decode(chunk.data, 0, chunk.data.length);
+			codecNanos += System.nanoTime() - codecStart;
+		}
+
+		long rawLength = decoder.finish();
+		lastDecompressThroughput = rawLength * 1000000000L / Math.max(1, codecNanos);
+		logger.info(String.format("Decompressed %d bytes to %d with %s in chunks of %d bytes, %d KB/s",
+				contentLength, rawLength, compression, chunkSize, lastDecompressThroughput / 1024));
+	}
+
+	/**
+	 * Chunks do not span parts: the last chunk of a part may be short.
+	 */
+	private static long chunkStart(long chunk, long rangeSize, long chunkSize, long chunksPerRange) {
+		return chunk / chunksPerRange * rangeSize + chunk % chunksPerRange * chunkSize;
+	}
+
+	private static long chunkEnd(long chunk, long rangeSize, long chunkSize, long chunksPerRange) {
+		return Math.min(chunkStart(chunk, rangeSize, chunkSize, chunksPerRange) + chunkSize,
+				(chunk / chunksPerRange + 1) * rangeSize);
+	}
+
+	/**
+	 * Rebuilds the AOF from a base and its increments up to the restore point, checking the size and MD5 of each
+	 * against the manifest.
+	 */
+	private boolean restoreIncremental(AmazonS3 s3Client, String bucket, String nodePrefix, BackupManifest.Base base,
+			long restorePoint, File target) throws IOException {
+		List<BackupManifest.Segment> increments = base.getIncrements(restorePoint);
+		long recoveryPoint = increments.isEmpty() ? base.getTime() : increments.get(increments.size() - 1).getTime();
+		logger.info(String.format("Restoring the AOF as of %s from the base of %s and %d increments",
+				new DateTime(recoveryPoint), new DateTime(base.getTime()), increments.size()));
+
+		File assembled = new File(target.getPath() + ".incremental");
+		File segment = new File(target.getPath() + ".segment");
+		try {
+			if (!download(s3Client, bucket, nodePrefix + "/" + base.getName(), assembled)
+					|| !verify(base, assembled)) {
+				return false;
+			}
+
+			FileChannel out = new FileOutputStream(assembled, true).getChannel();
+			try {
+				for (BackupManifest.Segment increment : increments) {
+					if (!download(s3Client, bucket, nodePrefix + "/" + increment.getName(), segment)
+							|| !verify(increment, segment)) {
+						return false;
+					}
+					FileChannel in = new FileInputStream(segment).getChannel();
+					try {
+						long position = 0;
+						while (position < in.size()) {
+							position += in.transferTo(position, in.size() - position, out);
+						}
+					} finally {
+						in.close();
+					}
+				}
+				out.force(true);
+			} finally {
+				out.close();
+			}
+
+			move(assembled, target);
+			return true;
+		} finally {
+			segment.delete();
+			assembled.delete();
+		}
+	}
+
+	private boolean verify(BackupManifest.Segment expected, File file) {
+		if (file.length() != expected.getSize()) {
+			logger.error(String.format("Restored %d bytes of %s, expected %d", file.length(), expected.getName(),
+					expected.getSize()));
+			return false;
+		}
+		String md5 = SystemUtils.md5(file);
+		if (!md5.equalsIgnoreCase(expected.getMd5())) {
+			logger.error(String.format("Checksum mismatch for %s: manifest %s, restored %s", expected.getName(),
+					expected.getMd5(), md5));
+			return false;
+		}
+		return true;
+	}
+
+	static void move(File from, File to) throws IOException {
+		if (!from.renameTo(to)) {
+			// some file systems do not replace on rename
+			if (!to.delete() || !from.renameTo(to)) {
+				throw new IOException("Unable to move " + from + " to " + to);
+			}
+		}
+	}
+
+	/**
+	 * The part size the backup was uploaded with, or a default for backups that do not record it.
+	 */
+	private long rangeSize(ObjectMetadata metadata) {
+		String partSize = metadata.getUserMetadata().get(S3Backup.PART_SIZE_METADATA);
+		if (partSize != null) {
+			try {
+				long size = Long.parseLong(partSize);
+				if (size > 0) {
+					return size;
+				}
+			} catch (NumberFormatException e) {
+				logger.warn("Ignoring invalid part size " + partSize);
+			}
+		}
+		return DEFAULT_RANGE_SIZE;
+	}
+
+	/**
+	 * Checks the MD5 of each range against the MD5 of the part it was uploaded as. Backups uploaded before the part
+	 * checksums were stored are not checked.
+	 */
+	private boolean verify(AmazonS3 s3Client, String bucket, String keyName, List<byte[]> digests)
+			throws IOException {
+		List<String> checksums = readChecksums(s3Client, bucket, keyName);
+		if (checksums == null) {
+			logger.warn("Backup " + keyName + " has no part checksums, checksum not verified");
+			return true;
+		}
+		if (checksums.size() != digests.size()) {
+			logger.error(String.format("Backup %s has %d part checksums, downloaded %d ranges", keyName,
+					checksums.size(), digests.size()));
+			return false;
+		}
+		for (int i = 0; i < digests.size(); i++) {
+			String md5 = SystemUtils.toHex(digests.get(i));
+			if (!md5.equalsIgnoreCase(checksums.get(i))) {
+				logger.error(String.format("Checksum mismatch for part %d of %s: uploaded %s, downloaded %s", i + 1,
+						keyName, checksums.get(i), md5));
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * @return the MD5 of each part of the backup in part order, or null if they were not stored
+	 */
+	private static List<String> readChecksums(AmazonS3 s3Client, String bucket, String keyName) throws IOException {
+		S3Object object;
+		try {
+			object = s3Client.getObject(bucket, keyName + S3Backup.CHECKSUMS_SUFFIX);
+		} catch (AmazonServiceException e) {
+			if (e.getStatusCode() == 404) {
+				return null;
+			}
+			throw e;
+		}
+
+		InputStream in = object.getObjectContent();
+		try {
+			return IOUtils.readLines(in, StandardCharsets.UTF_8);
+		} finally {
+			in.close();
+		}
+	}
+
+	private static MessageDigest newMd5() {
+		try {
+			return MessageDigest.getInstance("MD5");
+		} catch (NoSuchAlgorithmException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	/**
+	 * A downloaded range: its MD5 when it was written to the file, or else its bytes.
+	 */
+	private static class Range {
+		private final byte[] digest;
+		private final byte[] data;
+
+		private Range(byte[] digest, byte[] data) {
+			this.digest = digest;
+			this.data = data;
+		}
+	}
+
+	/**
+	 * Downloads a range of the backup into its place in the file, or into memory when there is no file, until it
+	 * succeeds or runs out of retries. Ranges kept in memory must fit in an array.
+	 */
+	private class RangeDownload implements Callable<Range> {
+		private final AmazonS3 s3Client;
+		private final String bucket;
+		private final String keyName;
+		private final FileChannel channel;
+		private final int rangeNumber;
+		private final long offset;
+		private final long size;
+
+		private RangeDownload(AmazonS3 s3Client, String bucket, String keyName, FileChannel channel,
+				int rangeNumber, long offset, long size) {
+			this.s3Client = s3Client;
+			this.bucket = bucket;
+			this.keyName = keyName;
+			this.channel = channel;
+			this.rangeNumber = rangeNumber;
+			this.offset = offset;
+			this.size = size;
+		}
+
+		@Override
+		public Range call() throws Exception {
+			int attempts = Math.max(1, config.getBackupPartRetries());
+			long backoff = RANGE_RETRY_BACKOFF_MS;
+			for (int attempt = 1;; attempt++) {
+				try {
+					return download();
+				} catch (Exception e) {
+					if (attempt >= attempts || Thread.currentThread().isInterrupted()) {
+						throw e;
+					}
+					rangeRetries.increment();
+					logger.warn(String.format("Download of range %d failed, attempt %d of %d, retrying in %d ms: %s",
+							rangeNumber, attempt, attempts, backoff, e.getMessage()));
+					Thread.sleep(backoff);
+					backoff = Math.min(backoff * 2, RANGE_RETRY_BACKOFF_MAX_MS);
+				}
+			}
+		}
+
+		private Range download() throws IOException {
+			byte[] data = channel == null ? new byte[(int) size] : null;
+			// the bytes kept in memory are digested by the caller, in order with the rest of their part
+			MessageDigest digest = data == null ? newMd5() : null;
+			ByteBuffer buffer = data != null ? null
+					: ByteBuffer.allocate((int) Math.min(BUFFER_SIZE, Math.max(1, size)));
+			long position = offset;
+			long end = offset + size;
+
+			if (size == 0) {
+				return new Range(digest == null ? null : digest.digest(), data);
+			}
+
+			S3Object object = s3Client.getObject(new GetObjectRequest(bucket, keyName)
+					.withRange(offset, end - 1));
+			S3ObjectInputStream in = object.getObjectContent();
+			try {
+				int read;
+				if (data != null) {
+					while (position < end && (read = in.read(data, (int) (position - offset),
+							(int) Math.min(BUFFER_SIZE, end - position))) >= 0) {
+						position += read;
+						throttle(read);
+					}
+				} else {
+					while (position < end && (read = in.read(buffer.array(), 0,
+							(int) Math.min(buffer.capacity(), end - position))) >= 0) {
+						digest.update(buffer.array(), 0, read);
+						throttle(read);
+						buffer.clear();
+						buffer.limit(read);
+						while (buffer.hasRemaining()) {
+							position += channel.write(buffer, position);
+						}
+					}
+				}
+			} finally {
+				if (position < end) {
+					// do not drain the rest of a failed range before retrying
+					in.abort();
+				}
+				in.close();
+			}
+
+			if (position != end) {
+				throw new IOException(String.format("Range %d ended after %d of %d bytes", rangeNumber,
+						position - offset, size));
+			}
+			downloadedBytes.increment(size);
+			return new Range(digest == null ? null : digest.digest(), data);
+		}
+	}
+
+	/**
+	 * Waits until the given number of downloaded bytes fit the download limit.
+	 */
+	private void throttle(int bytes) {
+		long limit = getDownloadLimit();
+		if (limit <= 0 || bytes <= 0) {
+			return;
+		}
+		synchronized (downloadLimiter) {
+			if ((long) downloadLimiter.getRate() != limit) {
+				downloadLimiter.setRate(limit);
+			}
+		}
+		downloadLimiter.acquire(bytes);
+	}
+
+	/**
+	 * @return the start of the day of the restore date, which names the snapshot of that day, or -1 if the date is
+	 *         not valid
+	 */
 	private long restoreTime(String dateString) {
 		logger.info("Date to restore to: " + dateString);
 
-		DateTimeFormatter formatter = null;
-		try {
-			formatter = DateTimeFormat.forPattern("yyyyMMdd");
-		} catch (Exception e) {
-			logger.error("Restore fast property not formatted properly " + e.getMessage());
+		DateTime dt = parseRestoreDate(dateString);
+		if (dt == null) {
 			return -1;
 		}
-
-		DateTime dt = formatter.parseDateTime(dateString);
 		DateTime dateBackup = dt.withTimeAtStartOfDay();
 		return dateBackup.getMillis();
 
 	}
 
+	/**
+	 * @return the last millisecond of the restore date at the precision it is given in, e.g. the end of the day for
+	 *         yyyyMMdd
+	 */
+	private long restorePoint(String dateString) {
+		DateTime dt = parseRestoreDate(dateString);
+		switch (dateString.length()) {
+		case 12:
+			return dt.plusMinutes(1).getMillis() - 1;
+		case 14:
+			return dt.plusSeconds(1).getMillis() - 1;
+		default:
+			return dt.plusDays(1).getMillis() - 1;
+		}
+	}
+
+	private DateTime parseRestoreDate(String dateString) {
+		String pattern;
+		switch (dateString.length()) {
+		case 12:
+			pattern = "yyyyMMddHHmm";
+			break;
+		case 14:
+			pattern = "yyyyMMddHHmmss";
+			break;
+		default:
+			pattern = "yyyyMMdd";
+		}
+
+		try {
+			return DateTimeFormat.forPattern(pattern).parseDateTime(dateString);
+		} catch (IllegalArgumentException e) {
+			logger.error("Restore fast property not formatted properly " + e.getMessage());
+			return null;
+		}
+	}
+
 }
@@ -0,0 +1,113 @@
+/**
+ * Copyright 2016 Netflix, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package com.netflix.dynomitemanager.sidecore.backup;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.commons.io.FileUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+import com.netflix.dynomitemanager.defaultimpl.IConfiguration;
+import com.netflix.servo.DefaultMonitorRegistry;
+import com.netflix.servo.monitor.Counter;
+import com.netflix.servo.monitor.Monitors;
+
+/**
+ * Stages the dump of the storage for a backup by hard linking it into a directory of its own, next to the data files
+ * so that it is on the same file system. Redis replaces the RDB and the AOF by renaming a new file over them, which
+ * leaves the staged link on the dump as it was, so an upload reading the staged file is not affected by a BGSAVE or
+ * AOF rewrite that starts meanwhile. Linking copies nothing however large the dump.
+ *
+ * An AOF keeps being appended to in place; the bytes uploaded are those up to its length when the upload starts.
+ */
+@Singleton
+public class SnapshotStaging {
+
+	private static final Logger logger = LoggerFactory.getLogger(SnapshotStaging.class);
+
+	private static final String STAGING_DIR = "backup-staging";
+
+	private final IConfiguration config;
+	private final AtomicLong sequence = new AtomicLong();
+	private volatile boolean cleaned;
+
+	private final Counter linkFailures = Monitors.newCounter("dynomitemanager__backup__staging_link_failures");
+
+	@Inject
+	public SnapshotStaging(IConfiguration config) {
+		this.config = config;
+		DefaultMonitorRegistry.getInstance().register(linkFailures);
+	}
+
+	/**
+	 * @return a hard link to the file in a staging directory of its own, or the file itself if it could not be linked
+	 */
+	public File stage(File file) {
+		File root = new File(config.getRedisDataDir(), STAGING_DIR);
+		cleanLeftovers(root);
+
+		File dir = new File(root, System.currentTimeMillis() + "-" + sequence.incrementAndGet());
+		File staged = new File(dir, file.getName());
+		try {
+			Files.createDirectories(dir.toPath());
+			Files.createLink(staged.toPath(), file.toPath());
+			logger.info("Staged " + file + " as " + staged);
+			return staged;
+		} catch (IOException | UnsupportedOperationException e) {
+			linkFailures.increment();
+			logger.warn("Unable to stage " + file + ", backing it up in place: " + e.getMessage());
+			dir.delete();
+			return file;
+		}
+	}
+
+	/**
+	 * Removes a file returned by {@link #stage(File)} once it has been backed up.
+	 */
+	public void release(File staged) {
+		File dir = staged.getParentFile();
+		File root = dir != null ? dir.getParentFile() : null;
+		if (root == null || !root.getName().equals(STAGING_DIR)) {
+			// the file was not staged
+			return;
+		}
+		try {
+			FileUtils.deleteDirectory(dir);
+		} catch (IOException e) {
+			logger.warn("Unable to remove staged " + staged, e);
+		}
+	}
+
+	/**
+	 * Removes what backups interrupted by a restart of the sidecar left staged.
+	 */
+	private synchronized void cleanLeftovers(File root) {
+		if (cleaned) {
+			return;
+		}
+		cleaned = true;
+		if (root.isDirectory()) {
+			try {
+				FileUtils.cleanDirectory(root);
+			} catch (IOException e) {
+				logger.warn("Unable to clean " + root, e);
+			}
+		}
+	}
+}
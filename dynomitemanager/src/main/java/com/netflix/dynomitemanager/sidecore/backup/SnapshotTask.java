@@ -60,18 +60,27 @@ public class SnapshotTask extends Task {
 	private final InstanceState state;
 	private final IStorageProxy storageProxy;
 	private final Backup backup;
+	private final IncrementalBackup incrementalBackup;
+	private final SnapshotStaging staging;
+	private final DisklessBackup disklessBackup;
+	private final RdbAnalyzer rdbAnalyzer;
 
 	private final int storageRetries = 5;
 
 	@Inject
 	public SnapshotTask(IConfiguration config, InstanceIdentity id, ICredential cred, InstanceState state,
-			IStorageProxy storageProxy, Backup backup) {
+			IStorageProxy storageProxy, Backup backup, IncrementalBackup incrementalBackup,
+			SnapshotStaging staging, DisklessBackup disklessBackup, RdbAnalyzer rdbAnalyzer) {
 		super(config);
 		this.cred = cred;
 		this.iid = id;
 		this.state = state;
 		this.storageProxy = storageProxy;
 		this.backup = backup;
+		this.incrementalBackup = incrementalBackup;
+		this.staging = staging;
+		this.disklessBackup = disklessBackup;
+		this.rdbAnalyzer = rdbAnalyzer;
 	}
 
 	public void execute() throws Exception {
@@ -96,6 +105,20 @@ public class SnapshotTask extends Task {
 					 */
 					this.state.setBackUpStatus(false);
 
+					// stream the RDB from Redis replication, without a dump
+					// to the data disk
+					if (this.disklessBackup.isEnabled()) {
+						DateTime todayStart = DateTime.now().withTimeAtStartOfDay();
+						this.state.setBackupTime(todayStart);
+						if (this.disklessBackup.backup(todayStart)) {
+							this.state.setBackUpStatus(true);
+							logger.info("S3 backup status: Completed!");
+						} else {
+							logger.error("S3 backup status: Failed!");
+						}
+						break;
+					}
+
 					// the storage proxy takes a snapshot or compacts data
 					boolean snapshot = this.storageProxy.takeSnapshot();
 					File file = null;
@@ -110,7 +133,25 @@ public class SnapshotTask extends Task {
 						DateTime todayStart = now.withTimeAtStartOfDay();
 						this.state.setBackupTime(todayStart);
 
-						if (this.backup.upload(file, todayStart)) {
+						// with incremental backups the rewritten AOF is
+						// the base of the following increments
+						boolean uploaded;
+						if (config.isBackupIncrementalEnabled() && config.isRedisAofEnabled()) {
+							uploaded = this.incrementalBackup.backup(true);
+						} else {
+							// upload a link to the dump, which the next dump
+							// does not replace
+							File staged = this.staging.stage(file);
+							try {
+								uploaded = this.backup.upload(staged, todayStart);
+								if (uploaded) {
+									this.rdbAnalyzer.reportBackup(staged, todayStart.getMillis());
+								}
+							} finally {
+								this.staging.release(staged);
+							}
+						}
+						if (uploaded) {
 							this.state.setBackUpStatus(true);
 							logger.info("S3 backup status: Completed!");
 						} else {
@@ -0,0 +1,235 @@
+/**
+ * Copyright 2016 Netflix, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package com.netflix.dynomitemanager.sidecore.storage;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import redis.clients.jedis.Jedis;
+
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+import com.netflix.dynomitemanager.sidecore.storage.StorageConnectionManager.JedisCommand;
+import com.netflix.servo.DefaultMonitorRegistry;
+import com.netflix.servo.monitor.Counter;
+import com.netflix.servo.monitor.Monitors;
+
+/**
+ * Keeps the latest INFO replies of the local storage so that everything that needs INFO shares the round trips.
+ *
+ * Callers ask for a snapshot no older than a given age, and INFO is only fetched when the cached snapshot is too old.
+ * A section can be requested on its own, in which case only that section is fetched; a fresh enough snapshot of the
+ * default sections, or of all sections, is used for it when there is one. Concurrent requests for the same refresh share a single fetch.
+ */
+@Singleton
+public class InfoSampler {
+
+    private static final Logger logger = LoggerFactory.getLogger(InfoSampler.class);
+
+    private static final String METRIC_PREFIX = "dynomitemanager__info__";
+
+    /**
+     * The sections returned by INFO without argument.
+     */
+    public static final String DEFAULT = "default";
+    /**
+     * All the sections, including commandstats.
+     */
+    public static final String ALL = "all";
+    private static final Set<String> DEFAULT_SECTIONS = new HashSet<String>(Arrays.asList("server", "clients",
+            "memory", "persistence", "stats", "replication", "cpu", "cluster", "keyspace"));
+
+    private final StorageConnectionManager connectionManager;
+
+    private final ConcurrentMap<String, Snapshot> snapshots = new ConcurrentHashMap<String, Snapshot>();
+    private final ConcurrentMap<String, FutureTask<Snapshot>> refreshes = new ConcurrentHashMap<String, FutureTask<Snapshot>>();
+
+    private final Counter fetches = Monitors.newCounter(METRIC_PREFIX + "fetches");
+    private final Counter hits = Monitors.newCounter(METRIC_PREFIX + "hits");
+    private final Counter collapsed = Monitors.newCounter(METRIC_PREFIX + "collapsed");
+
+    @Inject
+    public InfoSampler(StorageConnectionManager connectionManager) {
+        this.connectionManager = connectionManager;
+
+        DefaultMonitorRegistry.getInstance().register(fetches);
+        DefaultMonitorRegistry.getInstance().register(hits);
+        DefaultMonitorRegistry.getInstance().register(collapsed);
+    }
+
+    /**
+     * @return the default INFO sections, no older than maxAgeMillis
+     */
+    public Snapshot get(long maxAgeMillis) {
+        return get(DEFAULT, maxAgeMillis);
+    }
+
+    /**
+     * @param section
+     *            the INFO section, e.g. "persistence", or {@link #DEFAULT}
+     * @param maxAgeMillis
+     *            how old the returned snapshot may be; 0 forces a fetch, which may be shared with one already in
+     *            flight
+     * @return the section, no older than maxAgeMillis
+     * @throws redis.clients.jedis.exceptions.JedisConnectionException
+     *             if INFO could not be fetched
+     */
+    public Snapshot get(String section, long maxAgeMillis) {
+        final String key = section.toLowerCase();
+        long requestTime = System.currentTimeMillis();
+
+        Snapshot cached = cached(key);
+        if (cached != null && requestTime - cached.getCaptureTime() <= maxAgeMillis) {
+            hits.increment();
+            return cached;
+        }
+
+        FutureTask<Snapshot> refresh = new FutureTask<Snapshot>(new Callable<Snapshot>() {
+            @Override
+            public Snapshot call() throws Exception {
+                return fetch(key);
+            }
+        });
+        FutureTask<Snapshot> inflight = refreshes.putIfAbsent(key, refresh);
+        if (inflight == null) {
+            try {
+                refresh.run();
+            } finally {
+                refreshes.remove(key, refresh);
+            }
+            inflight = refresh;
+        } else {
+            collapsed.increment();
+        }
+
+        try {
+            return inflight.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while waiting for INFO " + key, e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw new IllegalStateException("Unable to fetch INFO " + key, e.getCause());
+        }
+    }
+
+    private Snapshot cached(String key) {
+        Snapshot cached = snapshots.get(key);
+        if (DEFAULT_SECTIONS.contains(key)) {
+            cached = newest(cached, snapshots.get(DEFAULT));
+        }
+        if (!key.equals(ALL)) {
+            cached = newest(cached, snapshots.get(ALL));
+        }
+        return cached;
+    }
+
+    private static Snapshot newest(Snapshot a, Snapshot b) {
+        if (a == null) {
+            return b;
+        }
+        return b != null && b.getCaptureTime() > a.getCaptureTime() ? b : a;
+    }
+
+    private Snapshot fetch(final String key) {
+        fetches.increment();
+        byte[] raw = connectionManager.execute(new JedisCommand<byte[]>() {
+            @Override
+            public byte[] execute(Jedis jedis) {
+                if (key.equals(DEFAULT)) {
+                    jedis.getClient().info();
+                } else {
+                    jedis.getClient().info(key);
+                }
+                return jedis.getClient().getBinaryBulkReply();
+            }
+        });
+
+        if (logger.isDebugEnabled()) {
+            logger.debug("Fetched INFO " + key + ": " + raw.length + " bytes");
+        }
+        Snapshot snapshot = new Snapshot(System.currentTimeMillis(), raw);
+        snapshots.put(key, snapshot);
+        return snapshot;
+    }
+
+    /**
+     * An INFO reply and the time it was captured.
+     */
+    public static class Snapshot {
+        private final long captureTime;
+        private final byte[] raw;
+
+        public Snapshot(long captureTime, byte[] raw) {
+            this.captureTime = captureTime;
+            this.raw = raw;
+        }
+
+        public long getCaptureTime() {
+            return captureTime;
+        }
+
+        /**
+         * @return the reply as sent by the storage; must not be modified
+         */
+        public byte[] getRaw() {
+            return raw;
+        }
+
+        /**
+         * Scans the reply for the field, without parsing the other lines.
+         *
+         * @return the value of a field, e.g. "role", or null if the reply does not have it
+         */
+        public String get(String field) {
+            int pos = 0;
+            while (pos < raw.length) {
+                int lineEnd = pos;
+                while (lineEnd < raw.length && raw[lineEnd] != '\n') {
+                    lineEnd++;
+                }
+                int sep = pos + field.length();
+                if (sep < lineEnd && raw[sep] == ':' && startsWith(pos, field)) {
+                    int end = lineEnd;
+                    while (end > sep + 1 && (raw[end - 1] == '\r' || raw[end - 1] == ' ')) {
+                        end--;
+                    }
+                    return new String(raw, sep + 1, end - sep - 1, StandardCharsets.UTF_8);
+                }
+                pos = lineEnd + 1;
+            }
+            return null;
+        }
+
+        private boolean startsWith(int pos, String field) {
+            for (int i = 0; i < field.length(); i++) {
+                if (raw[pos + i] != field.charAt(i)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+}
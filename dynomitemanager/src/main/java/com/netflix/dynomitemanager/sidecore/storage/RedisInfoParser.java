@@ -12,414 +12,603 @@
  */
 package com.netflix.dynomitemanager.sidecore.storage;
 
-import java.io.BufferedReader;
-import java.io.File;
-import java.io.FileNotFoundException;
-import java.io.FileReader;
 import java.io.Reader;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashMap;
-import java.util.HashSet;
-import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
-import java.util.Set;
-
-import org.junit.Assert;
+import java.util.regex.Pattern;
 
+/**
+ * Parses the reply of the Redis INFO command into metrics named <code>Redis_&lt;Section&gt;_&lt;key&gt;</code>.
+ *
+ * Which metrics are kept is decided by a white list of glob patterns per section, e.g.
+ * <code>Server:uptime_in_seconds;Stats:sync_*</code>. Values made of <code>k=v</code> pairs, like the keyspace
+ * <code>db0:keys=1,expires=0</code>, the replication <code>slave0:...,offset=1,lag=0</code> or the commandstats
+ * <code>cmdstat_get:calls=2,usec=15,usec_per_call=7.50</code> lines, are matched as <code>key.subkey</code> and become
+ * one metric per pair, e.g. <code>Redis_Commandstats_cmdstat_get_calls</code>. Values of <code>*_status</code> keys
+ * become 1 for ok and 0 otherwise. At most a configured number of metrics are kept; metrics beyond it are counted as
+ * overflow and dropped.
+ *
+ * The raw reply is scanned once. Keys are looked up through a hash table over the reply bytes, and every section/key
+ * pair is matched against the white list and interned into a metric id the first time it is seen. The values of the
+ * last parse are kept in a <code>long[]</code> indexed by metric id, so once all metrics have been seen a parse does
+ * not allocate. Metric ids are stable for the lifetime of the parser, including across white list changes.
+ *
+ * Instances are not thread safe.
+ */
 public class RedisInfoParser {
 
-    private static final Set<String> WHITE_LIST = new HashSet<String>();
-
-    static {
-        WHITE_LIST.add("uptime_in_seconds");
-        WHITE_LIST.add("connected_clients");
-        WHITE_LIST.add("client_longest_output_list");
-        WHITE_LIST.add("client_biggest_input_buf");
-        WHITE_LIST.add("blocked_clients");
-        WHITE_LIST.add("used_memory");
-        WHITE_LIST.add("used_memory_rss");
-        WHITE_LIST.add("used_memory_lua");
-        WHITE_LIST.add("mem_fragmentation_ratio");
-        WHITE_LIST.add("rdb_changes_since_last_save");
-        WHITE_LIST.add("rdb_last_save_time");
-        WHITE_LIST.add("aof_enabled");
-        WHITE_LIST.add("aof_rewrite_in_progress");
-        WHITE_LIST.add("total_connections_received");
-        WHITE_LIST.add("total_commands_processed");
-        WHITE_LIST.add("instantaneous_ops_per_sec");
-        WHITE_LIST.add("rejected_connections");
-        WHITE_LIST.add("expired_keys");
-        WHITE_LIST.add("evicted_keys");
-        WHITE_LIST.add("keyspace_hits");
-        WHITE_LIST.add("keyspace_misses");
-        WHITE_LIST.add("used_cpu_sys");
-        WHITE_LIST.add("used_cpu_user");
-        WHITE_LIST.add("db0");
-
-        /**
-         * The following apply only for ARDB/RocksDB"
-         */
-        WHITE_LIST.add("used_disk_space");
-        WHITE_LIST.add("rocksdb_memtable_total");
-        WHITE_LIST.add("rocksdb_memtable_unflushed");
-    }
+    public static final String DEFAULT_WHITE_LIST = "Server:uptime_in_seconds;"
+            + "Clients:connected_clients,client_longest_output_list,client_biggest_input_buf,blocked_clients;"
+            + "Memory:used_memory,used_memory_rss,used_memory_lua,mem_fragmentation_ratio;"
+            + "Persistence:rdb_changes_since_last_save,rdb_last_save_time,rdb_bgsave_in_progress,rdb_last_bgsave_status,"
+            + "aof_enabled,aof_rewrite_in_progress,aof_last_bgrewrite_status,aof_last_write_status;"
+            + "Stats:total_connections_received,total_commands_processed,instantaneous_ops_per_sec,"
+            + "rejected_connections,expired_keys,evicted_keys,keyspace_hits,keyspace_misses,latest_fork_usec,sync_*;"
+            + "Replication:connected_slaves,master_repl_offset,slave_repl_offset,master_last_io_seconds_ago,"
+            + "master_sync_in_progress,slave*.offset,slave*.lag;"
+            + "CPU:used_cpu_sys,used_cpu_user;"
+            + "Keyspace:db*.*;"
+            + "Commandstats:cmdstat_*.*;"
+            // ARDB/RocksDB
+            + "*:used_disk_space,rocksdb_memtable_total,rocksdb_memtable_unflushed";
+
+    public static final int DEFAULT_MAX_METRICS = 1000;
+
+    private static final int REJECTED = -1;
+    private static final int UNDECIDED = -2;
+
+    private static final long NOT_A_NUMBER = Long.MIN_VALUE;
+    private static final long[] POW10 = { 1L, 10L, 100L, 1000L, 10000L, 100000L, 1000000L, 10000000L, 100000000L,
+            1000000000L, 10000000000L, 100000000000L, 1000000000000L };
+
+    private String whiteListSpec;
+    private final List<Pattern[]> whiteList = new ArrayList<Pattern[]>();
+    private int maxMetrics;
+    private long overflowCount;
+
+    // names seen so far: sections (0 is for lines before any section
+    // header), keys and sub keys of k=v values
+    private final ByteTable sections = new ByteTable();
+    private final ByteTable keys = new ByteTable();
+    private final ByteTable subKeys = new ByteTable();
+    private int ratioKey = -1;
+
+    // section/key/sub key -> metric id, or REJECTED
+    private long[] slots = new long[256];
+    private int[] slotIds = new int[256];
+    private int slotCount;
+
+    private final Map<String, Integer> ids = new HashMap<String, Integer>();
+    private String[] names = new String[64];
+    private long[] values = new long[64];
+    private int[] generations = new int[64];
+    private int metricCount;
+    private int generation;
 
     public RedisInfoParser() {
-
+        this(DEFAULT_WHITE_LIST, DEFAULT_MAX_METRICS);
     }
 
-    public Map<String, Long> parse(Reader inReader) throws Exception {
-
-        final Map<String, Long> metrics = new HashMap<String, Long>();
-        BufferedReader reader = null;
-
-        try {
-            reader = new BufferedReader(inReader);
-
-            List<StatsSection> sections = new ArrayList<StatsSection>();
+    public RedisInfoParser(String whiteList, int maxMetrics) {
+        sections.intern("");
+        ratioKey = keys.intern("mem_fragmentation_ratio");
+        this.maxMetrics = maxMetrics;
+        setWhiteList(whiteList);
+    }
 
-            boolean stop = false;
-            while (!stop) {
-                StatsSection section = new StatsSection(reader, RuleIter);
-                section.initSection();
+    /**
+     * Replace the white list. Metrics that are no longer white listed are not reported anymore, but keep their ids.
+     *
+     * @param spec
+     *            <code>section:glob,glob;section:glob</code>; the section is a glob too and defaults to *
+     */
+    public void setWhiteList(String spec) {
+        if (spec.equals(whiteListSpec)) {
+            return;
+        }
 
-                if (section.isEmpty()) {
-                    stop = true;
-                    break;
+        whiteList.clear();
+        for (String entry : spec.split(";")) {
+            entry = entry.trim();
+            if (entry.isEmpty()) {
+                continue;
+            }
+            int sep = entry.indexOf(':');
+            Pattern section = glob(sep < 0 ? "*" : entry.substring(0, sep).trim());
+            for (String key : entry.substring(sep + 1).split(",")) {
+                if (!key.trim().isEmpty()) {
+                    whiteList.add(new Pattern[] { section, glob(key.trim()) });
                 }
+            }
+        }
+        whiteListSpec = spec;
 
-                section.parseSectionData();
+        // decide again on everything seen so far
+        Arrays.fill(slots, 0);
+        slotCount = 0;
+    }
 
-                if (section.data.isEmpty()) {
-                    continue;
-                }
+    public void setMaxMetrics(int maxMetrics) {
+        if (maxMetrics != this.maxMetrics) {
+            this.maxMetrics = maxMetrics;
+            Arrays.fill(slots, 0);
+            slotCount = 0;
+        }
+    }
 
-                sections.add(section);
+    /**
+     * @return the number of distinct metrics dropped because the maximum number of metrics was reached
+     */
+    public long getOverflowCount() {
+        return overflowCount;
+    }
+
+    /**
+     * Parse an INFO reply.
+     *
+     * @param info
+     *            the raw INFO reply
+     * @param offset
+     *            the offset of the reply in the buffer
+     * @param length
+     *            the length of the reply
+     * @return the number of metrics found
+     */
+    public int parse(byte[] info, int offset, int length) {
+        generation++;
+        int found = 0;
+        int section = 0;
+        boolean inSection = false;
+
+        int end = offset + length;
+        int pos = offset;
+        while (pos < end) {
+            int lineEnd = indexOf(info, (byte) '\n', pos, end);
+            int from = pos;
+            int to = lineEnd;
+            pos = lineEnd + 1;
+
+            while (from < to && isSpace(info[from])) {
+                from++;
+            }
+            while (to > from && isSpace(info[to - 1])) {
+                to--;
             }
 
-            for (StatsSection section : sections) {
-                metrics.putAll(section.getMetrics());
+            if (from == to) {
+                // a blank line ends the section
+                inSection = false;
+            } else if (info[from] == '#') {
+                section = sectionOf(info, from + 1, to);
+                inSection = true;
+            } else if (inSection) {
+                found += parseLine(info, from, to, section);
             }
+        }
+        return found;
+    }
 
-        } finally {
-            if (reader != null) {
-                reader.close();
+    public int parse(byte[] info) {
+        return parse(info, 0, info.length);
+    }
+
+    /**
+     * Parse an INFO reply and return the metrics found as a map.
+     */
+    public Map<String, Long> parse(Reader inReader) throws Exception {
+        StringBuilder sb = new StringBuilder();
+        char[] buffer = new char[4096];
+        try {
+            int read;
+            while ((read = inReader.read(buffer)) != -1) {
+                sb.append(buffer, 0, read);
             }
+        } finally {
+            inReader.close();
         }
+        parse(sb.toString().getBytes(StandardCharsets.UTF_8));
+        return asMap();
+    }
 
+    /**
+     * @return the metrics found by the last parse, keyed by name
+     */
+    public Map<String, Long> asMap() {
+        Map<String, Long> metrics = new HashMap<String, Long>();
+        for (int id = 0; id < metricCount; id++) {
+            if (isPresent(id)) {
+                metrics.put(names[id], values[id]);
+            }
+        }
         return metrics;
     }
 
-    private class StatsSection {
+    /**
+     * @return the number of metric ids assigned so far
+     */
+    public int getMetricCount() {
+        return metricCount;
+    }
 
-        private final BufferedReader reader;
+    /**
+     * @return true if the metric was found by the last parse
+     */
+    public boolean isPresent(int id) {
+        return generations[id] == generation;
+    }
 
-        private String sectionName;
-        private String sectionNamePrefix = "Redis_";
+    public String getName(int id) {
+        return names[id];
+    }
+
+    public long getValue(int id) {
+        return values[id];
+    }
 
-        private final Map<String, Long> data = new HashMap<String, Long>();
-        private final SectionRule sectionRule;
+    /**
+     * @return the id of the metric with the given name, or -1 if it has not been seen
+     */
+    public int getMetricId(String name) {
+        Integer id = ids.get(name);
+        return id == null ? -1 : id;
+    }
 
-        private StatsSection(BufferedReader br, SectionRule rule) {
-            reader = br;
-            sectionRule = rule;
+    private int parseLine(byte[] info, int from, int to, int section) {
+        int colon = indexOf(info, (byte) ':', from, to);
+        if (colon == to || colon == from || indexOf(info, (byte) ':', colon + 1, to) != to) {
+            return 0;
         }
 
-        private boolean isEmpty() {
-            return sectionName == null && data.isEmpty();
+        int key = keys.intern(info, from, colon);
+        int valueFrom = colon + 1;
+        int valueTo = to;
+
+        if (indexOf(info, (byte) '=', valueFrom, valueTo) != valueTo) {
+            return parsePairs(info, valueFrom, valueTo, section, key);
         }
 
-        private void initSection() throws Exception {
+        int id = metricId(section, key, -1);
+        if (id < 0) {
+            return 0;
+        }
 
-            String line = null;
+        if (valueTo > valueFrom && info[valueTo - 1] == 'M') {
+            valueTo--;
+        }
 
-            while ((line = reader.readLine()) != null) {
-                line = line.trim();
-                if (!line.startsWith("#")) {
-                    continue;
-                } else {
-                    break;
-                }
+        long value;
+        if (key == ratioKey) {
+            value = parseScaled(info, valueFrom, valueTo, 100);
+        } else {
+            value = parseScaled(info, valueFrom, valueTo, 1);
+            if (value == NOT_A_NUMBER && keys.nameAt(key).endsWith("_status")) {
+                value = equalsIgnoreCase(info, valueFrom, valueTo, "ok") ? 1L : 0L;
             }
+        }
 
-            if (line == null) {
-                return;
-            }
+        if (value == NOT_A_NUMBER) {
+            return 0;
+        }
+        record(id, value);
+        return 1;
+    }
 
-            sectionName = readSectionName(line);
-            if (sectionName != null && !sectionName.isEmpty()) {
-                sectionNamePrefix = "Redis_" + sectionName + "_";
+    private int parsePairs(byte[] info, int from, int to, int section, int key) {
+        int found = 0;
+        int pos = from;
+        while (pos < to) {
+            int pairEnd = indexOf(info, (byte) ',', pos, to);
+            int eq = indexOf(info, (byte) '=', pos, pairEnd);
+            if (eq > pos && eq < pairEnd && indexOf(info, (byte) '=', eq + 1, pairEnd) == pairEnd) {
+                int id = metricId(section, key, subKeys.intern(info, pos, eq));
+                if (id >= 0) {
+                    long value = parseScaled(info, eq + 1, pairEnd, 1);
+                    if (value != NOT_A_NUMBER) {
+                        record(id, value);
+                        found++;
+                    }
+                }
             }
+            pos = pairEnd + 1;
         }
+        return found;
+    }
 
-        private void parseSectionData() throws Exception {
-
-            String line = reader.readLine();
+    private void record(int id, long value) {
+        values[id] = value;
+        generations[id] = generation;
+    }
 
-            while (line != null && !line.isEmpty()) {
-                processLine(line.trim());
-                line = reader.readLine();
-            }
+    private int sectionOf(byte[] info, int from, int to) {
+        // "# Server" -> "Server"; anything else is not a section name
+        if (from >= to || info[from] != ' ') {
+            return 0;
+        }
+        from++;
+        if (from == to || indexOf(info, (byte) ' ', from, to) != to) {
+            return 0;
         }
+        return sections.intern(info, from, to);
+    }
 
-        private String readSectionName(String line) {
-            String[] parts = line.split(" ");
-            if (parts.length != 2) {
-                return null;
+    private int metricId(int section, int key, int subKey) {
+        long slot = ((long) section << 42) | ((long) key << 21) | (subKey + 1);
+        int mask = slots.length - 1;
+        int i = slotIndex(slot, mask);
+        while (slots[i] != 0) {
+            if (slots[i] == slot) {
+                return slotIds[i];
             }
-            return parts[1];
+            i = (i + 1) & mask;
         }
 
-        private void processLine(String line) throws Exception {
+        int id = decide(section, key, subKey);
+        slots[i] = slot;
+        slotIds[i] = id;
+        if (++slotCount * 2 > slots.length) {
+            rehash();
+        }
+        return id;
+    }
 
-            String[] parts = line.split(":");
-            if (parts.length != 2) {
-                return;
+    /**
+     * Match a section/key pair seen for the first time against the white list, and intern it if it is kept.
+     */
+    private int decide(int section, int key, int subKey) {
+        String sectionName = sections.nameAt(section);
+        String keyName = subKey < 0 ? keys.nameAt(key) : keys.nameAt(key) + "." + subKeys.nameAt(subKey);
+
+        boolean whiteListed = false;
+        for (Pattern[] rule : whiteList) {
+            if (rule[0].matcher(sectionName).matches() && rule[1].matcher(keyName).matches()) {
+                whiteListed = true;
+                break;
             }
-            String name = parts[0];
-            String sVal = parts[1];
+        }
+        if (!whiteListed) {
+            return REJECTED;
+        }
 
-            // while list filtering
-            if (!WHITE_LIST.contains(name))
-                return;
+        StringBuilder sb = new StringBuilder("Redis_");
+        if (section != 0) {
+            sb.append(sectionName).append('_');
+        }
+        sb.append(keys.nameAt(key));
+        if (subKey >= 0) {
+            sb.append('_').append(subKeys.nameAt(subKey));
+        }
+        String name = sb.toString();
 
-            if (sVal.endsWith("M")) {
-                sVal = sVal.substring(0, sVal.length() - 1);
-            }
+        Integer existing = ids.get(name);
+        if (existing != null) {
+            return existing;
+        }
+        if (metricCount >= maxMetrics) {
+            overflowCount++;
+            return REJECTED;
+        }
 
-            if (sectionRule.processSection(this, name, sVal)) {
-                return; // rule already applied. data is processed with custom
-                        // logic
-            }
+        int id = metricCount++;
+        if (id == names.length) {
+            names = Arrays.copyOf(names, id * 2);
+            values = Arrays.copyOf(values, id * 2);
+            generations = Arrays.copyOf(generations, id * 2);
+        }
+        names[id] = name;
+        ids.put(name, id);
+        return id;
+    }
 
-            // else do generic rule processing
-            Double val = null;
-            try {
-                val = Double.parseDouble(sVal);
-            } catch (NumberFormatException nfe) {
-                val = null;
+    private void rehash() {
+        long[] oldSlots = slots;
+        int[] oldIds = slotIds;
+        slots = new long[oldSlots.length * 2];
+        slotIds = new int[oldSlots.length * 2];
+        int mask = slots.length - 1;
+        for (int j = 0; j < oldSlots.length; j++) {
+            long slot = oldSlots[j];
+            if (slot == 0) {
+                continue;
             }
-
-            if (val != null) {
-                data.put(name, val.longValue());
+            int i = slotIndex(slot, mask);
+            while (slots[i] != 0) {
+                i = (i + 1) & mask;
             }
+            slots[i] = slot;
+            slotIds[i] = oldIds[j];
         }
+    }
 
-        private Map<String, Long> getMetrics() {
+    private static int slotIndex(long slot, int mask) {
+        return ((int) (slot ^ (slot >>> 21) ^ (slot >>> 42)) * 0x9E3779B9 >>> 1) & mask;
+    }
 
-            Map<String, Long> map = new HashMap<String, Long>();
-            for (String key : data.keySet()) {
-                map.put(sectionNamePrefix + key, data.get(key));
+    /**
+     * @return a case insensitive pattern for a glob where * matches any characters and ? a single one
+     */
+    public static Pattern glob(String glob) {
+        StringBuilder regex = new StringBuilder();
+        for (char c : glob.toCharArray()) {
+            if (c == '*') {
+                regex.append(".*");
+            } else if (c == '?') {
+                regex.append('.');
+            } else {
+                regex.append(Pattern.quote(String.valueOf(c)));
             }
-            return map;
         }
-
+        return Pattern.compile(regex.toString(), Pattern.CASE_INSENSITIVE);
     }
 
-    private interface SectionRule {
-        boolean processSection(StatsSection section, String key, String value);
-    }
-
-    private SectionRule Rule0 = new SectionRule() {
-
-        @Override
-        public boolean processSection(StatsSection section, String key, String value) {
+    /**
+     * Parse a decimal number and scale it, truncating what is left of the fraction.
+     */
+    private static long parseScaled(byte[] info, int from, int to, int scale) {
+        int i = from;
+        boolean negative = false;
+        if (i < to && (info[i] == '-' || info[i] == '+')) {
+            negative = info[i] == '-';
+            i++;
+        }
 
-            if (section.sectionName.equals("Server")) {
-                if (key.equals("uptime_in_seconds")) {
-                    try {
-                        Double dVal = Double.parseDouble(value);
-                        section.data.put(key, dVal.longValue());
-                        return true;
-                    } catch (NumberFormatException e) {
+        long mantissa = 0;
+        int digits = 0;
+        int fractionDigits = -1;
+        for (; i < to; i++) {
+            byte b = info[i];
+            if (b >= '0' && b <= '9') {
+                if (digits == 18) {
+                    // out of precision, ignore the remaining fraction digits
+                    if (fractionDigits < 0) {
+                        return NOT_A_NUMBER;
                     }
+                    continue;
+                }
+                mantissa = mantissa * 10 + (b - '0');
+                digits++;
+                if (fractionDigits >= 0) {
+                    fractionDigits++;
                 }
+            } else if (b == '.' && fractionDigits < 0) {
+                fractionDigits = 0;
+            } else {
+                return NOT_A_NUMBER;
             }
-            return false;
+        }
+        if (digits == 0) {
+            return NOT_A_NUMBER;
         }
 
-    };
+        long value;
+        if (fractionDigits <= 0) {
+            value = mantissa * scale;
+        } else if (fractionDigits < POW10.length) {
+            value = (long) ((double) mantissa * scale / POW10[fractionDigits]);
+        } else {
+            value = (long) (mantissa * scale / Math.pow(10, fractionDigits));
+        }
+        return negative ? -value : value;
+    }
 
-    private SectionRule Rule1 = new SectionRule() {
+    private static int indexOf(byte[] info, byte b, int from, int to) {
+        for (int i = from; i < to; i++) {
+            if (info[i] == b) {
+                return i;
+            }
+        }
+        return to;
+    }
 
-        @Override
-        public boolean processSection(StatsSection section, String key, String value) {
+    private static boolean isSpace(byte b) {
+        return b == ' ' || b == '\t' || b == '\r' || b == '\n';
+    }
 
-            if (section.sectionName.equals("Memory")) {
-                if (key.equals("mem_fragmentation_ratio")) {
-                    try {
-                        Double dVal = Double.parseDouble(value);
-                        dVal = dVal * 100;
-                        section.data.put(key, dVal.longValue());
-                        return true;
-                    } catch (NumberFormatException e) {
-                    }
-                }
-            }
+    private static boolean equalsIgnoreCase(byte[] info, int from, int to, String s) {
+        if (to - from != s.length()) {
             return false;
         }
+        for (int i = 0; i < s.length(); i++) {
+            if (Character.toLowerCase((char) info[from + i]) != Character.toLowerCase(s.charAt(i))) {
+                return false;
+            }
+        }
+        return true;
+    }
 
-    };
-
-    private SectionRule Rule2 = new SectionRule() {
+    /**
+     * Interns names into dense indexes, looked up straight from a byte range.
+     */
+    static final class ByteTable {
+        private byte[][] table = new byte[64][];
+        private int[] tableIndexes = new int[64];
+        private String[] names = new String[32];
+        private int size;
 
-        @Override
-        public boolean processSection(StatsSection section, String key, String value) {
+        /**
+         * @return the index of the name, interning it if it is new
+         */
+        int intern(byte[] buf, int from, int to) {
+            int i = find(buf, from, to);
+            if (table[i] != null) {
+                return tableIndexes[i];
+            }
+            return add(i, Arrays.copyOfRange(buf, from, to));
+        }
 
-            if (section.sectionName.equals("Persistence")) {
-                if (key.equals("rdb_last_bgsave_status") || key.equals("aof_last_bgrewrite_status")
-                        || key.equals("aof_last_write_status")) {
-                    Long val = value.equalsIgnoreCase("ok") ? 1L : 0L;
-                    section.data.put(key, val);
-                    return true;
-                }
+        int intern(String name) {
+            byte[] key = name.getBytes(StandardCharsets.UTF_8);
+            int i = find(key, 0, key.length);
+            if (table[i] != null) {
+                return tableIndexes[i];
             }
-            return false;
+            return add(i, key);
         }
 
-    };
+        String nameAt(int index) {
+            return names[index];
+        }
 
-    private SectionRule Rule3 = new SectionRule() {
+        private int add(int i, byte[] key) {
+            int index = size++;
+            table[i] = key;
+            tableIndexes[i] = index;
+            if (index == names.length) {
+                names = Arrays.copyOf(names, index * 2);
+            }
+            names[index] = new String(key, StandardCharsets.UTF_8);
+            if (size * 2 > table.length) {
+                grow();
+            }
+            return index;
+        }
 
-        @Override
-        public boolean processSection(StatsSection section, String key, String value) {
+        private int find(byte[] buf, int from, int to) {
+            int mask = table.length - 1;
+            int i = hash(buf, from, to) & mask;
+            while (table[i] != null && !equals(table[i], buf, from, to)) {
+                i = (i + 1) & mask;
+            }
+            return i;
+        }
 
-            if (section.sectionName.equals("Keyspace")) {
-                if (key.equals("db0")) {
-                    String[] parts = value.split(",");
-                    for (String part : parts) {
-                        addPart(key, part, section);
-                    }
-                    return true;
+        private void grow() {
+            byte[][] oldTable = table;
+            int[] oldIndexes = tableIndexes;
+            table = new byte[oldTable.length * 2][];
+            tableIndexes = new int[oldTable.length * 2];
+            for (int j = 0; j < oldTable.length; j++) {
+                if (oldTable[j] != null) {
+                    int i = find(oldTable[j], 0, oldTable[j].length);
+                    table[i] = oldTable[j];
+                    tableIndexes[i] = oldIndexes[j];
                 }
             }
-            return false;
         }
 
-        private void addPart(String parentKey, String keyVal, StatsSection section) {
-            String[] parts = keyVal.split("=");
-            if (parts.length != 2) {
-                return;
-            }
-            try {
-                String key = parentKey + "_" + parts[0];
-                Double dVal = Double.parseDouble(parts[1]);
-                section.data.put(key, dVal.longValue());
-            } catch (NumberFormatException e) {
-                // ignore
+        private static int hash(byte[] buf, int from, int to) {
+            // FNV-1a
+            int h = 0x811c9dc5;
+            for (int i = from; i < to; i++) {
+                h ^= buf[i];
+                h *= 0x01000193;
             }
+            return h ^ (h >>> 16);
         }
-    };
-
-    private SectionRule RuleIter = new SectionRule() {
-
-        SectionRule[] arr = { Rule0, Rule1, Rule2, Rule3 };
-        final List<SectionRule> rules = Arrays.asList(arr);
 
-        @Override
-        public boolean processSection(StatsSection section, String key, String value) {
-
-            for (SectionRule rule : rules) {
-                if (rule.processSection(section, key, value)) {
-                    return true;
+        private static boolean equals(byte[] key, byte[] buf, int from, int to) {
+            if (key.length != to - from) {
+                return false;
+            }
+            for (int i = 0; i < key.length; i++) {
+                if (key[i] != buf[from + i]) {
+                    return false;
                 }
             }
-            return false;
+            return true;
         }
-    };
-
-    public static void main(String[] args) throws FileNotFoundException, Exception {
-
-        File file = new File("./src/test/resources/redis_info.txt");
-
-        RedisInfoParser parser = new RedisInfoParser();
-        Map<String, Long> metrics = parser.parse(new FileReader(file));
-
-        Iterator iter = metrics.keySet().iterator();
-        while (iter.hasNext()) {
-            String key = (String) iter.next();
-            Long value = metrics.get(key);
-            System.out.println("Key: " + key + ", value: " + value);
-        }
-
-        Assert.assertTrue(metrics.get("Redis_Server_uptime_in_seconds") == 1234L);
-        Assert.assertTrue(metrics.get("Redis_Clients_connected_clients") == 4L);
-        Assert.assertTrue(metrics.get("Redis_Clients_client_longest_output_list") == 0L);
-        Assert.assertTrue(metrics.get("Redis_Clients_client_biggest_input_buf") == 0L);
-        Assert.assertTrue(metrics.get("Redis_Clients_blocked_clients") == 0L);
-        Assert.assertTrue(metrics.get("Redis_Memory_used_memory") == 314569968L);
-        // Assert.assertTrue(metrics.get("Redis_Memory_used_memory_human") ==
-        // 300L);
-        // Assert.assertTrue(metrics.get("Redis_Memory_used_memory_rss") ==
-        // 328806400L);
-        // Assert.assertTrue(metrics.get("Redis_Memory_used_memory_peak") ==
-        // 314569968L);
-        // Assert.assertTrue(metrics.get("Redis_Memory_used_memory_peak_human")
-        // == 300L);
-        // Assert.assertTrue(metrics.get("Redis_Memory_used_memory_lua") ==
-        // 33792L);
-        Assert.assertTrue(metrics.get("Redis_Memory_mem_fragmentation_ratio") == 105L);
-        // Assert.assertTrue(metrics.get("Redis_Persistence_loading") == 0L);
-        // Assert.assertTrue(metrics.get("Redis_Persistence_rdb_changes_since_last_save")
-        // == 53046299L);
-        // Assert.assertTrue(metrics.get("Redis_Persistence_rdb_bgsave_in_progress")
-        // == 0L);
-        Assert.assertTrue(metrics.get("Redis_Persistence_rdb_last_save_time") == 1411544331L);
-        // Assert.assertTrue(metrics.get("Redis_Persistence_rdb_last_bgsave_status")
-        // == 1L);
-        // Assert.assertTrue(metrics.get("Redis_Persistence_rdb_last_bgsave_time_sec")
-        // == -1L);
-        // Assert.assertTrue(metrics.get("Redis_Persistence_rdb_current_bgsave_time_sec")
-        // == -1L);
-        Assert.assertTrue(metrics.get("Redis_Persistence_aof_enabled") == 0L);
-        Assert.assertTrue(metrics.get("Redis_Persistence_aof_rewrite_in_progress") == 0L);
-        // Assert.assertTrue(metrics.get("Redis_Persistence_aof_rewrite_scheduled")
-        // == 0L);
-        // Assert.assertTrue(metrics.get("Redis_Persistence_aof_last_rewrite_time_sec")
-        // == -1L);
-        // Assert.assertTrue(metrics.get("Redis_Persistence_aof_current_rewrite_time_sec")
-        // == -1L);
-        // Assert.assertTrue(metrics.get("Redis_Persistence_aof_last_bgrewrite_status")
-        // == 1L);
-        // Assert.assertTrue(metrics.get("Redis_Persistence_aof_last_write_status")
-        // == 1L);
-        Assert.assertTrue(metrics.get("Redis_Stats_total_connections_received") == 3995L);
-        Assert.assertTrue(metrics.get("Redis_Stats_total_commands_processed") == 94308679L);
-        Assert.assertTrue(metrics.get("Redis_Stats_instantaneous_ops_per_sec") == 6321L);
-        Assert.assertTrue(metrics.get("Redis_Stats_rejected_connections") == 0L);
-        // Assert.assertTrue(metrics.get("Redis_Stats_sync_full") == 0L);
-        // Assert.assertTrue(metrics.get("Redis_Stats_sync_partial_ok") == 0L);
-        // Assert.assertTrue(metrics.get("Redis_Stats_sync_partial_err") == 0L);
-        Assert.assertTrue(metrics.get("Redis_Stats_expired_keys") == 0L);
-        Assert.assertTrue(metrics.get("Redis_Stats_evicted_keys") == 0L);
-        Assert.assertTrue(metrics.get("Redis_Stats_keyspace_hits") == 41254397L);
-        Assert.assertTrue(metrics.get("Redis_Stats_keyspace_misses") == 0L);
-        Assert.assertTrue(metrics.get("Redis_percent_hits") == 100L);
-        // Assert.assertTrue(metrics.get("Redis_Stats_pubsub_channels") == 0L);
-        // Assert.assertTrue(metrics.get("Redis_Stats_pubsub_patterns") == 0L);
-        // Assert.assertTrue(metrics.get("Redis_Stats_latest_fork_usec") == 0L);
-        // Assert.assertTrue(metrics.get("Redis_Replication_connected_slaves")
-        // == 0L);
-        // Assert.assertTrue(metrics.get("Redis_Replication_master_repl_offset")
-        // == 0L);
-        // Assert.assertTrue(metrics.get("Redis_Replication_repl_backlog_active")
-        // == 0L);
-        // Assert.assertTrue(metrics.get("Redis_Replication_repl_backlog_size")
-        // == 1048576L);
-        // Assert.assertTrue(metrics.get("Redis_Replication_repl_backlog_first_byte_offset")
-        // == 0L);
-        // Assert.assertTrue(metrics.get("Redis_Replication_repl_backlog_histlen")
-        // == 0L);
-        Assert.assertTrue(metrics.get("Redis_CPU_used_cpu_sys") == 2052L);
-        Assert.assertTrue(metrics.get("Redis_CPU_used_cpu_user") == 793L);
-        // Assert.assertTrue(metrics.get("Redis_CPU_used_cpu_sys_children") ==
-        // 0L);
-        // Assert.assertTrue(metrics.get("Redis_CPU_used_cpu_user_children") ==
-        // 0L);
-        Assert.assertTrue(metrics.get("Redis_Keyspace_db0_keys") == 2499968L);
-        Assert.assertTrue(metrics.get("Redis_Keyspace_db0_expires") == 0L);
-        Assert.assertTrue(metrics.get("Redis_Keyspace_db0_avg_ttl") == 0L);
     }
 }
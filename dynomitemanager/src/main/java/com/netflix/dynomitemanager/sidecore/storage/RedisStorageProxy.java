@@ -16,8 +16,16 @@ import com.google.common.base.Charsets;
 import com.google.common.base.Splitter;
 import com.google.inject.Inject;
 import com.google.inject.Singleton;
+import com.netflix.config.DynamicIntProperty;
+import com.netflix.config.DynamicPropertyFactory;
 import com.netflix.dynomitemanager.defaultimpl.IConfiguration;
+import com.netflix.dynomitemanager.monitoring.SampledGauge;
+import com.netflix.dynomitemanager.sidecore.scheduler.NamedThreadPoolExecutor;
+import com.netflix.dynomitemanager.sidecore.storage.StorageConnectionManager.JedisCommand;
 import com.netflix.dynomitemanager.sidecore.utils.Sleeper;
+import com.netflix.servo.DefaultMonitorRegistry;
+import com.netflix.servo.monitor.Counter;
+import com.netflix.servo.monitor.Monitors;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -30,18 +38,21 @@ import static java.nio.file.StandardCopyOption.COPY_ATTRIBUTES;
 import static java.nio.file.StandardOpenOption.TRUNCATE_EXISTING;
 import static java.nio.file.StandardOpenOption.WRITE;
 
-import java.io.ByteArrayInputStream;
 import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.IOException;
-import java.io.InputStreamReader;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
-import java.util.Iterator;
+import java.util.ArrayList;
 import java.util.List;
-import java.util.Map;
 import java.util.Scanner;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -70,7 +81,28 @@ public class RedisStorageProxy implements IStorageProxy {
 
     private static final Logger logger = LoggerFactory.getLogger(RedisStorageProxy.class);
 
-    private Jedis localJedis;
+    private static final DynamicIntProperty probeTimeoutMs = DynamicPropertyFactory.getInstance()
+	    .getIntProperty("florida.storage.warmup.probe.timeout.ms", 3000);
+
+    private static final DynamicIntProperty minPollMs = DynamicPropertyFactory.getInstance()
+	    .getIntProperty("florida.storage.warmup.poll.min.ms", 1000);
+
+    private static final DynamicIntProperty maxPollMs = DynamicPropertyFactory.getInstance()
+	    .getIntProperty("florida.storage.warmup.poll.max.ms", 10000);
+
+    private static final DynamicIntProperty notConvergingSamples = DynamicPropertyFactory.getInstance()
+	    .getIntProperty("florida.storage.warmup.not.converging.samples", 6);
+
+    private static final DynamicIntProperty snapshotInitialPollMs = DynamicPropertyFactory.getInstance()
+	    .getIntProperty("florida.storage.snapshot.poll.initial.ms", 250);
+
+    private static final DynamicIntProperty snapshotMaxPollMs = DynamicPropertyFactory.getInstance()
+	    .getIntProperty("florida.storage.snapshot.poll.max.ms", 5000);
+
+    private static final DynamicIntProperty snapshotTimeoutMs = DynamicPropertyFactory.getInstance()
+	    .getIntProperty("florida.storage.snapshot.timeout.ms", 600000);
+
+    private static final String SNAPSHOT_METRIC_PREFIX = "dynomitemanager__snapshot__";
 
     @Inject
     private IConfiguration config;
@@ -78,29 +110,40 @@ public class RedisStorageProxy implements IStorageProxy {
     @Inject
     private Sleeper sleeper;
 
-    public RedisStorageProxy() {
-	// connect();
-    }
+    @Inject
+    private StorageConnectionManager connectionManager;
 
-    /**
-     * A wrapper function around JedisUtils to connect to Redis
-     */
-    private void localRedisConnect() {
-	if (this.localJedis == null) {
-	    logger.info("Connecting to Redis.");
-	    this.localJedis = JedisUtils.connect(REDIS_ADDRESS, REDIS_PORT);
-	}
-    }
-    
-    /**
-     * A wrapper function around JedisUtils to disconnect from Redis
-     */
-    private void localRedisDisconnect() {
-        if (this.localJedis != null) {
-            logger.info("Disconnecting from Redis.");
-            this.localJedis.disconnect();
-            this.localJedis = null;
-        }
+    @Inject
+    private WarmupProgress warmupProgress;
+
+    @Inject
+    private InfoSampler infoSampler;
+
+    private final Counter snapshotFailures = Monitors.newCounter(SNAPSHOT_METRIC_PREFIX + "failures");
+    private volatile long lastForkUsec;
+    private volatile long lastSnapshotDurationMs;
+    private volatile long lastSnapshotBytes;
+
+    public RedisStorageProxy() {
+	DefaultMonitorRegistry.getInstance().register(snapshotFailures);
+	DefaultMonitorRegistry.getInstance().register(new SampledGauge(SNAPSHOT_METRIC_PREFIX + "fork_usec") {
+	    @Override
+	    protected long sample() {
+		return lastForkUsec;
+	    }
+	});
+	DefaultMonitorRegistry.getInstance().register(new SampledGauge(SNAPSHOT_METRIC_PREFIX + "duration_ms") {
+	    @Override
+	    protected long sample() {
+		return lastSnapshotDurationMs;
+	    }
+	});
+	DefaultMonitorRegistry.getInstance().register(new SampledGauge(SNAPSHOT_METRIC_PREFIX + "bytes") {
+	    @Override
+	    protected long sample() {
+		return lastSnapshotBytes;
+	    }
+	});
     }
 
     /**
@@ -112,18 +155,22 @@ public class RedisStorageProxy implements IStorageProxy {
      * @param peer
      *            port
      */
-    private void startPeerSync(String peer, int port) {
+    private void startPeerSync(final String peer, final int port) {
 	boolean isDone = false;
-	localRedisConnect();
 
 	while (!isDone) {
 	    try {
 		// only sync from one peer for now
-		isDone = (this.localJedis.slaveof(peer, port) != null);
-		sleeper.sleepQuietly(1000);
+		isDone = (connectionManager.execute(new JedisCommand<String>() {
+		    @Override
+		    public String execute(Jedis jedis) {
+			return jedis.slaveof(peer, port);
+		    }
+		}) != null);
 	    } catch (Exception e) {
-	        localRedisConnect();
+		logger.error("Error in SLAVEOF " + peer + ": " + e.getMessage());
 	    }
+	    sleeper.sleepQuietly(1000);
 	}
     }
 
@@ -138,17 +185,18 @@ public class RedisStorageProxy implements IStorageProxy {
 	while (!isDone) {
 	    logger.info("calling SLAVEOF NO ONE");
 	    try {
-		isDone = (this.localJedis.slaveofNoOne() != null);
-		sleeper.sleepQuietly(1000);
+		isDone = (connectionManager.execute(new JedisCommand<String>() {
+		    @Override
+		    public String execute(Jedis jedis) {
+			return jedis.slaveofNoOne();
+		    }
+		}) != null);
 	    } catch (JedisConnectionException e) {
 		logger.error("JedisConnection Exception in SLAVEOF NO ONE: " + e.getMessage());
-                localRedisDisconnect();
-		localRedisConnect();
 	    } catch (Exception e) {
 		logger.error("Error: " + e.getMessage());
-                localRedisDisconnect();
-		localRedisConnect();
 	    }
+	    sleeper.sleepQuietly(1000);
 	}
     }
 
@@ -164,16 +212,20 @@ public class RedisStorageProxy implements IStorageProxy {
 
     @Override
     public boolean takeSnapshot() {
-	localRedisConnect();
+	long startTime = System.currentTimeMillis();
 	try {
-	    if (config.isRedisAofEnabled()) {
-		logger.info("starting Redis BGREWRITEAOF");
-		this.localJedis.bgrewriteaof();
-	    } else {
-		logger.info("starting Redis BGSAVE");
-		this.localJedis.bgsave();
-
-	    }
+	    connectionManager.execute(new JedisCommand<String>() {
+		@Override
+		public String execute(Jedis jedis) {
+		    if (config.isRedisAofEnabled()) {
+			logger.info("starting Redis BGREWRITEAOF");
+			return jedis.bgrewriteaof();
+		    } else {
+			logger.info("starting Redis BGSAVE");
+			return jedis.bgsave();
+		    }
+		}
+	    });
 	    /*
 	     * We want to check if a bgrewriteaof was already scheduled or it
 	     * has started. If a bgrewriteaof was already scheduled then we
@@ -195,74 +247,84 @@ public class RedisStorageProxy implements IStorageProxy {
 	    logger.warn("Redis: There is already a pending BGREWRITEAOF/BGSAVE.");
 	}
 
-	String peerRedisInfo = null;
-	int retry = 0;
+	// BGREWRITEAOF may only be scheduled if a BGSAVE is running, so it is
+	// not done until it is neither scheduled nor in progress.
+	final boolean aof = config.isRedisAofEnabled();
+	long pollMs = snapshotInitialPollMs.get();
+	long deadline = startTime + snapshotTimeoutMs.get();
 
 	try {
 	    while (true) {
-		peerRedisInfo = this.localJedis.info();
-		Iterable<String> result = Splitter.on('\n').split(peerRedisInfo);
-		String pendingPersistence = null;
-
-		for (String line : result) {
-		    if ((line.startsWith("aof_rewrite_in_progress") && config.isRedisAofEnabled())
-			    || (line.startsWith("rdb_bgsave_in_progress") && !config.isRedisAofEnabled())) {
-			String[] items = line.split(":");
-			pendingPersistence = items[1].trim();
-			if (pendingPersistence.equals("0")) {
-			    logger.info("Redis: BGREWRITEAOF/BGSAVE completed.");
-			    return true;
-			} else {
-			    retry++;
-			    logger.warn("Redis: BGREWRITEAOF/BGSAVE pending. Sleeping 30 secs...");
-			    sleeper.sleepQuietly(30000);
-
-			    if (retry > 20) {
-				return false;
-			    }
-			}
+		InfoSampler.Snapshot persistence = infoSampler.get("persistence", 0);
+		String inProgress = persistence.get(aof ? "aof_rewrite_in_progress" : "rdb_bgsave_in_progress");
+		if (inProgress == null) {
+		    logger.error("Redis: INFO persistence does not report the BGREWRITEAOF/BGSAVE progress");
+		    break;
+		}
+
+		if (inProgress.equals("0") && !(aof && "1".equals(persistence.get("aof_rewrite_scheduled")))) {
+		    String status = persistence.get(aof ? "aof_last_bgrewrite_status" : "rdb_last_bgsave_status");
+		    if (!"ok".equals(status)) {
+			logger.error("Redis: BGREWRITEAOF/BGSAVE failed with status " + status);
+			break;
 		    }
+		    recordSnapshot(startTime, persistence);
+		    logger.info("Redis: BGREWRITEAOF/BGSAVE completed in " + lastSnapshotDurationMs + " ms, fork took "
+			    + lastForkUsec + " usec, " + lastSnapshotBytes + " bytes on disk.");
+		    return true;
 		}
+
+		if (System.currentTimeMillis() + pollMs > deadline) {
+		    logger.error("Redis: BGREWRITEAOF/BGSAVE still pending after " + snapshotTimeoutMs.get() + " ms");
+		    break;
+		}
+		logger.debug("Redis: BGREWRITEAOF/BGSAVE pending. Sleeping " + pollMs + " ms...");
+		sleeper.sleepQuietly(pollMs);
+		pollMs = Math.min(pollMs * 2, snapshotMaxPollMs.get());
 	    }
 
 	} catch (JedisConnectionException e) {
 	    logger.error("Cannot connect to Redis to perform BGREWRITEAOF/BGSAVE");
 	}
 
+	snapshotFailures.increment();
 	logger.error("Redis BGREWRITEAOF/BGSAVE was not successful.");
 	return false;
 
     }
 
+    private void recordSnapshot(long startTime, InfoSampler.Snapshot persistence) {
+	lastSnapshotDurationMs = System.currentTimeMillis() - startTime;
+	try {
+	    lastForkUsec = Long.parseLong(persistence.get("latest_fork_usec"));
+	} catch (NumberFormatException e) {
+	    lastForkUsec = -1;
+	}
+	File file = new File(config.getRedisDataDir() + (config.isRedisAofEnabled() ? "/appendonly.aof" : "/nfredis.rdb"));
+	lastSnapshotBytes = file.length();
+    }
+
     @Override
     public boolean loadingData() {
-	localRedisConnect();
 	logger.info("loading AOF from the drive");
-	String peerRedisInfo = null;
 	int retry = 0;
 
 	try {
-	    peerRedisInfo = localJedis.info();
-	    Iterable<String> result = Splitter.on('\n').split(peerRedisInfo);
-	    String pendingAOF = null;
-
-	    for (String line : result) {
-		if (line.startsWith("loading")) {
-		    String[] items = line.split(":");
-		    pendingAOF = items[1].trim();
-		    if (pendingAOF.equals("0")) {
-			logger.info("Redis: memory loading completed.");
-			return true;
-		    } else {
-			retry++;
-			logger.warn("Redis: memory pending. Sleeping 30 secs...");
-			sleeper.sleepQuietly(30000);
+	    while (true) {
+		String pendingAOF = infoSampler.get("persistence", 0).get("loading");
+		if (pendingAOF == null) {
+		    break;
+		} else if (pendingAOF.equals("0")) {
+		    logger.info("Redis: memory loading completed.");
+		    return true;
+		}
 
-			if (retry > 20) {
-			    return false;
-			}
-		    }
+		retry++;
+		if (retry > 20) {
+		    return false;
 		}
+		logger.warn("Redis: memory pending. Sleeping 30 secs...");
+		sleeper.sleepQuietly(30000);
 	    }
 	} catch (JedisConnectionException e) {
 	    logger.error("Cannot connect to Redis to load the AOF");
@@ -274,117 +336,166 @@ public class RedisStorageProxy implements IStorageProxy {
 
     @Override
     public boolean isAlive() {
-	// Not using localJedis variable as it can be used by
-	// ProcessMonitorTask as well.
-	return JedisUtils.isAliveWithRetry(REDIS_ADDRESS, REDIS_PORT);
+	return connectionManager.isStorageAliveWithRetry();
     }
 
     public long getUptime() {
 	return 0;
     }
 
-    private class AlivePeer {
-	String selectedPeer;
-	Jedis selectedJedis;
-	Long upTime;
-    }
+    /**
+     * Probe all peers with the same token in parallel. Peers that do not
+     * answer before the probe deadline are left out.
+     *
+     * @param peers
+     *            the peers with the same token
+     * @return the peers that answered, best candidate first
+     */
+    private List<WarmupPeer> probePeers(String[] peers) {
+	List<Callable<WarmupPeer>> probes = new ArrayList<Callable<WarmupPeer>>();
+	for (final String peer : peers) {
+	    logger.info("Peer node [" + peer + "] has the same token!");
+	    probes.add(new Callable<WarmupPeer>() {
+		@Override
+		public WarmupPeer call() throws Exception {
+		    return probePeer(peer);
+		}
+	    });
+	}
 
-    private AlivePeer peerNodeSelection(String peer, Jedis peerJedis) {
-	AlivePeer currentAlivePeer = new AlivePeer();
-	currentAlivePeer.selectedPeer = peer;
-	currentAlivePeer.selectedJedis = peerJedis;
-	String s = peerJedis.info(); // Parsing the info command on the peer
-				     // node
-	RedisInfoParser infoParser = new RedisInfoParser();
-	InputStreamReader reader = new InputStreamReader(new ByteArrayInputStream(s.getBytes()));
+	List<WarmupPeer> alivePeers = new ArrayList<WarmupPeer>();
+	ExecutorService executor = new NamedThreadPoolExecutor(peers.length, "WarmupPeerProbe");
 	try {
-	    Map<String, Long> allInfo = infoParser.parse(reader);
-	    Iterator iter = allInfo.keySet().iterator();
-	    String key = null;
-	    boolean found = false;
-	    while (iter.hasNext()) {
-		key = (String) iter.next();
-		if (key.equals("Redis_Server_uptime_in_seconds")) {
-		    currentAlivePeer.upTime = allInfo.get(key);
-		    found = true;
-		    break;
+	    for (Future<WarmupPeer> probe : executor.invokeAll(probes, probeTimeoutMs.get(), TimeUnit.MILLISECONDS)) {
+		try {
+		    WarmupPeer alivePeer = probe.get();
+		    if (alivePeer != null) {
+			alivePeers.add(alivePeer);
+		    }
+		} catch (CancellationException e) {
+		    // the peer did not answer before the deadline
+		} catch (ExecutionException e) {
+		    logger.warn("Peer probe failed: " + e.getCause().getMessage());
 		}
 	    }
-	    if (!found) {
-		logger.warn("uptime_in_seconds was not found in Redis info");
-		return null;
-	    }
-	    logger.info("Alive Peer node [" + peer + "] is up for " + currentAlivePeer.upTime + " seconds");
+	} catch (InterruptedException e) {
+	    logger.warn("Interrupted while probing peers");
+	    Thread.currentThread().interrupt();
+	} finally {
+	    executor.shutdownNow();
+	}
 
-	} catch (Exception e) {
-	    e.printStackTrace();
+	List<WarmupPeer> ranked = WarmupPeer.rank(alivePeers);
+	for (WarmupPeer alivePeer : ranked) {
+	    logger.info("Alive peer node: " + alivePeer);
 	}
+	return ranked;
+    }
 
-	return currentAlivePeer;
+    private WarmupPeer probePeer(String peer) {
+	Jedis peerJedis = new Jedis(peer, REDIS_PORT, probeTimeoutMs.get());
+	try {
+	    long startTime = System.currentTimeMillis();
+	    peerJedis.connect();
+	    peerJedis.getClient().info();
+	    byte[] info = peerJedis.getClient().getBinaryBulkReply();
+	    WarmupPeer alivePeer = WarmupPeer.fromInfo(peer, info, System.currentTimeMillis() - startTime);
+	    if (alivePeer == null) {
+		logger.warn("uptime_in_seconds was not found in Redis info of peer " + peer);
+	    }
+	    return alivePeer;
+	} catch (JedisConnectionException e) {
+	    logger.warn("Unable to probe peer " + peer + ": " + e.getMessage());
+	    return null;
+	} finally {
+	    peerJedis.disconnect();
+	}
     }
 
-    // probably use our Retries Util here
     @Override
     public Bootstrap warmUpStorage(String[] peers) {
-	AlivePeer longestAlivePeer = new AlivePeer();
-	Jedis peerJedis = null;
-
-	for (String peer : peers) { // Looking into the peers with the same
-				    // token
-	    logger.info("Peer node [" + peer + "] has the same token!");
-	    peerJedis = JedisUtils.connect(peer, REDIS_PORT);
-	    if (peerJedis != null && isAlive()) { // Checking if there are
-						  // peers, and if so if they
-						  // are alive
-
-		AlivePeer currentAlivePeer = peerNodeSelection(peer, peerJedis);
-
-		// Checking the one with the longest up time. Disconnect the one
-		// that is not the longest.
-		if (currentAlivePeer.selectedJedis == null) {
-		    logger.error("Cannot find uptime_in_seconds in peer " + peer);
-		    return Bootstrap.CANNOT_CONNECT_FAIL;
-		} else if (longestAlivePeer.selectedJedis == null) {
-		    longestAlivePeer = currentAlivePeer;
-		} else if (currentAlivePeer.upTime > longestAlivePeer.upTime) {
-		    longestAlivePeer.selectedJedis.disconnect();
-		    longestAlivePeer = currentAlivePeer;
-		}
-	    }
+	if (!isAlive()) {
+	    logger.error("Local storage is not alive, cannot bootstrap");
+	    warmupProgress.setPhase(WarmupProgress.Phase.FAILED);
+	    return Bootstrap.CANNOT_CONNECT_FAIL;
 	}
 
-	// We check if the select peer is alive and we connect to it.
-	if (longestAlivePeer.selectedJedis == null) {
+	warmupProgress.setPhase(WarmupProgress.Phase.PROBING);
+	List<WarmupPeer> alivePeers = probePeers(peers);
+	if (alivePeers.isEmpty()) {
 	    logger.error("Cannot connect to peer node to bootstrap");
+	    warmupProgress.setPhase(WarmupProgress.Phase.FAILED);
 	    return Bootstrap.CANNOT_CONNECT_FAIL;
+	}
+
+	// Fail over to the next ranked peer as long as syncing errors out.
+	Bootstrap bootstrap = Bootstrap.CANNOT_CONNECT_FAIL;
+	for (WarmupPeer alivePeer : alivePeers) {
+	    bootstrap = syncWithPeer(alivePeer.getHost());
+	    if (bootstrap != Bootstrap.WARMUP_ERROR_FAIL && bootstrap != Bootstrap.CANNOT_CONNECT_FAIL) {
+		break;
+	    }
+	    logger.warn("Warm up from peer [" + alivePeer.getHost() + "] failed with " + bootstrap
+		    + ", trying the next peer");
+	}
+
+	if (bootstrap == Bootstrap.IN_SYNC_SUCCESS) {
+	    warmupProgress.setPhase(WarmupProgress.Phase.IN_SYNC);
+	} else if (bootstrap == Bootstrap.RETRIES_FAIL || bootstrap == Bootstrap.EXPIRED_BOOTSTRAPTIME_FAIL) {
+	    warmupProgress.setPhase(WarmupProgress.Phase.ABORTED);
 	} else {
-	    String alivePeer = longestAlivePeer.selectedPeer;
-	    peerJedis = longestAlivePeer.selectedJedis;
+	    warmupProgress.setPhase(WarmupProgress.Phase.FAILED);
+	}
+	return bootstrap;
+    }
+
+    /**
+     * Replicate from a single peer until the warm up ends.
+     *
+     * @param alivePeer
+     *            the peer to sync from
+     * @return the warm up status
+     */
+    private Bootstrap syncWithPeer(String alivePeer) {
+	Jedis peerJedis = JedisUtils.connect(alivePeer, REDIS_PORT);
+	if (peerJedis == null) {
+	    return Bootstrap.CANNOT_CONNECT_FAIL;
+	}
 
+	try {
 	    logger.info("Issue slaveof command on peer [" + alivePeer + "] and port [" + REDIS_PORT + "]");
 	    startPeerSync(alivePeer, REDIS_PORT);
+	    warmupProgress.start(alivePeer);
 
 	    long diff = 0;
-	    long previousDiff = 0;
-	    short retry = 0;
+	    short notConverging = 0;
+	    short beyondBudget = 0;
 	    short numErrors = 0;
 	    long startTime = System.currentTimeMillis();
 
 	    // Conditions under which warmp up will end
-	    // 1. number of Jedis errors are 5.
-	    // 2. number of consecutive increases of offset differences (caused
-	    // when client produces high load).
-	    // 3. the difference between offsets is very small or zero
+	    // 1. number of Jedis errors are 5 (the next peer is tried).
+	    // 2. the offset difference has not been shrinking for a number of
+	    // consecutive samples (caused when client produces high load).
+	    // 3. the estimated time to sync keeps exceeding what is left of
+	    // the bootstrap time.
+	    // 4. the difference between offsets is very small or zero
 	    // (success).
-	    // 4. warmp up takes more than FP defined minutes (default 20 min).
-	    // 5. Dynomite has started and is healthy.
-	    while (numErrors < 5) {
-		// sleep 10 seconds in between checks
-		sleeper.sleepQuietly(10000);
+	    // 5. warmp up takes more than FP defined minutes (default 20 min).
+	    // 6. Dynomite has started and is healthy.
+	    while (true) {
+		// poll faster as the replica gets close to the peer
+		sleeper.sleepQuietly(warmupProgress.nextPollMillis(minPollMs.get(), maxPollMs.get()));
 		try {
 		    diff = canPeerSyncStop(peerJedis, startTime);
+		    numErrors = 0;
 		} catch (Exception e) {
 		    numErrors++;
+		    if (numErrors == 5) {
+			logger.error("Reached 5 errors while checking peer syncing with [" + alivePeer + "]");
+			return Bootstrap.WARMUP_ERROR_FAIL;
+		    }
+		    continue;
 		}
 
 		// Diff meaning:
@@ -396,42 +507,60 @@ public class RedisStorageProxy implements IStorageProxy {
 		if (diff == 0) {
 		    break;
 		} else if (diff == -1) {
-		    logger.error("There was an error in the warm up process - do NOT start Dynomite");
-		    peerJedis.disconnect();
+		    logger.error("There was an error in the warm up process with peer [" + alivePeer + "]");
 		    return Bootstrap.WARMUP_ERROR_FAIL;
 		} else if (diff == -2) {
 		    startTime = System.currentTimeMillis();
+		    continue;
 		} else if (diff == -3) {
-		    peerJedis.disconnect();
 		    return Bootstrap.EXPIRED_BOOTSTRAPTIME_FAIL;
 		}
 
+		if (!warmupProgress.hasTrend()) {
+		    continue;
+		}
+
 		// Exit conditions:
-		// a. retry more than 5 times continuously and if the diff is
-		// larger than the previous diff.
-		if (previousDiff < diff) {
-		    logger.info("Previous diff (" + previousDiff + ") was smaller than current diff (" + diff
-			    + ") ---> Retry effort: " + retry);
-		    retry++;
-		    if (retry == 10) {
-			logger.error("Reached 10 consecutive retries, peer syncing cannot complete");
-			peerJedis.disconnect();
+		// a. the replica has not been gaining on the peer for a number
+		// of consecutive samples.
+		// b. at the current catch up rate, syncing will not complete
+		// within the bootstrap time.
+		long remaining = config.getMaxTimeToBootstrap() - (System.currentTimeMillis() - startTime);
+		long eta = warmupProgress.getEtaMillis();
+		logger.info("Offset diff: " + diff + " catch up rate: " + (long) warmupProgress.getCatchUpRate()
+			+ " bytes/s master write rate: " + (long) warmupProgress.getMasterWriteRate() + " bytes/s ETA: "
+			+ (eta < 0 ? "unknown" : eta / 1000 + "s"));
+
+		if (eta < 0) {
+		    notConverging++;
+		    if (notConverging == notConvergingSamples.get()) {
+			logger.error("Offset diff has not been shrinking for " + notConverging
+				+ " consecutive samples, peer syncing cannot complete");
 			return Bootstrap.RETRIES_FAIL;
 		    }
 		} else {
-		    retry = 0;
+		    notConverging = 0;
 		}
-		previousDiff = diff;
-	    }
 
-	    peerJedis.disconnect();
+		if (eta > remaining) {
+		    beyondBudget++;
+		    if (beyondBudget == notConvergingSamples.get()) {
+			logger.error("Estimated time to sync (" + eta / 1000 + "s) exceeds the remaining bootstrap time ("
+				+ remaining / 1000 + "s), peer syncing cannot complete");
+			return Bootstrap.EXPIRED_BOOTSTRAPTIME_FAIL;
+		    }
+		} else {
+		    beyondBudget = 0;
+		}
+	    }
 
 	    if (diff > 0) {
 		logger.info("Stopping peer syncing with difference: " + diff);
 	    }
+	    return Bootstrap.IN_SYNC_SUCCESS;
+	} finally {
+	    peerJedis.disconnect();
 	}
-
-	return Bootstrap.IN_SYNC_SUCCESS;
     }
 
     /**
@@ -440,38 +569,27 @@ public class RedisStorageProxy implements IStorageProxy {
     @Override
     public boolean resetStorage() {
 	logger.info("Checking if Storage needs to be reset to master");
-	localRedisConnect();
-	String localRedisInfo = null;
+	String role = null;
 	try {
-	    localRedisInfo = localJedis.info();
+	    role = infoSampler.get("replication", 0).get("role");
 	} catch (JedisConnectionException e) {
-	    // Try to reconnect
+	    // A pooled connection may have gone stale; retry on a fresh one
 	    try {
-		localRedisConnect();
-		localRedisInfo = localJedis.info();
+		role = infoSampler.get("replication", 0).get("role");
 	    } catch (JedisConnectionException ex) {
 		logger.error("Cannot connect to Redis");
 		return false;
 	    }
 	}
-	Iterable<String> result = Splitter.on('\n').split(localRedisInfo);
-
-	String role = null;
 
-	for (String line : result) {
-	    if (line.startsWith("role")) {
-		String[] items = line.split(":");
-		// logger.info(items[0] + ": " + items[1]);
-		role = items[1].trim();
-		if (role.equals("slave")) {
-		    logger.info("Redis: Stop replication. Switch from slave to master");
-		    stopPeerSync();
-		}
-		return true;
-	    }
+	if (role == null) {
+	    return false;
 	}
-
-	return false;
+	if (role.equals("slave")) {
+	    logger.info("Redis: Stop replication. Switch from slave to master");
+	    stopPeerSync();
+	}
+	return true;
 
     }
 
@@ -528,6 +646,7 @@ public class RedisStorageProxy implements IStorageProxy {
 	    logger.info("Slave offset is zero ---> Redis master node still dumps data to the disk");
 	    return (long) -2;
 	}
+	warmupProgress.sample(System.currentTimeMillis(), masterOffset, slaveOffset);
 	Long diff = Math.abs(masterOffset - slaveOffset);
 
 	logger.info("masterOffset: " + masterOffset + " slaveOffset: " + slaveOffset + " current Diff: " + diff
@@ -0,0 +1,334 @@
+/**
+ * Copyright 2016 Netflix, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package com.netflix.dynomitemanager.sidecore.storage;
+
+import static com.netflix.dynomitemanager.defaultimpl.DynomiteManagerConfiguration.LOCAL_ADDRESS;
+
+import org.apache.commons.pool2.BasePooledObjectFactory;
+import org.apache.commons.pool2.PooledObject;
+import org.apache.commons.pool2.impl.DefaultPooledObject;
+import org.apache.commons.pool2.impl.GenericObjectPool;
+import org.apache.commons.pool2.impl.GenericObjectPoolConfig;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import redis.clients.jedis.Jedis;
+import redis.clients.jedis.exceptions.JedisConnectionException;
+
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+import com.netflix.config.DynamicIntProperty;
+import com.netflix.config.DynamicLongProperty;
+import com.netflix.config.DynamicPropertyFactory;
+import com.netflix.dynomitemanager.defaultimpl.IConfiguration;
+import com.netflix.dynomitemanager.monitoring.JedisFactory;
+import com.netflix.dynomitemanager.monitoring.SampledGauge;
+import com.netflix.dynomitemanager.sidecore.utils.BoundedExponentialRetryCallable;
+import com.netflix.servo.DefaultMonitorRegistry;
+import com.netflix.servo.monitor.Counter;
+import com.netflix.servo.monitor.Monitors;
+
+/**
+ * Owns the long-lived connections that Dynomite Manager keeps to the local storage engine (Redis/ARDB) and to
+ * Dynomite's client port. Callers borrow a connection through {@link #execute(JedisCommand)} or
+ * {@link #executeOnDynomite(JedisCommand)} instead of opening and tearing down a TCP connection on every check.
+ *
+ * Idle connections are validated with a PING in the background, and a connection that fails with a
+ * {@link JedisConnectionException} is evicted from the pool instead of being handed out again.
+ *
+ * @author ipapapa
+ */
+@Singleton
+public class StorageConnectionManager {
+
+    private static final Logger logger = LoggerFactory.getLogger(StorageConnectionManager.class);
+
+    private static final String METRIC_PREFIX = "dynomitemanager__connections__";
+
+    private static final DynamicIntProperty maxStorageConnections = DynamicPropertyFactory.getInstance()
+            .getIntProperty("florida.storage.pool.max.total", 4);
+
+    private static final DynamicLongProperty maxWaitMs = DynamicPropertyFactory.getInstance()
+            .getLongProperty("florida.storage.pool.max.wait.ms", 2000L);
+
+    private static final DynamicLongProperty validationIntervalMs = DynamicPropertyFactory.getInstance()
+            .getLongProperty("florida.storage.pool.validation.interval.ms", 30000L);
+
+    private static final DynamicLongProperty minRetryMs = DynamicPropertyFactory.getInstance()
+            .getLongProperty("florida.storage.isAlive.retry.min.ms", 3000L);
+
+    private static final DynamicLongProperty maxRetryMs = DynamicPropertyFactory.getInstance()
+            .getLongProperty("florida.storage.isAlive.retry.max.ms", 30000L);
+
+    private final IConfiguration config;
+    private final IStorageProxy storageProxy;
+    private final JedisFactory jedisFactory;
+
+    private final Counter storageConnectFailures = Monitors.newCounter(METRIC_PREFIX + "storage_connect_failures");
+    private final Counter dynomiteConnectFailures = Monitors.newCounter(METRIC_PREFIX + "dynomite_connect_failures");
+
+    private volatile GenericObjectPool<Jedis> storagePool;
+    private volatile GenericObjectPool<Jedis> dynomitePool;
+
+    /**
+     * A unit of work executed against a pooled connection.
+     */
+    public interface JedisCommand<T> {
+        T execute(Jedis jedis);
+    }
+
+    @Inject
+    public StorageConnectionManager(IConfiguration config, IStorageProxy storageProxy, JedisFactory jedisFactory) {
+        this.config = config;
+        this.storageProxy = storageProxy;
+        this.jedisFactory = jedisFactory;
+
+        DefaultMonitorRegistry.getInstance().register(storageConnectFailures);
+        DefaultMonitorRegistry.getInstance().register(dynomiteConnectFailures);
+        DefaultMonitorRegistry.getInstance().register(new SampledGauge(METRIC_PREFIX + "storage_active") {
+            @Override
+            protected long sample() {
+                return storagePool == null ? 0 : storagePool.getNumActive();
+            }
+        });
+        DefaultMonitorRegistry.getInstance().register(new SampledGauge(METRIC_PREFIX + "storage_idle") {
+            @Override
+            protected long sample() {
+                return storagePool == null ? 0 : storagePool.getNumIdle();
+            }
+        });
+        DefaultMonitorRegistry.getInstance().register(new SampledGauge(METRIC_PREFIX + "storage_wait_ms") {
+            @Override
+            protected long sample() {
+                return storagePool == null ? 0 : storagePool.getMeanBorrowWaitTimeMillis();
+            }
+        });
+        DefaultMonitorRegistry.getInstance().register(new SampledGauge(METRIC_PREFIX + "dynomite_active") {
+            @Override
+            protected long sample() {
+                return dynomitePool == null ? 0 : dynomitePool.getNumActive();
+            }
+        });
+        DefaultMonitorRegistry.getInstance().register(new SampledGauge(METRIC_PREFIX + "dynomite_idle") {
+            @Override
+            protected long sample() {
+                return dynomitePool == null ? 0 : dynomitePool.getNumIdle();
+            }
+        });
+    }
+
+    /**
+     * Run a command against the local storage engine (Redis/ARDB).
+     *
+     * @throws JedisConnectionException if no connection could be obtained or the connection broke
+     */
+    public <T> T execute(JedisCommand<T> command) {
+        return execute(getStoragePool(), command);
+    }
+
+    /**
+     * Run a command against Dynomite's client port.
+     *
+     * @throws JedisConnectionException if no connection could be obtained or the connection broke
+     */
+    public <T> T executeOnDynomite(JedisCommand<T> command) {
+        return execute(getDynomitePool(), command);
+    }
+
+    /**
+     * Sends a PING to the local storage engine, retrying with a bounded exponential backoff.
+     *
+     * @return true if a PONG was received, else false.
+     */
+    public boolean isStorageAliveWithRetry() {
+        return pingWithRetry(getStoragePool(), "storage");
+    }
+
+    /**
+     * Sends a PING to Dynomite's client port, retrying with a bounded exponential backoff.
+     *
+     * @return true if a PONG was received, else false.
+     */
+    public boolean isDynomiteAliveWithRetry() {
+        return pingWithRetry(getDynomitePool(), "dynomite");
+    }
+
+    /**
+     * Drop every pooled connection. Used when the storage process is restarted, so that the next borrower does not
+     * get a socket to the process that is gone.
+     */
+    public void invalidateStorageConnections() {
+        GenericObjectPool<Jedis> pool = storagePool;
+        if (pool != null) {
+            pool.clear();
+        }
+    }
+
+    /**
+     * Close both pools and disconnect all idle connections.
+     */
+    public synchronized void shutdown() {
+        if (storagePool != null) {
+            storagePool.close();
+            storagePool = null;
+        }
+        if (dynomitePool != null) {
+            dynomitePool.close();
+            dynomitePool = null;
+        }
+    }
+
+    private boolean pingWithRetry(final GenericObjectPool<Jedis> pool, final String target) {
+        BoundedExponentialRetryCallable<Boolean> jedisRetryCallable = new BoundedExponentialRetryCallable<Boolean>() {
+            @Override
+            public Boolean retriableCall() throws Exception {
+                String pong = execute(pool, new JedisCommand<String>() {
+                    @Override
+                    public String execute(Jedis jedis) {
+                        return jedis.ping();
+                    }
+                });
+                if (pong == null) {
+                    throw new JedisConnectionException("No reply to PING from " + target);
+                }
+                return true;
+            }
+        };
+
+        jedisRetryCallable.setMin(minRetryMs.getValue());
+        jedisRetryCallable.setMax(maxRetryMs.getValue());
+
+        try {
+            return jedisRetryCallable.call();
+        } catch (Exception e) {
+            logger.warn(String.format("All retries to PING %s failed.", target));
+            return false;
+        }
+    }
+
+    private <T> T execute(GenericObjectPool<Jedis> pool, JedisCommand<T> command) {
+        Jedis jedis;
+        try {
+            jedis = pool.borrowObject();
+        } catch (JedisConnectionException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new JedisConnectionException("Could not get a connection from the pool", e);
+        }
+
+        boolean broken = false;
+        try {
+            return command.execute(jedis);
+        } catch (JedisConnectionException e) {
+            broken = true;
+            throw e;
+        } finally {
+            release(pool, jedis, broken);
+        }
+    }
+
+    private void release(GenericObjectPool<Jedis> pool, Jedis jedis, boolean broken) {
+        try {
+            if (broken) {
+                pool.invalidateObject(jedis);
+            } else {
+                pool.returnObject(jedis);
+            }
+        } catch (Exception e) {
+            logger.warn("Unable to return connection to the pool: " + e.getMessage());
+        }
+    }
+
+    private synchronized GenericObjectPool<Jedis> getStoragePool() {
+        if (storagePool == null) {
+            storagePool = createPool(storageProxy.getIpAddress(), storageProxy.getPort(),
+                    maxStorageConnections.get(), storageConnectFailures);
+        }
+        return storagePool;
+    }
+
+    private synchronized GenericObjectPool<Jedis> getDynomitePool() {
+        if (dynomitePool == null) {
+            // Dynomite only ever needs a single connection for health checks.
+            dynomitePool = createPool(LOCAL_ADDRESS, config.getDynomiteClientPort(), 1, dynomiteConnectFailures);
+        }
+        return dynomitePool;
+    }
+
+    private GenericObjectPool<Jedis> createPool(String host, int port, int maxTotal, Counter connectFailures) {
+        logger.info(String.format("Creating connection pool to %s:%s with %s connections", host, port, maxTotal));
+
+        GenericObjectPoolConfig poolConfig = new GenericObjectPoolConfig();
+        poolConfig.setMaxTotal(maxTotal);
+        poolConfig.setMaxIdle(maxTotal);
+        poolConfig.setMinIdle(0);
+        poolConfig.setMaxWaitMillis(maxWaitMs.get());
+        poolConfig.setTestWhileIdle(true);
+        poolConfig.setTimeBetweenEvictionRunsMillis(validationIntervalMs.get());
+        // Connections are long lived; only the idle validation evicts them.
+        poolConfig.setMinEvictableIdleTimeMillis(-1);
+        poolConfig.setNumTestsPerEvictionRun(-1);
+        poolConfig.setJmxEnabled(false);
+
+        return new GenericObjectPool<Jedis>(new PooledJedisFactory(host, port, connectFailures), poolConfig);
+    }
+
+    private class PooledJedisFactory extends BasePooledObjectFactory<Jedis> {
+        private final String host;
+        private final int port;
+        private final Counter connectFailures;
+
+        private PooledJedisFactory(String host, int port, Counter connectFailures) {
+            this.host = host;
+            this.port = port;
+            this.connectFailures = connectFailures;
+        }
+
+        @Override
+        public Jedis create() throws Exception {
+            Jedis jedis = jedisFactory.newInstance(host, port);
+            try {
+                jedis.connect();
+            } catch (Exception e) {
+                connectFailures.increment();
+                logger.warn("Unable to connect to host:" + host + " port: " + port);
+                throw e;
+            }
+            return jedis;
+        }
+
+        @Override
+        public PooledObject<Jedis> wrap(Jedis jedis) {
+            return new DefaultPooledObject<Jedis>(jedis);
+        }
+
+        @Override
+        public boolean validateObject(PooledObject<Jedis> p) {
+            Jedis jedis = p.getObject();
+            try {
+                return jedis.isConnected() && "PONG".equals(jedis.ping());
+            } catch (Exception e) {
+                return false;
+            }
+        }
+
+        @Override
+        public void destroyObject(PooledObject<Jedis> p) throws Exception {
+            try {
+                p.getObject().disconnect();
+            } catch (Exception e) {
+                // the socket is going away anyway
+            }
+        }
+    }
+}
@@ -41,12 +41,15 @@ public class StorageProcessManager {
     private final Sleeper sleeper;
     private final InstanceState instanceState;
     private final IStorageProxy storageProxy;
+    private final StorageConnectionManager connectionManager;
 
     @Inject
-    public StorageProcessManager(Sleeper sleeper, InstanceState instanceState, IStorageProxy storageProxy) {
+    public StorageProcessManager(Sleeper sleeper, InstanceState instanceState, IStorageProxy storageProxy,
+	    StorageConnectionManager connectionManager) {
 	this.sleeper = sleeper;
 	this.instanceState = instanceState;
 	this.storageProxy = storageProxy;
+	this.connectionManager = connectionManager;
     }
 
     protected void setStorageEnv(Map<String, String> env) {
@@ -63,6 +66,8 @@ public class StorageProcessManager {
 	ProcessBuilder startBuilder = process(getStartCommand());
 	setStorageEnv(startBuilder.environment());
 	Process starter = startBuilder.start();
+	// Pooled connections point at the previous storage process, if any.
+	connectionManager.invalidateStorageConnections();
 
 	try {
 	    sleeper.sleepQuietly(SCRIPT_EXECUTE_WAIT_TIME_MS);
@@ -165,6 +170,7 @@ public class StorageProcessManager {
 	    int code = stopper.exitValue();
 	    if (code == 0) {
 		logger.info("Storage process has been stopped");
+		connectionManager.invalidateStorageConnections();
 		instanceState.setStorageProxyAlive(false);
 	    } else {
 		logger.error("Unable to stop storage process. Error code: {}", code);
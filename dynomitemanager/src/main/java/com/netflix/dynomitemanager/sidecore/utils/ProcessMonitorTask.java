@@ -22,7 +22,7 @@ import com.netflix.dynomitemanager.sidecore.scheduler.SimpleTimer;
 import com.netflix.dynomitemanager.sidecore.scheduler.Task;
 import com.netflix.dynomitemanager.sidecore.scheduler.TaskTimer;
 import com.netflix.dynomitemanager.sidecore.storage.IStorageProxy;
-import com.netflix.dynomitemanager.sidecore.storage.JedisUtils;
+import com.netflix.dynomitemanager.sidecore.storage.StorageConnectionManager;
 
 import org.quartz.StatefulJob;
 import org.slf4j.Logger;
@@ -70,15 +70,17 @@ public class ProcessMonitorTask extends Task implements StatefulJob {
     private final InstanceState instanceState;
     private final IStorageProxy storageProxy;
     private final IDynomiteProcess dynomiteProcess;
+    private final StorageConnectionManager connectionManager;
 
     @Inject
     protected ProcessMonitorTask(IConfiguration config, InstanceState instanceState, IStorageProxy storageProxy,
-            IDynomiteProcess dynomiteProcess) {
+            IDynomiteProcess dynomiteProcess, StorageConnectionManager connectionManager) {
         super(config);
         this.config = config;
         this.instanceState = instanceState;
         this.storageProxy = storageProxy;
         this.dynomiteProcess = dynomiteProcess;
+        this.connectionManager = connectionManager;
     }
 
     @Override
@@ -89,8 +91,7 @@ public class ProcessMonitorTask extends Task implements StatefulJob {
         }
 
         instanceState.setStorageProxyProcessAlive(this.dynomiteProcess.dynomiteProcessCheck());
-        instanceState
-                .setStorageProxyAlive(JedisUtils.isAliveWithRetry(storageProxy.getIpAddress(), storageProxy.getPort()));
+        instanceState.setStorageProxyAlive(connectionManager.isDynomiteAliveWithRetry());
         instanceState.setStorageAlive(storageProxy.isAlive());
         logger.info(String.format("ProcessMonitor state: %s, time elapsted to check (micros): %s", instanceState,
                 stopwatch.elapsed(MICROSECONDS)));
@@ -14,8 +14,6 @@ package com.netflix.dynomitemanager.sidecore.utils;
 
 import com.netflix.dynomitemanager.dynomite.IDynomiteProcess;
 
-import static com.netflix.dynomitemanager.defaultimpl.DynomiteManagerConfiguration.LOCAL_ADDRESS;
-
 import java.io.IOException;
 
 import com.google.inject.Inject;
@@ -28,6 +26,8 @@ import redis.clients.jedis.Jedis;
 
 import com.netflix.dynomitemanager.sidecore.scheduler.Task;
 import com.netflix.dynomitemanager.sidecore.storage.IStorageProxy;
+import com.netflix.dynomitemanager.sidecore.storage.StorageConnectionManager;
+import com.netflix.dynomitemanager.sidecore.storage.StorageConnectionManager.JedisCommand;
 import com.netflix.dynomitemanager.defaultimpl.IConfiguration;
 import com.netflix.dynomitemanager.dynomite.DynomiteRest;
 
@@ -45,14 +45,16 @@ public class ProxyAndStorageResetTask extends Task {
     private final IDynomiteProcess dynProcess;
     private final IStorageProxy storageProxy;
     private final Sleeper sleeper;
+    private final StorageConnectionManager connectionManager;
 
     @Inject
     public ProxyAndStorageResetTask(IConfiguration config, IDynomiteProcess dynProcess, IStorageProxy storageProxy,
-	    Sleeper sleeper) {
+	    Sleeper sleeper, StorageConnectionManager connectionManager) {
 	super(config);
 	this.storageProxy = storageProxy;
 	this.dynProcess = dynProcess;
 	this.sleeper = sleeper;
+	this.connectionManager = connectionManager;
     }
 
     public void execute() throws IOException {
@@ -75,15 +77,22 @@ public class ProxyAndStorageResetTask extends Task {
 	    logger.error("REST call to Dynomite for write consistency failed --> using the default");
     }
 
+    private String dynomitePing() {
+	return connectionManager.executeOnDynomite(new JedisCommand<String>() {
+	    @Override
+	    public String execute(Jedis jedis) {
+		return jedis.ping();
+	    }
+	});
+    }
+
     private void dynomiteCheck() {
-        Jedis dynomiteJedis = new Jedis(LOCAL_ADDRESS, config.getDynomiteClientPort(), 5000);
 	logger.info("Checking Dynomite's status");
 	try {
-	    dynomiteJedis.connect();
-	    if (dynomiteJedis.ping().equals("PONG") == false) {
+	    if (dynomitePing().equals("PONG") == false) {
 		logger.warn("Pinging Dynomite failed ---> trying again after 1 sec");
 		sleeper.sleepQuietly(1000);
-		if (dynomiteJedis.ping().equals("PONG") == false) {
+		if (dynomitePing().equals("PONG") == false) {
 		    try {
 			this.dynProcess.stop();
 			sleeper.sleepQuietly(1000);
@@ -108,6 +108,20 @@ public class SystemUtils {
 	}
     }
 
+    /**
+     * Get the Md5 string of length bytes of the file starting at offset
+     */
+    public static String md5(File file, long offset, long length) {
+	if (file == null)
+	    throw new IllegalArgumentException("file cannot be null");
+	try {
+	    HashCode hc = Files.asByteSource(file).slice(offset, length).hash(Hashing.md5());
+	    return toHex(hc.asBytes());
+	} catch (Exception e) {
+	    throw new RuntimeException(e);
+	}
+    }
+
     public static String toHex(byte[] digest) {
 	if (digest == null)
 	    throw new IllegalArgumentException("digest cannot be null");
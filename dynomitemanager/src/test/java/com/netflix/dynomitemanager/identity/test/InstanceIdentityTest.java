@@ -0,0 +1,354 @@
+/**
+ * Copyright 2016 Netflix, Inc. <p/> Licensed under the Apache License, Version 2.0 (the "License"); you may not use
+ * this file except in compliance with the License. You may obtain a copy of the License at <p/>
+ * http://www.apache.org/licenses/LICENSE-2.0 <p/> Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language governing permissions and limitations under the
+ * License.
+ */
+package com.netflix.dynomitemanager.identity.test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.netflix.dynomitemanager.identity.AppsInstance;
+import com.netflix.dynomitemanager.identity.IAppsInstanceFactory;
+import com.netflix.dynomitemanager.identity.IMembership;
+import com.netflix.dynomitemanager.identity.InstanceIdentity;
+import com.netflix.dynomitemanager.identity.LockContentionException;
+import com.netflix.dynomitemanager.identity.SlotState;
+import com.netflix.dynomitemanager.sidecore.utils.Sleeper;
+import com.netflix.dynomitemanager.sidecore.utils.TokenManager;
+
+/**
+ * Unit Tests for the token acquisition of InstanceIdentity
+ */
+public class InstanceIdentityTest {
+
+	private static final String APP = "DynomiteManagerTestApp";
+
+	private final SimpleTestConfiguration config = new SimpleTestConfiguration() {
+		@Override
+		public String getInstanceName() {
+			return "i-new";
+		}
+
+		@Override
+		public String getRack() {
+			return "us-east-1c";
+		}
+
+		@Override
+		public String getZone() {
+			return "us-east-1c";
+		}
+	};
+
+	private final List<AppsInstance> instances = new ArrayList<AppsInstance>();
+	// what the cached topology has, when it differs from the store
+	private List<AppsInstance> cached;
+	private final List<String> asg = new ArrayList<String>();
+	private final List<Long> sleeps = new ArrayList<Long>();
+	private int topologyReads;
+	private int freshReads;
+	private int membershipReads;
+	private int conflicts;
+	// claims the slot being deleted first, when set
+	private String rival;
+
+	private final IAppsInstanceFactory factory = new IAppsInstanceFactory() {
+		@Override
+		public List<AppsInstance> getAllIds(String appName) {
+			topologyReads++;
+			return select(cached != null ? cached : instances, appName);
+		}
+
+		@Override
+		public List<AppsInstance> refreshIds(String appName) {
+			freshReads++;
+			return select(instances, appName);
+		}
+
+		@Override
+		public List<AppsInstance> getLocalDCIds(String appName, String region) {
+			return getAllIds(appName);
+		}
+
+		@Override
+		public AppsInstance getInstance(String appName, String dc, int id) {
+			return null;
+		}
+
+		@Override
+		public AppsInstance create(String app, int id, String instanceID, String hostname, String ip, String rac,
+				Map<String, Object> volumes, String token, String datacenter) {
+			if (conflicts > 0) {
+				conflicts--;
+				throw new RuntimeException(new LockContentionException("Slot " + id + " is being claimed", 3));
+			}
+			AppsInstance ins = newInstance(app, id, instanceID, token);
+			instances.add(ins);
+			return ins;
+		}
+
+		@Override
+		public void delete(AppsInstance inst) {
+			instances.remove(inst);
+			if (rival != null) {
+				instances.add(newInstance(inst.getApp(), inst.getId(), rival, inst.getToken(),
+						System.currentTimeMillis()));
+				String owner = rival;
+				rival = null;
+				throw new RuntimeException(new LockContentionException("Slot " + inst.getId() + " now belongs to "
+						+ owner, 2));
+			}
+		}
+
+		@Override
+		public void update(AppsInstance inst) {
+		}
+
+		@Override
+		public void heartbeat(AppsInstance inst) {
+			inst.setHeartbeat(System.currentTimeMillis());
+		}
+
+		@Override
+		public void sort(List<AppsInstance> return_) {
+		}
+
+		@Override
+		public void attachVolumes(AppsInstance instance, String mountPath, String device) {
+		}
+	};
+
+	private final IMembership membership = new IMembership() {
+		@Override
+		public List<String> getRacMembership() {
+			membershipReads++;
+			return new ArrayList<String>(asg);
+		}
+
+		@Override
+		public List<String> getCrossAccountRacMembership() {
+			return new ArrayList<String>();
+		}
+
+		@Override
+		public int getRacMembershipSize() {
+			return asg.size();
+		}
+
+		@Override
+		public int getCrossAccountRacMembershipSize() {
+			return 0;
+		}
+
+		@Override
+		public int getRacCount() {
+			return 1;
+		}
+
+		@Override
+		public void addACL(Collection<String> listIPs, int from, int to) {
+		}
+
+		@Override
+		public void removeACL(Collection<String> listIPs, int from, int to) {
+		}
+
+		@Override
+		public List<String> listACL(int from, int to) {
+			return null;
+		}
+
+		@Override
+		public void expandRacMembership(int count) {
+		}
+	};
+
+	private final Sleeper sleeper = new Sleeper() {
+		@Override
+		public void sleep(long waitTimeMs) {
+			sleeps.add(waitTimeMs);
+		}
+
+		@Override
+		public void sleepQuietly(long waitTimeMs) {
+			sleeps.add(waitTimeMs);
+		}
+	};
+
+	private static List<AppsInstance> select(List<AppsInstance> all, String appName) {
+		List<AppsInstance> ids = new ArrayList<AppsInstance>();
+		for (AppsInstance ins : all) {
+			if (ins.getApp().equals(appName))
+				ids.add(ins);
+		}
+		return ids;
+	}
+
+	private static AppsInstance newInstance(String app, int id, String instanceId, String token, long heartbeat) {
+		AppsInstance ins = newInstance(app, id, instanceId, token);
+		ins.setHeartbeat(heartbeat);
+		return ins;
+	}
+
+	private static AppsInstance newInstance(String app, int id, String instanceId, String token) {
+		AppsInstance ins = new AppsInstance();
+		ins.setApp(app);
+		ins.setId(id);
+		ins.setInstanceId(instanceId);
+		ins.setRack("us-east-1c");
+		ins.setToken(token);
+		return ins;
+	}
+
+	private InstanceIdentity identity() throws Exception {
+		return new InstanceIdentity(factory, membership, config, sleeper, new TokenManager(), null);
+	}
+
+	@Test
+	public void testOwnTokenWithoutMembership() throws Exception {
+		instances.add(newInstance(APP, 1, "i-new", "100"));
+
+		InstanceIdentity ii = identity();
+		Assert.assertEquals("100", ii.getInstance().getToken());
+		Assert.assertEquals(2, topologyReads);
+		Assert.assertEquals(0, membershipReads);
+		Assert.assertTrue(sleeps.isEmpty());
+	}
+
+	@Test
+	public void testDeadToken() throws Exception {
+		instances.add(newInstance(APP, 1, "i-gone", "100"));
+		asg.addAll(Arrays.asList("i-new"));
+
+		InstanceIdentity ii = identity();
+		Assert.assertEquals("100", ii.getInstance().getToken());
+		Assert.assertEquals("i-new", ii.getInstance().getInstanceId());
+		Assert.assertTrue(ii.isReplace());
+		Assert.assertEquals(1, membershipReads);
+		Assert.assertTrue(sleeps.isEmpty());
+	}
+
+	@Test
+	public void testDeadByHeartbeatWithoutMembership() throws Exception {
+		long now = System.currentTimeMillis();
+		// hung, and still in the ASG
+		instances.add(newInstance(APP, 1, "i-hung", "100", now - 61000));
+		asg.addAll(Arrays.asList("i-hung", "i-new"));
+
+		InstanceIdentity ii = identity();
+		Assert.assertEquals("100", ii.getInstance().getToken());
+		Assert.assertEquals("i-new", ii.getInstance().getInstanceId());
+		Assert.assertTrue(ii.isReplace());
+		Assert.assertEquals(0, membershipReads);
+		// the row of the dead node was replaced
+		Assert.assertEquals(1, instances.size());
+	}
+
+	@Test
+	public void testClaimLostToRival() throws Exception {
+		long now = System.currentTimeMillis();
+		instances.add(newInstance(APP, 1, "i-hung", "100", now - 61000));
+		asg.addAll(Arrays.asList("i-rival", "i-new"));
+		rival = "i-rival";
+
+		InstanceIdentity ii = identity();
+		// the slot is not taken twice: this instance backs off, then finds it live and takes a new one
+		Assert.assertFalse(ii.isReplace());
+		Assert.assertNotEquals("100", ii.getInstance().getToken());
+		Assert.assertEquals(1, sleeps.size());
+		Assert.assertEquals(2, instances.size());
+	}
+
+	@Test
+	public void testStaleHeartbeatNotClaimed() throws Exception {
+		long now = System.currentTimeMillis();
+		instances.add(newInstance(APP, 1, "i-live", "100", now - 5000));
+		// the cached topology is from before the last heartbeats
+		cached = Arrays.asList(newInstance(APP, 1, "i-live", "100", now - 61000));
+		asg.addAll(Arrays.asList("i-live", "i-new"));
+
+		InstanceIdentity ii = identity();
+		Assert.assertFalse(ii.isReplace());
+		// read again before each claim, and found live
+		Assert.assertEquals(2, freshReads);
+		Assert.assertEquals("i-live", instances.get(0).getInstanceId());
+		Assert.assertEquals(2, instances.size());
+	}
+
+	@Test
+	public void testLiveAndSuspectNotClaimed() throws Exception {
+		long now = System.currentTimeMillis();
+		instances.add(newInstance(APP, 1, "i-live", "100", now - 5000));
+		// late, but still in the ASG
+		instances.add(newInstance(APP, 2, "i-late", "200", now - 40000));
+		asg.addAll(Arrays.asList("i-live", "i-late", "i-new"));
+
+		InstanceIdentity ii = identity();
+		Assert.assertEquals(1, membershipReads);
+		Assert.assertFalse(ii.isReplace());
+		Assert.assertEquals(3, instances.size());
+	}
+
+	@Test
+	public void testSlotState() throws Exception {
+		instances.add(newInstance(APP, 9, "i-new", "900"));
+		InstanceIdentity ii = identity();
+		long now = System.currentTimeMillis();
+		List<String> inAsg = Arrays.asList("i-1");
+		List<String> notInAsg = Arrays.asList("i-2");
+
+		AppsInstance ins = newInstance(APP, 1, "i-1", "100", now - 10000);
+		Assert.assertEquals(SlotState.LIVE, ii.getSlotState(ins, null, now));
+		Assert.assertEquals(SlotState.LIVE, ii.getSlotState(ins, notInAsg, now));
+
+		ins.setHeartbeat(now - 31000);
+		Assert.assertEquals(SlotState.SUSPECT, ii.getSlotState(ins, null, now));
+		Assert.assertEquals(SlotState.SUSPECT, ii.getSlotState(ins, inAsg, now));
+		Assert.assertEquals(SlotState.DEAD, ii.getSlotState(ins, notInAsg, now));
+
+		ins.setHeartbeat(now - 61000);
+		Assert.assertEquals(SlotState.DEAD, ii.getSlotState(ins, null, now));
+		Assert.assertEquals(SlotState.DEAD, ii.getSlotState(ins, inAsg, now));
+
+		// no heartbeat: the ASG alone
+		ins.setHeartbeat(0);
+		Assert.assertEquals(SlotState.SUSPECT, ii.getSlotState(ins, null, now));
+		Assert.assertEquals(SlotState.SUSPECT, ii.getSlotState(ins, inAsg, now));
+		Assert.assertEquals(SlotState.DEAD, ii.getSlotState(ins, notInAsg, now));
+	}
+
+	@Test
+	public void testPregeneratedToken() throws Exception {
+		instances.add(newInstance(APP, 1, "new_slot", "100"));
+		asg.addAll(Arrays.asList("i-new"));
+
+		InstanceIdentity ii = identity();
+		Assert.assertEquals("100", ii.getInstance().getToken());
+		Assert.assertTrue(ii.isTokenPregenerated());
+		Assert.assertEquals(1, instances.size());
+	}
+
+	@Test
+	public void testBacksOffOnlyOnContention() throws Exception {
+		asg.addAll(Arrays.asList("i-other", "i-new"));
+		conflicts = 2;
+
+		InstanceIdentity ii = identity();
+		Assert.assertEquals("i-new", ii.getInstance().getInstanceId());
+		Assert.assertEquals(3, membershipReads);
+		Assert.assertEquals(2, sleeps.size());
+		// jittered, within a ceiling growing with the conflicts and the contenders
+		Assert.assertTrue(sleeps.get(0) >= 250 && sleeps.get(0) <= 500);
+		Assert.assertTrue(sleeps.get(1) >= 500 && sleeps.get(1) <= 1000);
+	}
+}
@@ -125,6 +125,71 @@ public class SimpleTestConfiguration implements IConfiguration {
 		return null;
 	}
 
+	@Override
+	public long getBackupPartSize() {
+		return 0;
+	}
+
+	@Override
+	public int getBackupUploadThreads() {
+		return 0;
+	}
+
+	@Override
+	public int getBackupPartRetries() {
+		return 0;
+	}
+
+	@Override
+	public int getRestoreDownloadThreads() {
+		return 0;
+	}
+
+	@Override
+	public String getBackupCompression() {
+		return null;
+	}
+
+	@Override
+	public boolean isBackupIncrementalEnabled() {
+		return false;
+	}
+
+	@Override
+	public int getBackupIncrementalInterval() {
+		return 0;
+	}
+
+	@Override
+	public int getBackupIncrementalMaxIncrements() {
+		return 0;
+	}
+
+	@Override
+	public long getBackupIncrementalMaxBytes() {
+		return 0;
+	}
+
+	@Override
+	public String getBackupLocalDir() {
+		return "";
+	}
+
+	@Override
+	public int getBackupLocalRetention() {
+		return 2;
+	}
+
+	@Override
+	public boolean isBackupDisklessEnabled() {
+		return false;
+	}
+
+	@Override
+	public boolean isBackupReportEnabled() {
+		return false;
+	}
+
 	@Override
 	public String getDataCenter() {
 		return null;
@@ -245,6 +310,26 @@ public class SimpleTestConfiguration implements IConfiguration {
 		return "DynomiteManagerClusterTest";
 	}
 
+	@Override
+	public int getTopologyRefreshInterval() {
+		return 30;
+	}
+
+	@Override
+	public int getHeartbeatInterval() {
+		return 10;
+	}
+
+	@Override
+	public int getHeartbeatDeadThreshold() {
+		return 60;
+	}
+
+	@Override
+	public boolean isTokenIndexLookupEnabled() {
+		return false;
+	}
+
 	@Override
 	public String getBackupSchedule() {
 		return null;
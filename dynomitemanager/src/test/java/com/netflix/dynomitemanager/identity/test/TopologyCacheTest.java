@@ -0,0 +1,192 @@
+/**
+ * Copyright 2016 Netflix, Inc. <p/> Licensed under the Apache License, Version 2.0 (the "License"); you may not use
+ * this file except in compliance with the License. You may obtain a copy of the License at <p/>
+ * http://www.apache.org/licenses/LICENSE-2.0 <p/> Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language governing permissions and limitations under the
+ * License.
+ */
+package com.netflix.dynomitemanager.identity.test;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.netflix.dynomitemanager.defaultimpl.test.BlankConfiguration;
+import com.netflix.dynomitemanager.identity.AppsInstance;
+import com.netflix.dynomitemanager.identity.TopologyCache;
+import com.netflix.dynomitemanager.identity.TopologyCache.Topology;
+
+/**
+ * Unit Tests for TopologyCache
+ */
+public class TopologyCacheTest {
+
+	private static final String APP = "dyno_test";
+
+	private final List<AppsInstance> instances = new CopyOnWriteArrayList<AppsInstance>();
+	private final AtomicInteger loads = new AtomicInteger();
+	private volatile boolean failing;
+	private volatile long maxAgeMs = 60000;
+
+	private final TopologyCache cache = new TopologyCache(new BlankConfiguration(), null) {
+		@Override
+		protected Collection<AppsInstance> load(String app) {
+			loads.incrementAndGet();
+			if (failing) {
+				throw new RuntimeException("Cassandra is down");
+			}
+			return new ArrayList<AppsInstance>(instances);
+		}
+
+		@Override
+		protected long maxAgeMs() {
+			return maxAgeMs;
+		}
+	};
+
+	private void addInstance(int id, String token) {
+		AppsInstance instance = new AppsInstance();
+		instance.setApp(APP);
+		instance.setId(id);
+		instance.setInstanceId("i-" + id);
+		instance.setHost("host-" + id);
+		instance.setToken(token);
+		instances.add(instance);
+	}
+
+	@Test
+	public void testServedFromMemory() {
+		addInstance(3, "300");
+		addInstance(1, "100");
+		addInstance(2, "200");
+
+		Topology topology = cache.get(APP);
+		Assert.assertEquals(1, loads.get());
+		Assert.assertFalse(topology.isStale());
+		Assert.assertEquals(3, topology.getInstances().size());
+		// sorted by id
+		Assert.assertEquals(1, topology.getInstances().get(0).getId());
+		Assert.assertEquals(3, topology.getInstances().get(2).getId());
+
+		for (int i = 0; i < 10; i++) {
+			Assert.assertSame(topology, cache.get(APP));
+		}
+		Assert.assertEquals(1, loads.get());
+		Assert.assertEquals(10 * 100 / 11, cache.getHitRatio());
+	}
+
+	@Test
+	public void testVersionChangesWithTopology() {
+		addInstance(1, "100");
+		long version = cache.get(APP).getVersion();
+
+		// same topology, same version
+		cache.refreshAll();
+		Assert.assertEquals(2, loads.get());
+		Assert.assertEquals(version, cache.get(APP).getVersion());
+
+		instances.get(0).setToken("101");
+		cache.refreshAll();
+		long changed = cache.get(APP).getVersion();
+		Assert.assertTrue(changed > version);
+
+		addInstance(2, "200");
+		cache.invalidate(APP);
+		Assert.assertTrue(cache.get(APP).getVersion() > changed);
+		Assert.assertEquals(2, cache.get(APP).getInstances().size());
+	}
+
+	@Test
+	public void testKeptWhenRefreshFails() throws InterruptedException {
+		addInstance(1, "100");
+		Topology topology = cache.get(APP);
+
+		failing = true;
+		cache.refreshAll();
+		Assert.assertSame(topology, cache.get(APP));
+
+		// a topology that could not be read after a change is served stale, and read in the background
+		cache.invalidate(APP);
+		Topology stale = cache.get(APP);
+		Assert.assertTrue(stale.isStale());
+		Assert.assertEquals(topology.getVersion(), stale.getVersion());
+		addInstance(2, "200");
+		failing = false;
+		Topology changed = cache.awaitChange(APP, topology.getVersion(), 10000);
+		Assert.assertEquals(2, changed.getInstances().size());
+		Assert.assertFalse(cache.get(APP).isStale());
+	}
+
+	@Test
+	public void testStaleServedWithoutWaiting() throws InterruptedException {
+		addInstance(1, "100");
+		Topology topology = cache.get(APP);
+
+		failing = true;
+		maxAgeMs = 0;
+		Thread.sleep(5);
+		// readers get the old topology right away, while a single refresher retries
+		for (int i = 0; i < 10; i++) {
+			Topology stale = cache.get(APP);
+			Assert.assertTrue(stale.isStale());
+			Assert.assertSame(topology.getInstances(), stale.getInstances());
+		}
+		Assert.assertTrue(loads.get() <= 2);
+
+		addInstance(2, "200");
+		failing = false;
+		Assert.assertEquals(2, cache.awaitChange(APP, topology.getVersion(), 10000).getInstances().size());
+	}
+
+	@Test
+	public void testAwaitChange() throws InterruptedException {
+		addInstance(1, "100");
+		final long version = cache.get(APP).getVersion();
+
+		// no change
+		long start = System.currentTimeMillis();
+		Assert.assertEquals(version, cache.awaitChange(APP, version, 50).getVersion());
+		Assert.assertTrue(System.currentTimeMillis() - start >= 50);
+
+		// an older version is answered right away
+		Assert.assertEquals(version, cache.awaitChange(APP, version - 1, 10000).getVersion());
+
+		Thread refresher = new Thread() {
+			@Override
+			public void run() {
+				try {
+					Thread.sleep(50);
+				} catch (InterruptedException e) {
+					return;
+				}
+				addInstance(2, "200");
+				cache.invalidate(APP);
+			}
+		};
+		refresher.start();
+		start = System.currentTimeMillis();
+		Topology changed = cache.awaitChange(APP, version, 10000);
+		Assert.assertTrue(System.currentTimeMillis() - start < 10000);
+		Assert.assertTrue(changed.getVersion() > version);
+		Assert.assertEquals(2, changed.getInstances().size());
+		refresher.join();
+	}
+
+	@Test(expected = RuntimeException.class)
+	public void testNeverRead() {
+		failing = true;
+		cache.get(APP);
+	}
+
+	@Test(expected = UnsupportedOperationException.class)
+	public void testUnmodifiable() {
+		addInstance(1, "100");
+		cache.get(APP).getInstances().clear();
+	}
+}
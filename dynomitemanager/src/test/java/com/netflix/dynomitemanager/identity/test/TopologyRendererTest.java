@@ -0,0 +1,97 @@
+/**
+ * Copyright 2016 Netflix, Inc. <p/> Licensed under the Apache License, Version 2.0 (the "License"); you may not use
+ * this file except in compliance with the License. You may obtain a copy of the License at <p/>
+ * http://www.apache.org/licenses/LICENSE-2.0 <p/> Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language governing permissions and limitations under the
+ * License.
+ */
+package com.netflix.dynomitemanager.identity.test;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.netflix.dynomitemanager.defaultimpl.test.FakeInstanceIdentity;
+import com.netflix.dynomitemanager.identity.AppsInstance;
+import com.netflix.dynomitemanager.identity.RenderedTopology;
+import com.netflix.dynomitemanager.identity.TopologyCache;
+import com.netflix.dynomitemanager.identity.TopologyCache.Topology;
+import com.netflix.dynomitemanager.identity.TopologyRenderer;
+
+/**
+ * Unit Tests for TopologyRenderer
+ */
+public class TopologyRendererTest {
+
+	private final SimpleTestConfiguration config = new SimpleTestConfiguration();
+	private final List<AppsInstance> instances = new ArrayList<AppsInstance>();
+
+	private final TopologyCache cache = new TopologyCache(config, null) {
+		@Override
+		protected Collection<AppsInstance> load(String app) {
+			return new ArrayList<AppsInstance>(instances);
+		}
+	};
+
+	private void addInstance(int id, String dc, String rack) {
+		AppsInstance instance = new AppsInstance();
+		instance.setId(id);
+		instance.setInstanceId("i-" + id);
+		instance.setHost("host-" + id);
+		instance.setDatacenter(dc);
+		instance.setRack(rack);
+		instance.setToken(Integer.toString(id * 100));
+		instances.add(instance);
+	}
+
+	@Test
+	public void testClusterDescription() throws Exception {
+		addInstance(1, "us-east-1", "us-east-1c");
+		addInstance(2, "us-east-1", "us-east-1d");
+		addInstance(3, "us-west-2", "us-west-2a");
+		TopologyRenderer renderer = new TopologyRenderer(config, new FakeInstanceIdentity(), cache);
+
+		Topology topology = renderer.getTopology();
+		RenderedTopology all = renderer.getClusterDescription(topology, null, null);
+		Assert.assertTrue(all.getBody().startsWith("[{\"token\":\"100\""));
+		Assert.assertTrue(all.getBody().contains("\"hostname\":\"host-3\""));
+		// rendered once per version
+		Assert.assertSame(all, renderer.getClusterDescription(topology, null, null));
+
+		RenderedTopology east = renderer.getClusterDescription(topology, "us-east-1", null);
+		Assert.assertTrue(east.getBody().contains("host-2"));
+		Assert.assertFalse(east.getBody().contains("host-3"));
+		Assert.assertFalse(east.getTag().equals(all.getTag()));
+
+		RenderedTopology rack = renderer.getClusterDescription(topology, "us-east-1", "us-east-1c");
+		Assert.assertTrue(rack.getBody().contains("host-1"));
+		Assert.assertFalse(rack.getBody().contains("host-2"));
+
+		Assert.assertTrue(renderer.getClusterDescription(topology, "eu-west-1", null).isEmpty());
+	}
+
+	@Test
+	public void testTagFollowsContent() throws Exception {
+		addInstance(1, "us-east-1", "us-east-1c");
+		TopologyRenderer renderer = new TopologyRenderer(config, new FakeInstanceIdentity(), cache);
+		RenderedTopology before = renderer.getClusterDescription(renderer.getTopology(), null, null);
+
+		// a new version of the same content has the same tag
+		instances.get(0).setToken("101");
+		cache.refreshAll();
+		instances.get(0).setToken("100");
+		cache.refreshAll();
+		RenderedTopology same = renderer.getClusterDescription(renderer.getTopology(), null, null);
+		Assert.assertTrue(same.getVersion() > before.getVersion());
+		Assert.assertEquals(before.getTag(), same.getTag());
+
+		addInstance(2, "us-west-2", "us-west-2a");
+		cache.refreshAll();
+		Assert.assertFalse(before.getTag().equals(
+				renderer.getClusterDescription(renderer.getTopology(), null, null).getTag()));
+	}
+}
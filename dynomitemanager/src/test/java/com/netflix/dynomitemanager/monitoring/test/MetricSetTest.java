@@ -0,0 +1,83 @@
+/**
+ * Copyright 2016 Netflix, Inc. <p/> Licensed under the Apache License, Version 2.0 (the "License"); you may not use
+ * this file except in compliance with the License. You may obtain a copy of the License at <p/>
+ * http://www.apache.org/licenses/LICENSE-2.0 <p/> Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language governing permissions and limitations under the
+ * License.
+ */
+package com.netflix.dynomitemanager.monitoring.test;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.netflix.config.DynamicPropertyFactory;
+import com.netflix.dynomitemanager.monitoring.MetricSet;
+import com.netflix.servo.DefaultMonitorRegistry;
+import com.netflix.servo.monitor.Counter;
+import com.netflix.servo.monitor.Monitor;
+
+/**
+ * Tests for MetricSet
+ */
+public class MetricSetTest {
+
+    private static MetricSet newMetricSet(String name, int maxMetrics) {
+        return new MetricSet(name, DynamicPropertyFactory.getInstance().getIntProperty("test." + name + ".max",
+                maxMetrics), DynamicPropertyFactory.getInstance().getLongProperty("test." + name + ".idle.ms", 60000));
+    }
+
+    private static boolean isRegistered(String name) {
+        for (Monitor<?> monitor : DefaultMonitorRegistry.getInstance().getRegisteredMonitors()) {
+            if (monitor.getConfig().getName().equals(name)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    @Test
+    public void testEvictIdle() {
+        MetricSet metrics = newMetricSet("evict", 100);
+        metrics.updateCounter("test_evict__10.0.0.1__requests", 10);
+        metrics.updateCounter("test_evict__10.0.0.1__requests", 25);
+        metrics.updateGauge("test_evict__10.0.0.1__server_connections", 3);
+
+        Assert.assertEquals(2, metrics.size());
+        Assert.assertEquals(25L,
+                metrics.getMonitors().get("test_evict__10.0.0.1__requests").getValue().longValue());
+        Assert.assertTrue(isRegistered("test_evict__10.0.0.1__requests"));
+
+        Assert.assertEquals(0, metrics.evictIdle(System.currentTimeMillis()));
+        Assert.assertEquals(2, metrics.evictIdle(System.currentTimeMillis() + 60001));
+        Assert.assertEquals(0, metrics.size());
+        Assert.assertFalse(isRegistered("test_evict__10.0.0.1__requests"));
+    }
+
+    @Test
+    public void testMaxMetrics() {
+        MetricSet metrics = newMetricSet("max", 2);
+        metrics.updateGauge("test_max__a", 1);
+        metrics.updateGauge("test_max__b", 2);
+        metrics.updateGauge("test_max__c", 3);
+
+        Assert.assertEquals(2, metrics.size());
+        Assert.assertNull(metrics.getMonitors().get("test_max__c"));
+
+        // metrics already tracked are still updated
+        metrics.updateGauge("test_max__a", 4);
+        Assert.assertEquals(4L, metrics.getMonitors().get("test_max__a").getValue().longValue());
+    }
+
+    @Test
+    public void testKindChange() {
+        MetricSet metrics = newMetricSet("kind", 100);
+        metrics.updateCounter("test_kind__connections", 5);
+        Assert.assertTrue(metrics.getMonitors().get("test_kind__connections") instanceof Counter);
+
+        metrics.updateGauge("test_kind__connections", 7);
+        Assert.assertFalse(metrics.getMonitors().get("test_kind__connections") instanceof Counter);
+        Assert.assertEquals(7L, metrics.getMonitors().get("test_kind__connections").getValue().longValue());
+        Assert.assertEquals(1, metrics.size());
+    }
+}
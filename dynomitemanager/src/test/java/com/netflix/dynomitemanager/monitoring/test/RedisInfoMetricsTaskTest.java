@@ -22,7 +22,10 @@ import com.netflix.dynomitemanager.defaultimpl.test.FakeStorageProxy;
 import com.netflix.dynomitemanager.monitoring.JedisFactory;
 import com.netflix.dynomitemanager.monitoring.RedisInfoMetricsTask;
 import com.netflix.dynomitemanager.sidecore.storage.IStorageProxy;
+import com.netflix.dynomitemanager.sidecore.storage.InfoSampler;
+import com.netflix.dynomitemanager.sidecore.storage.StorageConnectionManager;
 import com.netflix.servo.DefaultMonitorRegistry;
+import com.netflix.servo.monitor.Monitor;
 
 import mockit.Expectations;
 import mockit.Mocked;
@@ -45,7 +48,7 @@ public class RedisInfoMetricsTaskTest {
     @Test
     public void executeTest() throws Exception {
 
-        int metricsCountSampleRedisInfo = 26;
+        int metricsCountSampleRedisInfo = 36;
 
         File file = new File(new File(".").getCanonicalPath() + "/src/test/resources/redis_info.txt");
         final String info = new String(Files.readAllBytes((Paths.get(file.getPath()))));
@@ -53,8 +56,8 @@ public class RedisInfoMetricsTaskTest {
         new Expectations() {
             {
                 jedis.connect();
-                jedis.info();
-                result = info;
+                jedis.getClient().getBinaryBulkReply();
+                result = info.getBytes();
                 jedis.disconnect();
             }
         };
@@ -69,12 +72,26 @@ public class RedisInfoMetricsTaskTest {
         IConfiguration iConfig = new BlankConfiguration();
         IStorageProxy storageProxy = new FakeStorageProxy();
 
-        RedisInfoMetricsTask mimt = new RedisInfoMetricsTask(iConfig, storageProxy, jedisFactory);
+        StorageConnectionManager connectionManager = new StorageConnectionManager(iConfig, storageProxy,
+                jedisFactory);
+
+        InfoSampler infoSampler = new InfoSampler(connectionManager);
+
+        RedisInfoMetricsTask mimt = new RedisInfoMetricsTask(iConfig, infoSampler);
         mimt.execute();
+        connectionManager.shutdown();
 
         Assert.assertNotNull(DefaultMonitorRegistry.getInstance().getRegisteredMonitors());
-        Assert.assertEquals(metricsCountSampleRedisInfo,
-                DefaultMonitorRegistry.getInstance().getRegisteredMonitors().size());
+
+        // other components register their own monitors in the same registry,
+        // only count the ones published from INFO
+        int redisInfoMonitors = 0;
+        for (Monitor<?> monitor : DefaultMonitorRegistry.getInstance().getRegisteredMonitors()) {
+            if (monitor.getConfig().getName().startsWith("Redis_")) {
+                redisInfoMonitors++;
+            }
+        }
+        Assert.assertEquals(metricsCountSampleRedisInfo, redisInfoMonitors);
 
     }
 
@@ -0,0 +1,67 @@
+/**
+ * Copyright 2016 Netflix, Inc. <p/> Licensed under the Apache License, Version 2.0 (the "License"); you may not use
+ * this file except in compliance with the License. You may obtain a copy of the License at <p/>
+ * http://www.apache.org/licenses/LICENSE-2.0 <p/> Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language governing permissions and limitations under the
+ * License.
+ */
+package com.netflix.dynomitemanager.monitoring.test;
+
+import java.util.Map;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.netflix.dynomitemanager.InstanceState;
+import com.netflix.dynomitemanager.defaultimpl.test.BlankConfiguration;
+import com.netflix.dynomitemanager.monitoring.ServoMetricsTask;
+import com.netflix.servo.monitor.Counter;
+import com.netflix.servo.monitor.NumericMonitor;
+
+/**
+ * Tests for ServoMetricsTask
+ */
+public class ServoMetricsTaskTest {
+
+    private static final String RESPONSE = "{\"service\":\"dynomite\", \"source\":\"dynomitemanager-i-16ca1846\", "
+            + "\"version\":\"0.5.9\", \"uptime\":%d, \"timestamp\":1399064677, \"datacenter\":\"DC1\", "
+            + "\"latency_99th\":%d, \"rack\":[\"r1\", 7], "
+            + "\"dyn_o_mite\": {\"client_eof\":0, \"client_connections\":%d, \"stats_count\":0, \"guage\":{}, "
+            + "\"127.0.0.1\": {\"server_eof\":1, \"server_connections\":3, \"requests\":%d, \"hosts\":[1,2]}}}";
+
+    @Test
+    public void testProcessJsonResponse() throws Exception {
+        ServoMetricsTask task = new ServoMetricsTask(new BlankConfiguration(), new InstanceState());
+
+        task.processJsonResponse(String.format(RESPONSE, 100, 250, 4, 10));
+        Map<String, NumericMonitor<?>> metrics = task.getMetricsMap();
+
+        Assert.assertEquals(100L, metrics.get("dynomite__uptime").getValue().longValue());
+        Assert.assertEquals(250L, metrics.get("dynomite__latency_99th").getValue().longValue());
+        Assert.assertEquals(0L, metrics.get("dynomite__latency_max").getValue().longValue());
+        Assert.assertEquals(4L, metrics.get("dynomite__client_connections").getValue().longValue());
+        Assert.assertEquals(10L, metrics.get("dynomite__127.0.0.1__requests").getValue().longValue());
+        Assert.assertTrue(metrics.get("dynomite__127.0.0.1__requests") instanceof Counter);
+        Assert.assertFalse(metrics.get("dynomite__127.0.0.1__server_connections") instanceof Counter);
+
+        // strings and arrays are not metrics
+        Assert.assertNull(metrics.get("dynomite__source"));
+        Assert.assertNull(metrics.get("dynomite__127.0.0.1__hosts"));
+        Assert.assertNull(metrics.get("dynomite__rack"));
+
+        task.processJsonResponse(String.format(RESPONSE, 115, 180, 2, 25));
+        Assert.assertEquals(115L, metrics.get("dynomite__uptime").getValue().longValue());
+        Assert.assertEquals(180L, metrics.get("dynomite__latency_99th").getValue().longValue());
+        Assert.assertEquals(2L, metrics.get("dynomite__client_connections").getValue().longValue());
+        Assert.assertEquals(25L, metrics.get("dynomite__127.0.0.1__requests").getValue().longValue());
+    }
+
+    @Test
+    public void testMissingService() throws Exception {
+        ServoMetricsTask task = new ServoMetricsTask(new BlankConfiguration(), new InstanceState());
+
+        task.processJsonResponse("{\"uptime\":100, \"dyn_o_mite\": {\"client_eof\":0}}");
+        Assert.assertTrue(task.getMetricsMap().isEmpty());
+    }
+}
@@ -0,0 +1,96 @@
+/**
+ * Copyright 2016 Netflix, Inc. <p/> Licensed under the Apache License, Version 2.0 (the "License"); you may not use
+ * this file except in compliance with the License. You may obtain a copy of the License at <p/>
+ * http://www.apache.org/licenses/LICENSE-2.0 <p/> Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language governing permissions and limitations under the
+ * License.
+ */
+package com.netflix.dynomitemanager.sidecore.backup.test;
+
+import java.io.IOException;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.netflix.dynomitemanager.sidecore.backup.BackupManifest;
+
+/**
+ * Tests for BackupManifest
+ */
+public class BackupManifestTest {
+
+    private static BackupManifest manifest() {
+        BackupManifest manifest = new BackupManifest();
+
+        BackupManifest.Base first = new BackupManifest.Base(1000, "incremental/1000/base", 100, "md5-a", "gen-a",
+                "head-a");
+        first.addIncrement(new BackupManifest.Segment(2000, "incremental/1000/100", 100, 50, "md5-b"));
+        first.addIncrement(new BackupManifest.Segment(3000, "incremental/1000/150", 150, 25, "md5-c"));
+        manifest.addBase(first, 10);
+
+        BackupManifest.Base second = new BackupManifest.Base(5000, "incremental/5000/base", 80, "md5-d", "gen-b",
+                "head-b");
+        second.addIncrement(new BackupManifest.Segment(6000, "incremental/5000/80", 80, 10, "md5-e"));
+        manifest.addBase(second, 10);
+        return manifest;
+    }
+
+    @Test
+    public void testPointInTime() {
+        BackupManifest manifest = manifest();
+
+        Assert.assertNull(manifest.getBase(999));
+        BackupManifest.Base base = manifest.getBase(2500);
+        Assert.assertEquals("incremental/1000/base", base.getName());
+        Assert.assertEquals(1, base.getIncrements(2500).size());
+        Assert.assertEquals(2, base.getIncrements(4999).size());
+        Assert.assertEquals(175, base.getEnd());
+
+        Assert.assertEquals("gen-b", manifest.getBase(5000).getGeneration());
+        Assert.assertEquals(0, manifest.getBase(5000).getIncrements(5999).size());
+        Assert.assertSame(manifest.getLatestBase(), manifest.getBase(Long.MAX_VALUE));
+    }
+
+    @Test
+    public void testJson() throws IOException {
+        BackupManifest parsed = BackupManifest.parse(manifest().toJson());
+
+        Assert.assertEquals(2, parsed.getBases().size());
+        BackupManifest.Base base = parsed.getBases().get(0);
+        Assert.assertEquals(1000, base.getTime());
+        Assert.assertEquals(100, base.getSize());
+        Assert.assertEquals("md5-a", base.getMd5());
+        Assert.assertEquals("gen-a", base.getGeneration());
+        Assert.assertEquals("head-a", base.getHead());
+
+        BackupManifest.Segment increment = base.getIncrements().get(1);
+        Assert.assertEquals(3000, increment.getTime());
+        Assert.assertEquals("incremental/1000/150", increment.getName());
+        Assert.assertEquals(150, increment.getOffset());
+        Assert.assertEquals(25, increment.getSize());
+        Assert.assertEquals("md5-c", increment.getMd5());
+    }
+
+    @Test(expected = IOException.class)
+    public void testInvalidJson() throws IOException {
+        BackupManifest.parse("{\"version\":1}");
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testIncrementGap() {
+        manifest().getLatestBase().addIncrement(new BackupManifest.Segment(7000, "incremental/5000/95", 95, 10,
+                "md5-f"));
+    }
+
+    @Test
+    public void testMaxBases() {
+        BackupManifest manifest = manifest();
+        manifest.addBase(new BackupManifest.Base(9000, "incremental/9000/base", 10, "md5-g", "gen-c",
+                "head-c"), 2);
+
+        Assert.assertEquals(2, manifest.getBases().size());
+        Assert.assertEquals(5000, manifest.getBases().get(0).getTime());
+        Assert.assertNull(manifest.getBase(4000));
+    }
+}
@@ -0,0 +1,84 @@
+/**
+ * Copyright 2016 Netflix, Inc. <p/> Licensed under the Apache License, Version 2.0 (the "License"); you may not use
+ * this file except in compliance with the License. You may obtain a copy of the License at <p/>
+ * http://www.apache.org/licenses/LICENSE-2.0 <p/> Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language governing permissions and limitations under the
+ * License.
+ */
+package com.netflix.dynomitemanager.sidecore.backup.test;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.netflix.config.ConfigurationManager;
+import com.netflix.dynomitemanager.InstanceState;
+import com.netflix.dynomitemanager.defaultimpl.test.BlankConfiguration;
+import com.netflix.dynomitemanager.monitoring.ServoMetricsTask;
+import com.netflix.dynomitemanager.sidecore.backup.BackupThrottle;
+
+/**
+ * Tests for BackupThrottle
+ */
+public class BackupThrottleTest {
+
+    private static final String RESPONSE = "{\"service\":\"dynomite\", \"uptime\":100, \"latency_99th\":%d, "
+            + "\"dyn_o_mite\": {\"client_connections\":1}}";
+
+    @After
+    public void clearProperties() {
+        ConfigurationManager.getConfigInstance().clearProperty("dynomitemanager.backup.throttle.disk.bytes_per_sec");
+        ConfigurationManager.getConfigInstance().clearProperty(
+                "dynomitemanager.backup.throttle.network.bytes_per_sec");
+        ConfigurationManager.getConfigInstance().clearProperty("dynomitemanager.backup.throttle.latency_99th.us");
+    }
+
+    @Test
+    public void testRuntimeLimits() {
+        BackupThrottle throttle = new BackupThrottle(new ServoMetricsTask(new BlankConfiguration(),
+                new InstanceState()));
+        Assert.assertEquals(0, throttle.getDiskLimit());
+        Assert.assertEquals(0, throttle.getNetworkLimit());
+
+        ConfigurationManager.getConfigInstance().setProperty("dynomitemanager.backup.throttle.disk.bytes_per_sec",
+                "4000000");
+        Assert.assertEquals(4000000, throttle.getDiskLimit());
+        Assert.assertEquals(0, throttle.getNetworkLimit());
+
+        // unlimited never waits
+        long start = System.currentTimeMillis();
+        throttle.acquireNetwork(100 * 1024 * 1024);
+        Assert.assertTrue(System.currentTimeMillis() - start < 1000);
+    }
+
+    @Test
+    public void testAdaptive() throws Exception {
+        ServoMetricsTask dynomiteMetrics = new ServoMetricsTask(new BlankConfiguration(), new InstanceState());
+        BackupThrottle throttle = new BackupThrottle(dynomiteMetrics);
+        ConfigurationManager.getConfigInstance().setProperty(
+                "dynomitemanager.backup.throttle.network.bytes_per_sec", "1000000");
+        ConfigurationManager.getConfigInstance().setProperty("dynomitemanager.backup.throttle.latency_99th.us",
+                "2000");
+
+        dynomiteMetrics.processJsonResponse(String.format(RESPONSE, 5000));
+        Assert.assertEquals(50, throttle.adapt());
+        Assert.assertEquals(500000, throttle.getNetworkLimit());
+        Assert.assertEquals(25, throttle.adapt());
+        Assert.assertEquals(12, throttle.adapt());
+        // not under the minimum
+        Assert.assertEquals(10, throttle.adapt());
+        Assert.assertEquals(10, throttle.adapt());
+        Assert.assertEquals(100000, throttle.getNetworkLimit());
+
+        dynomiteMetrics.processJsonResponse(String.format(RESPONSE, 500));
+        Assert.assertEquals(20, throttle.adapt());
+        Assert.assertEquals(30, throttle.adapt());
+        Assert.assertEquals(300000, throttle.getNetworkLimit());
+
+        // back to the configured limits without a threshold
+        ConfigurationManager.getConfigInstance().clearProperty("dynomitemanager.backup.throttle.latency_99th.us");
+        Assert.assertEquals(100, throttle.adapt());
+        Assert.assertEquals(1000000, throttle.getNetworkLimit());
+    }
+}
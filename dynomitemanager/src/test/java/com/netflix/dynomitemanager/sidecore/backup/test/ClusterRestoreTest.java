@@ -0,0 +1,217 @@
+/**
+ * Copyright 2016 Netflix, Inc. <p/> Licensed under the Apache License, Version 2.0 (the "License"); you may not use
+ * this file except in compliance with the License. You may obtain a copy of the License at <p/>
+ * http://www.apache.org/licenses/LICENSE-2.0 <p/> Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language governing permissions and limitations under the
+ * License.
+ */
+package com.netflix.dynomitemanager.sidecore.backup.test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.netflix.dynomitemanager.InstanceState;
+import com.netflix.dynomitemanager.defaultimpl.test.BlankConfiguration;
+import com.netflix.dynomitemanager.identity.AppsInstance;
+import com.netflix.dynomitemanager.identity.IAppsInstanceFactory;
+import com.netflix.dynomitemanager.sidecore.backup.ClusterRestore;
+
+/**
+ * Tests for ClusterRestore, with the Dynomite Managers of the nodes simulated
+ */
+public class ClusterRestoreTest {
+
+    private static final String FAILING_HOST = "c-2";
+
+    private final List<AppsInstance> instances = new ArrayList<AppsInstance>();
+    private final CountDownLatch released = new CountDownLatch(1);
+
+    // what the simulated nodes were asked to do
+    private final Map<String, Integer> inFlight = new HashMap<String, Integer>();
+    private final Map<String, Integer> maxInFlight = new HashMap<String, Integer>();
+    private final Map<String, Integer> polls = new HashMap<String, Integer>();
+    private final Set<String> finished = new HashSet<String>();
+    private final Set<String> started = Collections.synchronizedSet(new HashSet<String>());
+    private final List<String> errors = Collections.synchronizedList(new ArrayList<String>());
+
+    private void addNodes(String rack, int count) {
+        for (int i = 1; i <= count; i++) {
+            AppsInstance instance = new AppsInstance();
+            instance.setHost(rack + "-" + i, "10.0.0." + i);
+            instance.setRack(rack);
+            instance.setToken(Integer.toString(i));
+            instances.add(instance);
+        }
+    }
+
+    private static String rackOf(String host) {
+        return host.substring(0, host.indexOf('-'));
+    }
+
+    private ClusterRestore newClusterRestore() {
+        IAppsInstanceFactory factory = new IAppsInstanceFactory() {
+            @Override
+            public List<AppsInstance> getAllIds(String appName) {
+                return instances;
+            }
+
+            @Override
+            public List<AppsInstance> refreshIds(String appName) {
+                return instances;
+            }
+
+            @Override
+            public List<AppsInstance> getLocalDCIds(String appName, String region) {
+                return instances;
+            }
+
+            @Override
+            public AppsInstance getInstance(String appName, String dc, int id) {
+                return null;
+            }
+
+            @Override
+            public AppsInstance create(String app, int id, String instanceID, String hostname, String ip,
+                    String rac, Map<String, Object> volumes, String token, String datacenter) {
+                return null;
+            }
+
+            @Override
+            public void delete(AppsInstance inst) {
+            }
+
+            @Override
+            public void update(AppsInstance inst) {
+            }
+
+            @Override
+            public void sort(List<AppsInstance> return_) {
+            }
+
+            @Override
+            public void attachVolumes(AppsInstance instance, String mountPath, String device) {
+            }
+        };
+
+        return new ClusterRestore(new BlankConfiguration(), factory, new InstanceState(), null, null) {
+            @Override
+            protected String call(String host, String path) throws IOException {
+                if (path.startsWith("/restore_node")) {
+                    awaitRelease();
+                    return restoreNode(host, path);
+                } else if (path.equals("/restore_progress")) {
+                    return progress(host);
+                } else if (path.equals("/start")) {
+                    nodeStarted(host);
+                    return "[\"ok\"]";
+                }
+                throw new IOException("Unexpected call " + path);
+            }
+
+            @Override
+            protected long pollIntervalMs() {
+                return 5;
+            }
+        };
+    }
+
+    private void awaitRelease() throws IOException {
+        try {
+            released.await(10, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            throw new IOException(e);
+        }
+    }
+
+    private synchronized String restoreNode(String host, String path) {
+        if (!path.contains("date=20170102") || !path.contains("bytes_per_sec=1000")) {
+            errors.add("Unexpected restore " + path);
+        }
+        String rack = rackOf(host);
+        int n = (inFlight.containsKey(rack) ? inFlight.get(rack) : 0) + 1;
+        inFlight.put(rack, n);
+        maxInFlight.put(rack, Math.max(n, maxInFlight.containsKey(rack) ? maxInFlight.get(rack) : 0));
+        return "{\"state\":\"restoring\"}";
+    }
+
+    private synchronized String progress(String host) {
+        int n = (polls.containsKey(host) ? polls.get(host) : 0) + 1;
+        polls.put(host, n);
+        if (n < 3) {
+            return "{\"state\":\"restoring\",\"downloaded_bytes\":" + n + "}";
+        }
+        if (finished.add(host)) {
+            String rack = rackOf(host);
+            inFlight.put(rack, inFlight.get(rack) - 1);
+        }
+        return "{\"state\":\"" + (host.equals(FAILING_HOST) ? "failed" : "restored") + "\",\"downloaded_bytes\":3}";
+    }
+
+    private synchronized void nodeStarted(String host) {
+        // a rack is started once all its nodes are done
+        for (AppsInstance instance : instances) {
+            if (instance.getRack().equals(rackOf(host)) && !finished.contains(instance.getHostName())) {
+                errors.add("Started " + host + " before " + instance.getHostName() + " was restored");
+            }
+        }
+        started.add(host);
+    }
+
+    private static void awaitFinished(ClusterRestore clusterRestore) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 10000;
+        while (!clusterRestore.getStatus().contains("\"state\":\"finished\"")) {
+            Assert.assertTrue("cluster restore did not finish", System.currentTimeMillis() < deadline);
+            Thread.sleep(10);
+        }
+    }
+
+    @Test
+    public void testRestoresRackByRack() throws InterruptedException {
+        addNodes("a", 5);
+        addNodes("b", 1);
+        addNodes("c", 3);
+        ClusterRestore clusterRestore = newClusterRestore();
+
+        Assert.assertTrue(clusterRestore.start("20170102", 2, 1000));
+        // one cluster restore at a time
+        Assert.assertFalse(clusterRestore.start("20170102", 2, 1000));
+        released.countDown();
+        awaitFinished(clusterRestore);
+
+        Assert.assertEquals(Collections.emptyList(), errors);
+        Assert.assertEquals(2, (int) maxInFlight.get("a"));
+        Assert.assertEquals(1, (int) maxInFlight.get("b"));
+        Assert.assertEquals(2, (int) maxInFlight.get("c"));
+
+        // the node that failed to restore is left stopped
+        Assert.assertEquals(instances.size() - 1, started.size());
+        Assert.assertFalse(started.contains(FAILING_HOST));
+        String status = clusterRestore.getStatus();
+        Assert.assertTrue(status, status.contains("\"failed\":1"));
+        Assert.assertTrue(status, status.contains("\"started\":8"));
+
+        // another restore may follow
+        Assert.assertTrue(clusterRestore.start("20170102", 2, 1000));
+        awaitFinished(clusterRestore);
+    }
+
+    @Test
+    public void testNoNodes() {
+        ClusterRestore clusterRestore = newClusterRestore();
+        Assert.assertTrue(clusterRestore.getStatus().contains("\"state\":\"idle\""));
+        Assert.assertTrue(clusterRestore.start("20170102", 1, 0));
+        Assert.assertTrue(clusterRestore.getStatus().contains("\"state\":\"finished\""));
+    }
+}
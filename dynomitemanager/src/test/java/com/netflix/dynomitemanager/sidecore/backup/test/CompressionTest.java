@@ -0,0 +1,129 @@
+/**
+ * Copyright 2016 Netflix, Inc. <p/> Licensed under the Apache License, Version 2.0 (the "License"); you may not use
+ * this file except in compliance with the License. You may obtain a copy of the License at <p/>
+ * http://www.apache.org/licenses/LICENSE-2.0 <p/> Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language governing permissions and limitations under the
+ * License.
+ */
+package com.netflix.dynomitemanager.sidecore.backup.test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.netflix.dynomitemanager.sidecore.backup.Compression;
+
+/**
+ * Tests for Compression
+ */
+public class CompressionTest {
+
+    /**
+     * @return a file of the given size made of repeated redis commands, with some random bytes that do not compress
+     */
+    private static byte[] sample(int size) {
+        byte[] data = new byte[size];
+        byte[] command = "*3\r\n$3\r\nSET\r\n$8\r\nkey:0001\r\n$5\r\nvalue\r\n".getBytes();
+        for (int i = 0; i < size; i++) {
+            data[i] = command[i % command.length];
+        }
+        byte[] noise = new byte[Compression.BLOCK_SIZE];
+        new Random(42).nextBytes(noise);
+        System.arraycopy(noise, 0, data, Compression.BLOCK_SIZE, Math.min(noise.length, size - Compression.BLOCK_SIZE));
+        return data;
+    }
+
+    /**
+     * @return the frames of data, the way a backup is compressed
+     */
+    private static byte[] frames(Compression compression, byte[] data) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] block = new byte[Compression.BLOCK_SIZE];
+        for (int offset = 0; offset < data.length; offset += block.length) {
+            int length = Math.min(block.length, data.length - offset);
+            System.arraycopy(data, offset, block, 0, length);
+            out.write(compression.frame(block, length));
+        }
+        return out.toByteArray();
+    }
+
+    private static void assertRoundTrip(Compression compression, byte[] data, int chunkSize) throws IOException {
+        byte[] frames = frames(compression, data);
+        Assert.assertTrue(frames.length <= Compression.maxFramedLength(data.length));
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        Compression.FrameDecoder decoder = compression.newDecoder(out);
+        for (int offset = 0; offset < frames.length; offset += chunkSize) {
+            decoder.decode(frames, offset, Math.min(chunkSize, frames.length - offset));
+        }
+
+        Assert.assertEquals(data.length, decoder.finish());
+        Assert.assertTrue(compression + " in chunks of " + chunkSize, Arrays.equals(data, out.toByteArray()));
+    }
+
+    @Test
+    public void testRoundTrip() throws IOException {
+        byte[] data = sample(3 * Compression.BLOCK_SIZE + 1234);
+        for (Compression compression : Compression.values()) {
+            // frames split across chunks anywhere, including in their header
+            for (int chunkSize : new int[] { 1, 5, 4096, 1000003, data.length * 2 }) {
+                assertRoundTrip(compression, data, chunkSize);
+            }
+            assertRoundTrip(compression, new byte[0], 1);
+        }
+    }
+
+    @Test
+    public void testCompresses() throws IOException {
+        byte[] data = sample(4 * Compression.BLOCK_SIZE);
+        int none = frames(Compression.NONE, data).length;
+        Assert.assertTrue(frames(Compression.LZF, data).length < none / 2);
+        Assert.assertTrue(frames(Compression.SNAPPY, data).length < none / 2);
+    }
+
+    @Test
+    public void testInputStream() throws IOException {
+        byte[] data = sample(3 * Compression.BLOCK_SIZE + 1234);
+        for (Compression compression : Compression.values()) {
+            InputStream in = compression.newInputStream(new ByteArrayInputStream(frames(compression, data)));
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            byte[] buffer = new byte[7919];
+            int read;
+            while ((read = in.read(buffer, 0, buffer.length)) >= 0) {
+                out.write(buffer, 0, read);
+            }
+            Assert.assertTrue(compression.toString(), Arrays.equals(data, out.toByteArray()));
+        }
+    }
+
+    @Test(expected = IOException.class)
+    public void testTruncated() throws IOException {
+        byte[] frames = frames(Compression.SNAPPY, sample(2 * Compression.BLOCK_SIZE));
+        Compression.FrameDecoder decoder = Compression.SNAPPY.newDecoder(new ByteArrayOutputStream());
+        decoder.decode(frames, 0, frames.length - 10);
+        decoder.finish();
+    }
+
+    @Test(expected = IOException.class)
+    public void testOversizedFrame() throws IOException {
+        // a corrupt header claiming a 2GB block must fail before the block
+        // is allocated
+        byte[] header = { 1, 0x7f, (byte) 0xff, (byte) 0xff, (byte) 0xff, 0x7f, (byte) 0xff, (byte) 0xff, 0 };
+        Compression.LZF.newDecoder(new ByteArrayOutputStream()).decode(header, 0, header.length);
+    }
+
+    @Test
+    public void testForName() {
+        Assert.assertEquals(Compression.SNAPPY, Compression.forName("snappy"));
+        Assert.assertEquals(Compression.LZF, Compression.forName(" LZF "));
+        Assert.assertEquals(Compression.NONE, Compression.forName(null));
+        Assert.assertEquals(Compression.NONE, Compression.forName(""));
+    }
+}
@@ -0,0 +1,204 @@
+/**
+ * Copyright 2016 Netflix, Inc. <p/> Licensed under the Apache License, Version 2.0 (the "License"); you may not use
+ * this file except in compliance with the License. You may obtain a copy of the License at <p/>
+ * http://www.apache.org/licenses/LICENSE-2.0 <p/> Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language governing permissions and limitations under the
+ * License.
+ */
+package com.netflix.dynomitemanager.sidecore.backup.test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.joda.time.DateTime;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.netflix.dynomitemanager.defaultimpl.test.BlankConfiguration;
+import com.netflix.dynomitemanager.sidecore.backup.Backup;
+import com.netflix.dynomitemanager.sidecore.backup.BackupManifest;
+import com.netflix.dynomitemanager.sidecore.backup.IncrementalBackup;
+import com.netflix.dynomitemanager.sidecore.backup.SnapshotStaging;
+
+/**
+ * Tests for the choice between a base and an increment of IncrementalBackup
+ */
+public class IncrementalBackupTest {
+
+    @Rule
+    public TemporaryFolder dataDir = new TemporaryFolder();
+
+    private int maxIncrements;
+    private long maxBytes;
+    private File aof;
+
+    // the offset and length of each upload, and the last manifest
+    private final List<long[]> uploads = new ArrayList<long[]>();
+    private BackupManifest manifest;
+
+    private final Backup backup = new Backup() {
+        @Override
+        public boolean upload(File file, DateTime todayStart) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public boolean upload(InputStream in, long length, DateTime todayStart) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public boolean upload(File file, long offset, long length, String name) {
+            uploads.add(new long[] { offset, length });
+            return true;
+        }
+
+        @Override
+        public boolean uploadManifest(BackupManifest uploaded) {
+            manifest = uploaded;
+            return true;
+        }
+
+        @Override
+        public BackupManifest getManifest() {
+            return null;
+        }
+    };
+
+    @Before
+    public void setUp() {
+        aof = new File(dataDir.getRoot(), "appendonly.aof");
+    }
+
+    private IncrementalBackup incrementalBackup() {
+        BlankConfiguration config = new BlankConfiguration() {
+            @Override
+            public boolean isRedisAofEnabled() {
+                return true;
+            }
+
+            @Override
+            public String getRedisDataDir() {
+                return dataDir.getRoot().getPath();
+            }
+
+            @Override
+            public int getBackupIncrementalMaxIncrements() {
+                return maxIncrements;
+            }
+
+            @Override
+            public long getBackupIncrementalMaxBytes() {
+                return maxBytes;
+            }
+        };
+        return new IncrementalBackup(config, backup, new SnapshotStaging(config));
+    }
+
+    /**
+     * Writes the command to the AOF, after what it has or in place of it, keeping the file identity either way.
+     */
+    private void write(String command, boolean append) throws IOException {
+        FileOutputStream out = new FileOutputStream(aof, append);
+        try {
+            out.write(command.getBytes());
+        } finally {
+            out.close();
+        }
+    }
+
+    private static String command(int i) {
+        return String.format("*3\r\n$3\r\nSET\r\n$3\r\nk%02d\r\n$1\r\nv\r\n", i);
+    }
+
+    private void assertUpload(int index, long offset, long length) {
+        Assert.assertEquals(offset, uploads.get(index)[0]);
+        Assert.assertEquals(length, uploads.get(index)[1]);
+    }
+
+    @Test
+    public void testRotationOnIncrements() throws IOException {
+        maxIncrements = 2;
+        IncrementalBackup incrementalBackup = incrementalBackup();
+        int size = command(0).length();
+
+        write(command(0), false);
+        Assert.assertTrue(incrementalBackup.backup(false));
+        for (int i = 1; i <= 3; i++) {
+            write(command(i), true);
+            Assert.assertTrue(incrementalBackup.backup(false));
+        }
+
+        // a base, two increments, then a new base of the whole AOF
+        Assert.assertEquals(4, uploads.size());
+        assertUpload(0, 0, size);
+        assertUpload(1, size, size);
+        assertUpload(2, 2 * size, size);
+        assertUpload(3, 0, 4 * size);
+        Assert.assertEquals(2, manifest.getBases().size());
+        Assert.assertEquals(2, manifest.getBases().get(0).getIncrements().size());
+        Assert.assertEquals(0, manifest.getLatestBase().getIncrements().size());
+        Assert.assertEquals(4 * size, manifest.getLatestBase().getEnd());
+    }
+
+    @Test
+    public void testRotationOnBytes() throws IOException {
+        IncrementalBackup incrementalBackup = incrementalBackup();
+        int size = command(0).length();
+        maxBytes = 2 * size;
+
+        write(command(0), false);
+        Assert.assertTrue(incrementalBackup.backup(false));
+        write(command(1) + command(2), true);
+        Assert.assertTrue(incrementalBackup.backup(false));
+        // one more would be over the bytes a base may have increments of
+        write(command(3), true);
+        Assert.assertTrue(incrementalBackup.backup(false));
+
+        Assert.assertEquals(3, uploads.size());
+        assertUpload(1, size, 2 * size);
+        assertUpload(2, 0, 4 * size);
+        Assert.assertEquals(2, manifest.getBases().size());
+    }
+
+    @Test
+    public void testRewriteInPlace() throws IOException {
+        IncrementalBackup incrementalBackup = incrementalBackup();
+        int size = command(0).length();
+
+        write(command(0), false);
+        Assert.assertTrue(incrementalBackup.backup(false));
+        // same file, longer than the base, but no longer starting with it
+        write(command(1) + command(2), false);
+        Assert.assertTrue(incrementalBackup.backup(false));
+
+        Assert.assertEquals(2, uploads.size());
+        assertUpload(1, 0, 2 * size);
+        Assert.assertEquals(2, manifest.getBases().size());
+        Assert.assertNotEquals(manifest.getBases().get(0).getHead(), manifest.getLatestBase().getHead());
+    }
+
+    @Test
+    public void testNothingAppended() throws IOException {
+        maxIncrements = 1;
+        IncrementalBackup incrementalBackup = incrementalBackup();
+
+        write(command(0), false);
+        Assert.assertTrue(incrementalBackup.backup(false));
+        write(command(1), true);
+        Assert.assertTrue(incrementalBackup.backup(false));
+        // a full base with nothing new is kept
+        Assert.assertTrue(incrementalBackup.backup(false));
+
+        Assert.assertEquals(2, uploads.size());
+        Assert.assertEquals(1, manifest.getBases().size());
+    }
+}
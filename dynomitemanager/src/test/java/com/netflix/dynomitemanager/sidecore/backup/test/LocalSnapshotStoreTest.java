@@ -0,0 +1,177 @@
+/**
+ * Copyright 2016 Netflix, Inc. <p/> Licensed under the Apache License, Version 2.0 (the "License"); you may not use
+ * this file except in compliance with the License. You may obtain a copy of the License at <p/>
+ * http://www.apache.org/licenses/LICENSE-2.0 <p/> Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language governing permissions and limitations under the
+ * License.
+ */
+package com.netflix.dynomitemanager.sidecore.backup.test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.netflix.dynomitemanager.defaultimpl.test.BlankConfiguration;
+import com.netflix.dynomitemanager.sidecore.backup.LocalSnapshotStore;
+import com.netflix.dynomitemanager.sidecore.utils.SystemUtils;
+
+/**
+ * Tests for LocalSnapshotStore
+ */
+public class LocalSnapshotStoreTest {
+
+    private static final long DAY = 24L * 60 * 60 * 1000;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private LocalSnapshotStore newStore(final boolean aof) {
+        final String path = new File(folder.getRoot(), "local").getPath();
+        return new LocalSnapshotStore(new BlankConfiguration() {
+            @Override
+            public String getBackupLocalDir() {
+                return path;
+            }
+
+            @Override
+            public int getBackupLocalRetention() {
+                return 2;
+            }
+
+            @Override
+            public boolean isRedisAofEnabled() {
+                return aof;
+            }
+        });
+    }
+
+    private File dump(String name, String content) throws IOException {
+        File file = new File(folder.getRoot(), name);
+        Files.write(file.toPath(), content.getBytes(StandardCharsets.UTF_8));
+        return file;
+    }
+
+    @Test
+    public void testDisabledWithoutDirectory() {
+        Assert.assertFalse(new LocalSnapshotStore(new BlankConfiguration()).isEnabled());
+        Assert.assertTrue(newStore(false).isEnabled());
+    }
+
+    @Test
+    public void testStoreAndVerify() throws IOException {
+        File rdb = dump("nfredis.rdb", "rdb dump");
+        LocalSnapshotStore store = newStore(false);
+        LocalSnapshotStore.Snapshot snapshot = store.store(rdb, DAY);
+
+        Assert.assertEquals(DAY, snapshot.getTime());
+        Assert.assertEquals("nfredis.rdb", snapshot.getFile().getName());
+        Assert.assertEquals(rdb.length(), snapshot.getSize());
+        Assert.assertEquals(SystemUtils.md5(rdb), snapshot.getMd5());
+        Assert.assertFalse(snapshot.isOffloaded());
+        Assert.assertTrue(store.verify(snapshot));
+
+        List<LocalSnapshotStore.Snapshot> snapshots = store.list();
+        Assert.assertEquals(1, snapshots.size());
+        Assert.assertEquals(snapshot.getMd5(), snapshots.get(0).getMd5());
+
+        // a BGSAVE replaces the dump and leaves the snapshot as it was
+        Files.delete(rdb.toPath());
+        dump("nfredis.rdb", "next rdb dump");
+        Assert.assertTrue(store.verify(snapshot));
+    }
+
+    @Test
+    public void testAofCopied() throws IOException {
+        File aof = dump("appendonly.aof", "*1\r\n$4\r\nPING\r\n");
+        LocalSnapshotStore store = newStore(true);
+        LocalSnapshotStore.Snapshot snapshot = store.store(aof, DAY);
+
+        // appending to the AOF does not change the snapshot
+        Files.write(aof.toPath(), "*1\r\n$4\r\nPING\r\n".getBytes(StandardCharsets.UTF_8),
+                StandardOpenOption.APPEND);
+        Assert.assertTrue(store.verify(snapshot));
+        Assert.assertEquals(aof.length() / 2, snapshot.getFile().length());
+    }
+
+    @Test
+    public void testCorruptionDetected() throws IOException {
+        LocalSnapshotStore store = newStore(true);
+        LocalSnapshotStore.Snapshot snapshot = store.store(dump("appendonly.aof", "abcdef"), DAY);
+
+        Files.write(snapshot.getFile().toPath(), "abcxyz".getBytes(StandardCharsets.UTF_8));
+        Assert.assertFalse(store.verify(snapshot));
+
+        Files.write(snapshot.getFile().toPath(), "abc".getBytes(StandardCharsets.UTF_8));
+        Assert.assertFalse(store.verify(snapshot));
+    }
+
+    @Test
+    public void testRetentionKeepsSnapshotsNotOffloaded() throws IOException {
+        LocalSnapshotStore store = newStore(true);
+        LocalSnapshotStore.Snapshot first = store.store(dump("appendonly.aof", "1"), DAY);
+        LocalSnapshotStore.Snapshot second = store.store(dump("appendonly.aof", "2"), 2 * DAY);
+        LocalSnapshotStore.Snapshot third = store.store(dump("appendonly.aof", "3"), 3 * DAY);
+
+        // the oldest is beyond the retention but not in S3 yet
+        store.prune(Collections.<String> emptySet());
+        Assert.assertEquals(3, store.list().size());
+
+        store.markOffloaded(first);
+        store.prune(Collections.<String> emptySet());
+        List<LocalSnapshotStore.Snapshot> snapshots = store.list();
+        Assert.assertEquals(2, snapshots.size());
+        Assert.assertEquals(second.getDir(), snapshots.get(0).getDir());
+        Assert.assertEquals(third.getDir(), snapshots.get(1).getDir());
+        Assert.assertFalse(first.getDir().exists());
+    }
+
+    @Test
+    public void testRetentionRemovesSupersededAndInterrupted() throws IOException {
+        LocalSnapshotStore store = newStore(true);
+        LocalSnapshotStore.Snapshot first = store.store(dump("appendonly.aof", "1"), DAY);
+        store.store(dump("appendonly.aof", "2"), DAY);
+        store.store(dump("appendonly.aof", "3"), 2 * DAY);
+
+        File interrupted = new File(first.getDir().getParentFile(), 3 * DAY + "-1");
+        interrupted.mkdirs();
+        File other = new File(first.getDir().getParentFile(), "README");
+        other.createNewFile();
+
+        // the first is replaced in S3 by the second snapshot of the day, unless being offloaded
+        store.prune(Collections.singleton(first.getDir().getName()));
+        Assert.assertTrue(first.getDir().exists());
+        store.prune(Collections.<String> emptySet());
+        Assert.assertFalse(first.getDir().exists());
+        Assert.assertEquals(2, store.list().size());
+
+        Assert.assertFalse(interrupted.exists());
+        Assert.assertTrue(other.exists());
+    }
+
+    @Test
+    public void testInterruptedStoreRemoved() throws IOException {
+        LocalSnapshotStore store = newStore(true);
+        LocalSnapshotStore.Snapshot snapshot = store.store(dump("appendonly.aof", "1"), DAY);
+        // nothing of the copy is left once in place
+        Assert.assertEquals(1, snapshot.getDir().getParentFile().list().length);
+
+        // a copy a restart interrupted is neither listed nor kept
+        File interrupted = new File(snapshot.getDir().getParentFile(), "storing-1000-1");
+        interrupted.mkdirs();
+        Files.write(new File(interrupted, "appendonly.aof").toPath(), "2".getBytes(StandardCharsets.UTF_8));
+        Assert.assertEquals(1, store.list().size());
+        store.prune(Collections.<String> emptySet());
+        Assert.assertFalse(interrupted.exists());
+        Assert.assertTrue(snapshot.getDir().exists());
+    }
+}
@@ -0,0 +1,165 @@
+/**
+ * Copyright 2016 Netflix, Inc. <p/> Licensed under the Apache License, Version 2.0 (the "License"); you may not use
+ * this file except in compliance with the License. You may obtain a copy of the License at <p/>
+ * http://www.apache.org/licenses/LICENSE-2.0 <p/> Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language governing permissions and limitations under the
+ * License.
+ */
+package com.netflix.dynomitemanager.sidecore.backup.test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.netflix.dynomitemanager.sidecore.backup.RdbParser;
+import com.netflix.dynomitemanager.sidecore.backup.RdbReport;
+
+/**
+ * Tests for RdbParser and RdbReport
+ */
+public class RdbParserTest {
+
+    private static final long CTIME = 1500000000L;
+
+    private final ByteArrayOutputStream rdb = new ByteArrayOutputStream();
+
+    private RdbParserTest bytes(int... bytes) {
+        for (int b : bytes) {
+            rdb.write(b);
+        }
+        return this;
+    }
+
+    private RdbParserTest raw(byte[] bytes) {
+        rdb.write(bytes, 0, bytes.length);
+        return this;
+    }
+
+    private RdbParserTest littleEndian(long value, int bytes) {
+        for (int i = 0; i < bytes; i++) {
+            rdb.write((int) (value >>> (8 * i)) & 0xff);
+        }
+        return this;
+    }
+
+    private RdbParserTest length(int length) {
+        if (length < 64) {
+            return bytes(length);
+        }
+        return bytes(0x40 | (length >> 8), length & 0xff);
+    }
+
+    private RdbParserTest string(String s) {
+        byte[] b = s.getBytes(StandardCharsets.UTF_8);
+        return length(b.length).raw(b);
+    }
+
+    /**
+     * An RDB with a key of each kind of encoding, followed by the rest of an AOF.
+     */
+    private byte[] sample() {
+        raw("REDIS0009".getBytes(StandardCharsets.US_ASCII));
+        bytes(0xFA).string("redis-ver").string("5.0.0");
+        // ctime as a 32 bit integer string
+        bytes(0xFA).string("ctime").bytes(0xC2).littleEndian(CTIME, 4);
+        bytes(0xFE, 0x00, 0xFB, 0x08, 0x02);
+
+        bytes(0x00).string("user:1").string("hello");
+        // 14 bit length
+        bytes(0x00).string("user:big").string(new String(new char[100]).replace('\0', 'x'));
+        // expires in 30 seconds, integer value
+        bytes(0xFC).littleEndian((CTIME + 30) * 1000, 8).bytes(0x00).string("session:a").bytes(0xC0, 0x05);
+        // expired
+        bytes(0xFD).littleEndian(CTIME - 10, 4).bytes(0x00).string("old:1").string("v");
+        bytes(0x04).string("user:2").length(2).string("name").string("bob").string("age").string("42");
+        bytes(0x05).string("scores").length(1).string("a").littleEndian(Double.doubleToLongBits(1.5), 8);
+        bytes(0x03).string("scores:old").length(2).string("a").bytes(3).raw("1.5".getBytes())
+                .string("b").bytes(254);
+        // a listpack of a quicklist
+        bytes(0x12).string("queue:1").length(1).length(2).string("0123456789");
+        // LZF key with literals and a back reference: abcabcabc
+        bytes(0x00, 0xC3, 6, 9, 0x02, 'a', 'b', 'c', 0x80, 0x02).string("x");
+
+        bytes(0x13).string("events:1");
+        bytes(1).raw(new byte[] { 16 }).raw(new byte[16]).string("lp");
+        bytes(1, 2, 3, 4, 5, 6, 7, 1);
+        bytes(1).string("g").bytes(2, 3, 1);
+        bytes(1).raw(new byte[16 + 8]).bytes(1);
+        bytes(1).string("c").raw(new byte[8]).bytes(1).raw(new byte[16]);
+
+        bytes(0xFF).raw(new byte[8]);
+        raw("*1\r\n$4\r\nPING\r\n".getBytes(StandardCharsets.US_ASCII));
+        return rdb.toByteArray();
+    }
+
+    private static RdbReport report(byte[] rdb) throws IOException {
+        RdbReport report = new RdbReport(3, 100, ":", 0);
+        new RdbParser(new ByteArrayInputStream(rdb)).parse(report);
+        return report;
+    }
+
+    @Test
+    public void testKeys() throws IOException {
+        byte[] rdb = sample();
+        RdbReport report = new RdbReport(3, 100, ":", 0);
+        long read = new RdbParser(new ByteArrayInputStream(rdb)).parse(report);
+
+        // the AOF after the RDB is left unread
+        Assert.assertEquals(rdb.length - "*1\r\n$4\r\nPING\r\n".length(), read);
+        Assert.assertEquals(10, report.getKeys());
+        Assert.assertArrayEquals(new long[] { 5, 6 + 5 + 8 + 100 + 9 + 1 + 5 + 1 + 9 + 1 },
+                report.getType("string"));
+        Assert.assertArrayEquals(new long[] { 1, 6 + 12 }, report.getType("hash"));
+        Assert.assertArrayEquals(new long[] { 2, 6 + 9 + 10 + 1 + 3 + 1 }, report.getType("zset"));
+        Assert.assertArrayEquals(new long[] { 1, 7 + 10 }, report.getType("list"));
+        Assert.assertArrayEquals(new long[] { 1, 8 + 16 + 2 + 1 + 24 + 1 + 16 }, report.getType("stream"));
+    }
+
+    @Test
+    public void testLargestKeys() throws IOException {
+        Assert.assertEquals(Arrays.asList("user:big", "events:1", "user:2"), report(sample()).getLargestKeys());
+    }
+
+    @Test
+    public void testExpiries() throws IOException {
+        // relative to the ctime of the RDB
+        Assert.assertArrayEquals(new long[] { 8, 1, 1, 0, 0, 0, 0 }, report(sample()).getExpiries());
+    }
+
+    @Test
+    public void testPrefixes() throws IOException {
+        RdbReport report = report(sample());
+        long[] user = report.getPrefix("user");
+        Assert.assertEquals(3, user[0]);
+        // more than the key and value bytes, for the overhead of each key
+        Assert.assertTrue(user[1] > 6 + 5 + 8 + 100 + 6 + 12);
+        Assert.assertEquals(1, report.getPrefix("session")[0]);
+        Assert.assertEquals(2, report.getPrefix("(none)")[0]);
+        Assert.assertTrue(report.toJson().contains("\"prefix\":\"user\""));
+    }
+
+    @Test
+    public void testPrefixesCapped() throws IOException {
+        RdbReport report = new RdbReport(3, 2, ":", 0);
+        new RdbParser(new ByteArrayInputStream(sample())).parse(report);
+        // old, scores, queue, events and the two keys without a prefix
+        Assert.assertEquals(6, report.getPrefix("(other)")[0]);
+    }
+
+    @Test(expected = IOException.class)
+    public void testTruncated() throws IOException {
+        byte[] rdb = sample();
+        report(Arrays.copyOf(rdb, rdb.length / 2));
+    }
+
+    @Test(expected = IOException.class)
+    public void testNotRdb() throws IOException {
+        report("*1\r\n$4\r\nPING\r\n".getBytes(StandardCharsets.US_ASCII));
+    }
+}
@@ -0,0 +1,106 @@
+/**
+ * Copyright 2016 Netflix, Inc. <p/> Licensed under the Apache License, Version 2.0 (the "License"); you may not use
+ * this file except in compliance with the License. You may obtain a copy of the License at <p/>
+ * http://www.apache.org/licenses/LICENSE-2.0 <p/> Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language governing permissions and limitations under the
+ * License.
+ */
+package com.netflix.dynomitemanager.sidecore.backup.test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.netflix.dynomitemanager.sidecore.backup.RedisReplicationStream;
+
+/**
+ * Tests for RedisReplicationStream
+ */
+public class RedisReplicationStreamTest {
+
+    private static final String MARK = "0123456789abcdef0123456789abcdef01234567";
+
+    private static RedisReplicationStream stream(byte[] header, byte[] payload, byte[] trailer) throws IOException {
+        ByteArrayOutputStream sent = new ByteArrayOutputStream();
+        sent.write(header);
+        sent.write(payload);
+        sent.write(trailer);
+        return new RedisReplicationStream(null, new ByteArrayInputStream(sent.toByteArray()));
+    }
+
+    private static byte[] rdb(int length) {
+        byte[] rdb = new byte[length];
+        new Random(length).nextBytes(rdb);
+        return rdb;
+    }
+
+    private static byte[] readAll(InputStream in, int chunk) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buffer = new byte[chunk];
+        int read;
+        while ((read = in.read(buffer, 0, chunk)) >= 0) {
+            out.write(buffer, 0, read);
+        }
+        return out.toByteArray();
+    }
+
+    private static byte[] ascii(String s) {
+        return s.getBytes(StandardCharsets.US_ASCII);
+    }
+
+    @Test
+    public void testLength() throws IOException {
+        byte[] rdb = rdb(300000);
+        // the replication stream that follows the RDB is not read
+        RedisReplicationStream stream = stream(ascii("+FULLRESYNC 8de1787ba490483314a4d30f1c628bc5025eb761 0\r\n"
+                + "\n\n$" + rdb.length + "\r\n"), rdb, ascii("*1\r\n$4\r\nPING\r\n"));
+
+        Assert.assertEquals(rdb.length, stream.getLength());
+        Assert.assertArrayEquals(rdb, readAll(stream, 65536));
+        Assert.assertEquals(rdb.length, stream.getReceived());
+        Assert.assertEquals(-1, stream.read());
+    }
+
+    @Test
+    public void testEndMark() throws IOException {
+        for (int length : new int[] { 0, 1, 39, 40, 41, 65536, 300000 }) {
+            byte[] rdb = rdb(length);
+            RedisReplicationStream stream = stream(ascii("\n$EOF:" + MARK + "\r\n"), rdb, ascii(MARK));
+
+            Assert.assertEquals(-1, stream.getLength());
+            Assert.assertArrayEquals(rdb, readAll(stream, 100000));
+            Assert.assertEquals(length, stream.getReceived());
+        }
+    }
+
+    @Test
+    public void testEndMarkByteByByte() throws IOException {
+        byte[] rdb = rdb(1000);
+        RedisReplicationStream stream = stream(ascii("$EOF:" + MARK + "\r\n"), rdb, ascii(MARK));
+        Assert.assertArrayEquals(rdb, readAll(stream, 1));
+    }
+
+    @Test(expected = IOException.class)
+    public void testTruncated() throws IOException {
+        byte[] rdb = rdb(1000);
+        readAll(stream(ascii("$2000\r\n"), rdb, new byte[0]), 4096);
+    }
+
+    @Test(expected = IOException.class)
+    public void testTruncatedBeforeMark() throws IOException {
+        byte[] rdb = rdb(1000);
+        readAll(stream(ascii("$EOF:" + MARK + "\r\n"), rdb, new byte[0]), 4096);
+    }
+
+    @Test(expected = IOException.class)
+    public void testError() throws IOException {
+        stream(ascii("-NOMASTERLINK Can't SYNC while not connected with my master\r\n"), new byte[0], new byte[0]);
+    }
+}
@@ -0,0 +1,291 @@
+/**
+ * Copyright 2016 Netflix, Inc. <p/> Licensed under the Apache License, Version 2.0 (the "License"); you may not use
+ * this file except in compliance with the License. You may obtain a copy of the License at <p/>
+ * http://www.apache.org/licenses/LICENSE-2.0 <p/> Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language governing permissions and limitations under the
+ * License.
+ */
+package com.netflix.dynomitemanager.sidecore.backup.test;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.commons.io.IOUtils;
+import org.joda.time.DateTime;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import com.amazonaws.AmazonClientException;
+import com.amazonaws.services.s3.AmazonS3;
+import com.amazonaws.services.s3.model.AbortMultipartUploadRequest;
+import com.amazonaws.services.s3.model.CompleteMultipartUploadRequest;
+import com.amazonaws.services.s3.model.CompleteMultipartUploadResult;
+import com.amazonaws.services.s3.model.InitiateMultipartUploadRequest;
+import com.amazonaws.services.s3.model.InitiateMultipartUploadResult;
+import com.amazonaws.services.s3.model.ObjectMetadata;
+import com.amazonaws.services.s3.model.PartETag;
+import com.amazonaws.services.s3.model.PutObjectResult;
+import com.amazonaws.services.s3.model.UploadPartRequest;
+import com.amazonaws.services.s3.model.UploadPartResult;
+import com.netflix.dynomitemanager.InstanceState;
+import com.netflix.dynomitemanager.defaultimpl.test.BlankConfiguration;
+import com.netflix.dynomitemanager.defaultimpl.test.FakeInstanceIdentity;
+import com.netflix.dynomitemanager.identity.AppsInstance;
+import com.netflix.dynomitemanager.monitoring.ServoMetricsTask;
+import com.netflix.dynomitemanager.sidecore.backup.BackupThrottle;
+import com.netflix.dynomitemanager.sidecore.backup.S3Backup;
+import com.netflix.dynomitemanager.sidecore.utils.SystemUtils;
+
+import mockit.Deencapsulation;
+import mockit.Mock;
+import mockit.MockUp;
+import mockit.integration.junit4.JMockit;
+
+/**
+ * Tests for the multipart upload of S3Backup, against a simulated S3
+ */
+@RunWith(JMockit.class)
+public class S3BackupTest {
+
+    private static final int PART_SIZE = 5 * 1024 * 1024;
+    private static final DateTime TODAY = new DateTime(1476662400000L);
+    private static final String KEY = "backup/us-east-1/us-east-1c/100/" + TODAY.getMillis();
+
+    private int retries = 3;
+    private File file;
+
+    // what the simulated S3 was asked to do
+    private final Map<Integer, byte[]> parts = new ConcurrentHashMap<Integer, byte[]>();
+    private final Map<Integer, AtomicInteger> attempts = new ConcurrentHashMap<Integer, AtomicInteger>();
+    private final List<String> calls = Collections.synchronizedList(new ArrayList<String>());
+    private List<PartETag> completed;
+    private String checksums;
+    // part number -> failed attempts before it succeeds
+    private final Map<Integer, Integer> failures = new ConcurrentHashMap<Integer, Integer>();
+
+    private AmazonS3 s3;
+
+    @Before
+    public void setUp() {
+        s3 = new MockUp<AmazonS3>() {
+            @Mock
+            boolean doesBucketExist(String bucket) {
+                return true;
+            }
+
+            @Mock
+            InitiateMultipartUploadResult initiateMultipartUpload(InitiateMultipartUploadRequest request) {
+                calls.add("initiate");
+                InitiateMultipartUploadResult result = new InitiateMultipartUploadResult();
+                result.setUploadId("upload-1");
+                return result;
+            }
+
+            @Mock
+            UploadPartResult uploadPart(UploadPartRequest request) {
+                int partNumber = request.getPartNumber();
+                attempts.putIfAbsent(partNumber, new AtomicInteger());
+                int attempt = attempts.get(partNumber).incrementAndGet();
+                Integer failing = failures.get(partNumber);
+                if (failing != null && attempt <= failing) {
+                    throw new AmazonClientException("Connection reset");
+                }
+
+                byte[] data = read(request.getInputStream());
+                Assert.assertEquals(request.getPartSize(), data.length);
+                // S3 checks the part against the digest sent with it
+                Assert.assertEquals(SystemUtils.toBase64(SystemUtils.md5(data)), request.getMd5Digest());
+                parts.put(partNumber, data);
+
+                UploadPartResult result = new UploadPartResult();
+                result.setPartNumber(partNumber);
+                // with SSE-KMS the ETag is not the MD5 of the part
+                result.setETag("kms-" + partNumber);
+                return result;
+            }
+
+            @Mock
+            CompleteMultipartUploadResult completeMultipartUpload(CompleteMultipartUploadRequest request) {
+                calls.add("complete");
+                completed = request.getPartETags();
+                return new CompleteMultipartUploadResult();
+            }
+
+            @Mock
+            void abortMultipartUpload(AbortMultipartUploadRequest request) {
+                calls.add("abort");
+            }
+
+            @Mock
+            PutObjectResult putObject(String bucket, String key, InputStream in, ObjectMetadata metadata) {
+                calls.add("put " + key);
+                checksums = new String(read(in), StandardCharsets.UTF_8);
+                return new PutObjectResult();
+            }
+        }.getMockInstance();
+    }
+
+    @After
+    public void deleteFile() {
+        if (file != null) {
+            file.delete();
+        }
+    }
+
+    private S3Backup backup() throws Exception {
+        S3Backup backup = new S3Backup() {
+            @Override
+            protected AmazonS3 s3Client() {
+                return s3;
+            }
+        };
+        Deencapsulation.setField(backup, "config", new BlankConfiguration() {
+            @Override
+            public String getBucketName() {
+                return "bucket";
+            }
+
+            @Override
+            public String getBackupLocation() {
+                return "backup";
+            }
+
+            @Override
+            public long getBackupPartSize() {
+                return PART_SIZE;
+            }
+
+            @Override
+            public int getBackupUploadThreads() {
+                return 2;
+            }
+
+            @Override
+            public int getBackupPartRetries() {
+                return retries;
+            }
+        });
+        final AppsInstance instance = new AppsInstance();
+        instance.setDatacenter("us-east-1");
+        instance.setRack("us-east-1c");
+        instance.setToken("100");
+        Deencapsulation.setField(backup, "iid", new FakeInstanceIdentity() {
+            @Override
+            public AppsInstance getInstance() {
+                return instance;
+            }
+        });
+        Deencapsulation.setField(backup, "throttle", new BackupThrottle(new ServoMetricsTask(
+                new BlankConfiguration(), new InstanceState())));
+        return backup;
+    }
+
+    private static byte[] read(InputStream in) {
+        try {
+            return IOUtils.toByteArray(in);
+        } catch (IOException e) {
+            throw new AmazonClientException("Unable to read the request", e);
+        }
+    }
+
+    private static byte[] randomBytes(int length) {
+        byte[] data = new byte[length];
+        new Random(length).nextBytes(data);
+        return data;
+    }
+
+    private File writeFile(byte[] data) throws IOException {
+        file = File.createTempFile("s3backup", ".rdb");
+        FileOutputStream out = new FileOutputStream(file);
+        try {
+            out.write(data);
+        } finally {
+            out.close();
+        }
+        return file;
+    }
+
+    private static String md5Hex(byte[] data, int from, int to) {
+        return SystemUtils.toHex(SystemUtils.md5(Arrays.copyOfRange(data, from, to)));
+    }
+
+    @Test
+    public void testPartSplitting() throws Exception {
+        byte[] data = randomBytes(2 * PART_SIZE + 1000);
+
+        Assert.assertTrue(backup().upload(writeFile(data), TODAY));
+
+        Assert.assertEquals(3, parts.size());
+        Assert.assertArrayEquals(Arrays.copyOfRange(data, 0, PART_SIZE), parts.get(1));
+        Assert.assertArrayEquals(Arrays.copyOfRange(data, PART_SIZE, 2 * PART_SIZE), parts.get(2));
+        Assert.assertArrayEquals(Arrays.copyOfRange(data, 2 * PART_SIZE, data.length), parts.get(3));
+
+        // completed in order of part number, after the checksums were stored
+        Assert.assertEquals(Arrays.asList("initiate", "put " + KEY + ".md5", "complete"), calls);
+        Assert.assertEquals(3, completed.size());
+        for (int i = 0; i < 3; i++) {
+            Assert.assertEquals(i + 1, completed.get(i).getPartNumber());
+        }
+        Assert.assertEquals(md5Hex(data, 0, PART_SIZE) + "\n" + md5Hex(data, PART_SIZE, 2 * PART_SIZE) + "\n"
+                + md5Hex(data, 2 * PART_SIZE, data.length) + "\n", checksums);
+    }
+
+    @Test
+    public void testStreamOfUnknownLength() throws Exception {
+        byte[] data = randomBytes(PART_SIZE + 1000);
+
+        Assert.assertTrue(backup().upload(new ByteArrayInputStream(data), -1, TODAY));
+
+        // cut into parts of the configured size
+        Assert.assertEquals(2, parts.size());
+        Assert.assertEquals(PART_SIZE, parts.get(1).length);
+        Assert.assertEquals(1000, parts.get(2).length);
+        Assert.assertEquals(md5Hex(data, 0, PART_SIZE) + "\n" + md5Hex(data, PART_SIZE, data.length) + "\n",
+                checksums);
+    }
+
+    @Test
+    public void testPartRetry() throws Exception {
+        byte[] data = randomBytes(2 * PART_SIZE);
+        failures.put(2, 1);
+
+        Assert.assertTrue(backup().upload(writeFile(data), TODAY));
+
+        // only the failed part is sent again
+        Assert.assertEquals(1, attempts.get(1).get());
+        Assert.assertEquals(2, attempts.get(2).get());
+        Assert.assertArrayEquals(Arrays.copyOfRange(data, PART_SIZE, 2 * PART_SIZE), parts.get(2));
+        Assert.assertFalse(calls.contains("abort"));
+        Assert.assertEquals(2, completed.size());
+    }
+
+    @Test
+    public void testAbortOnFailure() throws Exception {
+        byte[] data = randomBytes(2 * PART_SIZE);
+        retries = 2;
+        failures.put(2, retries);
+
+        Assert.assertFalse(backup().upload(writeFile(data), TODAY));
+
+        Assert.assertEquals(retries, attempts.get(2).get());
+        // no checksums for an upload never completed
+        Assert.assertEquals(Arrays.asList("initiate", "abort"), calls);
+        Assert.assertNull(completed);
+    }
+}
@@ -0,0 +1,253 @@
+/**
+ * Copyright 2016 Netflix, Inc. <p/> Licensed under the Apache License, Version 2.0 (the "License"); you may not use
+ * this file except in compliance with the License. You may obtain a copy of the License at <p/>
+ * http://www.apache.org/licenses/LICENSE-2.0 <p/> Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language governing permissions and limitations under the
+ * License.
+ */
+package com.netflix.dynomitemanager.sidecore.backup.test;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.http.client.methods.HttpGet;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import com.amazonaws.AmazonClientException;
+import com.amazonaws.AmazonServiceException;
+import com.amazonaws.services.s3.AmazonS3;
+import com.amazonaws.services.s3.Headers;
+import com.amazonaws.services.s3.model.GetObjectRequest;
+import com.amazonaws.services.s3.model.ObjectMetadata;
+import com.amazonaws.services.s3.model.S3Object;
+import com.amazonaws.services.s3.model.S3ObjectInputStream;
+import com.netflix.dynomitemanager.defaultimpl.test.BlankConfiguration;
+import com.netflix.dynomitemanager.defaultimpl.test.FakeInstanceIdentity;
+import com.netflix.dynomitemanager.identity.AppsInstance;
+import com.netflix.dynomitemanager.sidecore.backup.S3Restore;
+import com.netflix.dynomitemanager.sidecore.utils.SystemUtils;
+
+import mockit.Deencapsulation;
+import mockit.Mock;
+import mockit.MockUp;
+import mockit.integration.junit4.JMockit;
+
+/**
+ * Tests for the download and verification of S3Restore, against a simulated S3
+ */
+@RunWith(JMockit.class)
+public class S3RestoreTest {
+
+    private static final String DATE = "20161017";
+
+    private File dataDir;
+    private byte[] data;
+    // null when the backup does not record it
+    private String partSize;
+    // null for a backup uploaded without part checksums
+    private String checksums;
+
+    // range offset -> requests of the range, and failed requests before it succeeds
+    private final Map<Long, AtomicInteger> requests = new ConcurrentHashMap<Long, AtomicInteger>();
+    private final Map<Long, Integer> failures = new ConcurrentHashMap<Long, Integer>();
+
+    private AmazonS3 s3;
+
+    @Before
+    public void setUp() throws IOException {
+        dataDir = Files.createTempDirectory("s3restore").toFile();
+        s3 = new MockUp<AmazonS3>() {
+            @Mock
+            boolean doesBucketExist(String bucket) {
+                return true;
+            }
+
+            @Mock
+            ObjectMetadata getObjectMetadata(String bucket, String key) {
+                ObjectMetadata metadata = new ObjectMetadata();
+                metadata.setContentLength(data.length);
+                // with SSE-KMS the ETag is not an MD5
+                metadata.setHeader(Headers.ETAG, "kms-etag");
+                if (partSize != null) {
+                    metadata.addUserMetadata("dm-part-size", partSize);
+                }
+                return metadata;
+            }
+
+            @Mock
+            S3Object getObject(GetObjectRequest request) {
+                long[] range = request.getRange();
+                requests.putIfAbsent(range[0], new AtomicInteger());
+                int attempt = requests.get(range[0]).incrementAndGet();
+                Integer failing = failures.get(range[0]);
+                if (failing != null && attempt <= failing) {
+                    throw new AmazonClientException("Connection reset");
+                }
+                return object(Arrays.copyOfRange(data, (int) range[0], (int) range[1] + 1));
+            }
+
+            @Mock
+            S3Object getObject(String bucket, String key) {
+                Assert.assertTrue(key.endsWith(".md5"));
+                if (checksums == null) {
+                    AmazonServiceException e = new AmazonServiceException("Not Found");
+                    e.setStatusCode(404);
+                    throw e;
+                }
+                return object(checksums.getBytes(StandardCharsets.UTF_8));
+            }
+        }.getMockInstance();
+    }
+
+    @After
+    public void deleteDataDir() throws IOException {
+        FileUtils.deleteDirectory(dataDir);
+    }
+
+    private static S3Object object(byte[] content) {
+        S3Object object = new S3Object();
+        object.setObjectContent(new S3ObjectInputStream(new ByteArrayInputStream(content), new HttpGet()));
+        return object;
+    }
+
+    private S3Restore restore() throws Exception {
+        S3Restore restore = new S3Restore() {
+            @Override
+            protected AmazonS3 s3Client() {
+                return s3;
+            }
+        };
+        Deencapsulation.setField(restore, "config", new BlankConfiguration() {
+            @Override
+            public String getBucketName() {
+                return "bucket";
+            }
+
+            @Override
+            public String getBackupLocation() {
+                return "backup";
+            }
+
+            @Override
+            public String getRedisDataDir() {
+                return dataDir.getPath();
+            }
+
+            @Override
+            public int getRestoreDownloadThreads() {
+                return 2;
+            }
+
+            @Override
+            public int getBackupPartRetries() {
+                return 3;
+            }
+        });
+        final AppsInstance instance = new AppsInstance();
+        instance.setDatacenter("us-east-1");
+        instance.setRack("us-east-1c");
+        instance.setToken("100");
+        Deencapsulation.setField(restore, "iid", new FakeInstanceIdentity() {
+            @Override
+            public AppsInstance getInstance() {
+                return instance;
+            }
+        });
+        return restore;
+    }
+
+    private static byte[] randomBytes(int length) {
+        byte[] data = new byte[length];
+        new Random(length).nextBytes(data);
+        return data;
+    }
+
+    private static String md5Hex(byte[] data, int from, int to) {
+        return SystemUtils.toHex(SystemUtils.md5(Arrays.copyOfRange(data, from, to)));
+    }
+
+    private File target() {
+        return new File(dataDir, "nfredis.rdb");
+    }
+
+    @Test
+    public void testSinglePart() throws Exception {
+        data = randomBytes(1000);
+        checksums = md5Hex(data, 0, data.length) + "\n";
+
+        Assert.assertTrue(restore().restoreData(DATE));
+        Assert.assertArrayEquals(data, FileUtils.readFileToByteArray(target()));
+    }
+
+    @Test
+    public void testMultipart() throws Exception {
+        data = randomBytes(1000);
+        partSize = "400";
+        checksums = md5Hex(data, 0, 400) + "\n" + md5Hex(data, 400, 800) + "\n" + md5Hex(data, 800, 1000) + "\n";
+
+        Assert.assertTrue(restore().restoreData(DATE));
+        // one ranged GET per part
+        Assert.assertEquals(3, requests.size());
+        Assert.assertArrayEquals(data, FileUtils.readFileToByteArray(target()));
+    }
+
+    @Test
+    public void testCorruptPart() throws Exception {
+        data = randomBytes(1000);
+        partSize = "400";
+        checksums = md5Hex(data, 0, 400) + "\n" + md5Hex(data, 0, 400) + "\n" + md5Hex(data, 800, 1000) + "\n";
+
+        Assert.assertFalse(restore().restoreData(DATE));
+        // neither the data file nor the partial download is left
+        Assert.assertEquals(0, dataDir.list().length);
+    }
+
+    @Test
+    public void testPartCountMismatch() throws Exception {
+        data = randomBytes(1000);
+        partSize = "400";
+        checksums = md5Hex(data, 0, 400) + "\n" + md5Hex(data, 400, 800) + "\n";
+
+        Assert.assertFalse(restore().restoreData(DATE));
+        Assert.assertFalse(target().exists());
+    }
+
+    @Test
+    public void testWithoutChecksums() throws Exception {
+        // uploaded before the part checksums were stored
+        data = randomBytes(1000);
+        partSize = "400";
+
+        Assert.assertTrue(restore().restoreData(DATE));
+        Assert.assertArrayEquals(data, FileUtils.readFileToByteArray(target()));
+    }
+
+    @Test
+    public void testRangeRetry() throws Exception {
+        data = randomBytes(1000);
+        partSize = "400";
+        checksums = md5Hex(data, 0, 400) + "\n" + md5Hex(data, 400, 800) + "\n" + md5Hex(data, 800, 1000) + "\n";
+        failures.put(400L, 1);
+
+        Assert.assertTrue(restore().restoreData(DATE));
+        // only the failed range is requested again
+        Assert.assertEquals(1, requests.get(0L).get());
+        Assert.assertEquals(2, requests.get(400L).get());
+        Assert.assertEquals(1, requests.get(800L).get());
+        Assert.assertArrayEquals(data, FileUtils.readFileToByteArray(target()));
+    }
+}
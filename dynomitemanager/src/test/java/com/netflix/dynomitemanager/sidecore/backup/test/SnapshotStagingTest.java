@@ -0,0 +1,99 @@
+/**
+ * Copyright 2016 Netflix, Inc. <p/> Licensed under the Apache License, Version 2.0 (the "License"); you may not use
+ * this file except in compliance with the License. You may obtain a copy of the License at <p/>
+ * http://www.apache.org/licenses/LICENSE-2.0 <p/> Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language governing permissions and limitations under the
+ * License.
+ */
+package com.netflix.dynomitemanager.sidecore.backup.test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.netflix.dynomitemanager.defaultimpl.test.BlankConfiguration;
+import com.netflix.dynomitemanager.sidecore.backup.SnapshotStaging;
+
+/**
+ * Tests for SnapshotStaging
+ */
+public class SnapshotStagingTest {
+
+    @Rule
+    public TemporaryFolder dataDir = new TemporaryFolder();
+
+    private SnapshotStaging newStaging() {
+        final String path = dataDir.getRoot().getPath();
+        return new SnapshotStaging(new BlankConfiguration() {
+            @Override
+            public String getRedisDataDir() {
+                return path;
+            }
+        });
+    }
+
+    private static void write(File file, String content) throws IOException {
+        Files.write(file.toPath(), content.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static String read(File file) throws IOException {
+        return new String(Files.readAllBytes(file.toPath()), StandardCharsets.UTF_8);
+    }
+
+    @Test
+    public void testStagedDumpSurvivesNextDump() throws IOException {
+        File rdb = new File(dataDir.getRoot(), "nfredis.rdb");
+        write(rdb, "first dump");
+
+        SnapshotStaging staging = newStaging();
+        File staged = staging.stage(rdb);
+        Assert.assertNotEquals(rdb, staged);
+        Assert.assertEquals("nfredis.rdb", staged.getName());
+
+        // a BGSAVE writes a temporary file and renames it over the dump
+        File temp = new File(dataDir.getRoot(), "temp-1234.rdb");
+        write(temp, "second dump");
+        Files.move(temp.toPath(), rdb.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+
+        Assert.assertEquals("first dump", read(staged));
+        Assert.assertEquals("second dump", read(rdb));
+
+        staging.release(staged);
+        Assert.assertFalse(staged.exists());
+        Assert.assertFalse(staged.getParentFile().exists());
+        Assert.assertEquals("second dump", read(rdb));
+    }
+
+    @Test
+    public void testLeftoversCleaned() throws IOException {
+        File leftover = new File(dataDir.getRoot(), "backup-staging/1-1/appendonly.aof");
+        leftover.getParentFile().mkdirs();
+        write(leftover, "interrupted");
+
+        File aof = new File(dataDir.getRoot(), "appendonly.aof");
+        write(aof, "aof");
+        SnapshotStaging staging = newStaging();
+        File staged = staging.stage(aof);
+
+        Assert.assertFalse(leftover.exists());
+        Assert.assertEquals("aof", read(staged));
+        staging.release(staged);
+    }
+
+    @Test
+    public void testReleaseUnstaged() throws IOException {
+        File aof = new File(dataDir.getRoot(), "appendonly.aof");
+        write(aof, "aof");
+
+        newStaging().release(aof);
+        Assert.assertTrue(aof.exists());
+    }
+}
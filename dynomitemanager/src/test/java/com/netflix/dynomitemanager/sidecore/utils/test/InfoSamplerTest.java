@@ -0,0 +1,83 @@
+/**
+ * Copyright 2016 Netflix, Inc. <p/> Licensed under the Apache License, Version 2.0 (the "License"); you may not use
+ * this file except in compliance with the License. You may obtain a copy of the License at <p/>
+ * http://www.apache.org/licenses/LICENSE-2.0 <p/> Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language governing permissions and limitations under the
+ * License.
+ */
+package com.netflix.dynomitemanager.sidecore.utils.test;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import com.netflix.dynomitemanager.defaultimpl.test.BlankConfiguration;
+import com.netflix.dynomitemanager.defaultimpl.test.FakeStorageProxy;
+import com.netflix.dynomitemanager.monitoring.JedisFactory;
+import com.netflix.dynomitemanager.sidecore.storage.InfoSampler;
+import com.netflix.dynomitemanager.sidecore.storage.StorageConnectionManager;
+
+import mockit.Expectations;
+import mockit.Mocked;
+import mockit.Verifications;
+import mockit.integration.junit4.JMockit;
+import redis.clients.jedis.Jedis;
+
+/**
+ * Unit tests for InfoSampler
+ */
+@RunWith(JMockit.class)
+public class InfoSamplerTest {
+
+	@Mocked
+	Jedis jedis;
+
+	@Test
+	public void testCachedSnapshot() {
+		new Expectations() {
+			{
+				jedis.getClient().getBinaryBulkReply();
+				result = "# Replication\r\nrole:master\r\nconnected_slaves:0\r\n".getBytes();
+			}
+		};
+
+		StorageConnectionManager connectionManager = new StorageConnectionManager(new BlankConfiguration(),
+				new FakeStorageProxy(), new JedisFactory() {
+					@Override
+					public Jedis newInstance(String hostname, int port) {
+						return jedis;
+					}
+				});
+		InfoSampler infoSampler = new InfoSampler(connectionManager);
+
+		InfoSampler.Snapshot first = infoSampler.get("replication", 60000);
+		InfoSampler.Snapshot second = infoSampler.get("Replication", 60000);
+		connectionManager.shutdown();
+
+		Assert.assertSame(first, second);
+		Assert.assertEquals("master", first.get("role"));
+		Assert.assertEquals("0", first.get("connected_slaves"));
+		Assert.assertNull(first.get("Replication"));
+
+		new Verifications() {
+			{
+				jedis.getClient().info("replication");
+				times = 1;
+			}
+		};
+	}
+
+	@Test
+	public void testSnapshotGet() {
+		InfoSampler.Snapshot snapshot = new InfoSampler.Snapshot(0,
+				"# Replication\r\nrole:master\r\nconnected_slaves:1\r\nslave0:ip=10.0.0.2,port=22122\r\nlast:x"
+						.getBytes());
+
+		Assert.assertEquals("1", snapshot.get("connected_slaves"));
+		Assert.assertEquals("ip=10.0.0.2,port=22122", snapshot.get("slave0"));
+		Assert.assertEquals("x", snapshot.get("last"));
+		Assert.assertNull(snapshot.get("connected"));
+		Assert.assertNull(snapshot.get("master"));
+	}
+}
@@ -11,6 +11,7 @@ package com.netflix.dynomitemanager.sidecore.utils.test;
 import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.FileReader;
+import java.nio.file.Files;
 import java.util.Iterator;
 import java.util.Map;
 
@@ -78,4 +79,67 @@ public class RedisInfoParserTest {
 		Assert.assertEquals(null, metrics.get("Redis_key_does_not_exists"));
 	}
 
+	@Test
+	public void testParserMetricIds() throws Exception {
+		File file = new File(new File(".").getCanonicalPath() + "/src/test/resources/redis_info.txt");
+		byte[] info = Files.readAllBytes(file.toPath());
+
+		RedisInfoParser parser = new RedisInfoParser();
+		Assert.assertEquals(36, parser.parse(info));
+		int uptime = parser.getMetricId("Redis_Server_uptime_in_seconds");
+		Assert.assertTrue(uptime >= 0);
+		Assert.assertEquals(18803, parser.getValue(uptime));
+
+		// ids are stable across parses, metrics missing from a reply are
+		// not present
+		Assert.assertEquals(1, parser.parse("# Server\r\nuptime_in_seconds:42\r\n".getBytes()));
+		Assert.assertEquals(36, parser.getMetricCount());
+		Assert.assertEquals(uptime, parser.getMetricId("Redis_Server_uptime_in_seconds"));
+		Assert.assertEquals(42, parser.getValue(uptime));
+		Assert.assertTrue(parser.isPresent(uptime));
+		Assert.assertFalse(parser.isPresent(parser.getMetricId("Redis_Memory_used_memory")));
+		Assert.assertEquals(1, parser.asMap().size());
+	}
+
+	@Test
+	public void testParserAllSections() throws Exception {
+		File file = new File(new File(".").getCanonicalPath() + "/src/test/resources/redis_info_all.txt");
+		byte[] info = Files.readAllBytes(file.toPath());
+
+		RedisInfoParser parser = new RedisInfoParser();
+		Assert.assertEquals(31, parser.parse(info));
+		Map<String, Long> metrics = parser.asMap();
+		Assert.assertEquals(1020L, (long) metrics.get("Redis_Commandstats_cmdstat_get_calls"));
+		Assert.assertEquals(9L, (long) metrics.get("Redis_Commandstats_cmdstat_set_usec_per_call"));
+		Assert.assertEquals(42L, (long) metrics.get("Redis_Keyspace_db3_keys"));
+		Assert.assertEquals(7001L, (long) metrics.get("Redis_Replication_slave1_offset"));
+		Assert.assertEquals(1L, (long) metrics.get("Redis_Replication_slave1_lag"));
+		Assert.assertEquals(2L, (long) metrics.get("Redis_Stats_sync_full"));
+		Assert.assertEquals(0L, (long) metrics.get("Redis_Persistence_rdb_last_bgsave_status"));
+		Assert.assertEquals(1L, (long) metrics.get("Redis_Persistence_aof_last_bgrewrite_status"));
+		Assert.assertNull(metrics.get("Redis_Replication_slave0_port"));
+
+		// narrowing the white list keeps the ids of the metrics seen before
+		int calls = parser.getMetricId("Redis_Commandstats_cmdstat_get_calls");
+		parser.setWhiteList("Commandstats:cmdstat_*.calls");
+		Assert.assertEquals(3, parser.parse(info));
+		Assert.assertEquals(calls, parser.getMetricId("Redis_Commandstats_cmdstat_get_calls"));
+		Assert.assertEquals(31, parser.getMetricCount());
+	}
+
+	@Test
+	public void testParserMaxMetrics() throws Exception {
+		File file = new File(new File(".").getCanonicalPath() + "/src/test/resources/redis_info_all.txt");
+		byte[] info = Files.readAllBytes(file.toPath());
+
+		RedisInfoParser parser = new RedisInfoParser(RedisInfoParser.DEFAULT_WHITE_LIST, 5);
+		Assert.assertEquals(5, parser.parse(info));
+		Assert.assertEquals(26, parser.getOverflowCount());
+
+		// dropped metrics are only counted once
+		Assert.assertEquals(5, parser.parse(info));
+		Assert.assertEquals(26, parser.getOverflowCount());
+		Assert.assertEquals(5, parser.getMetricCount());
+	}
+
 }
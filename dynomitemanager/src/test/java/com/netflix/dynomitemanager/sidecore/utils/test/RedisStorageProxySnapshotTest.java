@@ -0,0 +1,138 @@
+/**
+ * Copyright 2016 Netflix, Inc. <p/> Licensed under the Apache License, Version 2.0 (the "License"); you may not use
+ * this file except in compliance with the License. You may obtain a copy of the License at <p/>
+ * http://www.apache.org/licenses/LICENSE-2.0 <p/> Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language governing permissions and limitations under the
+ * License.
+ */
+package com.netflix.dynomitemanager.sidecore.utils.test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedList;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import com.netflix.config.ConfigurationManager;
+import com.netflix.dynomitemanager.defaultimpl.test.BlankConfiguration;
+import com.netflix.dynomitemanager.sidecore.storage.InfoSampler;
+import com.netflix.dynomitemanager.sidecore.storage.RedisStorageProxy;
+import com.netflix.dynomitemanager.sidecore.storage.StorageConnectionManager;
+import com.netflix.dynomitemanager.sidecore.utils.Sleeper;
+
+import mockit.Deencapsulation;
+import mockit.Mocked;
+import mockit.integration.junit4.JMockit;
+
+/**
+ * Unit tests for the snapshot completion polling of RedisStorageProxy
+ */
+@RunWith(JMockit.class)
+public class RedisStorageProxySnapshotTest {
+
+	@Mocked
+	StorageConnectionManager connectionManager;
+
+	private final List<Long> sleeps = new ArrayList<Long>();
+	private final LinkedList<String> replies = new LinkedList<String>();
+	private boolean aof;
+
+	private final InfoSampler infoSampler = new InfoSampler(null) {
+		@Override
+		public Snapshot get(String section, long maxAgeMillis) {
+			// the last reply is repeated once they are all used
+			String reply = replies.size() > 1 ? replies.removeFirst() : replies.getFirst();
+			return new Snapshot(System.currentTimeMillis(), ("# Persistence\r\n" + reply).getBytes());
+		}
+	};
+
+	@After
+	public void clearProperties() {
+		ConfigurationManager.getConfigInstance().clearProperty("florida.storage.snapshot.timeout.ms");
+	}
+
+	private RedisStorageProxy proxy() {
+		RedisStorageProxy proxy = new RedisStorageProxy();
+		Deencapsulation.setField(proxy, "config", new BlankConfiguration() {
+			@Override
+			public boolean isRedisAofEnabled() {
+				return aof;
+			}
+
+			@Override
+			public String getRedisDataDir() {
+				return System.getProperty("java.io.tmpdir");
+			}
+		});
+		Deencapsulation.setField(proxy, "sleeper", new Sleeper() {
+			@Override
+			public void sleep(long waitTimeMs) {
+				sleeps.add(waitTimeMs);
+			}
+
+			@Override
+			public void sleepQuietly(long waitTimeMs) {
+				sleeps.add(waitTimeMs);
+			}
+		});
+		Deencapsulation.setField(proxy, "connectionManager", connectionManager);
+		Deencapsulation.setField(proxy, "infoSampler", infoSampler);
+		return proxy;
+	}
+
+	@Test
+	public void testSuccess() {
+		replies.add("rdb_bgsave_in_progress:1\r\n");
+		replies.add("rdb_bgsave_in_progress:1\r\n");
+		replies.add("rdb_bgsave_in_progress:1\r\n");
+		replies.add("rdb_bgsave_in_progress:0\r\nrdb_last_bgsave_status:ok\r\nlatest_fork_usec:1200\r\n");
+
+		Assert.assertTrue(proxy().takeSnapshot());
+		// the poll interval doubles
+		Assert.assertEquals(Arrays.asList(250L, 500L, 1000L), sleeps);
+	}
+
+	@Test
+	public void testAofScheduled() {
+		aof = true;
+		replies.add("aof_rewrite_in_progress:0\r\naof_rewrite_scheduled:1\r\n");
+		replies.add("aof_rewrite_in_progress:1\r\naof_rewrite_scheduled:0\r\n");
+		replies.add("aof_rewrite_in_progress:0\r\naof_rewrite_scheduled:0\r\naof_last_bgrewrite_status:ok\r\n");
+
+		Assert.assertTrue(proxy().takeSnapshot());
+		Assert.assertEquals(2, sleeps.size());
+	}
+
+	@Test
+	public void testFailedStatus() {
+		replies.add("rdb_bgsave_in_progress:0\r\nrdb_last_bgsave_status:err\r\n");
+
+		Assert.assertFalse(proxy().takeSnapshot());
+		Assert.assertTrue(sleeps.isEmpty());
+	}
+
+	@Test
+	public void testTimeout() {
+		ConfigurationManager.getConfigInstance().setProperty("florida.storage.snapshot.timeout.ms", "900");
+		// never completes
+		replies.add("rdb_bgsave_in_progress:1\r\n");
+
+		Assert.assertFalse(proxy().takeSnapshot());
+		// 250 + 500 ms fit in the timeout, the next 1000 ms do not
+		Assert.assertEquals(Arrays.asList(250L, 500L), sleeps);
+	}
+
+	@Test
+	public void testProgressNeverReported() {
+		// no progress field, as with a storage that does not report it: it must not wait forever
+		replies.add("loading:0\r\n");
+
+		Assert.assertFalse(proxy().takeSnapshot());
+		Assert.assertTrue(sleeps.isEmpty());
+	}
+}
@@ -0,0 +1,61 @@
+/**
+ * Copyright 2016 Netflix, Inc. <p/> Licensed under the Apache License, Version 2.0 (the "License"); you may not use
+ * this file except in compliance with the License. You may obtain a copy of the License at <p/>
+ * http://www.apache.org/licenses/LICENSE-2.0 <p/> Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language governing permissions and limitations under the
+ * License.
+ */
+package com.netflix.dynomitemanager.sidecore.utils.test;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.netflix.dynomitemanager.sidecore.storage.WarmupPeer;
+
+/**
+ * Unit tests for WarmupPeer
+ */
+public class WarmupPeerTest {
+
+	@Test
+	public void testFromInfo() throws Exception {
+		File file = new File(new File(".").getCanonicalPath() + "/src/test/resources/redis_info.txt");
+		byte[] info = Files.readAllBytes(file.toPath());
+
+		WarmupPeer peer = WarmupPeer.fromInfo("10.0.0.1", info, 5);
+		Assert.assertNotNull(peer);
+		Assert.assertEquals(18803, peer.getUptime());
+		Assert.assertEquals(2504768, peer.getUsedMemory());
+		Assert.assertEquals(0, peer.getConnectedSlaves());
+		Assert.assertEquals(0, peer.getMasterReplOffset());
+		Assert.assertEquals(5, peer.getRttMillis());
+	}
+
+	@Test
+	public void testFromInfoWithoutUptime() {
+		Assert.assertNull(WarmupPeer.fromInfo("10.0.0.1",
+				"# Memory\r\nused_memory:100\r\n".getBytes(StandardCharsets.UTF_8), 5));
+	}
+
+	@Test
+	public void testRank() {
+		WarmupPeer fresh = new WarmupPeer("fresh", 60, 100, 1000, 0, 2);
+		WarmupPeer seasoned = new WarmupPeer("seasoned", 86400, 100000, 900000, 0, 3);
+		WarmupPeer busy = new WarmupPeer("busy", 86400, 100000, 900000, 1, 3);
+		WarmupPeer slow = new WarmupPeer("slow", 86400, 100000, 900000, 0, 300);
+
+		List<WarmupPeer> ranked = WarmupPeer.rank(Arrays.asList(fresh, busy, slow, seasoned));
+
+		Assert.assertEquals("seasoned", ranked.get(0).getHost());
+		Assert.assertEquals("slow", ranked.get(1).getHost());
+		Assert.assertEquals("busy", ranked.get(2).getHost());
+		Assert.assertEquals("fresh", ranked.get(3).getHost());
+	}
+}
@@ -0,0 +1,58 @@
+/**
+ * Copyright 2016 Netflix, Inc. <p/> Licensed under the Apache License, Version 2.0 (the "License"); you may not use
+ * this file except in compliance with the License. You may obtain a copy of the License at <p/>
+ * http://www.apache.org/licenses/LICENSE-2.0 <p/> Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language governing permissions and limitations under the
+ * License.
+ */
+package com.netflix.dynomitemanager.sidecore.utils.test;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.netflix.dynomitemanager.sidecore.storage.WarmupProgress;
+
+/**
+ * Unit tests for WarmupProgress
+ */
+public class WarmupProgressTest {
+
+	@Test
+	public void testCatchingUp() {
+		WarmupProgress progress = new WarmupProgress();
+		progress.start("10.0.0.1");
+
+		progress.sample(0, 1000, 0);
+		Assert.assertEquals(WarmupProgress.Phase.FULL_SYNC, progress.getPhase());
+
+		// master writes 1000 bytes/s, replica applies 3000 bytes/s
+		progress.sample(1000, 100000, 50000);
+		progress.sample(2000, 101000, 53000);
+		Assert.assertTrue(progress.hasTrend());
+		Assert.assertEquals(WarmupProgress.Phase.CATCHING_UP, progress.getPhase());
+		Assert.assertEquals(48000, progress.getOffsetDiff());
+		Assert.assertEquals(1000, (long) progress.getMasterWriteRate());
+		Assert.assertEquals(2000, (long) progress.getCatchUpRate());
+		Assert.assertEquals(24000, progress.getEtaMillis());
+
+		// poll faster near convergence, never faster than the minimum
+		Assert.assertEquals(10000, progress.nextPollMillis(1000, 10000));
+		progress.sample(3000, 102000, 56000);
+		progress.sample(4000, 103000, 101000);
+		Assert.assertTrue(progress.nextPollMillis(1000, 10000) < 10000);
+	}
+
+	@Test
+	public void testNotConverging() {
+		WarmupProgress progress = new WarmupProgress();
+		progress.start("10.0.0.1");
+
+		// master writes faster than the replica applies
+		progress.sample(0, 100000, 50000);
+		progress.sample(1000, 105000, 52000);
+		Assert.assertTrue(progress.getCatchUpRate() < 0);
+		Assert.assertEquals(-1, progress.getEtaMillis());
+		Assert.assertEquals(10000, progress.nextPollMillis(1000, 10000));
+	}
+}